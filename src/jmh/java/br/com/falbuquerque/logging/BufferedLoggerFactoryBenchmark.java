@@ -0,0 +1,132 @@
+package br.com.falbuquerque.logging;
+
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.com.falbuquerque.logging.request.Parameter;
+import br.com.falbuquerque.logging.request.Request;
+import br.com.falbuquerque.logging.sink.RingRecordSink;
+
+/**
+ * Compares building the exception handling of every request, as done in
+ * {@link Use}, with creating the loggers from a shared
+ * {@link BufferedLoggerFactory}, with and without the registration in a
+ * {@link LiveLoggerRegistry}, and with a logger without exception handlers.
+ * Run with <code>-prof gc</code> to see the allocations per request: the
+ * exception handlers are only created when the first exception is appended,
+ * so the requests without exceptions allocate none of them.
+ * 
+ * @author Felipe Albuquerque
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+@State(Scope.Benchmark)
+public class BufferedLoggerFactoryBenchmark {
+
+    private static final Request REQUEST = new Request("WWED033A", new Parameter("param", "val"));
+
+    @Param({ "0", "3" })
+    private int exceptions;
+
+    private Logger mainLogger;
+    private Logger errorLogger;
+    private Logger runtimeLogger;
+    private Logger businessLogger;
+    private RingRecordSink sink;
+    private BufferedLoggerFactory factory;
+    private BufferedLoggerFactory registeredFactory;
+
+    @Setup
+    public void initialize() {
+        mainLogger = LogManager.getLogger("main");
+        errorLogger = LogManager.getLogger("error");
+        runtimeLogger = LogManager.getLogger("runtime");
+        businessLogger = LogManager.getLogger("business");
+        sink = new RingRecordSink(1024);
+        factory = BufferedLoggerFactory.builder(mainLogger).writeTo(sink)
+                .internalExceptions(errorLogger, createInternalMapper())
+                .businessExceptions(businessLogger, createBusinessMapper()).build();
+        registeredFactory = BufferedLoggerFactory.builder(mainLogger).writeTo(sink)
+                .internalExceptions(errorLogger, createInternalMapper())
+                .businessExceptions(businessLogger, createBusinessMapper())
+                .registerLive(new LiveLoggerRegistry(Runtime.getRuntime().availableProcessors())).build();
+    }
+
+    @Benchmark
+    public BufferedLogger perRequestSetup() {
+        final BufferedLogger logger = new BufferedLogger(REQUEST, mainLogger).writeTo(sink)
+                .createInternalExceptionHandler(errorLogger, createInternalMapper())
+                .createBusinessExceptionHandler(businessLogger, createBusinessMapper());
+        return fillAndLog(logger);
+    }
+
+    @Benchmark
+    public BufferedLogger defaultHandlers() {
+        return fillAndLog(new BufferedLogger(REQUEST, mainLogger).writeTo(sink));
+    }
+
+    @Benchmark
+    public BufferedLogger sharedFactory() {
+        return fillAndLog(factory.create(REQUEST));
+    }
+
+    @Benchmark
+    public BufferedLogger sharedFactoryWithLiveRegistry() {
+        return fillAndLog(registeredFactory.create(REQUEST));
+    }
+
+    /**
+     * Appends the messages and exceptions of a typical request and logs it.
+     * 
+     * @param logger
+     *            the logger of the request
+     * @return the logger
+     */
+    private BufferedLogger fillAndLog(final BufferedLogger logger) {
+        logger.append("Log message 1").append("Log message 2").append("Log message 3");
+
+        for (int i = 0; i < exceptions; i++) {
+            logger.appendInternalException(new IllegalArgumentException());
+        }
+
+        logger.log();
+        return logger;
+    }
+
+    /**
+     * Creates the internal exceptions mapper of {@link Use}.
+     * 
+     * @return the mapper
+     */
+    private ExceptionMapper createInternalMapper() {
+        return new ExceptionMapper().map(ParseException.class, errorLogger).map(IllegalArgumentException.class,
+                runtimeLogger);
+    }
+
+    /**
+     * Creates the business exceptions mapper of {@link Use}.
+     * 
+     * @return the mapper
+     */
+    private ExceptionMapper createBusinessMapper() {
+        return new ExceptionMapper().map(Use.MyException.class, businessLogger);
+    }
+
+}
@@ -0,0 +1,487 @@
+package br.com.falbuquerque.logging;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+
+import br.com.falbuquerque.logging.analysis.LatencyHistogram;
+import br.com.falbuquerque.logging.request.Parameter;
+import br.com.falbuquerque.logging.request.Request;
+
+/**
+ * Load generator that simulates production traffic through
+ * {@link BufferedLogger}s: many request threads share a factory routed as in
+ * {@link Use} and the appenders of the log4j2 configuration, so the
+ * contention between the threads and the appenders is measured, which the
+ * JMH benchmarks do not capture.
+ * 
+ * <p>
+ * It reports the throughput, the percentiles of the <code>log()</code>
+ * latency and the GC pauses of the measured period. With a target rate, each
+ * thread issues its requests at fixed intervals and the latency is measured
+ * from the time the request should have been issued, so a stalled thread
+ * does not hide the requests it failed to issue (coordinated omission).
+ * Without a rate the threads run in closed loop and the latencies are
+ * corrected with <code>expectedIntervalMicros</code>, if given.
+ * </p>
+ * 
+ * <p>
+ * The options are <code>name=value</code> arguments:
+ * </p>
+ * 
+ * <pre>
+ * threads=8 virtual=false warmup=5 duration=30 rate=0 expectedIntervalMicros=0
+ * messages=10 messageSize=80 parameters=4 internalExceptions=0.05 businessExceptions=0.02
+ * </pre>
+ * 
+ * <p>
+ * Virtual threads require running on Java 21 or later. Run with
+ * <code>gradle loadTest -PloadTestArgs="threads=64 virtual=true"</code>.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class LoadTest {
+
+    private static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+
+    private final int threads;
+    private final boolean virtual;
+    private final long warmupSeconds;
+    private final long durationSeconds;
+    private final long intervalNanos;
+    private final long expectedIntervalNanos;
+    private final int messages;
+    private final int messageSize;
+    private final int parameters;
+    private final double internalExceptionRate;
+    private final double businessExceptionRate;
+
+    private final BufferedLoggerFactory factory;
+    private final Exception[] internalExceptions;
+    private final Exception businessException = new Use.MyException();
+
+    private final AtomicLong gcPauses = new AtomicLong();
+    private final AtomicLong gcPauseMillis = new AtomicLong();
+    private final AtomicLong maxGcPauseMillis = new AtomicLong();
+
+    private volatile boolean measuring;
+
+    /**
+     * Creates a load test.
+     * 
+     * @param options
+     *            the options, by name
+     */
+    LoadTest(final Map<String, String> options) {
+        threads = Integer.parseInt(option(options, "threads", "8"));
+        virtual = Boolean.parseBoolean(option(options, "virtual", "false"));
+        warmupSeconds = Long.parseLong(option(options, "warmup", "5"));
+        durationSeconds = Long.parseLong(option(options, "duration", "30"));
+        final double rate = Double.parseDouble(option(options, "rate", "0"));
+        intervalNanos = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+        expectedIntervalNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(option(options,
+                "expectedIntervalMicros", "0")));
+        messages = Integer.parseInt(option(options, "messages", "10"));
+        messageSize = Integer.parseInt(option(options, "messageSize", "80"));
+        parameters = Integer.parseInt(option(options, "parameters", "4"));
+        internalExceptionRate = Double.parseDouble(option(options, "internalExceptions", "0.05"));
+        businessExceptionRate = Double.parseDouble(option(options, "businessExceptions", "0.02"));
+
+        final Logger mainLogger = LogManager.getLogger("main");
+        final Logger errorLogger = LogManager.getLogger("error");
+        final Logger runtimeLogger = LogManager.getLogger("runtime");
+        final Logger businessLogger = LogManager.getLogger("business");
+        factory = BufferedLoggerFactory
+                .builder(mainLogger)
+                .internalExceptions(errorLogger,
+                        new ExceptionMapper().map(ParseException.class, errorLogger).map(
+                                IllegalArgumentException.class, runtimeLogger))
+                .businessExceptions(businessLogger, new ExceptionMapper().map(Use.MyException.class, businessLogger))
+                .build();
+
+        // created once, so the stack traces are not part of the measurement
+        internalExceptions = new Exception[] { new ParseException("Invalid date", 1),
+                new IllegalArgumentException("Invalid parameter"), new SQLException("Connection reset") };
+    }
+
+    /**
+     * Runs the load test.
+     * 
+     * @param args
+     *            the options, as <code>name=value</code>
+     * @throws Exception
+     *             if the load test fails
+     */
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<>();
+
+        for (final String arg : args) {
+            final int separator = arg.indexOf('=');
+
+            if (separator < 0) {
+                throw new IllegalArgumentException("Options must be given as name=value: " + arg);
+            }
+
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+
+        new LoadTest(options).run();
+
+        // flushes the buffered appenders
+        ((LoggerContext) LogManager.getContext(false)).stop();
+    }
+
+    /**
+     * Runs the warmup and the measured period and prints the report.
+     * 
+     * @throws Exception
+     *             if a request thread fails
+     */
+    void run() throws Exception {
+        listenToGcPauses();
+        final ExecutorService executor = createExecutor();
+
+        try {
+            execute(executor, warmupSeconds);
+
+            final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+            final long gcCountBefore = totalGcCount(collectors);
+            final long gcTimeBefore = totalGcTime(collectors);
+            measuring = true;
+
+            final long start = System.nanoTime();
+            final Result result = execute(executor, durationSeconds);
+            final long elapsed = System.nanoTime() - start;
+
+            measuring = false;
+            report(result, elapsed, totalGcCount(collectors) - gcCountBefore, totalGcTime(collectors)
+                    - gcTimeBefore);
+        } finally {
+            executor.shutdownNow();
+        }
+
+    }
+
+    /**
+     * Runs the request threads for a period.
+     * 
+     * @param executor
+     *            the executor of the request threads
+     * @param seconds
+     *            the length of the period
+     * @return the merged results of the threads
+     * @throws Exception
+     *             if a request thread fails
+     */
+    private Result execute(final ExecutorService executor, final long seconds) throws Exception {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final List<Future<Result>> futures = new ArrayList<>(threads);
+
+        for (int i = 0; i < threads; i++) {
+            final int thread = i;
+            futures.add(executor.submit(() -> generate(thread, deadline)));
+        }
+
+        final Result total = new Result();
+
+        for (final Future<Result> future : futures) {
+            total.add(future.get());
+        }
+
+        return total;
+    }
+
+    /**
+     * Issues requests until a deadline.
+     * 
+     * @param thread
+     *            the number of the request thread
+     * @param deadline
+     *            the deadline, as given by {@link System#nanoTime()}
+     * @return the results of the thread
+     */
+    private Result generate(final int thread, final long deadline) {
+        final Result result = new Result();
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final String message = createMessage();
+        long intendedStart = System.nanoTime();
+
+        while (intendedStart < deadline) {
+
+            if (intervalNanos > 0) {
+                waitUntil(intendedStart);
+            }
+
+            final BufferedLogger logger = factory.create(createRequest(thread, result.requests));
+
+            for (int i = 0; i < messages; i++) {
+                logger.append(message);
+            }
+
+            if (random.nextDouble() < internalExceptionRate) {
+                logger.appendInternalException(internalExceptions[random.nextInt(internalExceptions.length)]);
+            }
+
+            if (random.nextDouble() < businessExceptionRate) {
+                logger.appendBusinessException(businessException);
+            }
+
+            final long start = intervalNanos > 0 ? intendedStart : System.nanoTime();
+            logger.log();
+            final long end = System.nanoTime();
+
+            result.latencies.recordCorrected(end - start, intervalNanos > 0 ? 0 : expectedIntervalNanos);
+            result.requests++;
+            intendedStart = intervalNanos > 0 ? intendedStart + intervalNanos : end;
+        }
+
+        return result;
+    }
+
+    /**
+     * Creates the request of an iteration.
+     * 
+     * @param thread
+     *            the number of the request thread
+     * @param sequence
+     *            the sequence of the request in the thread
+     * @return the request
+     */
+    private Request createRequest(final int thread, final long sequence) {
+        final Parameter[] requestParameters = new Parameter[parameters];
+
+        for (int i = 0; i < parameters; i++) {
+            requestParameters[i] = new Parameter("param" + i, i % 2 == 0 ? "value" + i : (Object) sequence);
+        }
+
+        return new Request("T" + thread + "-" + sequence, requestParameters);
+    }
+
+    /**
+     * Creates the message appended by the requests.
+     * 
+     * @return a message of the configured size
+     */
+    private String createMessage() {
+        final StringBuilder message = new StringBuilder(messageSize);
+
+        while (message.length() < messageSize) {
+            message.append("Processing step ").append(message.length()).append(' ');
+        }
+
+        message.setLength(messageSize);
+        return message.toString();
+    }
+
+    /**
+     * Creates the executor of the request threads.
+     * 
+     * @return an executor of platform threads or one that starts a virtual
+     *         thread per task
+     */
+    private ExecutorService createExecutor() {
+
+        if (!virtual) {
+            return Executors.newFixedThreadPool(threads);
+        }
+
+        // looked up by reflection, so the harness also compiles for Java 8
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads require Java 21 or later", e);
+        }
+
+    }
+
+    /**
+     * Records the GC pauses notified by the collectors during the measured
+     * period.
+     */
+    private void listenToGcPauses() {
+        final NotificationListener listener = (notification, handback) -> recordGcPause(notification);
+
+        for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+
+            if (collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener(listener,
+                        notification -> GC_NOTIFICATION.equals(notification.getType()), null);
+            }
+
+        }
+
+    }
+
+    /**
+     * Records the pause of a GC notification.
+     * 
+     * @param notification
+     *            the notification
+     */
+    private void recordGcPause(final Notification notification) {
+
+        if (!measuring || !(notification.getUserData() instanceof CompositeData)) {
+            return;
+        }
+
+        final CompositeData gcInfo = (CompositeData) ((CompositeData) notification.getUserData()).get("gcInfo");
+        final long duration = (Long) gcInfo.get("duration");
+        gcPauses.incrementAndGet();
+        gcPauseMillis.addAndGet(duration);
+        maxGcPauseMillis.accumulateAndGet(duration, Math::max);
+    }
+
+    /**
+     * Prints the report of the measured period.
+     * 
+     * @param result
+     *            the results of the request threads
+     * @param elapsedNanos
+     *            the length of the period
+     * @param gcCount
+     *            the number of collections
+     * @param gcMillis
+     *            the accumulated collection time
+     */
+    private void report(final Result result, final long elapsedNanos, final long gcCount, final long gcMillis) {
+        final double seconds = elapsedNanos / 1e9;
+
+        System.out.printf("Threads: %d %s, rate: %s%n", threads, virtual ? "virtual" : "platform",
+                intervalNanos > 0 ? String.format("%.0f req/s per thread", 1e9 / intervalNanos) : "closed loop");
+        System.out.printf("Requests: %d in %.1f s, throughput: %.0f req/s%n", result.requests, seconds,
+                result.requests / seconds);
+        System.out.printf("log() latency (us, %d samples with corrections):%n", result.latencies.getTotalCount());
+
+        for (final double percentile : PERCENTILES) {
+            final String label = "p" + (percentile == Math.rint(percentile) ? String.valueOf((long) percentile)
+                    : String.valueOf(percentile));
+            System.out.printf("  %-7s %10.1f%n", label, result.latencies.getValueAtPercentile(percentile) / 1e3);
+        }
+
+        System.out.printf("  max     %10.1f%n", result.latencies.getMaxValue() / 1e3);
+        System.out.printf("GC: %d collections, %d ms (%.2f%% of the period)%n", gcCount, gcMillis, gcMillis
+                / (seconds * 10));
+
+        if (gcPauses.get() > 0) {
+            System.out.printf("GC pauses: %d notified, %d ms, longest %d ms%n", gcPauses.get(), gcPauseMillis.get(),
+                    maxGcPauseMillis.get());
+        }
+
+    }
+
+    /**
+     * Sums the collection counts.
+     * 
+     * @param collectors
+     *            the collectors
+     * @return the number of collections
+     */
+    private static long totalGcCount(final List<GarbageCollectorMXBean> collectors) {
+        long count = 0;
+
+        for (final GarbageCollectorMXBean collector : collectors) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+
+        return count;
+    }
+
+    /**
+     * Sums the collection times.
+     * 
+     * @param collectors
+     *            the collectors
+     * @return the accumulated collection time in milliseconds
+     */
+    private static long totalGcTime(final List<GarbageCollectorMXBean> collectors) {
+        long time = 0;
+
+        for (final GarbageCollectorMXBean collector : collectors) {
+            time += Math.max(0, collector.getCollectionTime());
+        }
+
+        return time;
+    }
+
+    /**
+     * Waits until the intended start of a request, spinning for the last
+     * microseconds.
+     * 
+     * @param time
+     *            the intended start, as given by {@link System#nanoTime()}
+     */
+    private static void waitUntil(final long time) {
+        long remaining = time - System.nanoTime();
+
+        while (remaining > 0) {
+
+            if (remaining > TimeUnit.MICROSECONDS.toNanos(100)) {
+                LockSupport.parkNanos(remaining - TimeUnit.MICROSECONDS.toNanos(50));
+            }
+
+            remaining = time - System.nanoTime();
+        }
+
+    }
+
+    /**
+     * Gets an option.
+     * 
+     * @param options
+     *            the options
+     * @param name
+     *            the name of the option
+     * @param defaultValue
+     *            the value used when the option is absent
+     * @return the value of the option
+     */
+    private static String option(final Map<String, String> options, final String name, final String defaultValue) {
+        final String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Results of the request threads.
+     */
+    private static final class Result {
+
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private long requests;
+
+        /**
+         * Adds the results of another thread.
+         * 
+         * @param other
+         *            the results
+         */
+        void add(final Result other) {
+            latencies.merge(other.latencies);
+            requests += other.requests;
+        }
+
+    }
+
+}
@@ -0,0 +1,69 @@
+package br.com.falbuquerque.logging;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.com.falbuquerque.logging.request.Parameter;
+import br.com.falbuquerque.logging.request.Request;
+import br.com.falbuquerque.logging.util.ValueDictionary;
+
+/**
+ * Compares encoding a request record whose parameter values repeat across
+ * requests with and without a {@link ValueDictionary}, and as a compact
+ * record of the default {@link RecordSchema}.
+ * 
+ * @author Felipe Albuquerque
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+@State(Scope.Benchmark)
+public class RequestRecordEncoderBenchmark {
+
+    private BufferedLogger bufferedLogger;
+    private RequestRecordEncoder plainEncoder;
+    private RequestRecordEncoder dictionaryEncoder;
+    private RequestRecordEncoder compactEncoder;
+
+    @Setup
+    public void initialize() {
+        bufferedLogger = new BufferedLogger(new Request("WWED033A", new Parameter("tenant", "acme-<eu-west>"),
+                new Parameter("channel", "MOBILE_APP"), new Parameter("operation", "transfer & pay"), new Parameter(
+                        "userId", 123456789L)), LogManager.getLogger("main"), LogManager.getLogger("error"),
+                LogManager.getLogger("business")).append("Log message 1");
+        plainEncoder = new RequestRecordEncoder();
+        dictionaryEncoder = new RequestRecordEncoder(1024, false, new ValueDictionary(1024, 64));
+        compactEncoder = new RequestRecordEncoder(1024, false, new ValueDictionary(1024, 64), null,
+                RecordSchema.COMPACT);
+    }
+
+    @Benchmark
+    public ByteBuffer withoutDictionary() {
+        return plainEncoder.encode(bufferedLogger);
+    }
+
+    @Benchmark
+    public ByteBuffer withDictionary() {
+        return dictionaryEncoder.encode(bufferedLogger);
+    }
+
+    @Benchmark
+    public ByteBuffer compact() {
+        return compactEncoder.encode(bufferedLogger);
+    }
+
+}
@@ -0,0 +1,83 @@
+package br.com.falbuquerque.logging;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.com.falbuquerque.logging.request.Parameter;
+import br.com.falbuquerque.logging.request.Request;
+
+/**
+ * Measures the cold start of a fresh JVM: the time to build a factory, with
+ * and without {@link BufferedLoggerFactory#warmUp()}, and the latency of the
+ * first request logged after it. Each fork runs the benchmark method a single
+ * time, so the results show the costs paid once, before the JIT compiler and
+ * the lazy initialization of Gson and log4j kick in.
+ * 
+ * @author Felipe Albuquerque
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 10, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+    private static final Request REQUEST = new Request("WWED033A", new Parameter("param", "val"));
+
+    @Param({ "false", "true" })
+    private boolean warmUp;
+
+    /**
+     * Factory built, and warmed up if requested, before the first request is
+     * measured.
+     */
+    @State(Scope.Benchmark)
+    public static class Started {
+
+        private BufferedLoggerFactory factory;
+
+        @Setup
+        public void initialize(final StartupBenchmark benchmark) {
+            factory = benchmark.buildFactory();
+        }
+
+    }
+
+    @Benchmark
+    public BufferedLoggerFactory startUp() {
+        return buildFactory();
+    }
+
+    @Benchmark
+    public void firstRequest(final Started started) {
+        started.factory.create(REQUEST).append("Log message").appendInternalException(
+                new IllegalArgumentException()).appendBusinessException(new IllegalStateException()).log();
+    }
+
+    /**
+     * Builds the factory of the benchmarks.
+     * 
+     * @return the factory, warmed up if requested
+     */
+    private BufferedLoggerFactory buildFactory() {
+        final BufferedLoggerFactory factory = BufferedLoggerFactory.builder(LogManager.getLogger("main"))
+                .internalExceptions(LogManager.getLogger("error"), new ExceptionMapper().map(
+                        IllegalArgumentException.class, LogManager.getLogger("runtime")))
+                .businessExceptions(LogManager.getLogger("business")).build();
+        return warmUp ? factory.warmUp() : factory;
+    }
+
+}
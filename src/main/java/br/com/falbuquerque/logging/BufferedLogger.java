@@ -1,11 +1,17 @@
 package br.com.falbuquerque.logging;
 
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Supplier;
 
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 
+import br.com.falbuquerque.logging.request.Parameter;
 import br.com.falbuquerque.logging.request.Request;
+import br.com.falbuquerque.logging.sink.RecordSink;
 import br.com.falbuquerque.logging.util.JsonParser;
 
 import com.google.gson.annotations.Expose;
@@ -18,20 +24,48 @@ import com.google.gson.annotations.Expose;
  */
 public class BufferedLogger {
 
+    private static final RequestRecordEncoder DEFAULT_RECORD_ENCODER = new RequestRecordEncoder();
+    private static final JsonParser JSON_PARSER = new JsonParser();
+    private static final AtomicIntegerFieldUpdater<BufferedLogger> LOGGED = AtomicIntegerFieldUpdater.newUpdater(
+            BufferedLogger.class, "logged");
+
     @Expose
     private final Request request;
 
     @Expose
     private final Collection<String> messages;
 
+    @Expose
+    private final Boolean escalated;
+
+    @Expose
+    private Integer chunks;
+
+    @Expose
+    private Boolean partial;
+
     private final Logger mainLogger;
 
+    private RecordSink mainSink;
+    private RequestRecordEncoder recordEncoder;
+    private IncrementalFlush incrementalFlush;
+    private long chunkChars;
+    private long chunkStartNanos;
+    private LiveLoggerRegistry liveRegistry;
+    private int liveHandle;
+    private volatile int logged;
+    private BufferedLoggerFactory factory;
+    private MessageTemplates templates = MessageTemplates.getDefault();
+
     @Expose
     private ExceptionHandlerUse internalExceptions;
 
     @Expose
     private ExceptionHandlerUse businessExceptions;
 
+    private ExceptionMapper internalExceptionMapper;
+    private ExceptionMapper businessExceptionMapper;
+
     /**
      * Creates a buffered logger.
      * 
@@ -75,9 +109,65 @@ public class BufferedLogger {
      */
     public BufferedLogger(final Request request, final Logger mainLogger, final Logger internalExceptionsLogger,
             final Logger businessExceptionsLogger) {
+        this(request, mainLogger, internalExceptionsLogger, businessExceptionsLogger, new SegmentedMessages());
+    }
+
+    /**
+     * Creates a buffered logger that shares the configuration of a factory.
+     * 
+     * @param request
+     *            the request that will be logged
+     * @param factory
+     *            the factory that holds the configuration
+     */
+    BufferedLogger(final Request request, final BufferedLoggerFactory factory) {
+        this(request, factory.getMainLogger(), null, null, factory.createMessages());
+        this.factory = factory;
+        templates = factory.getMessageTemplates();
+        internalExceptions = ExceptionHandlerUse.NONE;
+        businessExceptions = ExceptionHandlerUse.NONE;
+        // taken now, so a reload does not reach the requests already running
+        internalExceptionMapper = factory.getInternalExceptionMapper();
+        businessExceptionMapper = factory.getBusinessExceptionMapper();
+
+        if (factory.getMainSink() != null) {
+            writeTo(factory.getMainSink(), factory.getRecordEncoder());
+        }
+
+        incrementalFlush = factory.getIncrementalFlush();
+
+        if (factory.getLiveRegistry() != null) {
+            liveRegistry = factory.getLiveRegistry();
+            liveHandle = liveRegistry.register(this);
+        }
+
+    }
+
+    /**
+     * Creates a buffered logger.
+     * 
+     * @param request
+     *            the request that will be logged
+     * @param mainLogger
+     *            the main logger. Logs INFO, i.e., process step messages
+     * @param internalExceptionsLogger
+     *            the internal exceptions logger or <code>null</code>
+     * @param businessExceptionsLogger
+     *            the business exceptions logger or <code>null</code>
+     * @param messages
+     *            the collection that buffers the messages
+     */
+    private BufferedLogger(final Request request, final Logger mainLogger, final Logger internalExceptionsLogger,
+            final Logger businessExceptionsLogger, final Collection<String> messages) {
         this.request = request;
         this.mainLogger = mainLogger;
 
+        if (EscalationRegistry.getDefault().matches(request)) {
+            escalated = Boolean.TRUE;
+        } else {
+            escalated = null;
+        }
+
         if (internalExceptionsLogger != null) {
             internalExceptions = new ExceptionHandlerUse(this, internalExceptionsLogger);
         }
@@ -86,7 +176,30 @@ public class BufferedLogger {
             businessExceptions = new ExceptionHandlerUse(this, businessExceptionsLogger);
         }
 
-        messages = new LinkedList<>();
+        this.messages = messages;
+    }
+
+    /**
+     * Creates a detached copy of a live logger, written as its partial record
+     * while the request thread may still be appending to the logger.
+     * 
+     * @param logger
+     *            the live logger
+     * @param snapshot
+     *            the snapshot of the live logger
+     */
+    private BufferedLogger(final BufferedLogger logger, final LoggerSnapshot snapshot) {
+        request = logger.request;
+        mainLogger = logger.mainLogger;
+        escalated = logger.escalated;
+        chunks = logger.chunks;
+        partial = Boolean.TRUE;
+        mainSink = logger.mainSink;
+        recordEncoder = logger.recordEncoder;
+        templates = logger.templates;
+        internalExceptions = copy(logger.internalExceptions);
+        businessExceptions = copy(logger.businessExceptions);
+        messages = snapshot.getMessages();
     }
 
     /**
@@ -98,9 +211,111 @@ public class BufferedLogger {
      */
     public BufferedLogger append(final String message) {
         messages.add(message);
+        afterAppend(message == null ? 0 : message.length());
+        return this;
+    }
+
+    /**
+     * Appends a message built from a template of the {@link MessageTemplates}
+     * of the logger. Only the template and the arguments are kept, and the
+     * message is formatted when it is written, so the arguments must not be
+     * changed after being appended.
+     * 
+     * @param templateId
+     *            the id of the template
+     * @param arguments
+     *            the arguments of the placeholders of the template
+     * @return the current instance
+     */
+    public BufferedLogger append(final int templateId, final Object... arguments) {
+        final MessageTemplate template = templates.get(templateId);
+
+        if (messages instanceof SegmentedMessages) {
+            ((SegmentedMessages) messages).add(new TemplatedMessage(template, arguments));
+        } else {
+            messages.add(template.format(arguments));
+        }
+
+        afterAppend(template.getConstantLength());
         return this;
     }
 
+    /**
+     * Appends a debug message to the logger. The message is only kept if the
+     * request is escalated by the {@link EscalationRegistry} or the main
+     * logger has debug enabled.
+     * 
+     * @param message
+     *            the message to be appended
+     * @return the current instance
+     */
+    public BufferedLogger debug(final String message) {
+
+        if (isDebugEnabled()) {
+            append(message);
+        }
+
+        return this;
+    }
+
+    /**
+     * Appends a debug message to the logger. The message is only built if
+     * the request is escalated by the {@link EscalationRegistry} or the main
+     * logger has debug enabled.
+     * 
+     * @param message
+     *            the supplier of the message to be appended
+     * @return the current instance
+     */
+    public BufferedLogger debug(final Supplier<String> message) {
+
+        if (isDebugEnabled()) {
+            append(message.get());
+        }
+
+        return this;
+    }
+
+    /**
+     * Appends a debug message built from a template. The message is only kept
+     * if the request is escalated by the {@link EscalationRegistry} or the
+     * main logger has debug enabled.
+     * 
+     * @param templateId
+     *            the id of the template
+     * @param arguments
+     *            the arguments of the placeholders of the template
+     * @return the current instance
+     */
+    public BufferedLogger debug(final int templateId, final Object... arguments) {
+
+        if (isDebugEnabled()) {
+            append(templateId, arguments);
+        }
+
+        return this;
+    }
+
+    /**
+     * Checks whether debug messages are kept for the request.
+     * 
+     * @return <code>true</code> if the request is escalated or the main
+     *         logger has debug enabled
+     */
+    public boolean isDebugEnabled() {
+        return escalated != null || mainLogger.isDebugEnabled();
+    }
+
+    /**
+     * Checks whether the request is escalated by the
+     * {@link EscalationRegistry}.
+     * 
+     * @return <code>true</code> if the request is escalated
+     */
+    public boolean isEscalated() {
+        return escalated != null;
+    }
+
     /**
      * Appends an internal exception to the logger.
      * 
@@ -109,8 +324,7 @@ public class BufferedLogger {
      * @return the current instance
      */
     public BufferedLogger appendInternalException(final Exception exception) {
-        initializeExceptionHandlerUses();
-        internalExceptions.appendException(exception);
+        internalExceptionsForAppend().appendException(exception);
         return this;
     }
 
@@ -122,23 +336,233 @@ public class BufferedLogger {
      * @return the current instance
      */
     public BufferedLogger appendBusinessException(final Exception exception) {
-        initializeExceptionHandlerUses();
-        businessExceptions.appendException(exception);
+        businessExceptionsForAppend().appendException(exception);
         return this;
     }
 
     /**
-     * Logs the content of the current buffered logger.
+     * Logs the content of the current buffered logger. Messages staged off the
+     * heap by a {@link BufferedLoggerFactory} are streamed to the sink and
+     * released afterwards, so they are logged only once. The exception
+     * handlers are only invoked if any exception was appended.
      */
     public void log() {
+
+        if (liveRegistry != null) {
+
+            // already written as a partial record by the shutdown flush
+            if (!LOGGED.compareAndSet(this, 0, 1)) {
+                liveRegistry = null;
+                return;
+            }
+
+            liveRegistry.unregister(liveHandle, this);
+            liveRegistry = null;
+        }
+
         initializeExceptionHandlerUses();
 
-        if (mainLogger.isInfoEnabled()) {
-            mainLogger.info(new JsonParser().toJson(this));
+        try {
+
+            if (mainSink != null) {
+
+                if (mainSink.isEnabled(Level.INFO)) {
+                    writeRecord();
+                }
+
+            } else if (mainLogger.isInfoEnabled()) {
+                mainLogger.info(JSON_PARSER.toJson(this));
+            }
+
+        } finally {
+
+            if (messages instanceof StagedMessages) {
+                messages.clear();
+            }
+
+        }
+
+        if (internalExceptions.isExceptionsLogged()) {
+            internalExceptions.log();
+        }
+
+        if (businessExceptions.isExceptionsLogged()) {
+            businessExceptions.log();
+        }
+
+    }
+
+    /**
+     * Takes a snapshot of the content of this logger. May be called by any
+     * thread while the request thread keeps appending, which is never
+     * blocked.
+     * 
+     * @return the snapshot
+     */
+    public LoggerSnapshot snapshot() {
+        final List<String> messagesCopy;
+        final int spilledCount;
+
+        if (messages instanceof StagedMessages) {
+            final StagedMessages staged = (StagedMessages) messages;
+            // the heap messages stop growing once a message is spilled
+            spilledCount = staged.getSpilledCount();
+            messagesCopy = staged.snapshot();
+        } else {
+            spilledCount = 0;
+            messagesCopy = ((SegmentedMessages) messages).snapshot();
         }
 
-        internalExceptions.log();
-        businessExceptions.log();
+        return new LoggerSnapshot(request, messagesCopy, spilledCount, snapshot(internalExceptions),
+                snapshot(businessExceptions));
+    }
+
+    /**
+     * Runs the serialization of a synthetic record through the path used by
+     * {@link #log()} and {@link #flush()}, without writing it, so the
+     * serializers and exception handlers are built before the first request.
+     * The logger is discarded afterwards and must not be used anymore.
+     * 
+     * @param exception
+     *            the synthetic exception appended to both categories
+     */
+    void warmUp(final Exception exception) {
+        // not appended, so the incremental flush never writes it
+        messages.add("warm-up");
+        internalExceptionsForAppend().appendException(exception);
+        businessExceptionsForAppend().appendException(exception);
+
+        try {
+
+            if (mainSink != null) {
+
+                if (messages instanceof StagedMessages) {
+                    recordEncoder.encodeParts(this);
+                } else {
+                    recordEncoder.encode(this);
+                }
+
+                recordEncoder.encodeChunk(this, 0);
+            } else {
+                JSON_PARSER.toJson(this);
+                JSON_PARSER.toJson(new ChunkRecord(request == null ? null : request.getToken(), 0, messages));
+            }
+
+        } finally {
+            messages.clear();
+
+            if (liveRegistry != null && LOGGED.compareAndSet(this, 0, 1)) {
+                liveRegistry.unregister(liveHandle, this);
+            }
+
+            liveRegistry = null;
+
+        }
+
+    }
+
+    /**
+     * Logs the content of the current buffered logger as a partial record, if
+     * it was not logged yet. Called by the {@link LiveLoggerRegistry} when the
+     * JVM shuts down, from a thread other than the request thread. Either this
+     * method or {@link #log()} writes the logger, never both. The partial
+     * record is written from a snapshot, so the request thread may keep
+     * appending while it is written, and it leaves out the messages spilled
+     * off the heap.
+     * 
+     * @return <code>true</code> if the logger was written
+     */
+    boolean logPartial() {
+
+        if (!LOGGED.compareAndSet(this, 0, 1)) {
+            return false;
+        }
+
+        // published by the registration, and only cleared by the request thread after logging
+        liveRegistry.unregister(liveHandle, this);
+        partial = Boolean.TRUE;
+        new BufferedLogger(this, snapshot()).log();
+        return true;
+    }
+
+    /**
+     * Writes the buffered messages as a chunk record, tagged with the request
+     * token and the chunk sequence number, and discards them. The record
+     * written by {@link #log()} tells how many chunks preceded it. Nothing is
+     * written if there are no buffered messages.
+     * 
+     * @return the current instance
+     */
+    public BufferedLogger flush() {
+
+        if (messages.isEmpty()) {
+            return this;
+        }
+
+        final int sequence = chunks == null ? 0 : chunks;
+
+        try {
+
+            if (mainSink != null) {
+
+                if (mainSink.isEnabled(Level.INFO)) {
+                    mainSink.write(Level.INFO, recordEncoder.encodeChunk(this, sequence));
+                }
+
+            } else if (mainLogger.isInfoEnabled()) {
+                final String token = request == null ? null : request.getToken();
+                mainLogger.info(JSON_PARSER.toJson(new ChunkRecord(token, sequence, messages)));
+            }
+
+        } finally {
+            messages.clear();
+            chunks = sequence + 1;
+            chunkChars = 0;
+        }
+
+        return this;
+    }
+
+    /**
+     * Flushes the buffered messages in chunks whenever any of the thresholds
+     * is reached, instead of keeping them all until {@link #log()}.
+     * 
+     * @param flush
+     *            the thresholds of the flush or <code>null</code> to keep the
+     *            messages until the request is logged
+     * @return the current instance
+     */
+    public BufferedLogger flushIncrementally(final IncrementalFlush flush) {
+        incrementalFlush = flush;
+        return this;
+    }
+
+    /**
+     * Writes the request record straight to a sink instead of the main
+     * logger, skipping the log4j2 event creation and layout.
+     * 
+     * @param sink
+     *            the sink to which the request record will be written
+     * @return the current instance
+     */
+    public BufferedLogger writeTo(final RecordSink sink) {
+        return writeTo(sink, DEFAULT_RECORD_ENCODER);
+    }
+
+    /**
+     * Writes the request record straight to a sink instead of the main
+     * logger, skipping the log4j2 event creation and layout.
+     * 
+     * @param sink
+     *            the sink to which the request record will be written
+     * @param encoder
+     *            the encoder that serializes the request record
+     * @return the current instance
+     */
+    public BufferedLogger writeTo(final RecordSink sink, final RequestRecordEncoder encoder) {
+        mainSink = sink;
+        recordEncoder = encoder;
+        return this;
     }
 
     /**
@@ -193,6 +617,51 @@ public class BufferedLogger {
         return this;
     }
 
+    /**
+     * Creates the logger of a sub-operation of the request. The child request
+     * belongs to the trace of this one, with a new span whose parent is the
+     * span of this request, and is linked to its token, so the child record
+     * can be joined to the parent record. The child is configured as this
+     * logger, by its {@link BufferedLoggerFactory} if it was created by one,
+     * sharing the main logger, the sink and the exception handlers, and writes
+     * its own record when {@link #log()} is called on it.
+     * 
+     * @param token
+     *            the token of the sub-operation
+     * @param parameters
+     *            the parameters of the sub-operation
+     * @return the child logger
+     */
+    public BufferedLogger createChild(final String token, final Parameter... parameters) {
+        final Request childRequest;
+
+        if (request != null) {
+            childRequest = request.createChild(token, parameters);
+        } else {
+            childRequest = new Request(token, parameters).startTrace();
+        }
+
+        if (factory != null) {
+            return new BufferedLogger(childRequest, factory);
+        }
+
+        final BufferedLogger child = new BufferedLogger(childRequest, mainLogger);
+        child.mainSink = mainSink;
+        child.recordEncoder = recordEncoder;
+        child.incrementalFlush = incrementalFlush;
+        child.templates = templates;
+
+        if (internalExceptions != null) {
+            child.internalExceptions = internalExceptions.createSibling(child);
+        }
+
+        if (businessExceptions != null) {
+            child.businessExceptions = businessExceptions.createSibling(child);
+        }
+
+        return child;
+    }
+
     /**
      * Gets the internal exceptions mapper.
      * 
@@ -200,7 +669,9 @@ public class BufferedLogger {
      */
     public ExceptionMapper getInternalExceptionsMapper() {
 
-        if (internalExceptions != null) {
+        if (factory != null) {
+            return internalExceptionMapper;
+        } else if (internalExceptions != null) {
             return internalExceptions.getExceptionMapper();
         } else {
             return null;
@@ -215,7 +686,9 @@ public class BufferedLogger {
      */
     public ExceptionMapper getBusinessExceptionsMapper() {
 
-        if (businessExceptions != null) {
+        if (factory != null) {
+            return businessExceptionMapper;
+        } else if (businessExceptions != null) {
             return businessExceptions.getExceptionMapper();
         } else {
             return null;
@@ -232,17 +705,172 @@ public class BufferedLogger {
         return request;
     }
 
+    /**
+     * Gets the buffered messages.
+     * 
+     * @return the buffered messages
+     */
+    Collection<String> getMessages() {
+        return messages;
+    }
+
+    /**
+     * Gets the number of chunks flushed before the request record.
+     * 
+     * @return the number of chunks or <code>null</code> if none was flushed
+     */
+    Integer getChunks() {
+        return chunks;
+    }
+
+    /**
+     * Checks whether the record is written by the shutdown flush, before the
+     * request was finished.
+     * 
+     * @return <code>true</code> if the record is partial
+     */
+    boolean isPartial() {
+        return partial != null;
+    }
+
+    /**
+     * Gets the internal exceptions handler use.
+     * 
+     * @return the internal exceptions handler use
+     */
+    ExceptionHandlerUse getInternalExceptions() {
+        return internalExceptions;
+    }
+
+    /**
+     * Gets the business exceptions handler use.
+     * 
+     * @return the business exceptions handler use
+     */
+    ExceptionHandlerUse getBusinessExceptions() {
+        return businessExceptions;
+    }
+
+    /**
+     * Flushes the buffered messages if the incremental flush is enabled and
+     * any of its thresholds was reached.
+     * 
+     * @param messageLength
+     *            the length of the message just appended, estimated for
+     *            templated messages by the length of the template
+     */
+    private void afterAppend(final int messageLength) {
+
+        if (incrementalFlush == null) {
+            return;
+        }
+
+        if (messages.size() == 1) {
+            chunkStartNanos = System.nanoTime();
+        }
+
+        chunkChars += messageLength;
+
+        if (incrementalFlush.shouldFlush(messages.size(), chunkChars, chunkStartNanos)) {
+            flush();
+        }
+
+    }
+
+    /**
+     * Describes the exceptions of a use that may still be replaced by the
+     * request thread.
+     * 
+     * @param use
+     *            the use or <code>null</code> if not initialized yet
+     * @return the class and message of each exception
+     */
+    private static List<String> snapshot(final ExceptionHandlerUse use) {
+        return use == null ? Collections.<String> emptyList() : use.snapshot();
+    }
+
+    /**
+     * Copies an exception handler use for the partial record of a live logger.
+     * 
+     * @param use
+     *            the use or <code>null</code>
+     * @return the copy or <code>null</code> if there is no use
+     */
+    private ExceptionHandlerUse copy(final ExceptionHandlerUse use) {
+        return use == null ? null : use.copyFor(this);
+    }
+
+    /**
+     * Writes the request record to the main sink.
+     */
+    private void writeRecord() {
+
+        if (messages instanceof StagedMessages) {
+            mainSink.write(Level.INFO, recordEncoder.encodeParts(this));
+        } else {
+            mainSink.write(Level.INFO, recordEncoder.encode(this));
+        }
+
+    }
+
+    /**
+     * Gets the internal exceptions handler use, creating it on its first use.
+     * 
+     * @return the internal exceptions handler use
+     */
+    private ExceptionHandlerUse internalExceptionsForAppend() {
+
+        initializeExceptionHandlerUses();
+
+        if (internalExceptions == ExceptionHandlerUse.NONE) {
+
+            if (factory != null) {
+                internalExceptions = factory.createInternalExceptions(this, internalExceptionMapper);
+            } else {
+                internalExceptions = new ExceptionHandlerUse(this, mainLogger);
+            }
+
+        }
+
+        return internalExceptions;
+    }
+
+    /**
+     * Gets the business exceptions handler use, creating it on its first use.
+     * 
+     * @return the business exceptions handler use
+     */
+    private ExceptionHandlerUse businessExceptionsForAppend() {
+
+        initializeExceptionHandlerUses();
+
+        if (businessExceptions == ExceptionHandlerUse.NONE) {
+
+            if (factory != null) {
+                businessExceptions = factory.createBusinessExceptions(this, businessExceptionMapper);
+            } else {
+                businessExceptions = new ExceptionHandlerUse(this, mainLogger);
+            }
+
+        }
+
+        return businessExceptions;
+    }
+
     /**
      * Initializes the exception handler uses if they were not initiated yet.
+     * Nothing is allocated: the missing uses are replaced by
+     * {@link ExceptionHandlerUse#NONE}, which is replaced in turn by the
+     * first exception appended to its category.
      */
     private void initializeExceptionHandlerUses() {
 
         if (internalExceptions == null) {
-            internalExceptions = new ExceptionHandlerUse(this, mainLogger);
+            internalExceptions = ExceptionHandlerUse.NONE;
         }
 
         if (businessExceptions == null) {
-            businessExceptions = new ExceptionHandlerUse(this, mainLogger);
+            businessExceptions = ExceptionHandlerUse.NONE;
         }
 
     }
@@ -0,0 +1,691 @@
+package br.com.falbuquerque.logging;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import br.com.falbuquerque.logging.request.Request;
+import br.com.falbuquerque.logging.sink.RecordSink;
+import br.com.falbuquerque.logging.util.OffHeapArena;
+
+/**
+ * Immutable template of buffered loggers. The loggers, mappers, levels and
+ * sinks are resolved once, when the factory is built, and shared by all the
+ * loggers it creates, so each request only allocates its own state. Mappings
+ * loaded by a {@link ReloadingExceptionMapping} are taken when each logger is
+ * created and kept until it is logged, even though the exception handlers
+ * are only built when the first exception of their category is appended.
+ * 
+ * <pre>
+ * BufferedLoggerFactory factory = BufferedLoggerFactory.builder(mainLogger)
+ *         .internalExceptions(errorLogger, new ExceptionMapper().map(IllegalArgumentException.class, runtimeLogger))
+ *         .businessExceptions(businessLogger).build();
+ * 
+ * factory.create(request).append("Log message").log();
+ * </pre>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class BufferedLoggerFactory {
+
+    private static final Request WARM_UP_REQUEST = new Request("warm-up");
+
+    private final Logger mainLogger;
+    private final RecordSink mainSink;
+    private final RequestRecordEncoder recordEncoder;
+    private final ExceptionRoute internalExceptions;
+    private final ExceptionRoute businessExceptions;
+    private final OffHeapArena messageArena;
+    private final int spillThreshold;
+    private final IncrementalFlush incrementalFlush;
+    private final LiveLoggerRegistry liveRegistry;
+    private final ExceptionAggregator exceptionAggregator;
+    private final ExceptionDispatcher exceptionDispatcher;
+    private final MessageTemplates messageTemplates;
+
+    /**
+     * Creates a factory from its builder.
+     * 
+     * @param builder
+     *            the builder
+     */
+    private BufferedLoggerFactory(final Builder builder) {
+        mainLogger = builder.mainLogger;
+        mainSink = builder.mainSink;
+        recordEncoder = builder.recordEncoder;
+        internalExceptions = builder.internalExceptions.bind(builder.mainLogger);
+        businessExceptions = builder.businessExceptions.bind(builder.mainLogger);
+        messageArena = builder.messageArena;
+        spillThreshold = builder.spillThreshold;
+        incrementalFlush = builder.incrementalFlush;
+        liveRegistry = builder.liveRegistry;
+        exceptionAggregator = builder.exceptionAggregator;
+        exceptionDispatcher = builder.exceptionDispatcher;
+        messageTemplates = builder.messageTemplates;
+    }
+
+    /**
+     * Starts building a factory.
+     * 
+     * @param mainLogger
+     *            the main logger. Logs INFO, i.e., process step messages
+     * @return the builder
+     */
+    public static Builder builder(final Logger mainLogger) {
+        return new Builder(mainLogger);
+    }
+
+    /**
+     * Creates a buffered logger for a request.
+     * 
+     * @param request
+     *            the request that will be logged
+     * @return the buffered logger
+     */
+    public BufferedLogger create(final Request request) {
+        return new BufferedLogger(request, this);
+    }
+
+    /**
+     * Does the work that the first requests would otherwise do lazily: the
+     * record serializers and the exception handlers are built from a
+     * synthetic request, the routes of the registered exception classes are
+     * resolved and the layouts of their log4j appenders format
+     * synthetic events. Nothing is written to the loggers or sinks and the
+     * synthetic records are discarded. Failures are reported to the log4j
+     * status logger, as a warm up must not stop the application.
+     * 
+     * @return this factory
+     */
+    public BufferedLoggerFactory warmUp() {
+
+        try {
+            new BufferedLogger(WARM_UP_REQUEST, this).warmUp(new IllegalStateException("warm-up"));
+
+            final Set<Logger> loggers = Collections.newSetFromMap(new IdentityHashMap<>());
+            loggers.add(mainLogger);
+            internalExceptions.warmUp(mainLogger, loggers);
+            businessExceptions.warmUp(mainLogger, loggers);
+
+            for (final Logger logger : loggers) {
+                warmUp(logger);
+            }
+
+        } catch (final RuntimeException e) {
+            StatusLogger.getLogger().warn("Could not warm up the buffered logger factory", e);
+        }
+
+        return this;
+    }
+
+    /**
+     * Formats synthetic events with the layouts of the appenders of a logger,
+     * discarding the results.
+     * 
+     * @param logger
+     *            the logger
+     */
+    private static void warmUp(final Logger logger) {
+
+        if (!(logger instanceof org.apache.logging.log4j.core.Logger)) {
+            return;
+        }
+
+        final Exception exception = new IllegalStateException("warm-up");
+        final LogEvent[] events = {
+                Log4jLogEvent.newBuilder().setLoggerName(logger.getName()).setLevel(Level.INFO)
+                        .setMessage(new SimpleMessage("warm-up")).build(),
+                Log4jLogEvent.newBuilder().setLoggerName(logger.getName()).setLevel(Level.ERROR)
+                        .setMessage(new SimpleMessage("warm-up")).setThrown(exception).build() };
+
+        for (final Appender appender : ((org.apache.logging.log4j.core.Logger) logger).getAppenders().values()) {
+
+            if (appender.getLayout() != null) {
+
+                for (final LogEvent event : events) {
+                    appender.getLayout().toByteArray(event);
+                }
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Gets the main logger.
+     * 
+     * @return the main logger
+     */
+    Logger getMainLogger() {
+        return mainLogger;
+    }
+
+    /**
+     * Gets the sink of the request records.
+     * 
+     * @return the sink or <code>null</code> if the records go to the main
+     *         logger
+     */
+    RecordSink getMainSink() {
+        return mainSink;
+    }
+
+    /**
+     * Gets the encoder of the request records written to the sink.
+     * 
+     * @return the record encoder
+     */
+    RequestRecordEncoder getRecordEncoder() {
+        return recordEncoder;
+    }
+
+    /**
+     * Gets the thresholds of the incremental flush.
+     * 
+     * @return the thresholds or <code>null</code> if the messages are kept
+     *         until the request is logged
+     */
+    IncrementalFlush getIncrementalFlush() {
+        return incrementalFlush;
+    }
+
+    /**
+     * Gets the registry of the loggers that were not logged yet.
+     * 
+     * @return the registry or <code>null</code> if the loggers are not
+     *         registered
+     */
+    LiveLoggerRegistry getLiveRegistry() {
+        return liveRegistry;
+    }
+
+    /**
+     * Gets the registry of the message templates.
+     * 
+     * @return the registry of the templates appended by the loggers
+     */
+    MessageTemplates getMessageTemplates() {
+        return messageTemplates;
+    }
+
+    /**
+     * Creates the collection that buffers the messages of a logger.
+     * 
+     * @return the collection of messages
+     */
+    Collection<String> createMessages() {
+
+        if (messageArena != null) {
+            return new StagedMessages(messageArena, spillThreshold, recordEncoder == null ? null
+                    : recordEncoder.getRedactor());
+        } else {
+            return new SegmentedMessages();
+        }
+
+    }
+
+    /**
+     * Creates the exception handler use of the internal exceptions of a
+     * logger.
+     * 
+     * @param owner
+     *            the logger
+     * @param exceptionMapper
+     *            the mapper taken when the logger was created
+     * @return the exception handler use
+     */
+    ExceptionHandlerUse createInternalExceptions(final BufferedLogger owner, final ExceptionMapper exceptionMapper) {
+        return internalExceptions.createUse(owner, mainLogger, exceptionMapper, exceptionAggregator,
+                exceptionDispatcher);
+    }
+
+    /**
+     * Takes the current mapper of the internal exceptions, kept by a logger
+     * from its creation until it is logged.
+     * 
+     * @return the mapper or <code>null</code> if there is none
+     */
+    ExceptionMapper getInternalExceptionMapper() {
+        return internalExceptions.mapper.get();
+    }
+
+    /**
+     * Creates the exception handler use of the business exceptions of a
+     * logger.
+     * 
+     * @param owner
+     *            the logger
+     * @param exceptionMapper
+     *            the mapper taken when the logger was created
+     * @return the exception handler use
+     */
+    ExceptionHandlerUse createBusinessExceptions(final BufferedLogger owner, final ExceptionMapper exceptionMapper) {
+        return businessExceptions.createUse(owner, mainLogger, exceptionMapper, exceptionAggregator,
+                exceptionDispatcher);
+    }
+
+    /**
+     * Takes the current mapper of the business exceptions, kept by a logger
+     * from its creation until it is logged.
+     * 
+     * @return the mapper or <code>null</code> if there is none
+     */
+    ExceptionMapper getBusinessExceptionMapper() {
+        return businessExceptions.mapper.get();
+    }
+
+    /**
+     * Shared routing of a category of exceptions.
+     */
+    private static class ExceptionRoute {
+
+        private final Logger defaultLogger;
+        private final Supplier<ExceptionMapper> mapper;
+        private final Level defaultLevel;
+        private final ResolvedRouteCache routeCache;
+
+        /**
+         * Creates a route.
+         * 
+         * @param defaultLogger
+         *            the default logger or <code>null</code> to use the main
+         *            logger
+         * @param mapper
+         *            the supplier of the exception mapper of each request
+         * @param defaultLevel
+         *            the level of the exceptions without a mapped level
+         */
+        ExceptionRoute(final Logger defaultLogger, final Supplier<ExceptionMapper> mapper, final Level defaultLevel) {
+            this(defaultLogger, mapper, defaultLevel, null);
+        }
+
+        /**
+         * Creates a route.
+         * 
+         * @param defaultLogger
+         *            the default logger or <code>null</code> to use the main
+         *            logger
+         * @param mapper
+         *            the supplier of the exception mapper of each request
+         * @param defaultLevel
+         *            the level of the exceptions without a mapped level
+         * @param routeCache
+         *            the cache of the resolved routes or <code>null</code>
+         */
+        private ExceptionRoute(final Logger defaultLogger, final Supplier<ExceptionMapper> mapper,
+                final Level defaultLevel, final ResolvedRouteCache routeCache) {
+            this.defaultLogger = defaultLogger;
+            this.mapper = mapper;
+            this.defaultLevel = defaultLevel;
+            this.routeCache = routeCache;
+        }
+
+        /**
+         * Creates a route with fixed mappings.
+         * 
+         * @param defaultLogger
+         *            the default logger or <code>null</code> to use the main
+         *            logger
+         * @param mapper
+         *            the exception mapper, which is copied
+         * @param defaultLevel
+         *            the level of the exceptions without a mapped level
+         */
+        static ExceptionRoute fixed(final Logger defaultLogger, final ExceptionMapper mapper, final Level defaultLevel) {
+            final ExceptionMapper copy = mapper == null ? null : mapper.immutableCopy();
+            return new ExceptionRoute(defaultLogger, () -> copy, defaultLevel);
+        }
+
+        /**
+         * Creates the per-request exception state of a logger.
+         * 
+         * @param owner
+         *            the logger
+         * @param mainLogger
+         *            the main logger, used when there is no default logger
+         * @param exceptionMapper
+         *            the mapper taken when the logger was created
+         * @param aggregator
+         *            the aggregator of identical exceptions or
+         *            <code>null</code>
+         * @param dispatcher
+         *            the dispatcher of the exceptions or <code>null</code> to
+         *            write them in the request thread
+         * @return the exception handler use
+         */
+        ExceptionHandlerUse createUse(final BufferedLogger owner, final Logger mainLogger,
+                final ExceptionMapper exceptionMapper, final ExceptionAggregator aggregator,
+                final ExceptionDispatcher dispatcher) {
+            final Logger logger = defaultLogger == null ? mainLogger : defaultLogger;
+            return new ExceptionHandlerUse(owner, logger, exceptionMapper, defaultLevel, aggregator, dispatcher,
+                    routeCache);
+        }
+
+        /**
+         * Creates a copy of the route whose requests share the cache of the
+         * resolved routes.
+         * 
+         * @param mainLogger
+         *            the main logger, used when there is no default logger
+         * @return the route with the cache
+         */
+        ExceptionRoute bind(final Logger mainLogger) {
+            final Logger logger = defaultLogger == null ? mainLogger : defaultLogger;
+            return new ExceptionRoute(defaultLogger, mapper, defaultLevel, new ResolvedRouteCache(logger,
+                    defaultLevel == null ? Level.ERROR : defaultLevel));
+        }
+
+        /**
+         * Resolves the routes of the mapped exception classes and the loggers
+         * the exceptions of this route can be written to.
+         * 
+         * @param mainLogger
+         *            the main logger, used when there is no default logger
+         * @param loggers
+         *            the set that receives the loggers
+         */
+        void warmUp(final Logger mainLogger, final Set<Logger> loggers) {
+            loggers.add(defaultLogger == null ? mainLogger : defaultLogger);
+            final ExceptionMapper exceptionMapper = mapper.get();
+
+            if (exceptionMapper != null) {
+
+                for (final Class<? extends Exception> exceptionClass : exceptionMapper.getMappedClasses()) {
+                    routeCache.resolve(exceptionMapper, exceptionClass);
+                    final LoggerConfiguration configuration = exceptionMapper.getLogger(exceptionClass);
+
+                    if (configuration != null && configuration.getLogger() != null) {
+                        loggers.add(configuration.getLogger());
+                    }
+
+                }
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Builder of {@link BufferedLoggerFactory}.
+     */
+    public static class Builder {
+
+        private final Logger mainLogger;
+        private RecordSink mainSink;
+        private RequestRecordEncoder recordEncoder;
+        private ExceptionRoute internalExceptions = ExceptionRoute.fixed(null, null, null);
+        private ExceptionRoute businessExceptions = ExceptionRoute.fixed(null, null, null);
+        private OffHeapArena messageArena;
+        private int spillThreshold;
+        private IncrementalFlush incrementalFlush;
+        private LiveLoggerRegistry liveRegistry;
+        private ExceptionAggregator exceptionAggregator;
+        private ExceptionDispatcher exceptionDispatcher;
+        private MessageTemplates messageTemplates = MessageTemplates.getDefault();
+
+        /**
+         * Creates a builder.
+         * 
+         * @param mainLogger
+         *            the main logger
+         */
+        private Builder(final Logger mainLogger) {
+            this.mainLogger = mainLogger;
+        }
+
+        /**
+         * Writes the request records straight to a sink instead of the main
+         * logger.
+         * 
+         * @param sink
+         *            the sink to which the request records will be written
+         * @return the current instance
+         */
+        public Builder writeTo(final RecordSink sink) {
+            return writeTo(sink, new RequestRecordEncoder());
+        }
+
+        /**
+         * Writes the request records straight to a sink instead of the main
+         * logger.
+         * 
+         * @param sink
+         *            the sink to which the request records will be written
+         * @param encoder
+         *            the encoder that serializes the request records
+         * @return the current instance
+         */
+        public Builder writeTo(final RecordSink sink, final RequestRecordEncoder encoder) {
+            mainSink = sink;
+            recordEncoder = encoder;
+            return this;
+        }
+
+        /**
+         * Sets the logger of the internal exceptions.
+         * 
+         * @param defaultExceptionLogger
+         *            the default internal exceptions logger
+         * @return the current instance
+         */
+        public Builder internalExceptions(final Logger defaultExceptionLogger) {
+            return internalExceptions(defaultExceptionLogger, null, null);
+        }
+
+        /**
+         * Sets the routing of the internal exceptions.
+         * 
+         * @param defaultExceptionLogger
+         *            the default internal exceptions logger
+         * @param exceptionMapper
+         *            the exception mapper, copied when the factory is built
+         * @return the current instance
+         */
+        public Builder internalExceptions(final Logger defaultExceptionLogger, final ExceptionMapper exceptionMapper) {
+            return internalExceptions(defaultExceptionLogger, exceptionMapper, null);
+        }
+
+        /**
+         * Sets the routing of the internal exceptions.
+         * 
+         * @param defaultExceptionLogger
+         *            the default internal exceptions logger
+         * @param exceptionMapper
+         *            the exception mapper, copied when the factory is built
+         * @param defaultLogLevel
+         *            the level of the exceptions without a mapped level
+         * @return the current instance
+         */
+        public Builder internalExceptions(final Logger defaultExceptionLogger, final ExceptionMapper exceptionMapper,
+                final Level defaultLogLevel) {
+            internalExceptions = ExceptionRoute.fixed(defaultExceptionLogger, exceptionMapper, defaultLogLevel);
+            return this;
+        }
+
+        /**
+         * Sets the routing of the internal exceptions to mappings that are
+         * reloaded from a configuration file.
+         * 
+         * @param defaultExceptionLogger
+         *            the default internal exceptions logger
+         * @param exceptionMapping
+         *            the reloading mappings
+         * @return the current instance
+         */
+        public Builder internalExceptions(final Logger defaultExceptionLogger,
+                final ReloadingExceptionMapping exceptionMapping) {
+            internalExceptions = new ExceptionRoute(defaultExceptionLogger, exceptionMapping, null);
+            return this;
+        }
+
+        /**
+         * Sets the logger of the business exceptions.
+         * 
+         * @param defaultExceptionLogger
+         *            the default business exceptions logger
+         * @return the current instance
+         */
+        public Builder businessExceptions(final Logger defaultExceptionLogger) {
+            return businessExceptions(defaultExceptionLogger, null, null);
+        }
+
+        /**
+         * Sets the routing of the business exceptions.
+         * 
+         * @param defaultExceptionLogger
+         *            the default business exceptions logger
+         * @param exceptionMapper
+         *            the exception mapper, copied when the factory is built
+         * @return the current instance
+         */
+        public Builder businessExceptions(final Logger defaultExceptionLogger, final ExceptionMapper exceptionMapper) {
+            return businessExceptions(defaultExceptionLogger, exceptionMapper, null);
+        }
+
+        /**
+         * Sets the routing of the business exceptions.
+         * 
+         * @param defaultExceptionLogger
+         *            the default business exceptions logger
+         * @param exceptionMapper
+         *            the exception mapper, copied when the factory is built
+         * @param defaultLogLevel
+         *            the level of the exceptions without a mapped level
+         * @return the current instance
+         */
+        public Builder businessExceptions(final Logger defaultExceptionLogger, final ExceptionMapper exceptionMapper,
+                final Level defaultLogLevel) {
+            businessExceptions = ExceptionRoute.fixed(defaultExceptionLogger, exceptionMapper, defaultLogLevel);
+            return this;
+        }
+
+        /**
+         * Sets the routing of the business exceptions to mappings that are
+         * reloaded from a configuration file.
+         * 
+         * @param defaultExceptionLogger
+         *            the default business exceptions logger
+         * @param exceptionMapping
+         *            the reloading mappings
+         * @return the current instance
+         */
+        public Builder businessExceptions(final Logger defaultExceptionLogger,
+                final ReloadingExceptionMapping exceptionMapping) {
+            businessExceptions = new ExceptionRoute(defaultExceptionLogger, exceptionMapping, null);
+            return this;
+        }
+
+        /**
+         * Stages the messages of large requests off the heap. Once the
+         * messages of a request reach the threshold, the following ones are
+         * encoded into blocks of the arena and streamed from there when the
+         * request is logged, instead of staying on the heap for the whole
+         * request.
+         * 
+         * @param arena
+         *            the arena of the blocks that receive the spilled messages
+         * @param threshold
+         *            the number of message characters kept on the heap by each
+         *            request
+         * @return the current instance
+         */
+        public Builder stageMessagesOffHeap(final OffHeapArena arena, final int threshold) {
+            messageArena = arena;
+            spillThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * Flushes the messages of each request in chunks whenever any of the
+         * thresholds is reached.
+         * 
+         * @param flush
+         *            the thresholds of the flush
+         * @return the current instance
+         * @see BufferedLogger#flushIncrementally(IncrementalFlush)
+         */
+        public Builder flushIncrementally(final IncrementalFlush flush) {
+            incrementalFlush = flush;
+            return this;
+        }
+
+        /**
+         * Registers each logger until it is logged, so it can be written as a
+         * partial record if the JVM shuts down before that.
+         * 
+         * @param registry
+         *            the registry of the live loggers
+         * @return the current instance
+         * @see LiveLoggerRegistry#installShutdownHook(long)
+         */
+        public Builder registerLive(final LiveLoggerRegistry registry) {
+            liveRegistry = registry;
+            return this;
+        }
+
+        /**
+         * Aggregates the internal and business exceptions that are identical
+         * across requests, so only the first occurrence of each window is
+         * logged in full.
+         * 
+         * @param aggregator
+         *            the aggregator shared by the requests
+         * @return the current instance
+         */
+        public Builder aggregateExceptions(final ExceptionAggregator aggregator) {
+            exceptionAggregator = aggregator;
+            return this;
+        }
+
+        /**
+         * Writes the internal and business exceptions in background, with one
+         * queue per destination, so the request threads and the other
+         * destinations do not wait for a slow appender.
+         * 
+         * @param dispatcher
+         *            the dispatcher shared by the requests
+         * @return the current instance
+         */
+        public Builder dispatchExceptions(final ExceptionDispatcher dispatcher) {
+            exceptionDispatcher = dispatcher;
+            return this;
+        }
+
+        /**
+         * Sets the registry of the templates appended with
+         * {@link BufferedLogger#append(int, Object...)}. The loggers use the
+         * {@link MessageTemplates#getDefault() default registry} otherwise.
+         * 
+         * @param templates
+         *            the registry of the message templates
+         * @return the current instance
+         */
+        public Builder messageTemplates(final MessageTemplates templates) {
+            messageTemplates = templates;
+            return this;
+        }
+
+        /**
+         * Builds the factory.
+         * 
+         * @return the factory
+         */
+        public BufferedLoggerFactory build() {
+            return new BufferedLoggerFactory(this);
+        }
+
+    }
+
+}
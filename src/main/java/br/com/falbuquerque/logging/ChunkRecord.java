@@ -0,0 +1,39 @@
+package br.com.falbuquerque.logging;
+
+import java.util.Collection;
+
+import com.google.gson.annotations.Expose;
+
+/**
+ * Chunk of the messages of a request flushed before the request is logged.
+ * 
+ * @author Felipe Albuquerque
+ */
+class ChunkRecord {
+
+    @Expose
+    private final String token;
+
+    @Expose
+    private final int chunk;
+
+    @Expose
+    private final Collection<String> messages;
+
+    /**
+     * Creates a chunk record.
+     * 
+     * @param token
+     *            the token of the request
+     * @param chunk
+     *            the sequence number of the chunk, starting at zero
+     * @param messages
+     *            the messages of the chunk
+     */
+    ChunkRecord(final String token, final int chunk, final Collection<String> messages) {
+        this.token = token;
+        this.chunk = chunk;
+        this.messages = messages;
+    }
+
+}
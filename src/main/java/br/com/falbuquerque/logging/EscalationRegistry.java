@@ -0,0 +1,163 @@
+package br.com.falbuquerque.logging;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import br.com.falbuquerque.logging.request.Parameter;
+import br.com.falbuquerque.logging.request.Request;
+
+/**
+ * Registry of the requests whose logging is escalated, i.e., that record
+ * debug messages and full stack traces regardless of the configured levels.
+ * Requests are matched by token or by parameter value.
+ * 
+ * <p>
+ * While no rule is registered, matching a request costs a single volatile
+ * read.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class EscalationRegistry {
+
+    private static final EscalationRegistry DEFAULT = new EscalationRegistry();
+
+    private final Set<String> tokens = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, Set<String>> parameterValues = new ConcurrentHashMap<>();
+    private volatile boolean active;
+
+    /**
+     * Gets the registry consulted by the buffered loggers.
+     * 
+     * @return the default registry
+     */
+    public static EscalationRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Escalates the requests with the given token.
+     * 
+     * @param token
+     *            the request token
+     * @return the current instance
+     */
+    public synchronized EscalationRegistry escalateToken(final String token) {
+        tokens.add(token);
+        active = true;
+        return this;
+    }
+
+    /**
+     * Escalates the requests that have a parameter with the given value, e.g.,
+     * all the requests of a tenant.
+     * 
+     * @param name
+     *            the parameter name
+     * @param value
+     *            the parameter value, compared by its string representation
+     * @return the current instance
+     */
+    public synchronized EscalationRegistry escalateParameter(final String name, final Object value) {
+        parameterValues.computeIfAbsent(name, parameter -> ConcurrentHashMap.newKeySet()).add(String.valueOf(value));
+        active = true;
+        return this;
+    }
+
+    /**
+     * Removes the escalation of a token.
+     * 
+     * @param token
+     *            the request token
+     * @return the current instance
+     */
+    public synchronized EscalationRegistry removeToken(final String token) {
+        tokens.remove(token);
+        updateActive();
+        return this;
+    }
+
+    /**
+     * Removes the escalation of a parameter value.
+     * 
+     * @param name
+     *            the parameter name
+     * @param value
+     *            the parameter value
+     * @return the current instance
+     */
+    public synchronized EscalationRegistry removeParameter(final String name, final Object value) {
+        final Set<String> values = parameterValues.get(name);
+
+        if (values != null) {
+            values.remove(String.valueOf(value));
+
+            if (values.isEmpty()) {
+                parameterValues.remove(name);
+            }
+
+        }
+
+        updateActive();
+        return this;
+    }
+
+    /**
+     * Removes all the escalations.
+     * 
+     * @return the current instance
+     */
+    public synchronized EscalationRegistry clear() {
+        active = false;
+        tokens.clear();
+        parameterValues.clear();
+        return this;
+    }
+
+    /**
+     * Checks whether a request is escalated.
+     * 
+     * @param request
+     *            the request
+     * @return <code>true</code> if the request matches any rule
+     */
+    public boolean matches(final Request request) {
+
+        if (!active || request == null) {
+            return false;
+        }
+
+        if (request.getToken() != null && tokens.contains(request.getToken())) {
+            return true;
+        }
+
+        if (parameterValues.isEmpty()) {
+            return false;
+        }
+
+        for (final Parameter parameter : request.getParameters()) {
+
+            if (parameter.getName() == null) {
+                continue;
+            }
+
+            final Set<String> values = parameterValues.get(parameter.getName());
+
+            if (values != null && values.contains(String.valueOf(parameter.getValue()))) {
+                return true;
+            }
+
+        }
+
+        return false;
+    }
+
+    /**
+     * Recomputes the fast path flag after a removal.
+     */
+    private void updateActive() {
+        active = !tokens.isEmpty() || !parameterValues.isEmpty();
+    }
+
+}
@@ -0,0 +1,419 @@
+package br.com.falbuquerque.logging;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import br.com.falbuquerque.logging.sink.RecordSink;
+
+/**
+ * Aggregates identical exceptions logged by different requests. Exceptions
+ * are identical when they have the same class, the same throwing frame and
+ * the same root cause class, and are written to the same destination at the
+ * same level; the message is not considered, since it usually carries
+ * request data. The first occurrence of an exception in a window is logged in
+ * full, the following ones are only counted, and a summary with the count,
+ * some request tokens and the destination resolved by the
+ * {@link ExceptionMapper} is written to that destination when the window
+ * ends.
+ * 
+ * <p>
+ * The number of exceptions tracked at once is bounded. When the limit is
+ * reached, the expired windows are summarized and dropped and, if that is not
+ * enough, an arbitrary window is summarized early.
+ * </p>
+ * 
+ * <p>
+ * Instances are thread-safe.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class ExceptionAggregator implements Closeable {
+
+    private final long windowMillis;
+    private final int maxFingerprints;
+    private final int maxSampleTokens;
+    private final ConcurrentMap<Fingerprint, Window> windows = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * Creates an aggregator that summarizes the expired windows periodically.
+     * 
+     * @param windowMillis
+     *            the length of the aggregation window
+     * @param maxFingerprints
+     *            the maximum number of distinct exceptions tracked at once
+     * @param maxSampleTokens
+     *            the maximum number of request tokens listed by a summary
+     */
+    public ExceptionAggregator(final long windowMillis, final int maxFingerprints, final int maxSampleTokens) {
+        this(windowMillis, maxFingerprints, maxSampleTokens, windowMillis);
+    }
+
+    /**
+     * Creates an aggregator.
+     * 
+     * @param windowMillis
+     *            the length of the aggregation window
+     * @param maxFingerprints
+     *            the maximum number of distinct exceptions tracked at once
+     * @param maxSampleTokens
+     *            the maximum number of request tokens listed by a summary
+     * @param flushIntervalMillis
+     *            the interval between the summaries of the expired windows,
+     *            or zero to summarize them only through
+     *            {@link #flushExpired()} or when the exception happens again
+     */
+    public ExceptionAggregator(final long windowMillis, final int maxFingerprints, final int maxSampleTokens,
+            final long flushIntervalMillis) {
+
+        if (windowMillis <= 0 || maxFingerprints <= 0) {
+            throw new IllegalArgumentException("The window and the maximum number of exceptions must be positive");
+        }
+
+        this.windowMillis = windowMillis;
+        this.maxFingerprints = maxFingerprints;
+        this.maxSampleTokens = maxSampleTokens;
+
+        if (flushIntervalMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+                final Thread thread = new Thread(task, "exception-aggregator-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flushExpired, flushIntervalMillis, flushIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+
+    }
+
+    /**
+     * Records an occurrence of an exception.
+     * 
+     * @param exception
+     *            the exception
+     * @param token
+     *            the token of the request that logs the exception
+     * @param logger
+     *            the logger resolved for the exception, if any
+     * @param sink
+     *            the sink resolved for the exception, if any
+     * @param level
+     *            the level resolved for the exception
+     * @return <code>true</code> if the exception must be logged in full,
+     *         <code>false</code> if it was counted in the current window
+     */
+    boolean record(final Throwable exception, final String token, final Logger logger, final RecordSink sink,
+            final Level level) {
+        final Fingerprint fingerprint = new Fingerprint(exception, sink != null ? sink : logger, level);
+        final long now = System.currentTimeMillis();
+
+        while (true) {
+            final Window window = windows.get(fingerprint);
+
+            if (window == null) {
+
+                if (windows.size() >= maxFingerprints) {
+                    evict(now);
+                }
+
+                if (windows.putIfAbsent(fingerprint, new Window(exception, logger, sink, level, now)) == null) {
+                    return true;
+                }
+
+            } else if (now - window.start >= windowMillis) {
+
+                if (windows.replace(fingerprint, window, new Window(exception, logger, sink, level, now))) {
+                    window.summarize();
+                    return true;
+                }
+
+            } else if (window.suppress(token)) {
+                return false;
+            }
+
+        }
+
+    }
+
+    /**
+     * Summarizes and drops the windows that ended.
+     */
+    public void flushExpired() {
+
+        try {
+            evictExpired(System.currentTimeMillis());
+        } catch (final RuntimeException e) {
+            StatusLogger.getLogger().error("Could not summarize the aggregated exceptions", e);
+        }
+
+    }
+
+    /**
+     * Summarizes all the windows, whether or not they ended, and stops the
+     * periodic summaries.
+     */
+    @Override
+    public void close() {
+
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+
+        for (final Iterator<Window> i = windows.values().iterator(); i.hasNext();) {
+            final Window window = i.next();
+            i.remove();
+            window.summarize();
+        }
+
+    }
+
+    /**
+     * Gets the number of distinct exceptions being tracked.
+     * 
+     * @return the number of open windows
+     */
+    public int size() {
+        return windows.size();
+    }
+
+    /**
+     * Makes room for a new exception.
+     * 
+     * @param now
+     *            the current time
+     */
+    private void evict(final long now) {
+        evictExpired(now);
+
+        for (final Iterator<Map.Entry<Fingerprint, Window>> i = windows.entrySet().iterator(); i.hasNext()
+                && windows.size() >= maxFingerprints;) {
+            final Map.Entry<Fingerprint, Window> entry = i.next();
+
+            if (windows.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().summarize();
+            }
+
+        }
+
+    }
+
+    /**
+     * Summarizes and drops the windows that ended.
+     * 
+     * @param now
+     *            the current time
+     */
+    private void evictExpired(final long now) {
+
+        for (final Map.Entry<Fingerprint, Window> entry : windows.entrySet()) {
+
+            if (now - entry.getValue().start >= windowMillis && windows.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().summarize();
+            }
+
+        }
+
+    }
+
+    /**
+     * Identity of an exception: its class, its throwing frame, the class of
+     * its root cause and where it is written.
+     */
+    private static final class Fingerprint {
+
+        private final Class<?> exceptionClass;
+        private final StackTraceElement origin;
+        private final Class<?> rootCauseClass;
+        private final Object destination;
+        private final Level level;
+        private final int hash;
+
+        /**
+         * Takes the fingerprint of an exception.
+         * 
+         * @param exception
+         *            the exception
+         * @param destination
+         *            the logger or sink resolved for the exception
+         * @param level
+         *            the level resolved for the exception
+         */
+        Fingerprint(final Throwable exception, final Object destination, final Level level) {
+            Throwable rootCause = exception;
+
+            while (rootCause.getCause() != null && rootCause.getCause() != rootCause) {
+                rootCause = rootCause.getCause();
+            }
+
+            final StackTraceElement[] stackTrace = exception.getStackTrace();
+            exceptionClass = exception.getClass();
+            origin = stackTrace.length == 0 ? null : stackTrace[0];
+            rootCauseClass = rootCause.getClass();
+            this.destination = destination;
+            this.level = level;
+            hash = Arrays.hashCode(new Object[] { exceptionClass, origin, rootCauseClass,
+                    System.identityHashCode(destination), level });
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+
+            if (!(other instanceof Fingerprint)) {
+                return false;
+            }
+
+            final Fingerprint fingerprint = (Fingerprint) other;
+            return exceptionClass == fingerprint.exceptionClass && rootCauseClass == fingerprint.rootCauseClass
+                    && destination == fingerprint.destination && level == fingerprint.level
+                    && (origin == null ? fingerprint.origin == null : origin.equals(fingerprint.origin));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+    /**
+     * Aggregation window of an exception. The count is closed by setting it to
+     * a negative value, so an occurrence is never counted after the summary.
+     */
+    private final class Window {
+
+        private final String description;
+        private final Logger logger;
+        private final RecordSink sink;
+        private final Level level;
+        private final long start;
+        private final AtomicLong suppressed = new AtomicLong();
+        private final AtomicInteger sampledTokens = new AtomicInteger();
+        private final AtomicReferenceArray<String> tokens = new AtomicReferenceArray<>(maxSampleTokens);
+
+        /**
+         * Opens a window.
+         * 
+         * @param exception
+         *            the first occurrence of the exception
+         * @param logger
+         *            the logger resolved for the exception, if any
+         * @param sink
+         *            the sink resolved for the exception, if any
+         * @param level
+         *            the level resolved for the exception
+         * @param start
+         *            the time of the first occurrence
+         */
+        Window(final Throwable exception, final Logger logger, final RecordSink sink, final Level level,
+                final long start) {
+            description = exception.toString();
+            this.logger = logger;
+            this.sink = sink;
+            this.level = level;
+            this.start = start;
+        }
+
+        /**
+         * Counts an occurrence.
+         * 
+         * @param token
+         *            the token of the request
+         * @return <code>false</code> if the window was already summarized
+         */
+        boolean suppress(final String token) {
+            long count;
+
+            do {
+                count = suppressed.get();
+
+                if (count < 0) {
+                    return false;
+                }
+
+            } while (!suppressed.compareAndSet(count, count + 1));
+
+            if (sampledTokens.get() < maxSampleTokens) {
+                final int index = sampledTokens.getAndIncrement();
+
+                if (index < maxSampleTokens) {
+                    tokens.set(index, token);
+                }
+
+            }
+
+            return true;
+        }
+
+        /**
+         * Closes the window and writes its summary, if any occurrence was
+         * counted.
+         */
+        void summarize() {
+            final long count = suppressed.getAndSet(Long.MIN_VALUE);
+
+            if (count <= 0) {
+                return;
+            }
+
+            final List<String> samples = new ArrayList<>();
+
+            for (int i = 0; i < Math.min(sampledTokens.get(), maxSampleTokens); i++) {
+
+                if (tokens.get(i) != null) {
+                    samples.add(tokens.get(i));
+                }
+
+            }
+
+            final String summary = "Exception summary [" + description + "] suppressed " + count + " times in "
+                    + windowMillis + " ms, logged to [" + destination() + "], sample tokens " + samples;
+
+            if (sink != null) {
+
+                if (sink.isEnabled(level)) {
+                    sink.write(level, summary, null);
+                }
+
+            } else if (logger.isEnabled(level)) {
+                logger.log(level, summary);
+            }
+
+        }
+
+        /**
+         * Describes the destination of the exception.
+         * 
+         * @return the name of the logger or of the sink class
+         */
+        private String destination() {
+
+            if (sink != null) {
+                return sink.getClass().getSimpleName();
+            } else {
+                return logger.getName();
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,406 @@
+package br.com.falbuquerque.logging;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import br.com.falbuquerque.logging.sink.RecordSink;
+
+/**
+ * Writes the exceptions of all the requests in background threads, one per
+ * destination logger or sink. When a request is logged, its exceptions are
+ * only put in the lock-free queues of their resolved destinations, so a slow
+ * appender delays only the exceptions sent to it, not the request threads nor
+ * the other destinations.
+ * 
+ * <p>
+ * Each queue holds a bounded number of exceptions. When a queue is full the
+ * request thread writes the exception itself, so exceptions are never
+ * dropped; {@link #getFallbackCount()} tells how often that happened.
+ * </p>
+ * 
+ * <p>
+ * Instances are thread-safe.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class ExceptionDispatcher implements Closeable {
+
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final int laneCapacity;
+    private final ConcurrentMap<Object, Lane> lanes = new ConcurrentHashMap<>();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a dispatcher.
+     * 
+     * @param laneCapacity
+     *            the maximum number of exceptions queued for each destination
+     */
+    public ExceptionDispatcher(final int laneCapacity) {
+
+        if (laneCapacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+
+        this.laneCapacity = laneCapacity;
+    }
+
+    /**
+     * Queues an exception to be written to a logger.
+     * 
+     * @param logger
+     *            the destination logger
+     * @param level
+     *            the level of the exception
+     * @param message
+     *            the message of the exception
+     * @param exception
+     *            the exception
+     */
+    void dispatch(final Logger logger, final Level level, final String message, final Throwable exception) {
+        dispatch(logger, new Entry(logger, null, level, message, exception));
+    }
+
+    /**
+     * Queues an exception to be written to a sink.
+     * 
+     * @param sink
+     *            the destination sink
+     * @param level
+     *            the level of the exception
+     * @param message
+     *            the message of the exception
+     * @param exception
+     *            the exception
+     */
+    void dispatch(final RecordSink sink, final Level level, final String message, final Throwable exception) {
+        dispatch(sink, new Entry(null, sink, level, message, exception));
+    }
+
+    /**
+     * Gets the number of exceptions written by the request threads because
+     * the queue of their destination was full or the dispatcher was closed.
+     * 
+     * @return the number of exceptions not written in background
+     */
+    public long getFallbackCount() {
+        return fallbacks.get();
+    }
+
+    /**
+     * Gets the number of destinations that received exceptions.
+     * 
+     * @return the number of queues
+     */
+    public int size() {
+        return lanes.size();
+    }
+
+    /**
+     * Stops the background threads after they write the queued exceptions.
+     * Exceptions dispatched afterwards are written by the request threads.
+     */
+    @Override
+    public void close() {
+        closed = true;
+
+        for (final Lane lane : lanes.values()) {
+            lane.stop();
+        }
+
+    }
+
+    /**
+     * Queues an exception for a destination, starting the queue of the
+     * destination if needed.
+     * 
+     * @param destination
+     *            the logger or sink
+     * @param entry
+     *            the exception
+     */
+    private void dispatch(final Object destination, final Entry entry) {
+
+        if (closed) {
+            fallbacks.incrementAndGet();
+            entry.write();
+            return;
+        }
+
+        Lane lane = lanes.get(destination);
+
+        if (lane == null) {
+            final Lane newLane = new Lane(destination);
+            lane = lanes.putIfAbsent(destination, newLane);
+
+            if (lane == null) {
+                lane = newLane;
+                lane.start();
+
+                // close() may have stopped the lanes before this one was added
+                if (closed) {
+                    lane.stop();
+                }
+
+            }
+
+        }
+
+        if (!lane.offer(entry)) {
+            fallbacks.incrementAndGet();
+            entry.write();
+        }
+
+    }
+
+    /**
+     * Queued exception, which is also the node of the queue.
+     */
+    private static final class Entry {
+
+        private static final AtomicReferenceFieldUpdater<Entry, Entry> NEXT = AtomicReferenceFieldUpdater
+                .newUpdater(Entry.class, Entry.class, "next");
+
+        private final Logger logger;
+        private final RecordSink sink;
+        private final Level level;
+        private final String message;
+        private Throwable exception;
+
+        private volatile Entry next;
+
+        /**
+         * Creates a queued exception.
+         * 
+         * @param logger
+         *            the destination logger, if any
+         * @param sink
+         *            the destination sink, if any
+         * @param level
+         *            the level
+         * @param message
+         *            the message
+         * @param exception
+         *            the exception
+         */
+        Entry(final Logger logger, final RecordSink sink, final Level level, final String message,
+                final Throwable exception) {
+            this.logger = logger;
+            this.sink = sink;
+            this.level = level;
+            this.message = message;
+            this.exception = exception;
+        }
+
+        /**
+         * Links the next node, visible to the consumer once it reads
+         * {@link #next}.
+         * 
+         * @param entry
+         *            the next node
+         */
+        void linkNext(final Entry entry) {
+            NEXT.lazySet(this, entry);
+        }
+
+        /**
+         * Writes the exception to its destination.
+         */
+        void write() {
+
+            if (sink != null) {
+
+                if (sink.isEnabled(level)) {
+                    sink.write(level, message, exception);
+                }
+
+            } else if (logger.isEnabled(level)) {
+                logger.log(level, message, exception);
+            }
+
+        }
+
+    }
+
+    /**
+     * Queue of a destination and the thread that drains it. The queue is a
+     * linked list where the producers swap the tail and the single consumer
+     * follows the links from a stub head, so offering is a single atomic
+     * exchange.
+     */
+    private final class Lane implements Runnable {
+
+        private final Thread drainer;
+        private final AtomicReference<Entry> tail;
+        private final AtomicInteger size = new AtomicInteger();
+
+        private Entry head;
+        private volatile boolean waiting;
+        private volatile boolean stopped;
+
+        /**
+         * Creates the queue of a destination.
+         * 
+         * @param destination
+         *            the logger or sink
+         */
+        Lane(final Object destination) {
+            head = new Entry(null, null, null, null, null);
+            tail = new AtomicReference<>(head);
+
+            final String name = destination instanceof Logger ? ((Logger) destination).getName() : destination
+                    .getClass().getSimpleName();
+            drainer = new Thread(this, "exception-dispatcher-" + name);
+            drainer.setDaemon(true);
+        }
+
+        /**
+         * Starts the drainer.
+         */
+        void start() {
+            drainer.start();
+        }
+
+        /**
+         * Queues an exception.
+         * 
+         * @param entry
+         *            the exception
+         * @return <code>false</code> if the queue is full or stopped
+         */
+        boolean offer(final Entry entry) {
+
+            if (size.incrementAndGet() > laneCapacity) {
+                size.decrementAndGet();
+                return false;
+            }
+
+            // checked after counting the exception, so stop() waits for it to be linked
+            if (stopped) {
+                size.decrementAndGet();
+                return false;
+            }
+
+            tail.getAndSet(entry).linkNext(entry);
+
+            if (waiting) {
+                LockSupport.unpark(drainer);
+            }
+
+            return true;
+        }
+
+        /**
+         * Writes the queued exceptions until the queue is stopped and empty.
+         */
+        @Override
+        public void run() {
+
+            while (true) {
+                final Entry entry = poll();
+
+                if (entry != null) {
+                    write(entry);
+                    continue;
+                }
+
+                if (stopped && tail.get() == head) {
+                    return;
+                }
+
+                waiting = true;
+
+                // an exception offered before the flag was set would not unpark
+                if (head.next == null) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+
+                waiting = false;
+            }
+
+        }
+
+        /**
+         * Stops the drainer after it writes the queued exceptions, waits for
+         * it and writes what was queued meanwhile. The exceptions offered
+         * afterwards are rejected.
+         */
+        synchronized void stop() {
+            stopped = true;
+            LockSupport.unpark(drainer);
+
+            try {
+                drainer.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            // exceptions queued while the drainer was stopping, some of them still being linked
+            while (size.get() > 0) {
+                final Entry entry = poll();
+
+                if (entry != null) {
+                    write(entry);
+                } else {
+                    Thread.yield();
+                }
+
+            }
+
+        }
+
+        /**
+         * Takes the next exception. Called only by the drainer.
+         * 
+         * @return the exception or <code>null</code> if the queue is empty or
+         *         the next exception is still being linked
+         */
+        private Entry poll() {
+            final Entry next = head.next;
+
+            if (next == null) {
+                return null;
+            }
+
+            head = next;
+            size.decrementAndGet();
+            return next;
+        }
+
+        /**
+         * Writes an exception, reporting the failures to the status logger.
+         * 
+         * @param entry
+         *            the exception
+         */
+        private void write(final Entry entry) {
+
+            try {
+                entry.write();
+            } catch (final RuntimeException e) {
+                StatusLogger.getLogger().error("Could not write an exception", e);
+            } finally {
+                // the entry stays as the stub head
+                entry.exception = null;
+            }
+
+        }
+
+    }
+
+}
@@ -1,11 +1,17 @@
 package br.com.falbuquerque.logging;
 
-import java.util.Collection;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 
+import br.com.falbuquerque.logging.ResolvedRouteCache.ResolvedRoute;
+import br.com.falbuquerque.logging.sink.RecordSink;
+
 /**
  * Handles exceptions and directs them to the appropriate loggers.
  * 
@@ -13,11 +19,19 @@ import org.apache.logging.log4j.Logger;
  */
 class ExceptionHandler {
 
+    private static final int INITIAL_CAPACITY = 2;
+    private static final AtomicIntegerFieldUpdater<ExceptionHandler> EXCEPTION_COUNT = AtomicIntegerFieldUpdater
+            .newUpdater(ExceptionHandler.class, "exceptionCount");
+
     private final Logger defaultExceptionLogger;
     private final ExceptionMapper exceptionMapper;
     private final Level defaultLogLevel;
-    private final Collection<Exception> exceptions;
+    private volatile Exception[] exceptions;
+    private volatile int exceptionCount;
     private BufferedLogger bufferedLogger;
+    private ExceptionAggregator aggregator;
+    private ExceptionDispatcher dispatcher;
+    private ResolvedRouteCache routes;
 
     /**
      * Creates an exception handler.
@@ -55,7 +69,19 @@ class ExceptionHandler {
         this(defaultExceptionLogger, null, defaultLogLevel);
     }
 
-    private ExceptionHandler(final Logger defaultExceptionLogger, final ExceptionMapper exceptionMapper,
+    /**
+     * Creates an exception handler.
+     * 
+     * @param defaultExceptionLogger
+     *            the logger that will log the exceptions
+     * @param exceptionMapper
+     *            the object responsible for mapping exceptions to different
+     *            loggers
+     * @param defaultLogLevel
+     *            the default log level to exceptions logger by the current
+     *            object
+     */
+    ExceptionHandler(final Logger defaultExceptionLogger, final ExceptionMapper exceptionMapper,
             final Level defaultLogLevel) {
         this.defaultExceptionLogger = defaultExceptionLogger;
         this.exceptionMapper = exceptionMapper;
@@ -66,25 +92,69 @@ class ExceptionHandler {
             this.defaultLogLevel = defaultLogLevel;
         }
 
-        exceptions = new LinkedList<>();
     }
 
     /**
-     * Appends an exception to the log.
+     * Appends an exception to the log. The exceptions are kept in an array
+     * allocated by the first append and doubled when full. The new count is
+     * published after the exception is stored, so {@link #snapshot()} can
+     * read the exceptions from another thread.
      * 
      * @param thrownException
      *            the thrown exception to be appended
      * @return the current instance
      */
     ExceptionHandler appendException(final Exception thrownException) {
-        exceptions.add(thrownException);
+        final int count = exceptionCount;
+        Exception[] current = exceptions;
+
+        if (current == null) {
+            current = new Exception[INITIAL_CAPACITY];
+            exceptions = current;
+        } else if (count == current.length) {
+            current = Arrays.copyOf(current, count * 2);
+            exceptions = current;
+        }
+
+        current[count] = thrownException;
+        EXCEPTION_COUNT.lazySet(this, count + 1);
         return this;
     }
 
+    /**
+     * Describes the exceptions appended so far. May be called by any thread
+     * while the exceptions are still being appended.
+     * 
+     * @return the class and message of each exception
+     */
+    List<String> snapshot() {
+        final int count = exceptionCount;
+        final Exception[] current = exceptions;
+        final List<String> descriptions = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            final Exception exception = current[i];
+
+            // cleaned up while being read
+            if (exception != null) {
+                descriptions.add(exception.toString());
+            }
+
+        }
+
+        return descriptions;
+    }
+
     /**
      * Logs the exceptions.
      */
     void log() {
+        final int count = exceptionCount;
+
+        if (count == 0) {
+            return;
+        }
+
         String token = "undefined";
 
         if (bufferedLogger != null) {
@@ -93,47 +163,138 @@ class ExceptionHandler {
 
         final String logMessage = "Exception in request [" + token + "]";
 
-        for (final Exception exception : exceptions) {
-            Logger logger = null;
-            Level level = null;
-
-            if (exceptionMapper != null) {
-                final LoggerConfiguration loggerToException = exceptionMapper.getLogger(exception.getClass());
+        final Exception[] current = exceptions;
 
-                if (loggerToException != null) {
-                    logger = loggerToException.getLogger();
-                    level = loggerToException.getLevel();
-                }
+        for (int i = 0; i < count; i++) {
+            final Exception exception = current[i];
+            final ResolvedRoute route = resolve(exception.getClass());
 
+            if (!route.isEnabled() || !isSampled(route.getSampling())) {
+                continue;
             }
 
-            if (logger == null) {
-                logger = defaultExceptionLogger;
-            }
+            final Logger logger = route.getLogger();
+            final RecordSink sink = route.getSink();
+            final Level level = route.getLevel();
 
-            if (level == null) {
-                level = defaultLogLevel;
+            if (aggregator != null && !aggregator.record(exception, token, logger, sink, level)) {
+                continue;
             }
 
-            if (logger.isEnabled(defaultLogLevel)) {
+            if (dispatcher != null) {
+
+                if (sink != null) {
+                    dispatcher.dispatch(sink, level, logMessage, exception);
+                } else {
+                    dispatcher.dispatch(logger, level, logMessage, exception);
+                }
+
+            } else if (sink != null) {
+                sink.write(level, logMessage, exception);
+            } else {
                 logger.log(level, logMessage, exception);
             }
 
-            logger.error(logMessage, exception);
         }
 
     }
 
+    /**
+     * Gets the route of an exception class from the cache shared by a
+     * factory or, without one, resolves it for this handler alone, as a cache
+     * of its own would live no longer than the request.
+     * 
+     * @param exceptionClass
+     *            the exception class
+     * @return the route
+     */
+    private ResolvedRoute resolve(final Class<? extends Exception> exceptionClass) {
+
+        if (routes == null) {
+            return ResolvedRouteCache.resolveUncached(defaultExceptionLogger, defaultLogLevel, exceptionMapper,
+                    exceptionClass);
+        }
+
+        return routes.resolve(exceptionMapper, exceptionClass);
+    }
+
+    /**
+     * Decides whether an exception is logged according to the sampling of its
+     * mapping.
+     * 
+     * @param sampling
+     *            the fraction of the exceptions of the mapping that is logged
+     * @return <code>true</code> if the exception must be logged
+     */
+    private static boolean isSampled(final double sampling) {
+        return sampling >= 1 || (sampling > 0 && ThreadLocalRandom.current().nextDouble() < sampling);
+    }
+
     /**
      * Cleans up the exceptions from the handler.
      * 
      * @return the current instance
      */
     ExceptionHandler cleanupExceptions() {
-        exceptions.clear();
+
+        if (exceptions != null) {
+            Arrays.fill(exceptions, 0, exceptionCount, null);
+            EXCEPTION_COUNT.lazySet(this, 0);
+        }
+
+        return this;
+    }
+
+    /**
+     * Aggregates the exceptions that are identical to the ones logged by
+     * other requests.
+     * 
+     * @param exceptionAggregator
+     *            the aggregator shared by the requests
+     * @return the current instance
+     */
+    ExceptionHandler aggregateWith(final ExceptionAggregator exceptionAggregator) {
+        this.aggregator = exceptionAggregator;
         return this;
     }
 
+    /**
+     * Hands the exceptions to a dispatcher that writes them in background,
+     * instead of writing them in the request thread.
+     * 
+     * @param exceptionDispatcher
+     *            the dispatcher shared by the requests
+     * @return the current instance
+     */
+    ExceptionHandler dispatchWith(final ExceptionDispatcher exceptionDispatcher) {
+        this.dispatcher = exceptionDispatcher;
+        return this;
+    }
+
+    /**
+     * Resolves the routes of the exceptions through a cache shared by the
+     * handlers with the same default logger and level, instead of resolving
+     * them on every log.
+     * 
+     * @param routeCache
+     *            the shared cache of the routes
+     * @return the current instance
+     */
+    ExceptionHandler routeWith(final ResolvedRouteCache routeCache) {
+        this.routes = routeCache;
+        return this;
+    }
+
+    /**
+     * Gets the cache of the routes shared with other handlers.
+     * 
+     * @return the cache or <code>null</code> if the routes are resolved by
+     *         this handler alone
+     */
+    ResolvedRouteCache getRouteCache() {
+        return routes;
+    }
+
     /**
      * Acknowledges the logger that is using the current exception handler.
      * 
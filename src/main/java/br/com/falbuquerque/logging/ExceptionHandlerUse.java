@@ -1,22 +1,47 @@
 package br.com.falbuquerque.logging;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 
 import com.google.gson.annotations.Expose;
 
 /**
- * Encapsulates the usage of exception handlers.
+ * Encapsulates the usage of exception handlers. The exception handler is only
+ * created when the first exception is appended, so the requests that never
+ * see an exception only keep the configuration of their handler.
  * 
  * @author Felipe Albuquerque
  */
 class ExceptionHandlerUse {
 
-    private final ExceptionHandler exceptionHandler;
+    /**
+     * Use without exceptions, shared by the records of the loggers that never
+     * created the use of a category. No exception can be appended to it.
+     */
+    static final ExceptionHandlerUse NONE = new ExceptionHandlerUse(null, null, null, null, null, null);
+
     private final BufferedLogger owner;
-    
+    private final Logger defaultExceptionLogger;
+    private final ExceptionMapper exceptionMapper;
+    private final Level defaultLogLevel;
+    private final ExceptionAggregator aggregator;
+    private final ExceptionDispatcher dispatcher;
+    private final ResolvedRouteCache routeCache;
+    private volatile ExceptionHandler exceptionHandler;
+
     @Expose
     private Boolean exceptionsLogged;
 
+    @Expose
+    private Collection<String> stackTraces;
+
     /**
      * Creates an encapsulated exception handler user.
      * 
@@ -28,10 +53,68 @@ class ExceptionHandlerUse {
      *            the exception mapper
      */
     ExceptionHandlerUse(final BufferedLogger owner, final Logger defaultExceptionLogger, final ExceptionMapper exceptionMapper) {
+        this(owner, defaultExceptionLogger, exceptionMapper, null, null, null);
+    }
+
+    /**
+     * Creates an encapsulated exception handler user.
+     * 
+     * @param owner
+     *            the logger that owns this exception handler user
+     * @param defaultExceptionLogger
+     *            the default exception logger
+     * @param exceptionMapper
+     *            the exception mapper or <code>null</code>
+     * @param defaultLogLevel
+     *            the level of the exceptions without a mapped level or
+     *            <code>null</code> to use the default of the handler
+     * @param aggregator
+     *            the aggregator of identical exceptions or <code>null</code>
+     * @param dispatcher
+     *            the dispatcher of the exceptions or <code>null</code> to
+     *            write them in the request thread
+     */
+    ExceptionHandlerUse(final BufferedLogger owner, final Logger defaultExceptionLogger,
+            final ExceptionMapper exceptionMapper, final Level defaultLogLevel, final ExceptionAggregator aggregator,
+            final ExceptionDispatcher dispatcher) {
+        this(owner, defaultExceptionLogger, exceptionMapper, defaultLogLevel, aggregator, dispatcher, null);
+    }
+
+    /**
+     * Creates an encapsulated exception handler user whose routes are
+     * resolved through a shared cache.
+     * 
+     * @param owner
+     *            the logger that owns this exception handler user
+     * @param defaultExceptionLogger
+     *            the default exception logger
+     * @param exceptionMapper
+     *            the exception mapper or <code>null</code>
+     * @param defaultLogLevel
+     *            the level of the exceptions without a mapped level or
+     *            <code>null</code> to use the default of the handler
+     * @param aggregator
+     *            the aggregator of identical exceptions or <code>null</code>
+     * @param dispatcher
+     *            the dispatcher of the exceptions or <code>null</code> to
+     *            write them in the request thread
+     * @param routeCache
+     *            the cache of the routes shared by the uses with the same
+     *            default logger and level, or <code>null</code> to resolve
+     *            the routes for each request
+     */
+    ExceptionHandlerUse(final BufferedLogger owner, final Logger defaultExceptionLogger,
+            final ExceptionMapper exceptionMapper, final Level defaultLogLevel, final ExceptionAggregator aggregator,
+            final ExceptionDispatcher dispatcher, final ResolvedRouteCache routeCache) {
         this.owner = owner;
-        exceptionHandler = new ExceptionHandler(defaultExceptionLogger, exceptionMapper);
+        this.defaultExceptionLogger = defaultExceptionLogger;
+        this.exceptionMapper = exceptionMapper;
+        this.defaultLogLevel = defaultLogLevel;
+        this.aggregator = aggregator;
+        this.dispatcher = dispatcher;
+        this.routeCache = routeCache;
     }
-    
+
     /**
      * Creates an encapsulated exception handler user.
      * 
@@ -44,6 +127,47 @@ class ExceptionHandlerUse {
         this(owner, defaultExceptionLogger, null);
     }
 
+    /**
+     * Creates a use with the same configuration for another logger.
+     * 
+     * @param owner
+     *            the logger that owns the new exception handler user
+     * @return the new exception handler user
+     */
+    ExceptionHandlerUse createSibling(final BufferedLogger owner) {
+
+        if (this == NONE) {
+            return NONE;
+        }
+
+        return new ExceptionHandlerUse(owner, defaultExceptionLogger, exceptionMapper, defaultLogLevel, aggregator,
+                dispatcher, routeCache);
+    }
+
+    /**
+     * Copies this use for the partial record of another logger, while the
+     * request thread may still be appending exceptions. The copy shares the
+     * exception handler, whose exceptions can be read by any thread, but not
+     * the full stack traces, which only the request thread may read.
+     * 
+     * @param owner
+     *            the logger that owns the copy
+     * @return the copy
+     */
+    ExceptionHandlerUse copyFor(final BufferedLogger owner) {
+        final ExceptionHandler handler = exceptionHandler;
+
+        if (handler == null) {
+            return NONE;
+        }
+
+        final ExceptionHandlerUse copy = new ExceptionHandlerUse(owner, defaultExceptionLogger, exceptionMapper,
+                defaultLogLevel, aggregator, dispatcher, routeCache);
+        copy.exceptionHandler = handler;
+        copy.exceptionsLogged = Boolean.TRUE;
+        return copy;
+    }
+
     /**
      * Appends an exception to the logger.
      * 
@@ -52,8 +176,25 @@ class ExceptionHandlerUse {
      * @return the current instance
      */
     void appendException(final Exception exception) {
+
+        if (exceptionHandler == null) {
+            exceptionHandler = createExceptionHandler();
+        }
+
         exceptionHandler.appendException(exception);
-        exceptionsLogged = true;
+        exceptionsLogged = Boolean.TRUE;
+
+        if (owner.isEscalated()) {
+
+            if (stackTraces == null) {
+                stackTraces = new LinkedList<>();
+            }
+
+            final StringWriter stackTrace = new StringWriter();
+            exception.printStackTrace(new PrintWriter(stackTrace));
+            stackTraces.add(stackTrace.toString());
+        }
+
     }
 
     /**
@@ -62,19 +203,80 @@ class ExceptionHandlerUse {
      * @return the exception mapper
      */
     ExceptionMapper getExceptionMapper() {
-        return exceptionHandler.getExceptionMapper();
+        return exceptionMapper;
+    }
+
+    /**
+     * Checks whether any exception was appended.
+     * 
+     * @return <code>true</code> if any exception was appended
+     */
+    boolean isExceptionsLogged() {
+        return Boolean.TRUE.equals(exceptionsLogged);
+    }
+
+    /**
+     * Gets the full stack traces of the appended exceptions, kept only for
+     * escalated requests.
+     * 
+     * @return the stack traces or <code>null</code> if the request is not
+     *         escalated
+     */
+    Collection<String> getStackTraces() {
+        return stackTraces;
+    }
+
+    /**
+     * Describes the exceptions appended so far. May be called by any thread.
+     * 
+     * @return the class and message of each exception
+     */
+    List<String> snapshot() {
+        final ExceptionHandler handler = exceptionHandler;
+        return handler == null ? Collections.emptyList() : handler.snapshot();
     }
 
     /**
      * Invokes the log of the exception handler if there is anything to log.
      */
     void log() {
-        exceptionHandler.acknowledgeLogger(owner);
 
-        if (exceptionsLogged) {
+        if (Boolean.TRUE.equals(exceptionsLogged)) {
+            exceptionHandler.acknowledgeLogger(owner);
             exceptionHandler.log();
         }
 
     }
 
+    /**
+     * Creates the exception handler with the configuration of this use.
+     * 
+     * @return the exception handler
+     */
+    private ExceptionHandler createExceptionHandler() {
+        final ExceptionHandler handler;
+
+        if (defaultLogLevel != null) {
+            handler = new ExceptionHandler(defaultExceptionLogger, exceptionMapper, defaultLogLevel);
+        } else if (exceptionMapper != null) {
+            handler = new ExceptionHandler(defaultExceptionLogger, exceptionMapper);
+        } else {
+            handler = new ExceptionHandler(defaultExceptionLogger);
+        }
+
+        if (aggregator != null) {
+            handler.aggregateWith(aggregator);
+        }
+
+        if (dispatcher != null) {
+            handler.dispatchWith(dispatcher);
+        }
+
+        if (routeCache != null) {
+            handler.routeWith(routeCache);
+        }
+
+        return handler;
+    }
+
 }
@@ -1,11 +1,15 @@
 package br.com.falbuquerque.logging;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 
+import br.com.falbuquerque.logging.sink.RecordSink;
+
 /**
  * Maps exceptions of different types to loggers.
  * 
@@ -13,7 +17,25 @@ import org.apache.logging.log4j.Logger;
  */
 public class ExceptionMapper {
 
-    private final Map<Class<? extends Exception>, LoggerConfiguration> mapping = new HashMap<Class<? extends Exception>, LoggerConfiguration>();
+    private final Map<Class<? extends Exception>, LoggerConfiguration> mapping;
+    private volatile int version;
+
+    /**
+     * Creates an empty mapper.
+     */
+    public ExceptionMapper() {
+        mapping = new HashMap<Class<? extends Exception>, LoggerConfiguration>();
+    }
+
+    /**
+     * Creates a mapper with fixed mappings.
+     * 
+     * @param mapping
+     *            the mappings, which are copied
+     */
+    private ExceptionMapper(final Map<Class<? extends Exception>, LoggerConfiguration> mapping) {
+        this.mapping = Collections.unmodifiableMap(new HashMap<Class<? extends Exception>, LoggerConfiguration>(mapping));
+    }
 
     /**
      * Adds an &lt;exception type, logger&gt; tuple.
@@ -26,6 +48,7 @@ public class ExceptionMapper {
      */
     public ExceptionMapper map(final Class<? extends Exception> exceptionClass, final Logger mappedLogger) {
         mapping.put(exceptionClass, new LoggerConfiguration(mappedLogger));
+        version++;
         return this;
     }
 
@@ -42,9 +65,61 @@ public class ExceptionMapper {
      */
     public ExceptionMapper map(final Class<? extends Exception> exceptionClass, final Logger mappedLogger, final Level logLevel) {
         mapping.put(exceptionClass, new LoggerConfiguration(mappedLogger, logLevel));
+        version++;
         return this;
     }
 
+    /**
+     * Adds an &lt;exception type, logger&gt; tuple that logs only a fraction
+     * of the exceptions of the type.
+     * 
+     * @param exceptionClass
+     *            the class
+     * @param mappedLogger
+     *            the logger to which the exception type will be mapped
+     * @param logLevel
+     *            the level of the log
+     * @param sampling
+     *            the fraction of the exceptions that is logged, from 0 to 1
+     * @return the current instance
+     */
+    public ExceptionMapper map(final Class<? extends Exception> exceptionClass, final Logger mappedLogger,
+            final Level logLevel, final double sampling) {
+        mapping.put(exceptionClass, new LoggerConfiguration(mappedLogger, logLevel, sampling));
+        version++;
+        return this;
+    }
+
+    /**
+     * Adds an &lt;exception type, sink&gt; tuple. Exceptions of the type are
+     * written straight to the sink, bypassing log4j2.
+     * 
+     * @param exceptionClass
+     *            the class
+     * @param mappedSink
+     *            the sink to which the exception type will be mapped
+     * @param logLevel
+     *            the level of the log
+     * @return the current instance
+     */
+    public ExceptionMapper map(final Class<? extends Exception> exceptionClass, final RecordSink mappedSink,
+            final Level logLevel) {
+        mapping.put(exceptionClass, new LoggerConfiguration(mappedSink, logLevel));
+        version++;
+        return this;
+    }
+
+    /**
+     * Creates a copy of the current mappings that cannot be changed, so it can
+     * be shared by many requests. Calling <code>map</code> on the copy throws
+     * {@link UnsupportedOperationException}.
+     * 
+     * @return the immutable copy
+     */
+    public ExceptionMapper immutableCopy() {
+        return new ExceptionMapper(mapping);
+    }
+
     /**
      * Gets the logger mapped to the given exception type.
      * 
@@ -57,4 +132,33 @@ public class ExceptionMapper {
         return mapping.get(exceptionClass);
     }
 
+    /**
+     * Gets the mapped exception classes.
+     * 
+     * @return the mapped exception classes, which must not be changed
+     */
+    Set<Class<? extends Exception>> getMappedClasses() {
+        return mapping.keySet();
+    }
+
+    /**
+     * Gets the version of the mappings, changed by every <code>map</code>
+     * call, so the routes resolved from the previous mappings are discarded.
+     * 
+     * @return the version
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Discards the routes of the exceptions resolved by the buffered loggers,
+     * including whether their levels are enabled. The routes are discarded
+     * automatically when a log4j2 configuration is replaced; this must be
+     * called when the levels of the loggers are changed in place instead.
+     */
+    public static void invalidateResolvedRoutes() {
+        ResolvedRouteCache.invalidateAll();
+    }
+
 }
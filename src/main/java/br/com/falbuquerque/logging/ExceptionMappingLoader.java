@@ -0,0 +1,244 @@
+package br.com.falbuquerque.logging;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * Loads exception mappings from configuration files, so the routing of the
+ * exceptions can change without a redeploy. Files ending with
+ * <code>.json</code> are read as JSON and any other file as properties.
+ * 
+ * <p>
+ * Properties map each exception class to a logger name, optionally followed by
+ * the level and the sampling:
+ * </p>
+ * 
+ * <pre>
+ * java.lang.IllegalArgumentException = runtime, WARN, 0.1
+ * java.sql.SQLException = error
+ * </pre>
+ * 
+ * <p>
+ * JSON holds the same information as a list of mappings:
+ * </p>
+ * 
+ * <pre>
+ * {"mappings": [{"exception": "java.sql.SQLException", "logger": "error", "level": "ERROR", "sampling": 1.0}]}
+ * </pre>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class ExceptionMappingLoader {
+
+    private final Function<String, Logger> loggers;
+    private final ClassLoader classLoader;
+
+    /**
+     * Creates a loader that gets the loggers from the {@link LogManager}.
+     */
+    public ExceptionMappingLoader() {
+        this(LogManager::getLogger, ExceptionMappingLoader.class.getClassLoader());
+    }
+
+    /**
+     * Creates a loader.
+     * 
+     * @param loggers
+     *            the function that gets a logger by its name
+     * @param classLoader
+     *            the class loader of the exception classes
+     */
+    public ExceptionMappingLoader(final Function<String, Logger> loggers, final ClassLoader classLoader) {
+        this.loggers = loggers;
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Loads the mappings of a file.
+     * 
+     * @param file
+     *            the configuration file
+     * @return an immutable mapper with the mappings of the file
+     * @throws IOException
+     *             if the file cannot be read
+     * @throws IllegalArgumentException
+     *             if any mapping is invalid
+     */
+    public ExceptionMapper load(final Path file) throws IOException {
+
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+
+            if (file.getFileName().toString().endsWith(".json")) {
+                return loadJson(reader);
+            } else {
+                return loadProperties(reader);
+            }
+
+        }
+
+    }
+
+    /**
+     * Loads mappings in the properties format.
+     * 
+     * @param reader
+     *            the reader of the properties
+     * @return an immutable mapper with the mappings
+     * @throws IOException
+     *             if the properties cannot be read
+     * @throws IllegalArgumentException
+     *             if any mapping is invalid
+     */
+    public ExceptionMapper loadProperties(final Reader reader) throws IOException {
+        final Properties properties = new Properties();
+        properties.load(reader);
+
+        final ExceptionMapper mapper = new ExceptionMapper();
+
+        for (final Entry<Object, Object> property : properties.entrySet()) {
+            final String[] route = property.getValue().toString().split(",");
+            final String level = route.length > 1 ? route[1].trim() : null;
+            final String sampling = route.length > 2 ? route[2].trim() : null;
+
+            map(mapper, property.getKey().toString().trim(), route[0].trim(), level, sampling);
+        }
+
+        return mapper.immutableCopy();
+    }
+
+    /**
+     * Loads mappings in the JSON format.
+     * 
+     * @param reader
+     *            the reader of the JSON
+     * @return an immutable mapper with the mappings
+     * @throws IllegalArgumentException
+     *             if any mapping is invalid
+     */
+    public ExceptionMapper loadJson(final Reader reader) {
+        final JsonMappings mappings;
+
+        try {
+            mappings = new Gson().fromJson(reader, JsonMappings.class);
+        } catch (final JsonParseException e) {
+            throw new IllegalArgumentException("Invalid exception mapping JSON", e);
+        }
+
+        final ExceptionMapper mapper = new ExceptionMapper();
+
+        if (mappings != null && mappings.mappings != null) {
+
+            for (final JsonMapping mapping : mappings.mappings) {
+                map(mapper, mapping.exception, mapping.logger, mapping.level,
+                        mapping.sampling == null ? null : mapping.sampling.toString());
+            }
+
+        }
+
+        return mapper.immutableCopy();
+    }
+
+    /**
+     * Adds a mapping to a mapper.
+     * 
+     * @param mapper
+     *            the mapper
+     * @param exceptionName
+     *            the name of the exception class
+     * @param loggerName
+     *            the name of the logger
+     * @param levelName
+     *            the name of the level, may be <code>null</code>
+     * @param sampling
+     *            the sampling, may be <code>null</code>
+     * @throws IllegalArgumentException
+     *             if the mapping is invalid
+     */
+    private void map(final ExceptionMapper mapper, final String exceptionName, final String loggerName,
+            final String levelName, final String sampling) {
+
+        if (exceptionName == null || exceptionName.isEmpty() || loggerName == null || loggerName.isEmpty()) {
+            throw new IllegalArgumentException("Exception mappings need an exception class and a logger");
+        }
+
+        Level level = null;
+
+        if (levelName != null && !levelName.isEmpty()) {
+            level = Level.getLevel(levelName.toUpperCase());
+
+            if (level == null) {
+                throw new IllegalArgumentException("Unknown level [" + levelName + "] mapped to " + exceptionName);
+            }
+
+        }
+
+        try {
+            mapper.map(exceptionClass(exceptionName), loggers.apply(loggerName), level,
+                    sampling == null || sampling.isEmpty() ? 1 : Double.parseDouble(sampling));
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid sampling [" + sampling + "] mapped to " + exceptionName, e);
+        }
+
+    }
+
+    /**
+     * Loads an exception class.
+     * 
+     * @param name
+     *            the class name
+     * @return the exception class
+     * @throws IllegalArgumentException
+     *             if the class does not exist or is not an exception
+     */
+    private Class<? extends Exception> exceptionClass(final String name) {
+        final Class<?> loaded;
+
+        try {
+            loaded = Class.forName(name, false, classLoader);
+        } catch (final ClassNotFoundException e) {
+            throw new IllegalArgumentException("Unknown exception class " + name, e);
+        }
+
+        if (!Exception.class.isAssignableFrom(loaded)) {
+            throw new IllegalArgumentException(name + " is not an exception");
+        }
+
+        return loaded.asSubclass(Exception.class);
+    }
+
+    /**
+     * JSON representation of the mappings.
+     */
+    private static class JsonMappings {
+
+        private List<JsonMapping> mappings;
+
+    }
+
+    /**
+     * JSON representation of a mapping.
+     */
+    private static class JsonMapping {
+
+        private String exception;
+        private String logger;
+        private String level;
+        private Double sampling;
+
+    }
+
+}
@@ -0,0 +1,60 @@
+package br.com.falbuquerque.logging;
+
+/**
+ * Thresholds from which a {@link BufferedLogger} writes its buffered messages
+ * as a chunk record instead of waiting for {@link BufferedLogger#log()}. Each
+ * chunk carries the request token and a sequence number, and the final record
+ * tells how many chunks preceded it, so the whole request can be reassembled
+ * by {@link br.com.falbuquerque.logging.analysis.ChunkReassembler}.
+ * 
+ * <p>
+ * A threshold equal to zero is not checked. The age is checked when messages
+ * are appended, so an idle request is not flushed.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public final class IncrementalFlush {
+
+    private final int maxMessages;
+    private final long maxChars;
+    private final long maxAgeNanos;
+
+    /**
+     * Creates the thresholds of the incremental flush.
+     * 
+     * @param maxMessages
+     *            the number of buffered messages that triggers a flush
+     * @param maxChars
+     *            the number of buffered characters that triggers a flush
+     * @param maxAgeMillis
+     *            the age of the oldest buffered message that triggers a flush
+     */
+    public IncrementalFlush(final int maxMessages, final long maxChars, final long maxAgeMillis) {
+
+        if (maxMessages < 0 || maxChars < 0 || maxAgeMillis < 0) {
+            throw new IllegalArgumentException("The flush thresholds must not be negative");
+        }
+
+        this.maxMessages = maxMessages;
+        this.maxChars = maxChars;
+        this.maxAgeNanos = maxAgeMillis * 1000000L;
+    }
+
+    /**
+     * Checks whether the buffered messages must be flushed.
+     * 
+     * @param messages
+     *            the number of buffered messages
+     * @param chars
+     *            the number of buffered characters
+     * @param firstMessageNanos
+     *            the {@link System#nanoTime()} of the oldest buffered message
+     * @return <code>true</code> if any threshold was reached
+     */
+    boolean shouldFlush(final int messages, final long chars, final long firstMessageNanos) {
+        return (maxMessages > 0 && messages >= maxMessages) || (maxChars > 0 && chars >= maxChars)
+                || (maxAgeNanos > 0 && System.nanoTime() - firstMessageNanos >= maxAgeNanos);
+    }
+
+}
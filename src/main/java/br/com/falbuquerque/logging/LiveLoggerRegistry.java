@@ -0,0 +1,417 @@
+package br.com.falbuquerque.logging;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.status.StatusLogger;
+
+import br.com.falbuquerque.logging.request.Request;
+import br.com.falbuquerque.logging.util.JsonParser;
+
+/**
+ * Registry of the buffered loggers that were not logged yet, so their content
+ * can be written as partial records when the JVM shuts down. Loggers created
+ * by a {@link BufferedLoggerFactory} built with
+ * {@link BufferedLoggerFactory.Builder#registerLive(LiveLoggerRegistry)} are
+ * registered when created and removed when logged.
+ * 
+ * <p>
+ * The slots are split in stripes chosen by the registering thread, each with
+ * its own lock, so request threads rarely contend. The slots hold weak
+ * references: a logger dropped without being logged does not leak and its
+ * slot is reused.
+ * </p>
+ * 
+ * <p>
+ * The flush of a logger runs while its request thread may still be using it,
+ * so it is a best effort: a logger that fails to be written is reported to
+ * the {@link StatusLogger} and skipped. If the records go to log4j2 loggers,
+ * the <code>shutdownHook</code> of <code>log4j2.xml</code> must be disabled,
+ * otherwise log4j2 may stop before the registry is flushed.
+ * </p>
+ * 
+ * <p>
+ * The registered loggers can also be inspected while their requests run,
+ * through {@link #snapshotAll()} or the JMX operations registered by
+ * {@link #registerMBean()}. Snapshots copy what the request threads already
+ * published and never block them.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class LiveLoggerRegistry implements LiveLoggerRegistryMXBean {
+
+    /**
+     * Name under which {@link #registerMBean()} registers the registry.
+     */
+    public static final String MBEAN_NAME = "br.com.falbuquerque.logging:type=LiveLoggerRegistry";
+
+    private static final LiveLoggerRegistry DEFAULT = new LiveLoggerRegistry(Runtime.getRuntime()
+            .availableProcessors() * 2);
+
+    private static final int INITIAL_STRIPE_CAPACITY = 16;
+    private static final int STRIPE_BITS = 24;
+    private static final int SLOT_MASK = (1 << STRIPE_BITS) - 1;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final JsonParser jsonParser = new JsonParser();
+
+    /**
+     * Creates a registry.
+     * 
+     * @param concurrency
+     *            the expected number of threads registering loggers at the
+     *            same time, rounded up to a power of two
+     */
+    public LiveLoggerRegistry(final int concurrency) {
+        final int stripeCount = Integer.highestOneBit(Math.max(1, Math.min(concurrency, 128)) * 2 - 1);
+        stripes = new Stripe[stripeCount];
+        stripeMask = stripeCount - 1;
+
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+
+    }
+
+    /**
+     * Gets the registry shared by the application.
+     * 
+     * @return the default registry
+     */
+    public static LiveLoggerRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Flushes the registered loggers when the JVM shuts down.
+     * 
+     * @param budgetMillis
+     *            the time the shutdown hook may take
+     * @return the current instance
+     */
+    public LiveLoggerRegistry installShutdownHook(final long budgetMillis) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flushAll(budgetMillis), "live-logger-flush"));
+        return this;
+    }
+
+    /**
+     * Registers the registry in the platform MBean server, under
+     * {@link #MBEAN_NAME}.
+     * 
+     * @return the current instance
+     * @throws IllegalStateException
+     *             if the registry cannot be registered, e.g. if another
+     *             registry already has the name
+     */
+    public LiveLoggerRegistry registerMBean() {
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(MBEAN_NAME));
+        } catch (final JMException e) {
+            throw new IllegalStateException("Could not register the live logger registry", e);
+        }
+
+        return this;
+    }
+
+    /**
+     * Registers a logger.
+     * 
+     * @param logger
+     *            the logger
+     * @return the handle of the registration, used to unregister the logger
+     */
+    int register(final BufferedLogger logger) {
+        final int stripe = (int) Thread.currentThread().getId() & stripeMask;
+        return stripe << STRIPE_BITS | stripes[stripe].add(logger);
+    }
+
+    /**
+     * Unregisters a logger.
+     * 
+     * @param handle
+     *            the handle of the registration
+     * @param logger
+     *            the registered logger
+     * @return <code>true</code> if the logger was still registered
+     */
+    boolean unregister(final int handle, final BufferedLogger logger) {
+        return stripes[handle >>> STRIPE_BITS].remove(handle & SLOT_MASK, logger);
+    }
+
+    /**
+     * Gets the number of registered loggers that were not collected yet.
+     * 
+     * @return the number of live loggers
+     */
+    public int size() {
+        return getLiveLoggers().size();
+    }
+
+    @Override
+    public int getInFlightCount() {
+        return size();
+    }
+
+    @Override
+    public String[] getInFlightTokens() {
+        final List<BufferedLogger> loggers = getLiveLoggers();
+        final String[] tokens = new String[loggers.size()];
+
+        for (int i = 0; i < tokens.length; i++) {
+            final Request request = loggers.get(i).getRequest();
+            tokens[i] = request == null ? null : request.getToken();
+        }
+
+        return tokens;
+    }
+
+    @Override
+    public String snapshot(final String token) {
+        final List<LoggerSnapshot> snapshots = new ArrayList<>();
+
+        for (final BufferedLogger logger : getLiveLoggers()) {
+            final Request request = logger.getRequest();
+
+            if (request != null && Objects.equals(request.getToken(), token)) {
+                snapshots.add(logger.snapshot());
+            }
+
+        }
+
+        return jsonParser.toJson(snapshots);
+    }
+
+    /**
+     * Takes snapshots of all the registered loggers, without stopping their
+     * requests.
+     * 
+     * @return the snapshots
+     */
+    public List<LoggerSnapshot> snapshotAll() {
+        final List<BufferedLogger> loggers = getLiveLoggers();
+        final List<LoggerSnapshot> snapshots = new ArrayList<>(loggers.size());
+
+        for (final BufferedLogger logger : loggers) {
+            snapshots.add(logger.snapshot());
+        }
+
+        return snapshots;
+    }
+
+    /**
+     * Logs all the registered loggers as partial records, in parallel. The
+     * loggers are unregistered.
+     * 
+     * @param budgetMillis
+     *            the time the flush may take; loggers not written by then are
+     *            abandoned
+     * @return the number of loggers written
+     */
+    public int flushAll(final long budgetMillis) {
+        final List<BufferedLogger> loggers = getLiveLoggers();
+
+        if (loggers.isEmpty()) {
+            return 0;
+        }
+
+        final List<Callable<Boolean>> flushes = new ArrayList<>(loggers.size());
+
+        for (final BufferedLogger logger : loggers) {
+            flushes.add(() -> flush(logger));
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(loggers.size(), Runtime.getRuntime()
+                .availableProcessors()), runnable -> {
+            final Thread thread = new Thread(runnable, "live-logger-flush-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        int written = 0;
+
+        try {
+
+            for (final Future<Boolean> flush : executor.invokeAll(flushes, budgetMillis, TimeUnit.MILLISECONDS)) {
+
+                if (!flush.isCancelled() && flush.get()) {
+                    written++;
+                }
+
+            }
+
+        } catch (final Exception e) {
+            StatusLogger.getLogger().error("Could not flush the live loggers", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return written;
+    }
+
+    /**
+     * Logs a registered logger as a partial record.
+     * 
+     * @param logger
+     *            the logger
+     * @return <code>true</code> if the logger was written
+     */
+    private static boolean flush(final BufferedLogger logger) {
+
+        try {
+            return logger.logPartial();
+        } catch (final RuntimeException e) {
+            StatusLogger.getLogger().error("Could not flush a live logger", e);
+            return false;
+        }
+
+    }
+
+    /**
+     * Takes a snapshot of the registered loggers.
+     * 
+     * @return the loggers that were not collected yet
+     */
+    private List<BufferedLogger> getLiveLoggers() {
+        final List<BufferedLogger> loggers = new ArrayList<>();
+
+        for (final Stripe stripe : stripes) {
+            stripe.collect(loggers);
+        }
+
+        return loggers;
+    }
+
+    /**
+     * Slots of a stripe, guarded by the stripe lock. Free slots are kept in a
+     * stack, so registering is a push or a pop.
+     */
+    private static final class Stripe {
+
+        private WeakReference<?>[] slots = new WeakReference<?>[INITIAL_STRIPE_CAPACITY];
+        private int[] freeSlots = new int[INITIAL_STRIPE_CAPACITY];
+        private int freeCount;
+        private int used;
+
+        /**
+         * Adds a logger to a free slot.
+         * 
+         * @param logger
+         *            the logger
+         * @return the slot
+         */
+        synchronized int add(final BufferedLogger logger) {
+            final int slot;
+
+            if (freeCount > 0) {
+                slot = freeSlots[--freeCount];
+            } else {
+
+                if (used == slots.length && !reclaimCollected()) {
+                    grow();
+                }
+
+                if (freeCount > 0) {
+                    slot = freeSlots[--freeCount];
+                } else {
+                    slot = used++;
+                }
+
+            }
+
+            slots[slot] = new WeakReference<>(logger);
+            return slot;
+        }
+
+        /**
+         * Frees the slot of a logger.
+         * 
+         * @param slot
+         *            the slot
+         * @param logger
+         *            the logger
+         * @return <code>true</code> if the slot still held the logger
+         */
+        synchronized boolean remove(final int slot, final BufferedLogger logger) {
+
+            if (slot >= used || slots[slot] == null || slots[slot].get() != logger) {
+                return false;
+            }
+
+            slots[slot] = null;
+            freeSlots[freeCount++] = slot;
+            return true;
+        }
+
+        /**
+         * Adds the live loggers of the stripe to a list.
+         * 
+         * @param loggers
+         *            the list
+         */
+        synchronized void collect(final List<BufferedLogger> loggers) {
+
+            for (int i = 0; i < used; i++) {
+
+                if (slots[i] != null) {
+                    final Object logger = slots[i].get();
+
+                    if (logger != null) {
+                        loggers.add((BufferedLogger) logger);
+                    }
+
+                }
+
+            }
+
+        }
+
+        /**
+         * Frees the slots of the collected loggers.
+         * 
+         * @return <code>true</code> if any slot was freed
+         */
+        private boolean reclaimCollected() {
+
+            for (int i = 0; i < used; i++) {
+
+                if (slots[i] != null && slots[i].get() == null) {
+                    slots[i] = null;
+                    freeSlots[freeCount++] = i;
+                }
+
+            }
+
+            return freeCount > 0;
+        }
+
+        /**
+         * Doubles the number of slots.
+         */
+        private void grow() {
+
+            if (slots.length << 1 > SLOT_MASK) {
+                throw new IllegalStateException("Too many live loggers");
+            }
+
+            slots = Arrays.copyOf(slots, slots.length << 1);
+            freeSlots = Arrays.copyOf(freeSlots, slots.length);
+        }
+
+    }
+
+}
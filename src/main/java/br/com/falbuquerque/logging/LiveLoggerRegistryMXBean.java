@@ -0,0 +1,36 @@
+package br.com.falbuquerque.logging;
+
+/**
+ * Management interface of a {@link LiveLoggerRegistry}, which lists the
+ * requests in flight and dumps their buffered content, e.g. from JConsole,
+ * to diagnose hung requests.
+ * 
+ * @author Felipe Albuquerque
+ */
+public interface LiveLoggerRegistryMXBean {
+
+    /**
+     * Gets the number of registered loggers that were not logged yet.
+     * 
+     * @return the number of requests in flight
+     */
+    int getInFlightCount();
+
+    /**
+     * Gets the tokens of the requests whose loggers were not logged yet.
+     * 
+     * @return the tokens of the requests in flight
+     */
+    String[] getInFlightTokens();
+
+    /**
+     * Takes snapshots of the loggers of the requests in flight with a token.
+     * 
+     * @param token
+     *            the token of the request
+     * @return the snapshots as a JSON array, empty if no request in flight
+     *         has the token
+     */
+    String snapshot(String token);
+
+}
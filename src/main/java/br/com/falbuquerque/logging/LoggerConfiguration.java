@@ -3,6 +3,8 @@ package br.com.falbuquerque.logging;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 
+import br.com.falbuquerque.logging.sink.RecordSink;
+
 /**
  * Represents a configuration of a logger.
  * 
@@ -11,7 +13,9 @@ import org.apache.logging.log4j.Logger;
 public class LoggerConfiguration {
 
     private final Logger logger;
+    private final RecordSink sink;
     private final Level level;
+    private final double sampling;
 
     /**
      * Creates a configuration of a logger.
@@ -22,8 +26,7 @@ public class LoggerConfiguration {
      *            the log level
      */
     public LoggerConfiguration(final Logger logger, final Level level) {
-        this.logger = logger;
-        this.level = level;
+        this(logger, null, level);
     }
 
     /**
@@ -33,7 +36,51 @@ public class LoggerConfiguration {
      *            the logger
      */
     public LoggerConfiguration(final Logger logger) {
-        this(logger, null);
+        this(logger, null, null);
+    }
+
+    /**
+     * Creates a configuration that writes to a record sink instead of a
+     * logger.
+     * 
+     * @param sink
+     *            the record sink
+     * @param level
+     *            the log level
+     */
+    public LoggerConfiguration(final RecordSink sink, final Level level) {
+        this(null, sink, level);
+    }
+
+    /**
+     * Creates a configuration of a logger that logs only a fraction of the
+     * exceptions.
+     * 
+     * @param logger
+     *            the logger
+     * @param level
+     *            the log level
+     * @param sampling
+     *            the fraction of the exceptions that is logged, from 0 to 1
+     */
+    public LoggerConfiguration(final Logger logger, final Level level, final double sampling) {
+        this(logger, null, level, sampling);
+    }
+
+    private LoggerConfiguration(final Logger logger, final RecordSink sink, final Level level) {
+        this(logger, sink, level, 1);
+    }
+
+    private LoggerConfiguration(final Logger logger, final RecordSink sink, final Level level, final double sampling) {
+
+        if (sampling < 0 || sampling > 1) {
+            throw new IllegalArgumentException("The sampling must be between 0 and 1");
+        }
+
+        this.logger = logger;
+        this.sink = sink;
+        this.level = level;
+        this.sampling = sampling;
     }
 
     /**
@@ -45,6 +92,16 @@ public class LoggerConfiguration {
         return logger;
     }
 
+    /**
+     * Gets the record sink.
+     * 
+     * @return the record sink or <code>null</code> if the configuration uses
+     *         a logger
+     */
+    public RecordSink getSink() {
+        return sink;
+    }
+
     /**
      * Gets the log level.
      * 
@@ -54,4 +111,13 @@ public class LoggerConfiguration {
         return level;
     }
 
+    /**
+     * Gets the fraction of the exceptions that is logged.
+     * 
+     * @return the sampling, from 0 to 1
+     */
+    public double getSampling() {
+        return sampling;
+    }
+
 }
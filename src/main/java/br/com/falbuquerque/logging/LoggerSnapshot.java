@@ -0,0 +1,123 @@
+package br.com.falbuquerque.logging;
+
+import java.util.List;
+
+import br.com.falbuquerque.logging.request.Request;
+
+import com.google.gson.annotations.Expose;
+
+/**
+ * Copy of the content of a buffered logger taken while its request is still
+ * running, e.g. to diagnose a hung request. Taking a snapshot never blocks
+ * the request thread, which may keep appending: the snapshot holds what was
+ * published up to the moment it was taken.
+ * 
+ * <p>
+ * Messages already flushed in chunks are not part of the snapshot. The
+ * messages spilled off the heap by a {@link BufferedLoggerFactory} can only be
+ * read by the request thread, so they are only counted.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public final class LoggerSnapshot {
+
+    @Expose
+    private final Request request;
+
+    @Expose
+    private final List<String> messages;
+
+    @Expose
+    private final Integer spilledMessages;
+
+    @Expose
+    private final List<String> internalExceptions;
+
+    @Expose
+    private final List<String> businessExceptions;
+
+    @Expose
+    private final long takenAtMillis;
+
+    /**
+     * Creates a snapshot.
+     * 
+     * @param request
+     *            the request of the logger
+     * @param messages
+     *            the buffered messages kept on the heap
+     * @param spilledMessages
+     *            the number of messages spilled off the heap
+     * @param internalExceptions
+     *            the descriptions of the internal exceptions
+     * @param businessExceptions
+     *            the descriptions of the business exceptions
+     */
+    LoggerSnapshot(final Request request, final List<String> messages, final int spilledMessages,
+            final List<String> internalExceptions, final List<String> businessExceptions) {
+        this.request = request;
+        this.messages = messages;
+        // left out of the JSON of the loggers that never spilled
+        this.spilledMessages = spilledMessages == 0 ? null : spilledMessages;
+        this.internalExceptions = internalExceptions;
+        this.businessExceptions = businessExceptions;
+        takenAtMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Gets the request of the logger.
+     * 
+     * @return the request
+     */
+    public Request getRequest() {
+        return request;
+    }
+
+    /**
+     * Gets the messages buffered on the heap when the snapshot was taken.
+     * 
+     * @return the messages
+     */
+    public List<String> getMessages() {
+        return messages;
+    }
+
+    /**
+     * Gets the number of messages spilled off the heap when the snapshot was
+     * taken, which are not part of {@link #getMessages()}.
+     * 
+     * @return the number of spilled messages
+     */
+    public int getSpilledMessages() {
+        return spilledMessages == null ? 0 : spilledMessages;
+    }
+
+    /**
+     * Gets the internal exceptions appended when the snapshot was taken.
+     * 
+     * @return the class and message of each exception
+     */
+    public List<String> getInternalExceptions() {
+        return internalExceptions;
+    }
+
+    /**
+     * Gets the business exceptions appended when the snapshot was taken.
+     * 
+     * @return the class and message of each exception
+     */
+    public List<String> getBusinessExceptions() {
+        return businessExceptions;
+    }
+
+    /**
+     * Gets the time the snapshot was taken.
+     * 
+     * @return the time in milliseconds since the epoch
+     */
+    public long getTakenAtMillis() {
+        return takenAtMillis;
+    }
+
+}
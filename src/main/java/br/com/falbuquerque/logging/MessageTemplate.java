@@ -0,0 +1,136 @@
+package br.com.falbuquerque.logging;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Message template registered in a {@link MessageTemplates}. The pattern is
+ * split once into the constant parts around its <code>{}</code> placeholders.
+ * Besides its id, a template has a key that depends only on its pattern, so
+ * the records written with it can be formatted by other processes.
+ * 
+ * @author Felipe Albuquerque
+ */
+final class MessageTemplate {
+
+    private static final String PLACEHOLDER = "{}";
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int id;
+    private final String pattern;
+    private final long key;
+    private final String[] parts;
+    private final int constantLength;
+
+    /**
+     * Creates a template.
+     * 
+     * @param id
+     *            the id of the template
+     * @param pattern
+     *            the message, with a <code>{}</code> placeholder for each
+     *            argument
+     */
+    MessageTemplate(final int id, final String pattern) {
+        this.id = id;
+        this.pattern = pattern;
+        key = keyOf(pattern);
+
+        final List<String> split = new ArrayList<>();
+        int start = 0;
+
+        for (int placeholder = pattern.indexOf(PLACEHOLDER); placeholder >= 0; placeholder = pattern.indexOf(
+                PLACEHOLDER, start)) {
+            split.add(pattern.substring(start, placeholder));
+            start = placeholder + PLACEHOLDER.length();
+        }
+
+        split.add(pattern.substring(start));
+        parts = split.toArray(new String[split.size()]);
+        constantLength = pattern.length() - (parts.length - 1) * PLACEHOLDER.length();
+    }
+
+    /**
+     * Gets the id of the template.
+     * 
+     * @return the id
+     */
+    int getId() {
+        return id;
+    }
+
+    /**
+     * Gets the key of the template.
+     * 
+     * @return the key, the same in every process for the same pattern
+     */
+    long getKey() {
+        return key;
+    }
+
+    /**
+     * Gets the pattern of the template.
+     * 
+     * @return the pattern
+     */
+    String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Gets the length of the constant parts of the template.
+     * 
+     * @return the number of characters of the pattern without the
+     *         placeholders
+     */
+    int getConstantLength() {
+        return constantLength;
+    }
+
+    /**
+     * Formats a message. Placeholders without an argument are kept as they
+     * are and the arguments without a placeholder are ignored.
+     * 
+     * @param arguments
+     *            the arguments of the placeholders
+     * @return the formatted message
+     */
+    String format(final Object[] arguments) {
+        final StringBuilder message = new StringBuilder(constantLength + 16 * (parts.length - 1));
+        message.append(parts[0]);
+
+        for (int i = 1; i < parts.length; i++) {
+
+            if (arguments != null && i <= arguments.length) {
+                message.append(arguments[i - 1]);
+            } else {
+                message.append(PLACEHOLDER);
+            }
+
+            message.append(parts[i]);
+        }
+
+        return message.toString();
+    }
+
+    /**
+     * Computes the key of a pattern: the 64-bit FNV-1a hash of its UTF-8
+     * bytes.
+     * 
+     * @param pattern
+     *            the pattern
+     * @return the key
+     */
+    static long keyOf(final String pattern) {
+        long hash = FNV_OFFSET_BASIS;
+
+        for (final byte b : pattern.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+
+        return hash;
+    }
+
+}
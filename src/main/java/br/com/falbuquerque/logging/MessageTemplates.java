@@ -0,0 +1,231 @@
+package br.com.falbuquerque.logging;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Registry of the message templates appended with
+ * {@link BufferedLogger#append(int, Object...)}. A template is a message whose
+ * <code>{}</code> placeholders are replaced by the arguments of each append,
+ * e.g. <code>"Order {} paid with {}"</code>. The constant parts of a template
+ * are kept once by the registry, while the loggers only keep the template id
+ * and the arguments of each message, formatting them when they are written.
+ * 
+ * <pre>
+ * private static final int ORDER_PAID = MessageTemplates.getDefault().register("Order {} paid with {}");
+ * 
+ * bufferedLogger.append(ORDER_PAID, orderId, paymentMethod);
+ * </pre>
+ * 
+ * <p>
+ * The ids are assigned in registration order, and registering the same
+ * pattern again gives back its id. Instances are thread-safe.
+ * </p>
+ * 
+ * <p>
+ * As the ids depend on the registration order, they are only meaningful in
+ * the process that assigned them. Records written with templates, see
+ * {@link RequestRecordEncoder}, carry the key of each template instead, a
+ * hash of its pattern, and are formatted by {@link #formatMessages} in any
+ * process where the same patterns are registered. Two patterns with the same
+ * key cannot be registered together.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public final class MessageTemplates {
+
+    private static final MessageTemplates DEFAULT = new MessageTemplates();
+
+    private final ConcurrentMap<String, MessageTemplate> patterns = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, MessageTemplate> keys = new ConcurrentHashMap<>();
+    private volatile MessageTemplate[] templates = new MessageTemplate[0];
+
+    /**
+     * Gets the registry shared by the process, used by the loggers that are
+     * not created by a factory with its own registry.
+     * 
+     * @return the default registry
+     */
+    public static MessageTemplates getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Registers a template.
+     * 
+     * @param pattern
+     *            the message, with a <code>{}</code> placeholder for each
+     *            argument
+     * @return the id of the template
+     * @throws IllegalArgumentException
+     *             if the key of the pattern is the key of another registered
+     *             pattern
+     */
+    public int register(final String pattern) {
+
+        if (pattern == null) {
+            throw new IllegalArgumentException("The template pattern must not be null");
+        }
+
+        final MessageTemplate registered = patterns.get(pattern);
+
+        if (registered != null) {
+            return registered.getId();
+        }
+
+        synchronized (this) {
+            final MessageTemplate existing = patterns.get(pattern);
+
+            if (existing != null) {
+                return existing.getId();
+            }
+
+            final MessageTemplate template = new MessageTemplate(templates.length, pattern);
+            final MessageTemplate colliding = keys.get(template.getKey());
+
+            if (colliding != null) {
+                throw new IllegalArgumentException("The template pattern [" + pattern
+                        + "] has the same key as [" + colliding.getPattern() + "]");
+            }
+
+            final MessageTemplate[] grown = Arrays.copyOf(templates, templates.length + 1);
+            grown[template.getId()] = template;
+            templates = grown;
+            keys.put(template.getKey(), template);
+            patterns.put(pattern, template);
+            return template.getId();
+        }
+
+    }
+
+    /**
+     * Gets the pattern of a template.
+     * 
+     * @param id
+     *            the id of the template
+     * @return the pattern
+     */
+    public String getPattern(final int id) {
+        return get(id).getPattern();
+    }
+
+    /**
+     * Gets the key of a template, written in the records instead of its id.
+     * 
+     * @param id
+     *            the id of the template
+     * @return the key, the same in every process for the same pattern
+     */
+    public long getKey(final int id) {
+        return get(id).getKey();
+    }
+
+    /**
+     * Gets the number of registered templates.
+     * 
+     * @return the number of templates
+     */
+    public int size() {
+        return templates.length;
+    }
+
+    /**
+     * Formats a message with a template.
+     * 
+     * @param id
+     *            the id of the template
+     * @param arguments
+     *            the arguments of the placeholders
+     * @return the formatted message
+     */
+    public String format(final int id, final Object... arguments) {
+        return get(id).format(arguments);
+    }
+
+    /**
+     * Replaces the templated messages of a record written with template keys
+     * by the formatted messages. Each templated message is an array with the
+     * template key followed by the arguments, e.g.
+     * <code>[7994871655098789937,"A12",10]</code>. Compact records must be
+     * expanded by {@link RecordSchema#expand} first.
+     * 
+     * @param record
+     *            the full record, changed in place
+     * @return the record
+     * @throws IllegalArgumentException
+     *             if a template of the record is not registered
+     */
+    public JsonObject formatMessages(final JsonObject record) {
+        final JsonElement messages = record.get(RecordSchema.Field.MESSAGES.getName());
+
+        if (messages == null || !messages.isJsonArray()) {
+            return record;
+        }
+
+        final JsonArray formatted = new JsonArray();
+
+        for (final JsonElement message : messages.getAsJsonArray()) {
+
+            if (message.isJsonArray()) {
+                final JsonArray templated = message.getAsJsonArray();
+                final Object[] arguments = new Object[templated.size() - 1];
+
+                for (int i = 0; i < arguments.length; i++) {
+                    final JsonElement argument = templated.get(i + 1);
+                    arguments[i] = argument.isJsonNull() ? null : argument.isJsonPrimitive() ? argument
+                            .getAsString() : argument.toString();
+                }
+
+                formatted.add(new JsonPrimitive(getByKey(templated.get(0).getAsLong()).format(arguments)));
+            } else {
+                formatted.add(message);
+            }
+
+        }
+
+        record.add(RecordSchema.Field.MESSAGES.getName(), formatted);
+        return record;
+    }
+
+    /**
+     * Gets a template.
+     * 
+     * @param id
+     *            the id of the template
+     * @return the template
+     */
+    MessageTemplate get(final int id) {
+        final MessageTemplate[] current = templates;
+
+        if (id < 0 || id >= current.length) {
+            throw new IllegalArgumentException("Unknown message template: " + id);
+        }
+
+        return current[id];
+    }
+
+    /**
+     * Gets a template by its key.
+     * 
+     * @param key
+     *            the key of the template
+     * @return the template
+     */
+    private MessageTemplate getByKey(final long key) {
+        final MessageTemplate template = keys.get(key);
+
+        if (template == null) {
+            throw new IllegalArgumentException("Unknown message template key: " + key);
+        }
+
+        return template;
+    }
+
+}
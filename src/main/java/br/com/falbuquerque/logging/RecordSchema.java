@@ -0,0 +1,382 @@
+package br.com.falbuquerque.logging;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Short keys of the compact request records written by a
+ * {@link RequestRecordEncoder}. A compact record starts with the version of its
+ * schema, e.g. <code>{"$v":1,"r":{"t":"WWED033A"},"m":["Step 1"]}</code>, so
+ * readers can look the schema up with {@link #forVersion(int)} and expand the
+ * keys back to the field names of the full records.
+ * 
+ * <p>
+ * Compact records also omit the empty or default sections: a
+ * <code>null</code> request, an empty list of parameters or of messages and
+ * the exception handlers to which no exception was appended.
+ * </p>
+ * 
+ * <pre>
+ * RecordSchema schema = RecordSchema.builder(2).key(Field.MESSAGES, "msg").build();
+ * </pre>
+ * 
+ * <p>
+ * Every schema built is registered by its version, which must not be used by
+ * a schema with other keys. Instances are immutable and thread-safe.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public final class RecordSchema {
+
+    /**
+     * Key of the schema version, the first field of every compact record.
+     */
+    public static final String VERSION_KEY = "$v";
+
+    private static final ConcurrentMap<Integer, RecordSchema> SCHEMAS = new ConcurrentHashMap<>();
+
+    /**
+     * Schema of the full records, whose keys are the field names.
+     */
+    static final RecordSchema FULL = new RecordSchema(0, fieldNames());
+
+    /**
+     * Default compact schema.
+     */
+    public static final RecordSchema COMPACT = builder(1).build();
+
+    private final int version;
+    private final Map<Field, String> keys;
+    private final Map<String, Field> fields = new HashMap<>();
+    private final byte[][] encodedKeys = new byte[Field.values().length][];
+
+    /**
+     * Creates a schema.
+     * 
+     * @param version
+     *            the version of the schema
+     * @param keys
+     *            the key of each field
+     */
+    private RecordSchema(final int version, final Map<Field, String> keys) {
+        this.version = version;
+        this.keys = keys;
+
+        for (final Map.Entry<Field, String> key : keys.entrySet()) {
+            fields.put(key.getValue(), key.getKey());
+            encodedKeys[key.getKey().ordinal()] = ("\"" + key.getValue() + "\":").getBytes(StandardCharsets.US_ASCII);
+        }
+
+    }
+
+    /**
+     * Starts building a schema with the default short keys.
+     * 
+     * @param version
+     *            the version of the schema, a positive number
+     * @return the builder
+     */
+    public static Builder builder(final int version) {
+        return new Builder(version);
+    }
+
+    /**
+     * Finds a registered schema.
+     * 
+     * @param version
+     *            the version of the schema
+     * @return the schema or <code>null</code> if no schema has the version
+     */
+    public static RecordSchema forVersion(final int version) {
+        return SCHEMAS.get(version);
+    }
+
+    /**
+     * Expands a compact record parsed by Gson into a full record, replacing
+     * its short keys by the field names. Records without a schema version
+     * are returned as they are.
+     * 
+     * @param record
+     *            the record
+     * @return the expanded record
+     * @throws IllegalArgumentException
+     *             if the schema version of the record is unknown
+     */
+    public static JsonObject expand(final JsonObject record) {
+        final JsonElement version = record.get(VERSION_KEY);
+
+        if (version == null) {
+            return record;
+        }
+
+        final RecordSchema schema = forVersion(version.getAsInt());
+
+        if (schema == null) {
+            throw new IllegalArgumentException("Unknown record schema version: " + version);
+        }
+
+        return schema.expandObject(record, true);
+    }
+
+    /**
+     * Gets the version of the schema.
+     * 
+     * @return the version
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the key of a field.
+     * 
+     * @param field
+     *            the field
+     * @return the key
+     */
+    public String getKey(final Field field) {
+        return keys.get(field);
+    }
+
+    /**
+     * Gets the field of a key.
+     * 
+     * @param key
+     *            the key
+     * @return the field or <code>null</code> if no field has the key
+     */
+    public Field getField(final String key) {
+        return fields.get(key);
+    }
+
+    /**
+     * Gets the key of a field encoded as a JSON name, followed by the colon.
+     * 
+     * @param field
+     *            the field
+     * @return the encoded key, which must not be changed
+     */
+    byte[] encodedKey(final Field field) {
+        return encodedKeys[field.ordinal()];
+    }
+
+    /**
+     * Expands the keys of an object of a compact record. Only the objects
+     * written by the encoder are expanded, so complex parameter values are
+     * kept as they are.
+     * 
+     * @param object
+     *            the object
+     * @param record
+     *            whether the object is the record itself, whose version is
+     *            dropped
+     * @return the expanded object
+     */
+    private JsonObject expandObject(final JsonObject object, final boolean record) {
+        final JsonObject expanded = new JsonObject();
+
+        for (final Map.Entry<String, JsonElement> entry : object.entrySet()) {
+
+            if (record && VERSION_KEY.equals(entry.getKey())) {
+                continue;
+            }
+
+            final Field field = fields.get(entry.getKey());
+
+            if (field == null) {
+                expanded.add(entry.getKey(), entry.getValue());
+                continue;
+            }
+
+            JsonElement value = entry.getValue();
+
+            if (field.container && value.isJsonObject()) {
+                value = expandObject(value.getAsJsonObject(), false);
+            } else if (field == Field.PARAMETERS && value.isJsonArray()) {
+                final JsonArray parameters = new JsonArray();
+
+                for (final JsonElement parameter : value.getAsJsonArray()) {
+                    parameters.add(parameter.isJsonObject() ? expandObject(parameter.getAsJsonObject(), false)
+                            : parameter);
+                }
+
+                value = parameters;
+            }
+
+            expanded.add(field.getName(), value);
+        }
+
+        return expanded;
+    }
+
+    /**
+     * Maps each field to its name.
+     * 
+     * @return the field names
+     */
+    private static Map<Field, String> fieldNames() {
+        final Map<Field, String> names = new EnumMap<>(Field.class);
+
+        for (final Field field : Field.values()) {
+            names.put(field, field.getName());
+        }
+
+        return names;
+    }
+
+    /**
+     * Fields of the request records.
+     */
+    public enum Field {
+
+        REQUEST("request", "r", true),
+        TOKEN("token", "t", false),
+        TRACE_ID("traceId", "ti", false),
+        SPAN_ID("spanId", "si", false),
+        PARENT_SPAN_ID("parentSpanId", "ps", false),
+        PARENT_TOKEN("parentToken", "pt", false),
+        PARAMETERS("parameters", "p", false),
+        NAME("name", "n", false),
+        VALUE("value", "v", false),
+        MESSAGES("messages", "m", false),
+        ESCALATED("escalated", "e", false),
+        CHUNKS("chunks", "c", false),
+        PARTIAL("partial", "pa", false),
+        CHUNK("chunk", "ch", false),
+        INTERNAL_EXCEPTIONS("internalExceptions", "ie", true),
+        BUSINESS_EXCEPTIONS("businessExceptions", "be", true),
+        EXCEPTIONS_LOGGED("exceptionsLogged", "l", false),
+        STACK_TRACES("stackTraces", "st", false);
+
+        private final String name;
+        private final String defaultKey;
+        private final boolean container;
+
+        /**
+         * Creates a field.
+         * 
+         * @param name
+         *            the name of the field in the full records
+         * @param defaultKey
+         *            the key of the field in the default compact schema
+         * @param container
+         *            whether the value of the field is an object with
+         *            fields of its own
+         */
+        Field(final String name, final String defaultKey, final boolean container) {
+            this.name = name;
+            this.defaultKey = defaultKey;
+            this.container = container;
+        }
+
+        /**
+         * Gets the name of the field in the full records.
+         * 
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the key of the field in the default compact schema.
+         * 
+         * @return the default key
+         */
+        public String getDefaultKey() {
+            return defaultKey;
+        }
+
+    }
+
+    /**
+     * Builder of schemas.
+     */
+    public static class Builder {
+
+        private final int version;
+        private final Map<Field, String> keys = new EnumMap<>(Field.class);
+
+        /**
+         * Creates a builder with the default short keys.
+         * 
+         * @param version
+         *            the version of the schema
+         */
+        private Builder(final int version) {
+
+            if (version <= 0) {
+                throw new IllegalArgumentException("The schema version must be positive");
+            }
+
+            this.version = version;
+
+            for (final Field field : Field.values()) {
+                keys.put(field, field.getDefaultKey());
+            }
+
+        }
+
+        /**
+         * Changes the key of a field.
+         * 
+         * @param field
+         *            the field
+         * @param key
+         *            the key, made of printable ASCII characters other than
+         *            quotes and backslashes
+         * @return the current instance
+         */
+        public Builder key(final Field field, final String key) {
+
+            if (key == null || key.isEmpty() || !key.chars().allMatch(c -> c > ' ' && c < 0x7f && c != '"'
+                    && c != '\\')) {
+                throw new IllegalArgumentException("Invalid key for " + field + ": " + key);
+            }
+
+            keys.put(field, key);
+            return this;
+        }
+
+        /**
+         * Builds and registers the schema.
+         * 
+         * @return the schema
+         * @throws IllegalArgumentException
+         *             if two fields have the same key or if another schema
+         *             with other keys has the same version
+         */
+        public RecordSchema build() {
+
+            if (keys.containsValue(VERSION_KEY) || keys.values().stream().distinct().count() != keys.size()) {
+                throw new IllegalArgumentException("The keys of a schema must be unique: " + keys.values());
+            }
+
+            final RecordSchema schema = new RecordSchema(version, new EnumMap<>(keys));
+            final RecordSchema registered = SCHEMAS.putIfAbsent(version, schema);
+
+            if (registered == null) {
+                return schema;
+            }
+
+            if (!registered.keys.equals(schema.keys)) {
+                throw new IllegalArgumentException("Schema version " + version + " is already registered with keys "
+                        + Arrays.toString(registered.keys.values().toArray()));
+            }
+
+            return registered;
+        }
+
+    }
+
+}
@@ -0,0 +1,168 @@
+package br.com.falbuquerque.logging;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.status.StatusLogger;
+
+/**
+ * Exception mappings loaded from a configuration file and reloaded when the
+ * file changes. Each load produces an immutable {@link ExceptionMapper} that
+ * replaces the previous one atomically, so a request that took a mapper keeps
+ * it until it is logged, while getting the current mapper is a single
+ * volatile read.
+ * 
+ * <p>
+ * A file that cannot be loaded is reported through the log4j2 status logger
+ * and the previous mappings stay in use.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class ReloadingExceptionMapping implements Supplier<ExceptionMapper>, Closeable {
+
+    private final Path file;
+    private final ExceptionMappingLoader loader;
+    private final ScheduledExecutorService watcher;
+
+    private volatile ExceptionMapper current;
+    private Object loadedVersion;
+
+    /**
+     * Loads the mappings of a file and watches it for changes.
+     * 
+     * @param file
+     *            the configuration file
+     * @param checkIntervalMillis
+     *            the interval between the checks of the file
+     * @throws IOException
+     *             if the file cannot be read
+     * @throws IllegalArgumentException
+     *             if any mapping is invalid
+     */
+    public ReloadingExceptionMapping(final Path file, final long checkIntervalMillis) throws IOException {
+        this(file, checkIntervalMillis, new ExceptionMappingLoader());
+    }
+
+    /**
+     * Loads the mappings of a file and watches it for changes.
+     * 
+     * @param file
+     *            the configuration file
+     * @param checkIntervalMillis
+     *            the interval between the checks of the file, or zero to
+     *            reload only through {@link #reload()}
+     * @param loader
+     *            the loader of the mappings
+     * @throws IOException
+     *             if the file cannot be read
+     * @throws IllegalArgumentException
+     *             if any mapping is invalid
+     */
+    public ReloadingExceptionMapping(final Path file, final long checkIntervalMillis,
+            final ExceptionMappingLoader loader) throws IOException {
+        this.file = file;
+        this.loader = loader;
+
+        loadedVersion = versionOf(file);
+        current = loader.load(file);
+
+        if (checkIntervalMillis > 0) {
+            watcher = Executors.newSingleThreadScheduledExecutor(task -> {
+                final Thread thread = new Thread(task, "exception-mapping-watcher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            watcher.scheduleWithFixedDelay(this::reloadIfChanged, checkIntervalMillis, checkIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            watcher = null;
+        }
+
+    }
+
+    /**
+     * Gets the current mappings.
+     * 
+     * @return the current immutable mapper
+     */
+    @Override
+    public ExceptionMapper get() {
+        return current;
+    }
+
+    /**
+     * Loads the file again, whether or not it changed.
+     * 
+     * @return <code>true</code> if the mappings were replaced
+     */
+    public synchronized boolean reload() {
+
+        try {
+            final Object version = versionOf(file);
+            final ExceptionMapper loaded = loader.load(file);
+
+            loadedVersion = version;
+            current = loaded;
+            return true;
+        } catch (final IOException | RuntimeException e) {
+            StatusLogger.getLogger().error("Could not reload the exception mappings of " + file, e);
+            return false;
+        }
+
+    }
+
+    /**
+     * Stops watching the file.
+     */
+    @Override
+    public void close() {
+
+        if (watcher != null) {
+            watcher.shutdownNow();
+        }
+
+    }
+
+    /**
+     * Reloads the file if its modification time or size changed.
+     */
+    private synchronized void reloadIfChanged() {
+
+        try {
+
+            final Object version = versionOf(file);
+
+            if (!version.equals(loadedVersion) && !reload()) {
+                // an invalid file is reported once, not on every check
+                loadedVersion = version;
+            }
+
+        } catch (final IOException e) {
+            StatusLogger.getLogger().error("Could not check the exception mappings of " + file, e);
+        }
+
+    }
+
+    /**
+     * Gets a value that changes whenever the file is rewritten.
+     * 
+     * @param file
+     *            the file
+     * @return the modification time and size of the file
+     * @throws IOException
+     *             if the attributes of the file cannot be read
+     */
+    private static Object versionOf(final Path file) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return attributes.lastModifiedTime() + "/" + attributes.size();
+    }
+
+}
@@ -0,0 +1,749 @@
+package br.com.falbuquerque.logging;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Iterator;
+
+import br.com.falbuquerque.logging.RecordSchema.Field;
+import br.com.falbuquerque.logging.request.Parameter;
+import br.com.falbuquerque.logging.redaction.Redactor;
+import br.com.falbuquerque.logging.request.Request;
+import br.com.falbuquerque.logging.util.JsonParser;
+import br.com.falbuquerque.logging.util.NameTable;
+import br.com.falbuquerque.logging.util.Utf8Encoder;
+import br.com.falbuquerque.logging.util.ValueDictionary;
+
+/**
+ * Serializes request records straight to UTF-8 bytes. The output is the same
+ * JSON produced by {@link JsonParser} for a {@link BufferedLogger}, but it is
+ * written into a buffer reused by each thread instead of going through an
+ * intermediate <code>String</code>.
+ * 
+ * <p>
+ * If the encoder has a {@link RecordSchema}, it writes compact records
+ * instead, with short keys and without the empty or default sections.
+ * </p>
+ * 
+ * <p>
+ * If the encoder has a {@link Redactor}, the parameter values and the
+ * messages are redacted as they are written. The records logged through
+ * {@link JsonParser} by the main logger are not redacted.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class RequestRecordEncoder {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+    private static final int TAIL_INITIAL_CAPACITY = 128;
+
+    private static final byte[] VERSION_FIELD = ascii("{\"" + RecordSchema.VERSION_KEY + "\":");
+    private static final byte[] NULL = ascii("null");
+    private static final byte[] TRUE = ascii("true");
+    private static final byte[] FALSE = ascii("false");
+
+    private final JsonParser fallbackParser = new JsonParser();
+    private final NameTable names = NameTable.getDefault();
+    private final ValueDictionary values;
+    private final Redactor redactor;
+    private final RecordSchema schema;
+    private final boolean compact;
+    private final boolean templateKeys;
+    private final ThreadLocal<Utf8Encoder> encoders;
+    private final ThreadLocal<Utf8Encoder> tailEncoders;
+
+    /**
+     * Creates a record encoder backed by heap buffers.
+     */
+    public RequestRecordEncoder() {
+        this(DEFAULT_INITIAL_CAPACITY, false);
+    }
+
+    /**
+     * Creates a record encoder.
+     * 
+     * @param initialCapacity
+     *            the initial capacity of the buffer of each thread
+     * @param direct
+     *            whether the buffers are allocated outside of the heap
+     */
+    public RequestRecordEncoder(final int initialCapacity, final boolean direct) {
+        this(initialCapacity, direct, null);
+    }
+
+    /**
+     * Creates a record encoder that reuses the encoding of repeated parameter
+     * values.
+     * 
+     * @param initialCapacity
+     *            the initial capacity of the buffer of each thread
+     * @param direct
+     *            whether the buffers are allocated outside of the heap
+     * @param values
+     *            the dictionary of the encoded string values or
+     *            <code>null</code> to encode the values on every record
+     */
+    public RequestRecordEncoder(final int initialCapacity, final boolean direct, final ValueDictionary values) {
+        this(initialCapacity, direct, values, null);
+    }
+
+    /**
+     * Creates a record encoder that redacts the parameter values and the
+     * messages.
+     * 
+     * @param initialCapacity
+     *            the initial capacity of the buffer of each thread
+     * @param direct
+     *            whether the buffers are allocated outside of the heap
+     * @param values
+     *            the dictionary of the encoded string values or
+     *            <code>null</code> to encode the values on every record
+     * @param redactor
+     *            the redactor or <code>null</code> to write the data as it is
+     */
+    public RequestRecordEncoder(final int initialCapacity, final boolean direct, final ValueDictionary values,
+            final Redactor redactor) {
+        this(initialCapacity, direct, values, redactor, null);
+    }
+
+    /**
+     * Creates a record encoder that writes compact records, whose keys come
+     * from a {@link RecordSchema} and whose empty or default sections are
+     * omitted.
+     * 
+     * @param initialCapacity
+     *            the initial capacity of the buffer of each thread
+     * @param direct
+     *            whether the buffers are allocated outside of the heap
+     * @param values
+     *            the dictionary of the encoded string values or
+     *            <code>null</code> to encode the values on every record
+     * @param redactor
+     *            the redactor or <code>null</code> to write the data as it is
+     * @param schema
+     *            the schema of the compact records or <code>null</code> to
+     *            write the full records produced by {@link JsonParser}
+     */
+    public RequestRecordEncoder(final int initialCapacity, final boolean direct, final ValueDictionary values,
+            final Redactor redactor, final RecordSchema schema) {
+        this(initialCapacity, direct, values, redactor, schema, false);
+    }
+
+    /**
+     * Creates a record encoder that may write the templated messages as the
+     * key of their template followed by their arguments, e.g.
+     * <code>[7994871655098789937,"A12",10]</code>, instead of formatting them.
+     * The key is a hash of the pattern, so readers of any process format them
+     * back with {@link MessageTemplates#formatMessages} once the same patterns
+     * are registered. Templated messages are still formatted if there is a
+     * redactor, as it only redacts text.
+     * 
+     * @param initialCapacity
+     *            the initial capacity of the buffer of each thread
+     * @param direct
+     *            whether the buffers are allocated outside of the heap
+     * @param values
+     *            the dictionary of the encoded string values or
+     *            <code>null</code> to encode the values on every record
+     * @param redactor
+     *            the redactor or <code>null</code> to write the data as it is
+     * @param schema
+     *            the schema of the compact records or <code>null</code> to
+     *            write the full records produced by {@link JsonParser}
+     * @param templateKeys
+     *            whether the templated messages are written as the key of
+     *            their template and their arguments
+     */
+    public RequestRecordEncoder(final int initialCapacity, final boolean direct, final ValueDictionary values,
+            final Redactor redactor, final RecordSchema schema, final boolean templateKeys) {
+        this.values = values;
+        this.redactor = redactor;
+        this.schema = schema == null ? RecordSchema.FULL : schema;
+        compact = schema != null;
+        this.templateKeys = templateKeys && redactor == null;
+        encoders = ThreadLocal.withInitial(() -> new Utf8Encoder(initialCapacity, direct));
+        tailEncoders = ThreadLocal.withInitial(() -> new Utf8Encoder(TAIL_INITIAL_CAPACITY, direct));
+    }
+
+    /**
+     * Gets the redactor of the parameter values and messages.
+     * 
+     * @return the redactor or <code>null</code> if the data is not redacted
+     */
+    public Redactor getRedactor() {
+        return redactor;
+    }
+
+    /**
+     * Gets the schema of the compact records.
+     * 
+     * @return the schema or <code>null</code> if the records are full
+     */
+    public RecordSchema getSchema() {
+        return compact ? schema : null;
+    }
+
+    /**
+     * Encodes the record of a buffered logger. The returned buffer belongs to
+     * the calling thread and is overwritten by its next encoding, so it must
+     * be consumed before that.
+     * 
+     * @param logger
+     *            the logger whose record will be encoded
+     * @return the encoded record, ready to be read
+     */
+    public ByteBuffer encode(final BufferedLogger logger) {
+        final Utf8Encoder encoder = encoders.get().reset();
+        encode(logger, encoder);
+        return encoder.toByteBuffer();
+    }
+
+    /**
+     * Encodes the record of a buffered logger into the given encoder.
+     * 
+     * @param logger
+     *            the logger whose record will be encoded
+     * @param encoder
+     *            the encoder that receives the record
+     */
+    void encode(final BufferedLogger logger, final Utf8Encoder encoder) {
+        encodeHead(logger, encoder);
+
+        if (logger.getMessages() instanceof StagedMessages) {
+
+            for (final ByteBuffer part : ((StagedMessages) logger.getMessages()).getSpilledParts()) {
+                encoder.writeBytes(part);
+            }
+
+        }
+
+        encodeTail(logger, encoder);
+    }
+
+    /**
+     * Encodes the record of a buffered logger as a sequence of buffers. The
+     * messages spilled off the heap are not copied: their blocks are returned
+     * between the head and the tail of the record, so they can be streamed
+     * straight to a {@link br.com.falbuquerque.logging.sink.RecordSink}. The
+     * returned buffers are valid until the next encoding of the calling
+     * thread or until the messages of the logger are cleared.
+     * 
+     * @param logger
+     *            the logger whose record will be encoded
+     * @return the parts of the encoded record, ready to be read in order
+     */
+    public ByteBuffer[] encodeParts(final BufferedLogger logger) {
+
+        if (!(logger.getMessages() instanceof StagedMessages) || !((StagedMessages) logger.getMessages()).isSpilled()) {
+            return new ByteBuffer[] { encode(logger) };
+        }
+
+        final Utf8Encoder head = encoders.get().reset();
+        final Utf8Encoder tail = tailEncoders.get().reset();
+        encodeHead(logger, head);
+        encodeTail(logger, tail);
+
+        return join(head, ((StagedMessages) logger.getMessages()).getSpilledParts(), tail);
+    }
+
+    /**
+     * Encodes the buffered messages of a logger as a chunk record, tagged
+     * with the request token and the chunk sequence number. As in
+     * {@link #encodeParts(BufferedLogger)}, spilled messages are returned as
+     * separate buffers.
+     * 
+     * @param logger
+     *            the logger whose messages will be encoded
+     * @param sequence
+     *            the sequence number of the chunk
+     * @return the parts of the encoded chunk, ready to be read in order
+     */
+    public ByteBuffer[] encodeChunk(final BufferedLogger logger, final int sequence) {
+        final Utf8Encoder head = encoders.get().reset();
+        encodeStart(head);
+
+        if (logger.getRequest() != null && logger.getRequest().getToken() != null) {
+            head.writeBytes(key(Field.TOKEN)).writeJsonString(logger.getRequest().getToken()).writeByte(',');
+        }
+
+        head.writeBytes(key(Field.CHUNK)).writeLong(sequence);
+        head.writeByte(',').writeBytes(key(Field.MESSAGES)).writeByte('[');
+        encodeHeapMessages(logger.getMessages(), head);
+
+        if (!(logger.getMessages() instanceof StagedMessages) || !((StagedMessages) logger.getMessages()).isSpilled()) {
+            head.writeByte(']').writeByte('}');
+            return new ByteBuffer[] { head.toByteBuffer() };
+        }
+
+        final Utf8Encoder tail = tailEncoders.get().reset();
+        tail.writeByte(']').writeByte('}');
+        return join(head, ((StagedMessages) logger.getMessages()).getSpilledParts(), tail);
+    }
+
+    /**
+     * Encodes the record up to the messages kept on the heap, including the
+     * separator of the spilled messages, if any.
+     * 
+     * @param logger
+     *            the logger whose record will be encoded
+     * @param encoder
+     *            the encoder that receives the head of the record
+     */
+    private void encodeHead(final BufferedLogger logger, final Utf8Encoder encoder) {
+
+        if (compact) {
+            encoder.writeBytes(VERSION_FIELD).writeLong(schema.getVersion());
+
+            if (logger.getRequest() != null) {
+                encoder.writeByte(',').writeBytes(key(Field.REQUEST));
+                encodeRequest(logger.getRequest(), encoder);
+            }
+
+        } else if (logger.getRequest() != null) {
+            encoder.writeByte('{').writeBytes(key(Field.REQUEST));
+            encodeRequest(logger.getRequest(), encoder);
+        } else {
+            // omitted, as the JSON parser does, so the messages open the record
+            encoder.writeByte('{').writeBytes(key(Field.MESSAGES)).writeByte('[');
+            encodeHeapMessages(logger.getMessages(), encoder);
+            return;
+        }
+
+        if (hasMessagesSection(logger)) {
+            encoder.writeByte(',').writeBytes(key(Field.MESSAGES)).writeByte('[');
+            encodeHeapMessages(logger.getMessages(), encoder);
+        }
+
+    }
+
+    /**
+     * Starts a record, writing the schema version of the compact records.
+     * 
+     * @param encoder
+     *            the encoder that receives the record
+     */
+    private void encodeStart(final Utf8Encoder encoder) {
+
+        if (compact) {
+            encoder.writeBytes(VERSION_FIELD).writeLong(schema.getVersion()).writeByte(',');
+        } else {
+            encoder.writeByte('{');
+        }
+
+    }
+
+    /**
+     * Checks whether the record has the messages section, which compact
+     * records omit when there are no messages.
+     * 
+     * @param logger
+     *            the logger whose record will be encoded
+     * @return <code>true</code> if the messages are written
+     */
+    private boolean hasMessagesSection(final BufferedLogger logger) {
+        final Collection<String> messages = logger.getMessages();
+        return !compact || !messages.isEmpty()
+                || (messages instanceof StagedMessages && ((StagedMessages) messages).isSpilled());
+    }
+
+    /**
+     * Encodes the record from the end of the messages on.
+     * 
+     * @param logger
+     *            the logger whose record will be encoded
+     * @param encoder
+     *            the encoder that receives the tail of the record
+     */
+    private void encodeTail(final BufferedLogger logger, final Utf8Encoder encoder) {
+
+        if (hasMessagesSection(logger)) {
+            encoder.writeByte(']');
+        }
+
+        if (logger.isEscalated()) {
+            encoder.writeByte(',').writeBytes(key(Field.ESCALATED)).writeBytes(TRUE);
+        }
+
+        if (logger.getChunks() != null) {
+            encoder.writeByte(',').writeBytes(key(Field.CHUNKS)).writeLong(logger.getChunks());
+        }
+
+        if (logger.isPartial()) {
+            encoder.writeByte(',').writeBytes(key(Field.PARTIAL)).writeBytes(TRUE);
+        }
+
+        encodeExceptions(Field.INTERNAL_EXCEPTIONS, logger.getInternalExceptions(), encoder);
+        encodeExceptions(Field.BUSINESS_EXCEPTIONS, logger.getBusinessExceptions(), encoder);
+        encoder.writeByte('}');
+    }
+
+    /**
+     * Encodes the messages kept on the heap, followed by the separator of the
+     * spilled messages, if any.
+     * 
+     * @param messages
+     *            the buffered messages
+     * @param encoder
+     *            the encoder that receives the messages
+     */
+    private void encodeHeapMessages(final Collection<String> messages, final Utf8Encoder encoder) {
+        Collection<String> heapMessages = messages;
+        boolean spilled = false;
+
+        if (messages instanceof StagedMessages) {
+            spilled = ((StagedMessages) messages).isSpilled();
+            heapMessages = ((StagedMessages) messages).getHeapMessages();
+        }
+
+        boolean first = true;
+
+        if (templateKeys && messages instanceof SegmentedMessages) {
+
+            for (final Iterator<Object> entries = ((SegmentedMessages) messages).entries(); entries.hasNext();) {
+                final Object entry = entries.next();
+
+                if (!first) {
+                    encoder.writeByte(',');
+                }
+
+                if (entry instanceof TemplatedMessage) {
+                    encodeTemplatedMessage((TemplatedMessage) entry, encoder);
+                } else {
+                    encodeMessage((String) entry, encoder);
+                }
+
+                first = false;
+            }
+
+        } else {
+
+            for (final String message : heapMessages) {
+
+                if (!first) {
+                    encoder.writeByte(',');
+                }
+
+                encodeMessage(message, encoder);
+                first = false;
+            }
+
+        }
+
+        if (spilled && !first) {
+            encoder.writeByte(',');
+        }
+
+    }
+
+    /**
+     * Joins the head, the spilled messages and the tail of a record.
+     * 
+     * @param head
+     *            the encoder that holds the head
+     * @param spilledParts
+     *            the spilled messages
+     * @param tail
+     *            the encoder that holds the tail
+     * @return the parts of the record, in order
+     */
+    private static ByteBuffer[] join(final Utf8Encoder head, final ByteBuffer[] spilledParts, final Utf8Encoder tail) {
+        final ByteBuffer[] parts = new ByteBuffer[spilledParts.length + 2];
+        parts[0] = head.toByteBuffer();
+        System.arraycopy(spilledParts, 0, parts, 1, spilledParts.length);
+        parts[parts.length - 1] = tail.toByteBuffer();
+        return parts;
+    }
+
+    /**
+     * Encodes the request.
+     * 
+     * @param request
+     *            the request
+     * @param encoder
+     *            the encoder that receives the request
+     */
+    private void encodeRequest(final Request request, final Utf8Encoder encoder) {
+        encoder.writeByte('{');
+        boolean empty = true;
+
+        if (request.getToken() != null) {
+            encoder.writeBytes(key(Field.TOKEN)).writeJsonString(request.getToken());
+            empty = false;
+        }
+
+        if (request.isTraced()) {
+
+            if (!empty) {
+                encoder.writeByte(',');
+            }
+
+            encoder.writeBytes(key(Field.TRACE_ID)).writeByte('"').writeHex(request.getTraceIdHigh())
+                    .writeHex(request.getTraceIdLow()).writeByte('"');
+            encoder.writeByte(',').writeBytes(key(Field.SPAN_ID)).writeByte('"').writeHex(request.getSpanId())
+                    .writeByte('"');
+
+            if (request.getParentSpanId() != 0) {
+                encoder.writeByte(',').writeBytes(key(Field.PARENT_SPAN_ID)).writeByte('"')
+                        .writeHex(request.getParentSpanId()).writeByte('"');
+            }
+
+            empty = false;
+        }
+
+        if (request.getParentToken() != null) {
+
+            if (!empty) {
+                encoder.writeByte(',');
+            }
+
+            encoder.writeBytes(key(Field.PARENT_TOKEN)).writeJsonString(request.getParentToken());
+            empty = false;
+        }
+
+        if (!compact || !request.getParameters().isEmpty()) {
+
+            if (!empty) {
+                encoder.writeByte(',');
+            }
+
+            encoder.writeBytes(key(Field.PARAMETERS)).writeByte('[');
+            boolean first = true;
+
+            for (final Parameter parameter : request.getParameters()) {
+
+                if (!first) {
+                    encoder.writeByte(',');
+                }
+
+                encodeParameter(parameter, encoder);
+                first = false;
+            }
+
+            encoder.writeByte(']');
+        }
+
+        encoder.writeByte('}');
+    }
+
+    /**
+     * Encodes a parameter. Fields with <code>null</code> values are omitted,
+     * as Gson does. The name is taken pre-encoded from the {@link NameTable}.
+     * 
+     * @param parameter
+     *            the parameter
+     * @param encoder
+     *            the encoder that receives the parameter
+     */
+    private void encodeParameter(final Parameter parameter, final Utf8Encoder encoder) {
+
+        if (parameter == null) {
+            encoder.writeBytes(NULL);
+            return;
+        }
+
+        encoder.writeByte('{');
+
+        if (parameter.getName() != null) {
+            encoder.writeBytes(key(Field.NAME));
+            final byte[] name = names.encoded(parameter.getName());
+
+            if (name != null) {
+                encoder.writeBytes(name);
+            } else {
+                encoder.writeJsonString(parameter.getName());
+            }
+
+        }
+
+        if (parameter.getValue() != null) {
+
+            if (parameter.getName() != null) {
+                encoder.writeByte(',');
+            }
+
+            encoder.writeBytes(key(Field.VALUE));
+
+            if (redactor == null || !redactor.writeParameter(parameter.getName(), parameter.getValue(), encoder)) {
+                encodeValue(parameter.getValue(), encoder);
+            }
+
+        }
+
+        encoder.writeByte('}');
+    }
+
+    /**
+     * Encodes a parameter value. Types other than strings, integral numbers
+     * and booleans are handed to {@link JsonParser}. Strings are taken from
+     * the value dictionary, if any.
+     * 
+     * @param value
+     *            the value
+     * @param encoder
+     *            the encoder that receives the value
+     */
+    private void encodeValue(final Object value, final Utf8Encoder encoder) {
+
+        if (value instanceof String) {
+            final byte[] encoded = values == null ? null : values.encoded((String) value);
+
+            if (encoded != null) {
+                encoder.writeBytes(encoded);
+            } else {
+                encoder.writeJsonString((String) value);
+            }
+
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            encoder.writeLong(((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            encoder.writeBytes((Boolean) value ? TRUE : FALSE);
+        } else {
+            encoder.writeUtf8(fallbackParser.toJson(value));
+        }
+
+    }
+
+    /**
+     * Encodes a message, redacted if there is a redactor.
+     * 
+     * @param message
+     *            the message
+     * @param encoder
+     *            the encoder that receives the message
+     */
+    private void encodeMessage(final String message, final Utf8Encoder encoder) {
+
+        if (message == null || redactor == null || !redactor.writeText(message, encoder)) {
+            encodeString(message, encoder);
+        }
+
+    }
+
+    /**
+     * Encodes a templated message as an array with the key of its template
+     * followed by its arguments. Strings, integral numbers and booleans are written as
+     * they are and the other arguments as their string representation, as
+     * they are formatted.
+     * 
+     * @param message
+     *            the templated message
+     * @param encoder
+     *            the encoder that receives the message
+     */
+    private static void encodeTemplatedMessage(final TemplatedMessage message, final Utf8Encoder encoder) {
+        encoder.writeByte('[').writeLong(message.getTemplate().getKey());
+
+        if (message.getArguments() != null) {
+
+            for (final Object argument : message.getArguments()) {
+                encoder.writeByte(',');
+
+                if (argument instanceof Integer || argument instanceof Long || argument instanceof Short
+                        || argument instanceof Byte) {
+                    encoder.writeLong(((Number) argument).longValue());
+                } else if (argument instanceof Boolean) {
+                    encoder.writeBytes((Boolean) argument ? TRUE : FALSE);
+                } else {
+                    encodeString(argument == null ? null : argument.toString(), encoder);
+                }
+
+            }
+
+        }
+
+        encoder.writeByte(']');
+    }
+
+    /**
+     * Encodes a string or <code>null</code>.
+     * 
+     * @param value
+     *            the string
+     * @param encoder
+     *            the encoder that receives the string
+     */
+    private static void encodeString(final String value, final Utf8Encoder encoder) {
+
+        if (value == null) {
+            encoder.writeBytes(NULL);
+        } else {
+            encoder.writeJsonString(value);
+        }
+
+    }
+
+    /**
+     * Encodes the state of an exception handler use, if it exists. As with
+     * Gson, the flag is omitted when no exception was appended and compact
+     * records omit the whole use.
+     * 
+     * @param field
+     *            the field of the exception handler use
+     * @param exceptions
+     *            the exception handler use
+     * @param encoder
+     *            the encoder that receives the state
+     */
+    private void encodeExceptions(final Field field, final ExceptionHandlerUse exceptions,
+            final Utf8Encoder encoder) {
+
+        if (exceptions == null || (compact && !exceptions.isExceptionsLogged())) {
+            return;
+        }
+
+        encoder.writeByte(',').writeBytes(key(field)).writeByte('{');
+
+        if (exceptions.isExceptionsLogged()) {
+            encoder.writeBytes(key(Field.EXCEPTIONS_LOGGED)).writeBytes(TRUE);
+        }
+
+        if (exceptions.getStackTraces() != null) {
+
+            if (exceptions.isExceptionsLogged()) {
+                encoder.writeByte(',');
+            }
+
+            encoder.writeBytes(key(Field.STACK_TRACES)).writeByte('[');
+            boolean first = true;
+
+            for (final String stackTrace : exceptions.getStackTraces()) {
+
+                if (!first) {
+                    encoder.writeByte(',');
+                }
+
+                encoder.writeJsonString(stackTrace);
+                first = false;
+            }
+
+            encoder.writeByte(']');
+        }
+
+        encoder.writeByte('}');
+
+    }
+
+    /**
+     * Gets the encoded key of a field.
+     * 
+     * @param field
+     *            the field
+     * @return the key followed by the colon
+     */
+    private byte[] key(final Field field) {
+        return schema.encodedKey(field);
+    }
+
+    /**
+     * Converts an ASCII constant to bytes.
+     * 
+     * @param value
+     *            the constant
+     * @return the bytes of the constant
+     */
+    private static byte[] ascii(final String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+}
@@ -0,0 +1,393 @@
+package br.com.falbuquerque.logging;
+
+import java.beans.PropertyChangeListener;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+
+import br.com.falbuquerque.logging.sink.RecordSink;
+
+/**
+ * Cache of the routes of the exceptions, i.e., the logger or sink, the level
+ * and whether the level is enabled, resolved once per exception class and
+ * shared by the requests of a {@link BufferedLoggerFactory}, so routing an
+ * exception is a single lookup.
+ * 
+ * <p>
+ * The routes are kept per exception mapper: the loggers keep the mapper they
+ * were created with, so while a {@link ReloadingExceptionMapping} hands out
+ * another mapper, the loggers created before and after the reload do not
+ * evict each other's routes. The mappers are weakly referenced and their
+ * routes are dropped once they are collected.
+ * </p>
+ * 
+ * <p>
+ * The routes of a mapper are cleared when it is changed by
+ * {@link ExceptionMapper#map}, and all the routes are cleared when the
+ * configuration of a log4j2 {@link LoggerContext} of the resolved loggers
+ * changes. Levels changed
+ * without a new configuration, i.e., followed only by
+ * {@link LoggerContext#updateLoggers()}, must be announced with
+ * {@link ExceptionMapper#invalidateResolvedRoutes()}.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+final class ResolvedRouteCache {
+
+    private static final AtomicInteger GENERATION = new AtomicInteger();
+    private static final Set<LoggerContext> OBSERVED_CONTEXTS = Collections.synchronizedSet(Collections
+            .newSetFromMap(new WeakHashMap<LoggerContext, Boolean>()));
+    private static final PropertyChangeListener CONFIGURATION_LISTENER = event -> {
+
+        if (LoggerContext.PROPERTY_CONFIG.equals(event.getPropertyName())) {
+            invalidateAll();
+        }
+
+    };
+
+    private final Logger defaultLogger;
+    private final Level defaultLevel;
+    private volatile Routes[] routes = new Routes[0];
+
+    /**
+     * Creates a cache.
+     * 
+     * @param defaultLogger
+     *            the logger of the exceptions without a mapped logger or sink
+     * @param defaultLevel
+     *            the level of the exceptions without a mapped level
+     */
+    ResolvedRouteCache(final Logger defaultLogger, final Level defaultLevel) {
+        this.defaultLogger = defaultLogger;
+        this.defaultLevel = defaultLevel;
+    }
+
+    /**
+     * Clears the routes cached by every cache.
+     */
+    static void invalidateAll() {
+        GENERATION.incrementAndGet();
+    }
+
+    /**
+     * Gets the route of an exception class, resolving it on the first lookup.
+     * 
+     * @param mapper
+     *            the exception mapper or <code>null</code>
+     * @param exceptionClass
+     *            the exception class
+     * @return the route
+     */
+    ResolvedRoute resolve(final ExceptionMapper mapper, final Class<? extends Exception> exceptionClass) {
+        // read before resolving, so a change while resolving clears the route
+        final int generation = GENERATION.get();
+        final int mapperVersion = mapper == null ? 0 : mapper.getVersion();
+        Routes current = find(mapper);
+
+        if (current == null || current.mapperVersion != mapperVersion || current.generation != generation) {
+            current = replace(mapper, mapperVersion, generation);
+        }
+
+        ResolvedRoute route = current.byClass.get(exceptionClass);
+
+        if (route == null) {
+            route = create(defaultLogger, defaultLevel, mapper, exceptionClass, true);
+            current.byClass.put(exceptionClass, route);
+        }
+
+        return route;
+    }
+
+    /**
+     * Finds the routes of a mapper.
+     * 
+     * @param mapper
+     *            the exception mapper or <code>null</code>
+     * @return the routes or <code>null</code> if there are none for the mapper
+     */
+    private Routes find(final ExceptionMapper mapper) {
+
+        for (final Routes current : routes) {
+
+            if (current.isFor(mapper)) {
+                return current;
+            }
+
+        }
+
+        return null;
+    }
+
+    /**
+     * Replaces the routes of a mapper by empty ones, dropping the routes of
+     * the collected mappers and of the previous generations on the way.
+     * 
+     * @param mapper
+     *            the exception mapper or <code>null</code>
+     * @param mapperVersion
+     *            the version of the mapper
+     * @param generation
+     *            the generation of the log4j2 configurations
+     * @return the new routes
+     */
+    private synchronized Routes replace(final ExceptionMapper mapper, final int mapperVersion, final int generation) {
+        final Routes replacement = new Routes(mapper, mapperVersion, generation);
+        final List<Routes> kept = new ArrayList<>();
+
+        for (final Routes current : routes) {
+
+            if (!current.isFor(mapper) && !current.isCollected() && current.generation == generation) {
+                kept.add(current);
+            }
+
+        }
+
+        kept.add(replacement);
+        routes = kept.toArray(new Routes[kept.size()]);
+        return replacement;
+    }
+
+    /**
+     * Resolves the route of an exception class without caching it, for the
+     * handlers that do not share a cache.
+     * 
+     * @param defaultLogger
+     *            the logger of the exceptions without a mapped logger or sink
+     * @param defaultLevel
+     *            the level of the exceptions without a mapped level
+     * @param mapper
+     *            the exception mapper or <code>null</code>
+     * @param exceptionClass
+     *            the exception class
+     * @return the route
+     */
+    static ResolvedRoute resolveUncached(final Logger defaultLogger, final Level defaultLevel,
+            final ExceptionMapper mapper, final Class<? extends Exception> exceptionClass) {
+        return create(defaultLogger, defaultLevel, mapper, exceptionClass, false);
+    }
+
+    /**
+     * Resolves the route of an exception class.
+     * 
+     * @param defaultLogger
+     *            the logger of the exceptions without a mapped logger or sink
+     * @param defaultLevel
+     *            the level of the exceptions without a mapped level
+     * @param mapper
+     *            the exception mapper or <code>null</code>
+     * @param exceptionClass
+     *            the exception class
+     * @param cached
+     *            whether the route is cached, so the configuration changes
+     *            of the context of its logger must be listened to
+     * @return the route
+     */
+    private static ResolvedRoute create(final Logger defaultLogger, final Level defaultLevel,
+            final ExceptionMapper mapper, final Class<? extends Exception> exceptionClass, final boolean cached) {
+        final LoggerConfiguration configuration = mapper == null ? null : mapper.getLogger(exceptionClass);
+        Logger logger = null;
+        RecordSink sink = null;
+        Level level = null;
+        double sampling = 1;
+
+        if (configuration != null) {
+            logger = configuration.getLogger();
+            sink = configuration.getSink();
+            level = configuration.getLevel();
+            sampling = configuration.getSampling();
+        }
+
+        if (level == null) {
+            level = defaultLevel;
+        }
+
+        if (sink == null && logger == null) {
+            logger = defaultLogger;
+        }
+
+        final boolean enabled;
+
+        if (sampling <= 0) {
+            // never written, so the logger is not even queried
+            enabled = false;
+        } else if (sink != null) {
+            enabled = sink.isEnabled(level);
+        } else {
+
+            if (cached) {
+                observe(logger);
+            }
+
+            enabled = logger != null && logger.isEnabled(level);
+        }
+
+        return new ResolvedRoute(logger, sink, level, sampling, enabled);
+    }
+
+    /**
+     * Listens to the configuration changes of the context of a logger, if it
+     * is a log4j2 core logger whose context is not observed yet.
+     * 
+     * @param logger
+     *            the logger
+     */
+    private static void observe(final Logger logger) {
+
+        if (logger instanceof org.apache.logging.log4j.core.Logger) {
+            final LoggerContext context = ((org.apache.logging.log4j.core.Logger) logger).getContext();
+
+            if (context != null && OBSERVED_CONTEXTS.add(context)) {
+                context.addPropertyChangeListener(CONFIGURATION_LISTENER);
+            }
+
+        }
+
+    }
+
+    /**
+     * Routes cached for a version of a mapper and a generation of the log4j2
+     * configurations.
+     */
+    private static final class Routes {
+
+        private final WeakReference<ExceptionMapper> mapper;
+        private final int mapperVersion;
+        private final int generation;
+        private final ConcurrentMap<Class<? extends Exception>, ResolvedRoute> byClass = new ConcurrentHashMap<>();
+
+        /**
+         * Creates an empty set of routes.
+         * 
+         * @param mapper
+         *            the exception mapper or <code>null</code>
+         * @param mapperVersion
+         *            the version of the mapper
+         * @param generation
+         *            the generation of the log4j2 configurations
+         */
+        Routes(final ExceptionMapper mapper, final int mapperVersion, final int generation) {
+            this.mapper = mapper == null ? null : new WeakReference<>(mapper);
+            this.mapperVersion = mapperVersion;
+            this.generation = generation;
+        }
+
+        /**
+         * Checks whether the routes were resolved with a mapper.
+         * 
+         * @param exceptionMapper
+         *            the exception mapper or <code>null</code>
+         * @return <code>true</code> if the routes belong to the mapper
+         */
+        boolean isFor(final ExceptionMapper exceptionMapper) {
+            return mapper == null ? exceptionMapper == null : exceptionMapper != null
+                    && mapper.get() == exceptionMapper;
+        }
+
+        /**
+         * Checks whether the mapper of the routes was collected.
+         * 
+         * @return <code>true</code> if the routes can no longer be used
+         */
+        boolean isCollected() {
+            return mapper != null && mapper.get() == null;
+        }
+
+    }
+
+    /**
+     * Route of an exception class.
+     */
+    static final class ResolvedRoute {
+
+        private final Logger logger;
+        private final RecordSink sink;
+        private final Level level;
+        private final double sampling;
+        private final boolean enabled;
+
+        /**
+         * Creates a route.
+         * 
+         * @param logger
+         *            the logger or <code>null</code> if the exceptions go to
+         *            the sink
+         * @param sink
+         *            the sink or <code>null</code> if the exceptions go to
+         *            the logger
+         * @param level
+         *            the level of the exceptions
+         * @param sampling
+         *            the fraction of the exceptions that is logged
+         * @param enabled
+         *            whether the level is enabled in the logger or sink
+         */
+        ResolvedRoute(final Logger logger, final RecordSink sink, final Level level, final double sampling,
+                final boolean enabled) {
+            this.logger = logger;
+            this.sink = sink;
+            this.level = level;
+            this.sampling = sampling;
+            this.enabled = enabled;
+        }
+
+        /**
+         * Gets the logger.
+         * 
+         * @return the logger or <code>null</code> if the exceptions go to the
+         *         sink
+         */
+        Logger getLogger() {
+            return logger;
+        }
+
+        /**
+         * Gets the sink.
+         * 
+         * @return the sink or <code>null</code> if the exceptions go to the
+         *         logger
+         */
+        RecordSink getSink() {
+            return sink;
+        }
+
+        /**
+         * Gets the level of the exceptions.
+         * 
+         * @return the level
+         */
+        Level getLevel() {
+            return level;
+        }
+
+        /**
+         * Gets the fraction of the exceptions that is logged.
+         * 
+         * @return the sampling, from 0 to 1
+         */
+        double getSampling() {
+            return sampling;
+        }
+
+        /**
+         * Checks whether the level of the exceptions is enabled.
+         * 
+         * @return <code>true</code> if the exceptions are written
+         */
+        boolean isEnabled() {
+            return enabled;
+        }
+
+    }
+
+}
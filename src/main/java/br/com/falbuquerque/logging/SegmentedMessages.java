@@ -0,0 +1,209 @@
+package br.com.falbuquerque.logging;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Messages of a request kept in an append-only buffer of fixed-size
+ * segments, so they can be copied by another thread while the request thread
+ * keeps appending, without locks.
+ * 
+ * <p>
+ * Only the request thread changes the buffer. Each message is stored in its
+ * slot before the size is published with an ordered write, so a reader that
+ * reads the size first sees every message up to it. Segments are never moved
+ * when the buffer grows, only the directory that holds them is copied.
+ * {@link #clear()} replaces the whole buffer, so readers still holding the
+ * previous one keep a consistent view of it.
+ * </p>
+ * 
+ * <p>
+ * Messages appended with a template are kept as a {@link TemplatedMessage}
+ * and only formatted when they are read.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+final class SegmentedMessages extends AbstractCollection<String> {
+
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private volatile Contents contents = new Contents();
+
+    @Override
+    public boolean add(final String message) {
+        contents.add(message);
+        return true;
+    }
+
+    /**
+     * Appends a templated message, which is formatted when read.
+     * 
+     * @param message
+     *            the templated message
+     */
+    void add(final TemplatedMessage message) {
+        contents.add(message);
+    }
+
+    @Override
+    public int size() {
+        return contents.size;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        final Iterator<Object> entries = contents.iterator();
+
+        return new Iterator<String>() {
+
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return format(entries.next());
+            }
+
+        };
+    }
+
+    /**
+     * Iterates over the messages as they are kept: either a
+     * <code>String</code> or a {@link TemplatedMessage}.
+     * 
+     * @return the iterator of the entries
+     */
+    Iterator<Object> entries() {
+        return contents.iterator();
+    }
+
+    /**
+     * Discards all the messages.
+     */
+    @Override
+    public void clear() {
+
+        if (contents.size > 0) {
+            contents = new Contents();
+        }
+
+    }
+
+    /**
+     * Copies the messages published so far. May be called by any thread.
+     * 
+     * @return the copy of the messages
+     */
+    List<String> snapshot() {
+        final Contents current = contents;
+        final int size = current.size;
+        final List<String> copy = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            copy.add(format(current.get(i)));
+        }
+
+        return copy;
+    }
+
+    /**
+     * Formats an entry of the buffer.
+     * 
+     * @param entry
+     *            the message or templated message
+     * @return the message
+     */
+    private static String format(final Object entry) {
+        return entry instanceof TemplatedMessage ? entry.toString() : (String) entry;
+    }
+
+    /**
+     * Segments of the buffer and its published size.
+     */
+    private static final class Contents {
+
+        private static final AtomicIntegerFieldUpdater<Contents> SIZE = AtomicIntegerFieldUpdater.newUpdater(
+                Contents.class, "size");
+
+        private volatile Object[][] segments = new Object[1][];
+        private volatile int size;
+
+        /**
+         * Stores a message in the next slot and publishes the new size.
+         * 
+         * @param message
+         *            the message or templated message
+         */
+        void add(final Object message) {
+            final int index = size;
+            final int segment = index >>> SEGMENT_BITS;
+            Object[][] directory = segments;
+
+            if (segment == directory.length) {
+                directory = Arrays.copyOf(directory, directory.length << 1);
+                segments = directory;
+            }
+
+            if (directory[segment] == null) {
+                directory[segment] = new Object[SEGMENT_SIZE];
+            }
+
+            directory[segment][index & SEGMENT_MASK] = message;
+            SIZE.lazySet(this, index + 1);
+        }
+
+        /**
+         * Gets a published message.
+         * 
+         * @param index
+         *            the index of the message, lower than a size already
+         *            read
+         * @return the message or templated message
+         */
+        Object get(final int index) {
+            return segments[index >>> SEGMENT_BITS][index & SEGMENT_MASK];
+        }
+
+        /**
+         * Iterates over the messages published when the iteration starts.
+         * 
+         * @return the iterator
+         */
+        Iterator<Object> iterator() {
+            final int end = size;
+
+            return new Iterator<Object>() {
+
+                private int index;
+
+                @Override
+                public boolean hasNext() {
+                    return index < end;
+                }
+
+                @Override
+                public Object next() {
+
+                    if (index >= end) {
+                        throw new NoSuchElementException();
+                    }
+
+                    return get(index++);
+                }
+
+            };
+        }
+
+    }
+
+}
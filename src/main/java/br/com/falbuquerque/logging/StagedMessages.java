@@ -0,0 +1,280 @@
+package br.com.falbuquerque.logging;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import br.com.falbuquerque.logging.redaction.Redactor;
+import br.com.falbuquerque.logging.util.OffHeapArena;
+import br.com.falbuquerque.logging.util.Utf8Encoder;
+
+import com.google.gson.Gson;
+
+/**
+ * Messages of a request that are kept on the heap until they reach a size,
+ * and then spilled to blocks of an {@link OffHeapArena}. Spilled messages are
+ * stored already encoded as JSON strings, separated by commas, so the blocks
+ * can be written out as they are; only their end offsets stay on the heap.
+ * 
+ * <p>
+ * Spilled messages are decoded back only when the collection is iterated.
+ * {@link #clear()} gives the blocks back to the arena. Only the messages kept
+ * on the heap can be copied by other threads, see {@link #snapshot()}.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+final class StagedMessages extends AbstractCollection<String> {
+
+    private static final int MAX_SCRATCH_SIZE = 64 * 1024;
+    private static final ThreadLocal<Utf8Encoder> SCRATCH_ENCODERS = ThreadLocal
+            .withInitial(() -> new Utf8Encoder(256));
+    private static final Gson DECODER = new Gson();
+
+    private final OffHeapArena arena;
+    private final int spillThreshold;
+    private final Redactor redactor;
+    private final SegmentedMessages heapMessages = new SegmentedMessages();
+    private final List<ByteBuffer> blocks = new ArrayList<>();
+
+    private long heapChars;
+    private long[] spilledEnds = new long[16];
+    private volatile int spilledCount;
+
+    /**
+     * Creates the messages of a request.
+     * 
+     * @param arena
+     *            the arena of the blocks that receive the spilled messages
+     * @param spillThreshold
+     *            the number of characters kept on the heap before the
+     *            messages start to be spilled
+     */
+    StagedMessages(final OffHeapArena arena, final int spillThreshold) {
+        this(arena, spillThreshold, null);
+    }
+
+    /**
+     * Creates the messages of a request that are redacted when spilled, since
+     * the spilled encoding is written out as it is.
+     * 
+     * @param arena
+     *            the arena of the blocks that receive the spilled messages
+     * @param spillThreshold
+     *            the number of characters kept on the heap before the
+     *            messages start to be spilled
+     * @param redactor
+     *            the redactor of the spilled messages or <code>null</code>
+     */
+    StagedMessages(final OffHeapArena arena, final int spillThreshold, final Redactor redactor) {
+        this.arena = arena;
+        this.spillThreshold = spillThreshold;
+        this.redactor = redactor;
+    }
+
+    @Override
+    public boolean add(final String message) {
+        final int length = message == null ? 0 : message.length();
+
+        if (spilledCount == 0 && heapChars + length <= spillThreshold) {
+            heapMessages.add(message);
+            heapChars += length;
+        } else {
+            spill(message);
+        }
+
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return heapMessages.size() + spilledCount;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        final Iterator<String> heapIterator = heapMessages.iterator();
+
+        return new Iterator<String>() {
+
+            private int spilledIndex;
+
+            @Override
+            public boolean hasNext() {
+                return heapIterator.hasNext() || spilledIndex < spilledCount;
+            }
+
+            @Override
+            public String next() {
+
+                if (heapIterator.hasNext()) {
+                    return heapIterator.next();
+                }
+
+                if (spilledIndex >= spilledCount) {
+                    throw new NoSuchElementException();
+                }
+
+                return decode(spilledIndex++);
+            }
+
+        };
+    }
+
+    /**
+     * Discards all the messages and gives the blocks back to the arena.
+     */
+    @Override
+    public void clear() {
+
+        for (final ByteBuffer block : blocks) {
+            arena.release(block);
+        }
+
+        blocks.clear();
+        heapMessages.clear();
+        heapChars = 0;
+        spilledCount = 0;
+    }
+
+    /**
+     * Gets the messages kept on the heap, which come before the spilled ones.
+     * 
+     * @return the messages kept on the heap
+     */
+    Collection<String> getHeapMessages() {
+        return Collections.unmodifiableCollection(heapMessages);
+    }
+
+    /**
+     * Copies the messages kept on the heap. May be called by any thread; the
+     * spilled messages can only be read by the request thread, so they are
+     * only counted.
+     * 
+     * @return the copy of the messages kept on the heap
+     * @see #getSpilledCount()
+     */
+    List<String> snapshot() {
+        return heapMessages.snapshot();
+    }
+
+    /**
+     * Gets the number of spilled messages. May be called by any thread.
+     * 
+     * @return the number of spilled messages
+     */
+    int getSpilledCount() {
+        return spilledCount;
+    }
+
+    /**
+     * Checks whether any message was spilled.
+     * 
+     * @return <code>true</code> if there are spilled messages
+     */
+    boolean isSpilled() {
+        return spilledCount > 0;
+    }
+
+    /**
+     * Gets read-only views of the spilled messages, encoded as comma separated
+     * JSON strings. The views are valid until the collection is cleared.
+     * 
+     * @return the views of the filled part of each block, in order
+     */
+    ByteBuffer[] getSpilledParts() {
+        final ByteBuffer[] parts = new ByteBuffer[blocks.size()];
+
+        for (int i = 0; i < parts.length; i++) {
+            final ByteBuffer part = blocks.get(i).asReadOnlyBuffer();
+            part.flip();
+            parts[i] = part;
+        }
+
+        return parts;
+    }
+
+    /**
+     * Encodes a message and copies it to the blocks.
+     * 
+     * @param message
+     *            the message to be spilled
+     */
+    private void spill(final String message) {
+        final Utf8Encoder scratch = SCRATCH_ENCODERS.get().reset();
+
+        if (spilledCount > 0) {
+            scratch.writeByte(',');
+        }
+
+        if (message == null) {
+            scratch.writeUtf8("null");
+        } else if (redactor == null || !redactor.writeText(message, scratch)) {
+            scratch.writeJsonString(message);
+        }
+
+        final ByteBuffer encoded = scratch.toByteBuffer();
+
+        while (encoded.hasRemaining()) {
+            ByteBuffer block = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+
+            if (block == null || !block.hasRemaining()) {
+                block = arena.acquire();
+                blocks.add(block);
+            }
+
+            final ByteBuffer chunk = encoded.duplicate();
+            chunk.limit(chunk.position() + Math.min(chunk.remaining(), block.remaining()));
+            block.put(chunk);
+            encoded.position(chunk.position());
+        }
+
+        if (spilledCount == spilledEnds.length) {
+            spilledEnds = Arrays.copyOf(spilledEnds, spilledCount * 2);
+        }
+
+        spilledEnds[spilledCount] = (spilledCount == 0 ? 0 : spilledEnds[spilledCount - 1]) + scratch.size();
+        spilledCount++;
+
+        if (scratch.size() > MAX_SCRATCH_SIZE) {
+            // does not keep the buffer of a huge message for the whole thread
+            SCRATCH_ENCODERS.remove();
+        }
+
+    }
+
+    /**
+     * Decodes a spilled message.
+     * 
+     * @param index
+     *            the position of the message among the spilled ones
+     * @return the message
+     */
+    private String decode(final int index) {
+        // skips the separator in front of every message but the first
+        final long start = index == 0 ? 0 : spilledEnds[index - 1] + 1;
+        final byte[] encoded = new byte[(int) (spilledEnds[index] - start)];
+        final int blockSize = arena.getBlockSize();
+
+        int copied = 0;
+
+        while (copied < encoded.length) {
+            final long offset = start + copied;
+            final ByteBuffer block = blocks.get((int) (offset / blockSize)).duplicate();
+            block.position((int) (offset % blockSize));
+            final int length = Math.min(encoded.length - copied, block.remaining());
+            block.get(encoded, copied, length);
+            copied += length;
+        }
+
+        return DECODER.fromJson(new String(encoded, StandardCharsets.UTF_8), String.class);
+    }
+
+}
@@ -0,0 +1,55 @@
+package br.com.falbuquerque.logging;
+
+/**
+ * Message appended with a {@link MessageTemplate}, kept as the template and
+ * its arguments until it is written.
+ * 
+ * @author Felipe Albuquerque
+ */
+final class TemplatedMessage {
+
+    private final MessageTemplate template;
+    private final Object[] arguments;
+
+    /**
+     * Creates a templated message.
+     * 
+     * @param template
+     *            the template
+     * @param arguments
+     *            the arguments of the placeholders, which are not copied
+     */
+    TemplatedMessage(final MessageTemplate template, final Object[] arguments) {
+        this.template = template;
+        this.arguments = arguments;
+    }
+
+    /**
+     * Gets the template.
+     * 
+     * @return the template
+     */
+    MessageTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * Gets the arguments.
+     * 
+     * @return the arguments of the placeholders, which must not be changed
+     */
+    Object[] getArguments() {
+        return arguments;
+    }
+
+    /**
+     * Formats the message.
+     * 
+     * @return the formatted message
+     */
+    @Override
+    public String toString() {
+        return template.format(arguments);
+    }
+
+}
@@ -15,13 +15,15 @@ public class Use {
     static Logger runtimeLogger = LogManager.getLogger("runtime");
     static Logger businessLogger = LogManager.getLogger("business");
 
+    static BufferedLoggerFactory loggerFactory = BufferedLoggerFactory.builder(mainLogger)
+            .internalExceptions(
+                    errorLogger,
+                    new ExceptionMapper().map(ParseException.class, errorLogger).map(IllegalArgumentException.class,
+                            runtimeLogger))
+            .businessExceptions(businessLogger, new ExceptionMapper().map(MyException.class, businessLogger)).build();
+
     public static void main(String[] args) {
-        new BufferedLogger(new Request("WWED033A", new Parameter("param", "val")), mainLogger)
-                .createInternalExceptionHandler(
-                        errorLogger,
-                        new ExceptionMapper().map(ParseException.class, errorLogger).map(IllegalArgumentException.class,
-                                runtimeLogger))
-                .createBusinessExceptionHandler(businessLogger, new ExceptionMapper().map(MyException.class, businessLogger))
+        loggerFactory.create(new Request("WWED033A", new Parameter("param", "val")))
                 .append("Log message 1").append("Log message 2").append("Log message 3")
                 .appendInternalException(new ParseException("Bla bla", 1)) // error
                 .appendInternalException(new IllegalArgumentException("Param is invalid")) // runtime
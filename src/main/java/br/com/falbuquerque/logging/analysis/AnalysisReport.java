@@ -0,0 +1,265 @@
+package br.com.falbuquerque.logging.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Aggregates produced by the {@link RequestLogAnalyzer}. A report is filled by
+ * a single thread and the partial reports of the parallel scans are merged at
+ * the end.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class AnalysisReport {
+
+    /**
+     * Key under which the values beyond the per-parameter limit are counted.
+     */
+    public static final String OTHER_VALUES = "(other)";
+
+    private final int maxValuesPerParameter;
+    private final Map<String, Map<String, Long>> exceptionsByLogger = new HashMap<>();
+    private final Map<String, Map<String, Long>> requestsByParameterValue = new HashMap<>();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private long requestCount;
+    private long messageCount;
+    private long malformedLineCount;
+
+    /**
+     * Creates an empty report.
+     * 
+     * @param maxValuesPerParameter
+     *            the maximum number of distinct values counted per parameter
+     */
+    public AnalysisReport(final int maxValuesPerParameter) {
+        this.maxValuesPerParameter = maxValuesPerParameter;
+    }
+
+    /**
+     * Adds the contents of another report to this one.
+     * 
+     * @param other
+     *            the other report
+     * @return the current instance
+     */
+    public AnalysisReport merge(final AnalysisReport other) {
+        mergeCounters(exceptionsByLogger, other.exceptionsByLogger, Integer.MAX_VALUE);
+        mergeCounters(requestsByParameterValue, other.requestsByParameterValue, maxValuesPerParameter);
+        latencies.merge(other.latencies);
+        requestCount += other.requestCount;
+        messageCount += other.messageCount;
+        malformedLineCount += other.malformedLineCount;
+        return this;
+    }
+
+    /**
+     * Gets the most frequent exception classes of a logger.
+     * 
+     * @param logger
+     *            the logger name
+     * @param limit
+     *            the maximum number of classes returned
+     * @return the exception classes and their counts, from the most frequent
+     */
+    public List<Entry<String, Long>> getTopExceptions(final String logger, final int limit) {
+        return top(exceptionsByLogger.get(logger), limit);
+    }
+
+    /**
+     * Gets the most frequent values of a parameter.
+     * 
+     * @param parameter
+     *            the parameter name
+     * @param limit
+     *            the maximum number of values returned
+     * @return the values and their request counts, from the most frequent
+     */
+    public List<Entry<String, Long>> getTopParameterValues(final String parameter, final int limit) {
+        return top(requestsByParameterValue.get(parameter), limit);
+    }
+
+    /**
+     * Gets the loggers that logged exceptions.
+     * 
+     * @return the logger names
+     */
+    public List<String> getExceptionLoggers() {
+        return sorted(exceptionsByLogger);
+    }
+
+    /**
+     * Gets the parameters found in the requests.
+     * 
+     * @return the parameter names
+     */
+    public List<String> getParameters() {
+        return sorted(requestsByParameterValue);
+    }
+
+    /**
+     * Gets the latencies of the requests.
+     * 
+     * @return the latency histogram
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * Gets the number of request records.
+     * 
+     * @return the number of request records
+     */
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Gets the number of buffered messages of all requests.
+     * 
+     * @return the number of messages
+     */
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * Gets the number of lines that looked like records but could not be
+     * parsed.
+     * 
+     * @return the number of malformed lines
+     */
+    public long getMalformedLineCount() {
+        return malformedLineCount;
+    }
+
+    /**
+     * Counts an exception.
+     * 
+     * @param logger
+     *            the logger that logged the exception
+     * @param exceptionClass
+     *            the class of the exception
+     */
+    void countException(final String logger, final String exceptionClass) {
+        increment(exceptionsByLogger, logger, exceptionClass, 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Counts a request with a parameter value.
+     * 
+     * @param parameter
+     *            the parameter name
+     * @param value
+     *            the parameter value
+     */
+    void countParameterValue(final String parameter, final String value) {
+        increment(requestsByParameterValue, parameter, value, 1, maxValuesPerParameter);
+    }
+
+    /**
+     * Counts a request record.
+     * 
+     * @param messages
+     *            the number of messages of the request
+     */
+    void countRequest(final int messages) {
+        requestCount++;
+        messageCount += messages;
+    }
+
+    /**
+     * Counts a line that could not be parsed.
+     */
+    void countMalformedLine() {
+        malformedLineCount++;
+    }
+
+    /**
+     * Adds the counters of a source to a target.
+     * 
+     * @param target
+     *            the target counters
+     * @param source
+     *            the source counters
+     * @param limit
+     *            the maximum number of distinct keys per group
+     */
+    private static void mergeCounters(final Map<String, Map<String, Long>> target,
+            final Map<String, Map<String, Long>> source, final int limit) {
+
+        for (final Entry<String, Map<String, Long>> group : source.entrySet()) {
+
+            for (final Entry<String, Long> counter : group.getValue().entrySet()) {
+                increment(target, group.getKey(), counter.getKey(), counter.getValue(), limit);
+            }
+
+        }
+
+    }
+
+    /**
+     * Increments a counter, folding new keys beyond the limit into
+     * {@link #OTHER_VALUES}.
+     * 
+     * @param counters
+     *            the counters
+     * @param group
+     *            the group of the counter
+     * @param key
+     *            the key of the counter
+     * @param amount
+     *            the amount to be added
+     * @param limit
+     *            the maximum number of distinct keys per group
+     */
+    private static void increment(final Map<String, Map<String, Long>> counters, final String group, final String key,
+            final long amount, final int limit) {
+        final Map<String, Long> groupCounters = counters.computeIfAbsent(group, name -> new HashMap<>());
+        String counted = key;
+
+        if (!groupCounters.containsKey(key) && groupCounters.size() >= limit) {
+            counted = OTHER_VALUES;
+        }
+
+        groupCounters.merge(counted, amount, Long::sum);
+    }
+
+    /**
+     * Sorts the counters of a group by count.
+     * 
+     * @param counters
+     *            the counters of the group, may be <code>null</code>
+     * @param limit
+     *            the maximum number of counters returned
+     * @return the most frequent counters
+     */
+    private static List<Entry<String, Long>> top(final Map<String, Long> counters, final int limit) {
+
+        if (counters == null) {
+            return Collections.emptyList();
+        }
+
+        final List<Entry<String, Long>> sorted = new ArrayList<>(counters.entrySet());
+        sorted.sort((first, second) -> Long.compare(second.getValue(), first.getValue()));
+        return sorted.subList(0, Math.min(limit, sorted.size()));
+    }
+
+    /**
+     * Gets the sorted keys of a map.
+     * 
+     * @param map
+     *            the map
+     * @return the sorted keys
+     */
+    private static List<String> sorted(final Map<String, ?> map) {
+        final List<String> keys = new ArrayList<>(map.keySet());
+        Collections.sort(keys);
+        return keys;
+    }
+
+}
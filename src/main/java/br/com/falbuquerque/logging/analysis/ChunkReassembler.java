@@ -0,0 +1,233 @@
+package br.com.falbuquerque.logging.analysis;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import br.com.falbuquerque.logging.RecordSchema;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Reassembles the request records written by the incremental flush of
+ * {@link br.com.falbuquerque.logging.BufferedLogger}. Chunk records are kept
+ * by request token until the request record that closes them is read; that
+ * record is then written with the messages of its chunks in front of its own
+ * and without the <code>chunks</code> field, i.e., as if the request had been
+ * logged at once.
+ * 
+ * <p>
+ * A request whose chunks are not all found is written with
+ * <code>"incomplete":true</code>. Requests that were never closed, e.g.,
+ * because the process died, are written by {@link #finish()} with their
+ * token, the messages of their chunks and the same flag. Lines that are not
+ * JSON records are ignored, and the layout prefix written by the
+ * <code>logPattern</code> of <code>log4j2.xml</code> is skipped. Compact
+ * records are expanded by their {@link RecordSchema}, so every record is
+ * written with the full field names.
+ * </p>
+ * 
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class ChunkReassembler {
+
+    private static final String TOKEN = "token";
+    private static final String CHUNK = "chunk";
+    private static final String CHUNKS = "chunks";
+    private static final String REQUEST = "request";
+    private static final String MESSAGES = "messages";
+    private static final String INCOMPLETE = "incomplete";
+
+    private final Gson serializer = new Gson();
+    private final JsonParser parser = new JsonParser();
+    private final Map<String, TreeMap<Integer, JsonArray>> pendingChunks = new LinkedHashMap<>();
+    private final Consumer<String> output;
+
+    /**
+     * Creates a reassembler.
+     * 
+     * @param output
+     *            the receiver of the reassembled request records
+     */
+    public ChunkReassembler(final Consumer<String> output) {
+        this.output = output;
+    }
+
+    /**
+     * Reassembles all the records of a log.
+     * 
+     * @param reader
+     *            the reader of the log lines
+     * @param output
+     *            the receiver of the reassembled request records
+     * @throws IOException
+     *             if the log cannot be read
+     */
+    public static void reassemble(final BufferedReader reader, final Consumer<String> output) throws IOException {
+        final ChunkReassembler reassembler = new ChunkReassembler(output);
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            reassembler.accept(line);
+        }
+
+        reassembler.finish();
+    }
+
+    /**
+     * Reads a log line. Request records without chunks are written as they
+     * are.
+     * 
+     * @param line
+     *            the log line
+     */
+    public void accept(final String line) {
+        final JsonObject record = parse(line);
+
+        if (record == null) {
+            return;
+        }
+
+        if (record.has(CHUNK) && !record.has(REQUEST)) {
+            pendingChunks.computeIfAbsent(tokenOf(record), token -> new TreeMap<>()).put(
+                    record.get(CHUNK).getAsInt(), record.getAsJsonArray(MESSAGES));
+        } else if (record.has(REQUEST) && record.has(CHUNKS)) {
+            close(record);
+        } else if (record.has(REQUEST)) {
+            output.accept(serializer.toJson(record));
+        }
+
+    }
+
+    /**
+     * Writes the requests whose chunks were read but which were never closed.
+     */
+    public void finish() {
+
+        for (final Map.Entry<String, TreeMap<Integer, JsonArray>> pending : pendingChunks.entrySet()) {
+            final JsonObject request = new JsonObject();
+
+            if (pending.getKey() != null) {
+                request.addProperty(TOKEN, pending.getKey());
+            }
+
+            final JsonObject record = new JsonObject();
+            record.add(REQUEST, request);
+            record.add(MESSAGES, concat(pending.getValue().values(), new JsonArray()));
+            record.addProperty(INCOMPLETE, true);
+            output.accept(serializer.toJson(record));
+        }
+
+        pendingChunks.clear();
+    }
+
+    /**
+     * Writes a request record with the messages of its chunks.
+     * 
+     * @param record
+     *            the request record that closes the chunks
+     */
+    private void close(final JsonObject record) {
+        final int expectedChunks = record.remove(CHUNKS).getAsInt();
+        final JsonElement request = record.get(REQUEST);
+        String token = null;
+
+        if (request.isJsonObject() && request.getAsJsonObject().has(TOKEN)) {
+            token = request.getAsJsonObject().get(TOKEN).getAsString();
+        }
+
+        final TreeMap<Integer, JsonArray> chunks = pendingChunks.remove(token);
+        final List<JsonArray> parts = new ArrayList<>();
+
+        if (chunks != null) {
+            parts.addAll(chunks.values());
+        }
+
+        final boolean complete = parts.size() == expectedChunks;
+        final JsonElement ownMessages = record.get(MESSAGES);
+
+        if (ownMessages != null && ownMessages.isJsonArray()) {
+            parts.add(ownMessages.getAsJsonArray());
+        }
+
+        // replacing the value keeps the position of the field in the record
+        record.add(MESSAGES, concat(parts, new JsonArray()));
+
+        if (!complete) {
+            record.addProperty(INCOMPLETE, true);
+        }
+
+        output.accept(serializer.toJson(record));
+    }
+
+    /**
+     * Parses the JSON record of a log line.
+     * 
+     * @param line
+     *            the log line
+     * @return the record or <code>null</code> if the line has no JSON record
+     */
+    private JsonObject parse(final String line) {
+        final int start = line.indexOf('{');
+
+        if (start < 0) {
+            return null;
+        }
+
+        try {
+            final JsonElement element = parser.parse(line.substring(start));
+            return element.isJsonObject() ? RecordSchema.expand(element.getAsJsonObject()) : null;
+        } catch (final JsonParseException | IllegalArgumentException e) {
+            return null;
+        }
+
+    }
+
+    /**
+     * Gets the token of a chunk record.
+     * 
+     * @param record
+     *            the chunk record
+     * @return the token or <code>null</code> if the request has none
+     */
+    private static String tokenOf(final JsonObject record) {
+        return record.has(TOKEN) ? record.get(TOKEN).getAsString() : null;
+    }
+
+    /**
+     * Concatenates arrays of messages.
+     * 
+     * @param parts
+     *            the arrays, in order
+     * @param result
+     *            the array that receives the messages
+     * @return the array with all the messages
+     */
+    private static JsonArray concat(final Iterable<JsonArray> parts, final JsonArray result) {
+
+        for (final JsonArray part : parts) {
+
+            if (part != null) {
+                result.addAll(part);
+            }
+
+        }
+
+        return result;
+    }
+
+}
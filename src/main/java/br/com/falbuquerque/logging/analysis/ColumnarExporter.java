@@ -0,0 +1,613 @@
+package br.com.falbuquerque.logging.analysis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import br.com.falbuquerque.logging.RecordSchema;
+import br.com.falbuquerque.logging.analysis.ColumnarFormat.ColumnBuilder;
+import br.com.falbuquerque.logging.analysis.JsonTokenizer.Token;
+import br.com.falbuquerque.logging.analysis.RecordLineParser.Keys;
+
+/**
+ * Converts request logs into the columnar layout described by
+ * {@link ColumnarFormat}, so they can be queried by {@link ColumnarReader}
+ * without parsing JSON again. Each request record becomes a row with its
+ * token, message count, level and one column per parameter; each exception
+ * header, i.e., <code>Exception in request [token]</code>, becomes a row with
+ * the token, level and exception class.
+ * 
+ * <p>
+ * The logs are read as streams and the rows are written in row groups, so the
+ * memory used depends only on the size of the row groups. Records without a
+ * request, such as the chunk records, are not exported.
+ * </p>
+ * 
+ * <p>
+ * Usage: <code>ColumnarExporter &lt;output file&gt; &lt;log file&gt;...</code>
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class ColumnarExporter implements Closeable {
+
+    /**
+     * Default number of rows of a row group.
+     */
+    public static final int DEFAULT_ROW_GROUP_SIZE = 8192;
+
+    private static final String RECORD_LEVEL = "INFO";
+    private static final String COMPLEX_VALUE = "(complex)";
+    private static final Keys FULL_KEYS = Keys.of(null);
+
+    private final DataOutputStream output;
+    private final int rowGroupSize;
+    private final ColumnBuilder tokens;
+    private final ColumnBuilder exceptionClasses;
+    private final ColumnBuilder levels;
+    private final ColumnBuilder messages;
+    private final Map<String, ColumnBuilder> parameters = new TreeMap<>();
+    private final Map<Integer, Keys> compactKeys = new HashMap<>();
+    private final List<String> rowParameters = new ArrayList<>();
+    private byte[] lines = new byte[8192];
+    private int rowCount;
+    private long exportedRowCount;
+    private long malformedLineCount;
+
+    /**
+     * Creates an exporter with the default row group size.
+     * 
+     * @param output
+     *            the output of the columnar file
+     * @throws IOException
+     *             if the header cannot be written
+     */
+    public ColumnarExporter(final OutputStream output) throws IOException {
+        this(output, DEFAULT_ROW_GROUP_SIZE);
+    }
+
+    /**
+     * Creates an exporter.
+     * 
+     * @param output
+     *            the output of the columnar file
+     * @param rowGroupSize
+     *            the number of rows of a row group
+     * @throws IOException
+     *             if the header cannot be written
+     */
+    public ColumnarExporter(final OutputStream output, final int rowGroupSize) throws IOException {
+
+        if (rowGroupSize <= 0) {
+            throw new IllegalArgumentException("The row group size must be positive");
+        }
+
+        this.output = new DataOutputStream(new BufferedOutputStream(output));
+        this.rowGroupSize = rowGroupSize;
+        tokens = new ColumnBuilder(rowGroupSize);
+        exceptionClasses = new ColumnBuilder(rowGroupSize);
+        levels = new ColumnBuilder(rowGroupSize);
+        messages = new ColumnBuilder(rowGroupSize);
+
+        this.output.write(ColumnarFormat.MAGIC);
+        this.output.writeByte(ColumnarFormat.VERSION);
+    }
+
+    /**
+     * Exports the lines of a request log, e.g. a file written by a record
+     * sink or by the <code>logPattern</code> of <code>log4j2.xml</code>.
+     * 
+     * @param log
+     *            the log, read up to its end but not closed
+     * @return the current instance
+     * @throws IOException
+     *             if the log cannot be read or the rows cannot be written
+     */
+    public ColumnarExporter export(final InputStream log) throws IOException {
+        final InputStream input = log instanceof BufferedInputStream ? log : new BufferedInputStream(log);
+        int headerEnd = -1;
+
+        for (int end = readLine(input, 0); end >= 0; end = readLine(input, headerEnd < 0 ? 0 : headerEnd + 1)) {
+            int lineEnd = end;
+
+            if (headerEnd >= 0) {
+                exportLine(ByteBuffer.wrap(lines), 0, headerEnd, headerEnd + 1, lineEnd);
+
+                // the line is also parsed by itself, as the analyzer does
+                System.arraycopy(lines, headerEnd + 1, lines, 0, lineEnd - headerEnd - 1);
+                lineEnd -= headerEnd + 1;
+                headerEnd = -1;
+            }
+
+            final ByteBuffer data = ByteBuffer.wrap(lines);
+
+            if (RecordLineParser.isExceptionHeader(data, 0, lineEnd)) {
+                // the exception class is in the next line, as written by an appender
+                headerEnd = lineEnd;
+            } else {
+                exportLine(data, 0, lineEnd, -1, -1);
+            }
+
+        }
+
+        if (headerEnd >= 0) {
+            exportLine(ByteBuffer.wrap(lines), 0, headerEnd, -1, -1);
+        }
+
+        return this;
+    }
+
+    /**
+     * Gets the number of rows exported so far.
+     * 
+     * @return the number of rows
+     */
+    public long getRowCount() {
+        return exportedRowCount;
+    }
+
+    /**
+     * Gets the number of record lines that could not be parsed.
+     * 
+     * @return the number of malformed lines
+     */
+    public long getMalformedLineCount() {
+        return malformedLineCount;
+    }
+
+    /**
+     * Writes the last row group and the end of the file, and closes the
+     * output.
+     */
+    @Override
+    public void close() throws IOException {
+
+        try {
+            writeRowGroup();
+            ColumnarFormat.writeVarInt(output, 0);
+        } finally {
+            output.close();
+        }
+
+    }
+
+    /**
+     * Exports the request logs given in the command line.
+     * 
+     * @param args
+     *            the output file followed by the log files
+     * @throws IOException
+     *             if a log cannot be read or the output cannot be written
+     */
+    public static void main(final String[] args) throws IOException {
+
+        if (args.length < 2) {
+            System.err.println("Usage: ColumnarExporter <output file> <log file>...");
+            System.exit(1);
+        }
+
+        try (ColumnarExporter exporter = new ColumnarExporter(Files.newOutputStream(Paths.get(args[0])))) {
+
+            for (int i = 1; i < args.length; i++) {
+
+                try (InputStream log = Files.newInputStream(Paths.get(args[i]))) {
+                    exporter.export(log);
+                }
+
+            }
+
+            System.out.println("Rows: " + exporter.getRowCount());
+            System.out.println("Malformed lines: " + exporter.getMalformedLineCount());
+        }
+
+    }
+
+    /**
+     * Reads a line into the line buffer, without its separator.
+     * 
+     * @param input
+     *            the input
+     * @param offset
+     *            the position of the buffer where the line is stored
+     * @return the position after the line or -1 if the input ended
+     * @throws IOException
+     *             if the input cannot be read
+     */
+    private int readLine(final InputStream input, final int offset) throws IOException {
+        int position = offset;
+        int b = input.read();
+
+        if (b < 0) {
+            return -1;
+        }
+
+        while (b >= 0 && b != '\n') {
+
+            if (position == lines.length) {
+                lines = Arrays.copyOf(lines, lines.length * 2);
+            }
+
+            lines[position++] = (byte) b;
+            b = input.read();
+        }
+
+        if (position > offset && lines[position - 1] == '\r') {
+            position--;
+        }
+
+        return position;
+    }
+
+    /**
+     * Exports a line as a row, if it is a request record or an exception
+     * header.
+     * 
+     * @param data
+     *            the buffer that holds the line
+     * @param start
+     *            the position of the first byte of the line
+     * @param end
+     *            the position after the line
+     * @param nextStart
+     *            the position of the line that follows an exception header,
+     *            or -1 if there is none
+     * @param nextEnd
+     *            the position after the line that follows an exception header
+     * @throws IOException
+     *             if a full row group cannot be written
+     */
+    private void exportLine(final ByteBuffer data, final int start, final int end, final int nextStart,
+            final int nextEnd) throws IOException {
+        final int messageStart = RecordLineParser.messageStart(data, start, end);
+
+        if (messageStart >= end) {
+            return;
+        }
+
+        final String level = levelOf(data, start, messageStart);
+
+        if (data.get(messageStart) == '{') {
+            exportRecord(data, messageStart, end, level == null ? RECORD_LEVEL : level);
+        } else if (RecordLineParser.startsWith(data, messageStart, end, RecordLineParser.EXCEPTION_HEADER)) {
+            final int tokenStart = messageStart + RecordLineParser.EXCEPTION_HEADER.length;
+            int tokenEnd = tokenStart;
+
+            while (tokenEnd < end && data.get(tokenEnd) != ']') {
+                tokenEnd++;
+            }
+
+            tokens.set(rowCount, RecordLineParser.decode(data, tokenStart, tokenEnd));
+            exceptionClasses.set(rowCount, RecordLineParser.exceptionClassOf(data, messageStart, end, nextStart,
+                    nextEnd));
+
+            if (level != null) {
+                levels.set(rowCount, level);
+            }
+
+            endRow();
+        }
+
+    }
+
+    /**
+     * Exports a request record as a row.
+     * 
+     * @param data
+     *            the buffer that holds the record
+     * @param start
+     *            the position of the opening brace
+     * @param end
+     *            the position after the record
+     * @param level
+     *            the level of the record
+     * @throws IOException
+     *             if a full row group cannot be written
+     */
+    private void exportRecord(final ByteBuffer data, final int start, final int end, final String level)
+            throws IOException {
+        final JsonTokenizer tokenizer = new JsonTokenizer(data, start, end);
+        Keys keys = FULL_KEYS;
+        boolean request = false;
+        String token = null;
+        int messageCount = 0;
+        rowParameters.clear();
+
+        try {
+
+            if (tokenizer.next() != Token.BEGIN_OBJECT) {
+                malformedLineCount++;
+                return;
+            }
+
+            Token next = tokenizer.next();
+
+            if (next == Token.NAME && tokenizer.tokenEquals(RecordLineParser.VERSION)) {
+                tokenizer.next();
+                keys = keysOf((int) tokenizer.tokenNumber());
+
+                if (keys == null) {
+                    malformedLineCount++;
+                    return;
+                }
+
+                next = tokenizer.next();
+            }
+
+            for (; next == Token.NAME; next = tokenizer.next()) {
+
+                if (tokenizer.tokenEquals(keys.request)) {
+                    request = true;
+                    token = parseRequest(tokenizer, keys);
+                } else if (tokenizer.tokenEquals(keys.messages)) {
+                    messageCount = RecordLineParser.countArrayItems(tokenizer);
+                } else {
+                    tokenizer.skipValue(tokenizer.next());
+                }
+
+            }
+
+            if (next != Token.END_OBJECT) {
+                malformedLineCount++;
+                return;
+            }
+
+        } catch (final RuntimeException e) {
+            malformedLineCount++;
+            return;
+        }
+
+        if (!request) {
+            return;
+        }
+
+        if (token != null) {
+            tokens.set(rowCount, token);
+        }
+
+        levels.set(rowCount, level);
+        messages.set(rowCount, String.valueOf(messageCount));
+
+        for (int i = 0; i < rowParameters.size(); i += 2) {
+            final String column = ColumnarFormat.PARAMETER_PREFIX + rowParameters.get(i);
+            ColumnBuilder parameter = parameters.get(column);
+
+            if (parameter == null) {
+                parameter = new ColumnBuilder(rowGroupSize);
+                parameters.put(column, parameter);
+            }
+
+            parameter.set(rowCount, rowParameters.get(i + 1));
+        }
+
+        endRow();
+    }
+
+    /**
+     * Parses the request of a record, keeping its parameters as name and
+     * value pairs.
+     * 
+     * @param tokenizer
+     *            the tokenizer positioned before the request
+     * @param keys
+     *            the keys of the record
+     * @return the token of the request or <code>null</code> if it has none
+     */
+    private String parseRequest(final JsonTokenizer tokenizer, final Keys keys) {
+        final Token start = tokenizer.next();
+        String token = null;
+
+        if (start != Token.BEGIN_OBJECT) {
+            tokenizer.skipValue(start);
+            return null;
+        }
+
+        for (Token next = tokenizer.next(); next == Token.NAME; next = tokenizer.next()) {
+
+            if (tokenizer.tokenEquals(keys.token)) {
+                token = tokenizer.next() == Token.STRING ? tokenizer.tokenText() : null;
+            } else if (tokenizer.tokenEquals(keys.parameters)) {
+                parseParameters(tokenizer, keys);
+            } else {
+                tokenizer.skipValue(tokenizer.next());
+            }
+
+        }
+
+        return token;
+    }
+
+    /**
+     * Parses the parameters of a request.
+     * 
+     * @param tokenizer
+     *            the tokenizer positioned before the parameters array
+     * @param keys
+     *            the keys of the record
+     */
+    private void parseParameters(final JsonTokenizer tokenizer, final Keys keys) {
+        final Token start = tokenizer.next();
+
+        if (start != Token.BEGIN_ARRAY) {
+            tokenizer.skipValue(start);
+            return;
+        }
+
+        for (Token item = tokenizer.next(); item != Token.END_ARRAY; item = tokenizer.next()) {
+
+            if (item != Token.BEGIN_OBJECT) {
+                tokenizer.skipValue(item);
+                continue;
+            }
+
+            String name = null;
+            String value = null;
+
+            for (Token next = tokenizer.next(); next == Token.NAME; next = tokenizer.next()) {
+
+                if (tokenizer.tokenEquals(keys.name)) {
+                    tokenizer.next();
+                    name = tokenizer.tokenText();
+                } else if (tokenizer.tokenEquals(keys.value)) {
+                    final Token valueToken = tokenizer.next();
+
+                    if (valueToken == Token.BEGIN_OBJECT || valueToken == Token.BEGIN_ARRAY) {
+                        tokenizer.skipValue(valueToken);
+                        value = COMPLEX_VALUE;
+                    } else if (valueToken != Token.NULL) {
+                        value = tokenizer.tokenText();
+                    }
+
+                } else {
+                    tokenizer.skipValue(tokenizer.next());
+                }
+
+            }
+
+            if (name != null && value != null) {
+                rowParameters.add(name);
+                rowParameters.add(value);
+            }
+
+        }
+
+    }
+
+    /**
+     * Gets the level of a line written through the layout of
+     * <code>log4j2.xml</code>, i.e., the word before the logger.
+     * 
+     * @param data
+     *            the buffer that holds the line
+     * @param start
+     *            the position of the first byte of the line
+     * @param messageStart
+     *            the position of the message
+     * @return the level or <code>null</code> if the line has no layout prefix
+     */
+    private static String levelOf(final ByteBuffer data, final int start, final int messageStart) {
+
+        if (messageStart == start) {
+            return null;
+        }
+
+        int position = messageStart - RecordLineParser.LOGGER_SEPARATOR.length;
+
+        // the logger, then the padding of the level
+        while (position > start && data.get(position - 1) != ' ') {
+            position--;
+        }
+
+        while (position > start && data.get(position - 1) == ' ') {
+            position--;
+        }
+
+        final int levelEnd = position;
+
+        while (position > start && data.get(position - 1) != ' ') {
+            position--;
+        }
+
+        return levelEnd > position ? RecordLineParser.decode(data, position, levelEnd) : null;
+    }
+
+    /**
+     * Gets the keys of the compact records of a schema version.
+     * 
+     * @param version
+     *            the schema version
+     * @return the keys or <code>null</code> if the version is unknown
+     */
+    private Keys keysOf(final int version) {
+        Keys keys = compactKeys.get(version);
+
+        if (keys == null) {
+            final RecordSchema schema = RecordSchema.forVersion(version);
+
+            if (schema == null) {
+                return null;
+            }
+
+            keys = Keys.of(schema);
+            compactKeys.put(version, keys);
+        }
+
+        return keys;
+    }
+
+    /**
+     * Counts the row just filled and writes the row group when it is full.
+     * 
+     * @throws IOException
+     *             if the row group cannot be written
+     */
+    private void endRow() throws IOException {
+        rowCount++;
+        exportedRowCount++;
+
+        if (rowCount == rowGroupSize) {
+            writeRowGroup();
+        }
+
+    }
+
+    /**
+     * Writes the rows filled so far as a row group. The token and exception
+     * class columns are written first, so readers can skip the group after
+     * checking their dictionaries.
+     * 
+     * @throws IOException
+     *             if the row group cannot be written
+     */
+    private void writeRowGroup() throws IOException {
+
+        if (rowCount == 0) {
+            return;
+        }
+
+        final Map<String, ColumnBuilder> columns = new LinkedHashMap<>();
+        columns.put(ColumnarFormat.TOKEN, tokens);
+        columns.put(ColumnarFormat.EXCEPTION_CLASS, exceptionClasses);
+        columns.put(ColumnarFormat.LEVEL, levels);
+        columns.put(ColumnarFormat.MESSAGES, messages);
+        columns.putAll(parameters);
+
+        final ByteArrayOutputStream group = new ByteArrayOutputStream();
+        final DataOutputStream groupOutput = new DataOutputStream(group);
+        final ByteArrayOutputStream column = new ByteArrayOutputStream();
+        final DataOutputStream columnOutput = new DataOutputStream(column);
+
+        for (final Map.Entry<String, ColumnBuilder> entry : columns.entrySet()) {
+            column.reset();
+            entry.getValue().write(columnOutput, rowCount);
+
+            ColumnarFormat.writeText(groupOutput, entry.getKey());
+            ColumnarFormat.writeVarInt(groupOutput, column.size());
+            column.writeTo(groupOutput);
+            entry.getValue().clear();
+        }
+
+        ColumnarFormat.writeVarInt(output, rowCount);
+        ColumnarFormat.writeVarInt(output, columns.size());
+        ColumnarFormat.writeVarInt(output, group.size());
+        group.writeTo(output);
+
+        parameters.clear();
+        rowCount = 0;
+    }
+
+}
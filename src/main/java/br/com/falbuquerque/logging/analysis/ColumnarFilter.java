@@ -0,0 +1,132 @@
+package br.com.falbuquerque.logging.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import br.com.falbuquerque.logging.analysis.ColumnarFormat.ColumnReader;
+
+/**
+ * Selects the rows read by a {@link ColumnarReader}. The filter is pushed down
+ * to the row groups: a group whose dictionaries do not hold the selected
+ * values is skipped without reading its other columns.
+ * 
+ * @author Felipe Albuquerque
+ */
+public final class ColumnarFilter {
+
+    /**
+     * Filter that selects every row.
+     */
+    public static final ColumnarFilter ALL = new ColumnarFilter(Collections.emptyList(), Collections.emptyList());
+
+    private final List<String> columns;
+    private final List<String> values;
+
+    /**
+     * Creates a filter that selects the rows whose columns have the given
+     * values.
+     * 
+     * @param columns
+     *            the names of the columns
+     * @param values
+     *            the value of each column
+     */
+    private ColumnarFilter(final List<String> columns, final List<String> values) {
+        this.columns = columns;
+        this.values = values;
+    }
+
+    /**
+     * Selects the rows of a request.
+     * 
+     * @param token
+     *            the token of the request
+     * @return the filter
+     */
+    public static ColumnarFilter token(final String token) {
+        return new ColumnarFilter(Collections.singletonList(ColumnarFormat.TOKEN), Collections.singletonList(token));
+    }
+
+    /**
+     * Selects the rows of the exceptions of a class.
+     * 
+     * @param className
+     *            the fully qualified name of the exception class
+     * @return the filter
+     */
+    public static ColumnarFilter exceptionClass(final String className) {
+        return new ColumnarFilter(Collections.singletonList(ColumnarFormat.EXCEPTION_CLASS), Collections
+                .singletonList(className));
+    }
+
+    /**
+     * Combines this filter with another one.
+     * 
+     * @param other
+     *            the other filter
+     * @return a filter that selects the rows selected by both filters
+     */
+    public ColumnarFilter and(final ColumnarFilter other) {
+        final List<String> allColumns = new ArrayList<>(columns);
+        final List<String> allValues = new ArrayList<>(values);
+        allColumns.addAll(other.columns);
+        allValues.addAll(other.values);
+        return new ColumnarFilter(allColumns, allValues);
+    }
+
+    /**
+     * Gets the number of conditions of the filter.
+     * 
+     * @return the number of conditions
+     */
+    int size() {
+        return columns.size();
+    }
+
+    /**
+     * Gets the column of a condition.
+     * 
+     * @param condition
+     *            the index of the condition
+     * @return the name of the column
+     */
+    String columnOf(final int condition) {
+        return columns.get(condition);
+    }
+
+    /**
+     * Checks whether a column of a row group may hold the values selected for
+     * it, by looking them up in its dictionary.
+     * 
+     * @param column
+     *            the column
+     * @return <code>false</code> if no row of the group can be selected
+     */
+    boolean mayMatch(final ColumnReader column) {
+
+        for (int i = 0; i < columns.size(); i++) {
+
+            if (columns.get(i).equals(column.getName()) && column.idOf(values.get(i)) == 0) {
+                return false;
+            }
+
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the dictionary id of the value of a condition in a column.
+     * 
+     * @param condition
+     *            the index of the condition
+     * @param column
+     *            the column of the condition
+     * @return the id or zero if the column does not hold the value
+     */
+    int idOf(final int condition, final ColumnReader column) {
+        return column.idOf(values.get(condition));
+    }
+
+}
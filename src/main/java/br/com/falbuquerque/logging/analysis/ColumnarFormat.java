@@ -0,0 +1,385 @@
+package br.com.falbuquerque.logging.analysis;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Layout of the columnar files written by the {@link ColumnarExporter}:
+ * 
+ * <pre>
+ * file      := MAGIC VERSION rowGroup* 0
+ * rowGroup  := rowCount columnCount groupLength column*
+ * column    := name length dictionary runs
+ * runs      := (runLength id)*
+ * </pre>
+ * 
+ * <p>
+ * Every column holds text. Its distinct values of the row group are kept in a
+ * dictionary and each row holds the position of its value in the dictionary,
+ * plus one, or zero if the row has no value. The ids are run-length encoded,
+ * which folds the long runs of requests with the same parameter value. Counts,
+ * names and ids are unsigned variable-length integers and texts are prefixed
+ * by their UTF-8 length.
+ * </p>
+ * 
+ * <p>
+ * The {@link #TOKEN} and {@link #EXCEPTION_CLASS} columns come first, so a
+ * reader can check their dictionaries and skip the remaining
+ * <code>groupLength</code> bytes of a row group without reading the other
+ * columns.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+final class ColumnarFormat {
+
+    static final byte[] MAGIC = { 'R', 'L', 'C', 'F' };
+    static final int VERSION = 1;
+
+    static final String TOKEN = "token";
+    static final String EXCEPTION_CLASS = "exceptionClass";
+    static final String LEVEL = "level";
+    static final String MESSAGES = "messages";
+    static final String PARAMETER_PREFIX = "parameter.";
+
+    /**
+     * Not instantiable.
+     */
+    private ColumnarFormat() {
+    }
+
+    /**
+     * Writes an unsigned variable-length integer, seven bits per byte.
+     * 
+     * @param output
+     *            the output
+     * @param value
+     *            the non-negative value
+     * @throws IOException
+     *             if the value cannot be written
+     */
+    static void writeVarInt(final DataOutput output, final int value) throws IOException {
+        int remaining = value;
+
+        while ((remaining & ~0x7f) != 0) {
+            output.writeByte((remaining & 0x7f) | 0x80);
+            remaining >>>= 7;
+        }
+
+        output.writeByte(remaining);
+    }
+
+    /**
+     * Reads an unsigned variable-length integer.
+     * 
+     * @param input
+     *            the input
+     * @return the value
+     * @throws IOException
+     *             if the value cannot be read
+     */
+    static int readVarInt(final DataInput input) throws IOException {
+        int value = 0;
+
+        for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+            final int b = input.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+
+        }
+
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    /**
+     * Gets the number of bytes of an encoded variable-length integer.
+     * 
+     * @param value
+     *            the non-negative value
+     * @return the number of bytes
+     */
+    static int varIntLength(final int value) {
+        int length = 1;
+
+        for (int remaining = value >>> 7; remaining != 0; remaining >>>= 7) {
+            length++;
+        }
+
+        return length;
+    }
+
+    /**
+     * Writes a text prefixed by its UTF-8 length.
+     * 
+     * @param output
+     *            the output
+     * @param text
+     *            the text
+     * @throws IOException
+     *             if the text cannot be written
+     */
+    static void writeText(final DataOutput output, final String text) throws IOException {
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(output, bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Reads a text prefixed by its UTF-8 length.
+     * 
+     * @param input
+     *            the input
+     * @return the text
+     * @throws IOException
+     *             if the text cannot be read
+     */
+    static String readText(final DataInput input) throws IOException {
+        final byte[] bytes = new byte[readVarInt(input)];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Values of a column of the row group being written.
+     */
+    static final class ColumnBuilder {
+
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> dictionary = new ArrayList<>();
+        private final int[] rows;
+
+        /**
+         * Creates the values of a column.
+         * 
+         * @param rowGroupSize
+         *            the maximum number of rows of the row group
+         */
+        ColumnBuilder(final int rowGroupSize) {
+            rows = new int[rowGroupSize];
+        }
+
+        /**
+         * Sets the value of a row. The rows without a value have none.
+         * 
+         * @param row
+         *            the row
+         * @param value
+         *            the value
+         */
+        void set(final int row, final String value) {
+            Integer id = ids.get(value);
+
+            if (id == null) {
+                dictionary.add(value);
+                id = dictionary.size();
+                ids.put(value, id);
+            }
+
+            rows[row] = id;
+        }
+
+        /**
+         * Writes the dictionary and the runs of the column.
+         * 
+         * @param output
+         *            the output
+         * @param rowCount
+         *            the number of rows of the row group
+         * @throws IOException
+         *             if the column cannot be written
+         */
+        void write(final DataOutput output, final int rowCount) throws IOException {
+            writeVarInt(output, dictionary.size());
+
+            for (final String value : dictionary) {
+                writeText(output, value);
+            }
+
+            int row = 0;
+
+            while (row < rowCount) {
+                final int id = rows[row];
+                int runEnd = row + 1;
+
+                while (runEnd < rowCount && rows[runEnd] == id) {
+                    runEnd++;
+                }
+
+                writeVarInt(output, runEnd - row);
+                writeVarInt(output, id);
+                row = runEnd;
+            }
+
+        }
+
+        /**
+         * Discards the values, keeping the rows array for the next row group.
+         */
+        void clear() {
+            ids.clear();
+            dictionary.clear();
+            Arrays.fill(rows, 0);
+        }
+
+    }
+
+    /**
+     * Column of a row group being read. The runs are only expanded when the
+     * values of the rows are needed.
+     */
+    static final class ColumnReader {
+
+        private final String name;
+        private final String[] dictionary;
+        private final byte[] runs;
+        private int[] rows;
+
+        /**
+         * Creates a column read from a row group.
+         * 
+         * @param name
+         *            the name of the column
+         * @param dictionary
+         *            the distinct values of the column
+         * @param runs
+         *            the encoded runs of ids
+         */
+        private ColumnReader(final String name, final String[] dictionary, final byte[] runs) {
+            this.name = name;
+            this.dictionary = dictionary;
+            this.runs = runs;
+        }
+
+        /**
+         * Reads a column from its encoded dictionary and runs.
+         * 
+         * @param name
+         *            the name of the column
+         * @param body
+         *            the encoded column
+         * @return the column
+         * @throws IOException
+         *             if the dictionary is malformed
+         */
+        static ColumnReader read(final String name, final byte[] body) throws IOException {
+            final ByteArrayInputStream bytes = new ByteArrayInputStream(body);
+            final DataInput input = new DataInputStream(bytes);
+            final String[] dictionary = new String[readVarInt(input)];
+
+            for (int i = 0; i < dictionary.length; i++) {
+                dictionary[i] = readText(input);
+            }
+
+            return new ColumnReader(name, dictionary, Arrays.copyOfRange(body, body.length - bytes.available(),
+                    body.length));
+        }
+
+        /**
+         * Gets the name of the column.
+         * 
+         * @return the name
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the id of a value in the dictionary.
+         * 
+         * @param value
+         *            the value
+         * @return the id or zero if no row of the group has the value
+         */
+        int idOf(final String value) {
+
+            for (int i = 0; i < dictionary.length; i++) {
+
+                if (dictionary[i].equals(value)) {
+                    return i + 1;
+                }
+
+            }
+
+            return 0;
+        }
+
+        /**
+         * Gets the id of the value of a row.
+         * 
+         * @param row
+         *            the row
+         * @param rowCount
+         *            the number of rows of the row group
+         * @return the id or zero if the row has no value
+         * @throws IOException
+         *             if the runs are malformed
+         */
+        int idAt(final int row, final int rowCount) throws IOException {
+
+            if (rows == null) {
+                rows = expand(rowCount);
+            }
+
+            return rows[row];
+        }
+
+        /**
+         * Gets the value of a row.
+         * 
+         * @param row
+         *            the row
+         * @param rowCount
+         *            the number of rows of the row group
+         * @return the value or <code>null</code> if the row has none
+         * @throws IOException
+         *             if the runs are malformed
+         */
+        String valueAt(final int row, final int rowCount) throws IOException {
+            final int id = idAt(row, rowCount);
+            return id == 0 ? null : dictionary[id - 1];
+        }
+
+        /**
+         * Expands the runs into the id of each row.
+         * 
+         * @param rowCount
+         *            the number of rows of the row group
+         * @return the ids
+         * @throws IOException
+         *             if the runs are malformed
+         */
+        private int[] expand(final int rowCount) throws IOException {
+            final DataInput input = new DataInputStream(new ByteArrayInputStream(runs));
+            final int[] ids = new int[rowCount];
+            int row = 0;
+
+            while (row < rowCount) {
+                final int runLength = readVarInt(input);
+                final int id = readVarInt(input);
+
+                if (runLength <= 0 || row + runLength > rowCount || id > dictionary.length) {
+                    throw new IOException("Malformed run in column " + name);
+                }
+
+                Arrays.fill(ids, row, row + runLength, id);
+                row += runLength;
+            }
+
+            return ids;
+        }
+
+    }
+
+}
@@ -0,0 +1,298 @@
+package br.com.falbuquerque.logging.analysis;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import br.com.falbuquerque.logging.analysis.ColumnarFormat.ColumnReader;
+
+/**
+ * Reads the rows of a columnar file written by a {@link ColumnarExporter}, one
+ * row group at a time. The {@link ColumnarFilter} is checked against the
+ * dictionaries of each row group first, so the groups that cannot hold a
+ * selected row are skipped without reading their other columns, and the
+ * values of the rows are only decoded for the selected ones.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class ColumnarReader implements Closeable {
+
+    private final DataInputStream input;
+    private long rowGroupCount;
+    private long skippedRowGroupCount;
+
+    /**
+     * Creates a reader.
+     * 
+     * @param input
+     *            the input of the columnar file
+     * @throws IOException
+     *             if the input is not a columnar file
+     */
+    public ColumnarReader(final InputStream input) throws IOException {
+        this.input = new DataInputStream(new BufferedInputStream(input));
+
+        final byte[] magic = new byte[ColumnarFormat.MAGIC.length];
+        this.input.readFully(magic);
+
+        if (!Arrays.equals(magic, ColumnarFormat.MAGIC)) {
+            throw new IOException("Not a columnar request log: " + new String(magic, StandardCharsets.ISO_8859_1));
+        }
+
+        final int version = this.input.readUnsignedByte();
+
+        if (version != ColumnarFormat.VERSION) {
+            throw new IOException("Unsupported columnar request log version: " + version);
+        }
+
+    }
+
+    /**
+     * Reads the selected rows up to the end of the file.
+     * 
+     * @param filter
+     *            the filter of the rows
+     * @param consumer
+     *            the consumer of the selected rows
+     * @return the number of selected rows
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    public long read(final ColumnarFilter filter, final Consumer<ColumnarRow> consumer) throws IOException {
+        long selected = 0;
+
+        for (int rowCount = ColumnarFormat.readVarInt(input); rowCount > 0; rowCount = ColumnarFormat
+                .readVarInt(input)) {
+            selected += readRowGroup(rowCount, filter, consumer);
+        }
+
+        return selected;
+    }
+
+    /**
+     * Gets the number of row groups read so far, skipped or not.
+     * 
+     * @return the number of row groups
+     */
+    public long getRowGroupCount() {
+        return rowGroupCount;
+    }
+
+    /**
+     * Gets the number of row groups skipped by the filters so far.
+     * 
+     * @return the number of skipped row groups
+     */
+    public long getSkippedRowGroupCount() {
+        return skippedRowGroupCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * Reads a row group.
+     * 
+     * @param rowCount
+     *            the number of rows of the group
+     * @param filter
+     *            the filter of the rows
+     * @param consumer
+     *            the consumer of the selected rows
+     * @return the number of selected rows
+     * @throws IOException
+     *             if the row group cannot be read
+     */
+    private long readRowGroup(final int rowCount, final ColumnarFilter filter, final Consumer<ColumnarRow> consumer)
+            throws IOException {
+        final int columnCount = ColumnarFormat.readVarInt(input);
+        final int groupLength = ColumnarFormat.readVarInt(input);
+        final Map<String, ColumnReader> columns = new LinkedHashMap<>();
+        int consumed = 0;
+        rowGroupCount++;
+
+        for (int i = 0; i < columnCount; i++) {
+            final String name = ColumnarFormat.readText(input);
+            final byte[] body = new byte[ColumnarFormat.readVarInt(input)];
+            input.readFully(body);
+
+            final int nameLength = name.getBytes(StandardCharsets.UTF_8).length;
+            consumed += ColumnarFormat.varIntLength(nameLength) + nameLength
+                    + ColumnarFormat.varIntLength(body.length) + body.length;
+
+            final ColumnReader column = ColumnReader.read(name, body);
+
+            if (!filter.mayMatch(column)) {
+                skipFully(groupLength - consumed);
+                skippedRowGroupCount++;
+                return 0;
+            }
+
+            columns.put(name, column);
+        }
+
+        final ColumnReader[] conditionColumns = new ColumnReader[filter.size()];
+        final int[] conditionIds = new int[filter.size()];
+
+        for (int i = 0; i < conditionColumns.length; i++) {
+            conditionColumns[i] = columns.get(filter.columnOf(i));
+
+            if (conditionColumns[i] == null) {
+                skippedRowGroupCount++;
+                return 0;
+            }
+
+            conditionIds[i] = filter.idOf(i, conditionColumns[i]);
+        }
+
+        final List<ColumnReader> parameters = new ArrayList<>();
+
+        for (final ColumnReader column : columns.values()) {
+
+            if (column.getName().startsWith(ColumnarFormat.PARAMETER_PREFIX)) {
+                parameters.add(column);
+            }
+
+        }
+
+        long selected = 0;
+
+        for (int row = 0; row < rowCount; row++) {
+
+            if (matches(row, rowCount, conditionColumns, conditionIds)) {
+                consumer.accept(toRow(row, rowCount, columns, parameters));
+                selected++;
+            }
+
+        }
+
+        return selected;
+    }
+
+    /**
+     * Checks whether a row meets all the conditions of the filter.
+     * 
+     * @param row
+     *            the row
+     * @param rowCount
+     *            the number of rows of the group
+     * @param conditionColumns
+     *            the column of each condition
+     * @param conditionIds
+     *            the dictionary id of the value of each condition
+     * @return <code>true</code> if the row is selected
+     * @throws IOException
+     *             if a column is malformed
+     */
+    private static boolean matches(final int row, final int rowCount, final ColumnReader[] conditionColumns,
+            final int[] conditionIds) throws IOException {
+
+        for (int i = 0; i < conditionColumns.length; i++) {
+
+            if (conditionColumns[i].idAt(row, rowCount) != conditionIds[i]) {
+                return false;
+            }
+
+        }
+
+        return true;
+    }
+
+    /**
+     * Decodes the values of a row.
+     * 
+     * @param row
+     *            the row
+     * @param rowCount
+     *            the number of rows of the group
+     * @param columns
+     *            the columns of the group by name
+     * @param parameters
+     *            the parameter columns of the group
+     * @return the row
+     * @throws IOException
+     *             if a column is malformed
+     */
+    private static ColumnarRow toRow(final int row, final int rowCount, final Map<String, ColumnReader> columns,
+            final List<ColumnReader> parameters) throws IOException {
+        final Map<String, String> values = new HashMap<>();
+
+        for (final ColumnReader parameter : parameters) {
+            final String value = parameter.valueAt(row, rowCount);
+
+            if (value != null) {
+                values.put(parameter.getName().substring(ColumnarFormat.PARAMETER_PREFIX.length()), value);
+            }
+
+        }
+
+        final String messages = valueAt(columns, ColumnarFormat.MESSAGES, row, rowCount);
+
+        return new ColumnarRow(valueAt(columns, ColumnarFormat.TOKEN, row, rowCount), valueAt(columns,
+                ColumnarFormat.EXCEPTION_CLASS, row, rowCount), valueAt(columns, ColumnarFormat.LEVEL, row,
+                rowCount), messages == null ? null : Integer.valueOf(messages), values);
+    }
+
+    /**
+     * Gets the value of a row in a column that may be missing.
+     * 
+     * @param columns
+     *            the columns of the group by name
+     * @param name
+     *            the name of the column
+     * @param row
+     *            the row
+     * @param rowCount
+     *            the number of rows of the group
+     * @return the value or <code>null</code> if the row has none
+     * @throws IOException
+     *             if the column is malformed
+     */
+    private static String valueAt(final Map<String, ColumnReader> columns, final String name, final int row,
+            final int rowCount) throws IOException {
+        final ColumnReader column = columns.get(name);
+        return column == null ? null : column.valueAt(row, rowCount);
+    }
+
+    /**
+     * Skips the rest of a row group.
+     * 
+     * @param length
+     *            the number of bytes to skip
+     * @throws IOException
+     *             if the file ends before
+     */
+    private void skipFully(final int length) throws IOException {
+        int remaining = length;
+
+        while (remaining > 0) {
+            final int skipped = input.skipBytes(remaining);
+
+            if (skipped <= 0) {
+                input.readByte();
+                remaining--;
+            } else {
+                remaining -= skipped;
+            }
+
+        }
+
+        if (remaining < 0) {
+            throw new IOException("Malformed row group length");
+        }
+
+    }
+
+}
@@ -0,0 +1,102 @@
+package br.com.falbuquerque.logging.analysis;
+
+import java.util.Map;
+
+/**
+ * Row read from a columnar file: either a request record or an exception
+ * logged for a request.
+ * 
+ * @author Felipe Albuquerque
+ */
+public final class ColumnarRow {
+
+    private final String token;
+    private final String exceptionClass;
+    private final String level;
+    private final Integer messageCount;
+    private final Map<String, String> parameters;
+
+    /**
+     * Creates a row.
+     * 
+     * @param token
+     *            the token of the request or <code>null</code>
+     * @param exceptionClass
+     *            the exception class or <code>null</code> if the row is a
+     *            request record
+     * @param level
+     *            the level or <code>null</code> if unknown
+     * @param messageCount
+     *            the number of messages or <code>null</code> if the row is an
+     *            exception
+     * @param parameters
+     *            the parameters of the request
+     */
+    ColumnarRow(final String token, final String exceptionClass, final String level, final Integer messageCount,
+            final Map<String, String> parameters) {
+        this.token = token;
+        this.exceptionClass = exceptionClass;
+        this.level = level;
+        this.messageCount = messageCount;
+        this.parameters = parameters;
+    }
+
+    /**
+     * Gets the token of the request.
+     * 
+     * @return the token or <code>null</code> if the request has none
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Checks whether the row is an exception rather than a request record.
+     * 
+     * @return <code>true</code> if the row is an exception
+     */
+    public boolean isException() {
+        return exceptionClass != null;
+    }
+
+    /**
+     * Gets the class of the exception.
+     * 
+     * @return the fully qualified class name or <code>null</code> if the row
+     *         is a request record
+     */
+    public String getExceptionClass() {
+        return exceptionClass;
+    }
+
+    /**
+     * Gets the level the row was logged with.
+     * 
+     * @return the level or <code>null</code> if the log line had no layout
+     *         prefix
+     */
+    public String getLevel() {
+        return level;
+    }
+
+    /**
+     * Gets the number of messages of the request record.
+     * 
+     * @return the number of messages or <code>null</code> if the row is an
+     *         exception
+     */
+    public Integer getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * Gets the parameters of the request record, whose complex values are
+     * replaced by <code>(complex)</code>.
+     * 
+     * @return the parameter values by name
+     */
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+}
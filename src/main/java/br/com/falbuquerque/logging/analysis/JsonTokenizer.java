@@ -0,0 +1,352 @@
+package br.com.falbuquerque.logging.analysis;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pull tokenizer of UTF-8 encoded JSON held in a {@link ByteBuffer}. Tokens are
+ * reported by type and position only; strings are decoded just when the caller
+ * asks for them, so a record can be scanned without building any object.
+ * 
+ * @author Felipe Albuquerque
+ */
+class JsonTokenizer {
+
+    /**
+     * Types of the JSON tokens.
+     */
+    enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, TRUE, FALSE, NULL, END
+    }
+
+    private final ByteBuffer input;
+    private final int end;
+    private int position;
+    private int tokenStart;
+    private int tokenEnd;
+    private boolean tokenEscaped;
+    private boolean expectingName;
+    private int depth;
+    private long containers;
+
+    /**
+     * Creates a tokenizer over a region of a buffer.
+     * 
+     * @param input
+     *            the buffer
+     * @param start
+     *            the position of the first byte of the JSON text
+     * @param end
+     *            the position after the last byte of the JSON text
+     */
+    JsonTokenizer(final ByteBuffer input, final int start, final int end) {
+        this.input = input;
+        this.end = end;
+        position = start;
+    }
+
+    /**
+     * Reads the next token.
+     * 
+     * @return the type of the token
+     * @throws IllegalStateException
+     *             if the input is not valid JSON
+     */
+    Token next() {
+        skipSeparators();
+
+        if (position >= end) {
+            return Token.END;
+        }
+
+        final byte b = input.get(position);
+
+        switch (b) {
+
+        case '{':
+            position++;
+            push(true);
+            expectingName = true;
+            return Token.BEGIN_OBJECT;
+        case '[':
+            position++;
+            push(false);
+            expectingName = false;
+            return Token.BEGIN_ARRAY;
+        case '}':
+        case ']':
+            position++;
+            depth--;
+            expectingName = false;
+            return b == '}' ? Token.END_OBJECT : Token.END_ARRAY;
+        case '"':
+            readString();
+
+            if (expectingName) {
+                expectingName = false;
+                return Token.NAME;
+            }
+
+            afterValue();
+            return Token.STRING;
+        case 't':
+            readLiteral(4);
+            return Token.TRUE;
+        case 'f':
+            readLiteral(5);
+            return Token.FALSE;
+        case 'n':
+            readLiteral(4);
+            return Token.NULL;
+        default:
+            readNumber();
+            return Token.NUMBER;
+
+        }
+
+    }
+
+    /**
+     * Skips the value that starts with the given token, including nested
+     * values.
+     * 
+     * @param token
+     *            the first token of the value
+     */
+    void skipValue(final Token token) {
+
+        if (token != Token.BEGIN_OBJECT && token != Token.BEGIN_ARRAY) {
+            return;
+        }
+
+        final int valueDepth = depth - 1;
+
+        while (depth > valueDepth) {
+
+            if (next() == Token.END) {
+                throw new IllegalStateException("Unterminated JSON value");
+            }
+
+        }
+
+    }
+
+    /**
+     * Checks whether the current name or string is equal to an ASCII constant,
+     * without decoding it.
+     * 
+     * @param expected
+     *            the constant
+     * @return <code>true</code> if the token is equal to the constant
+     */
+    boolean tokenEquals(final byte[] expected) {
+
+        if (tokenEscaped || tokenEnd - tokenStart != expected.length) {
+            return false;
+        }
+
+        for (int i = 0; i < expected.length; i++) {
+
+            if (input.get(tokenStart + i) != expected[i]) {
+                return false;
+            }
+
+        }
+
+        return true;
+    }
+
+    /**
+     * Decodes the current token as text. Strings are unescaped; other tokens
+     * are returned as they appear in the input.
+     * 
+     * @return the text of the token
+     */
+    String tokenText() {
+        final byte[] bytes = new byte[tokenEnd - tokenStart];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = input.get(tokenStart + i);
+        }
+
+        final String raw = new String(bytes, StandardCharsets.UTF_8);
+
+        if (tokenEscaped) {
+            return unescape(raw);
+        }
+
+        return raw;
+    }
+
+    /**
+     * Reads the current number token as a double.
+     * 
+     * @return the number
+     */
+    double tokenNumber() {
+        return Double.parseDouble(tokenText());
+    }
+
+    /**
+     * Records a new container in the nesting stack.
+     * 
+     * @param object
+     *            whether the container is an object
+     */
+    private void push(final boolean object) {
+
+        if (depth < Long.SIZE) {
+
+            if (object) {
+                containers |= 1L << depth;
+            } else {
+                containers &= ~(1L << depth);
+            }
+
+        }
+
+        depth++;
+    }
+
+    /**
+     * Updates the state after a value is read.
+     */
+    private void afterValue() {
+        expectingName = false;
+    }
+
+    /**
+     * Skips whitespaces, commas and colons, noticing when a name is expected.
+     */
+    private void skipSeparators() {
+
+        while (position < end) {
+            final byte b = input.get(position);
+
+            if (b == ',') {
+                expectingName = depth > 0 && depth <= Long.SIZE && (containers & 1L << depth - 1) != 0;
+            } else if (b != ' ' && b != ':' && b != '\t' && b != '\r' && b != '\n') {
+                return;
+            }
+
+            position++;
+        }
+
+    }
+
+    /**
+     * Reads a string token, whose bounds exclude the quotes.
+     */
+    private void readString() {
+        tokenStart = ++position;
+        tokenEscaped = false;
+
+        while (position < end) {
+            final byte b = input.get(position);
+
+            if (b == '\\') {
+                tokenEscaped = true;
+                position += 2;
+            } else if (b == '"') {
+                tokenEnd = position++;
+                return;
+            } else {
+                position++;
+            }
+
+        }
+
+        throw new IllegalStateException("Unterminated JSON string");
+    }
+
+    /**
+     * Reads a number token.
+     */
+    private void readNumber() {
+        tokenStart = position;
+        tokenEscaped = false;
+
+        while (position < end) {
+            final byte b = input.get(position);
+
+            if ((b < '0' || b > '9') && b != '-' && b != '+' && b != '.' && b != 'e' && b != 'E') {
+                break;
+            }
+
+            position++;
+        }
+
+        if (position == tokenStart) {
+            throw new IllegalStateException("Unexpected character at " + position);
+        }
+
+        tokenEnd = position;
+        afterValue();
+    }
+
+    /**
+     * Reads a literal token.
+     * 
+     * @param length
+     *            the length of the literal
+     */
+    private void readLiteral(final int length) {
+        tokenStart = position;
+        tokenEscaped = false;
+        position += length;
+        tokenEnd = position;
+        afterValue();
+    }
+
+    /**
+     * Unescapes a JSON string.
+     * 
+     * @param escaped
+     *            the string without the quotes
+     * @return the unescaped string
+     */
+    private static String unescape(final String escaped) {
+        final StringBuilder unescaped = new StringBuilder(escaped.length());
+
+        for (int i = 0; i < escaped.length(); i++) {
+            final char c = escaped.charAt(i);
+
+            if (c != '\\' || i + 1 >= escaped.length()) {
+                unescaped.append(c);
+                continue;
+            }
+
+            final char escape = escaped.charAt(++i);
+
+            switch (escape) {
+
+            case 'b':
+                unescaped.append('\b');
+                break;
+            case 'f':
+                unescaped.append('\f');
+                break;
+            case 'n':
+                unescaped.append('\n');
+                break;
+            case 'r':
+                unescaped.append('\r');
+                break;
+            case 't':
+                unescaped.append('\t');
+                break;
+            case 'u':
+                unescaped.append((char) Integer.parseInt(escaped.substring(i + 1, i + 5), 16));
+                i += 4;
+                break;
+            default:
+                unescaped.append(escape);
+
+            }
+
+        }
+
+        return unescaped.toString();
+    }
+
+}
@@ -0,0 +1,182 @@
+package br.com.falbuquerque.logging.analysis;
+
+/**
+ * Mergeable histogram of non-negative values with a bounded relative error.
+ * Each power of two is split into linear sub-buckets, so the percentiles are
+ * precise to about 3% whatever the magnitude of the values. Instances are not
+ * thread-safe: each thread records into its own histogram and they are then
+ * merged with {@link #merge(LatencyHistogram)}.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+    private final long[] counts = new long[SUB_BUCKETS + (Long.SIZE - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS];
+    private long totalCount;
+    private long maxValue;
+
+    /**
+     * Records a value.
+     * 
+     * @param value
+     *            the value, negative values are recorded as zero
+     */
+    public void record(final long value) {
+        recordValues(value, 1);
+    }
+
+    /**
+     * Records a value several times.
+     * 
+     * @param value
+     *            the value, negative values are recorded as zero
+     * @param count
+     *            the number of occurrences of the value
+     */
+    public void recordValues(final long value, final long count) {
+        final long recorded = Math.max(value, 0);
+        counts[indexOf(recorded)] += count;
+        totalCount += count;
+        maxValue = Math.max(maxValue, recorded);
+    }
+
+    /**
+     * Records a latency measured by a closed loop, correcting the
+     * coordinated omission: while the measured operation stalled, the loop
+     * did not issue the operations it was expected to issue every interval,
+     * so their latencies are recorded too, each one interval shorter than the
+     * previous.
+     * 
+     * @param value
+     *            the latency
+     * @param expectedInterval
+     *            the expected interval between the operations, in the unit
+     *            of the latency, or zero to record only the measured latency
+     */
+    public void recordCorrected(final long value, final long expectedInterval) {
+        record(value);
+
+        if (expectedInterval <= 0) {
+            return;
+        }
+
+        for (long missing = value - expectedInterval; missing >= expectedInterval; missing -= expectedInterval) {
+            record(missing);
+        }
+
+    }
+
+    /**
+     * Adds the values of another histogram to this one.
+     * 
+     * @param other
+     *            the other histogram
+     * @return the current instance
+     */
+    public LatencyHistogram merge(final LatencyHistogram other) {
+
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+
+        totalCount += other.totalCount;
+        maxValue = Math.max(maxValue, other.maxValue);
+        return this;
+    }
+
+    /**
+     * Gets the value at a percentile.
+     * 
+     * @param percentile
+     *            the percentile, from 0 to 100
+     * @return the upper bound of the bucket holding the percentile, or zero if
+     *         nothing was recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+
+        if (totalCount == 0) {
+            return 0;
+        }
+
+        final long target = Math.max(1, (long) Math.ceil(totalCount * percentile / 100));
+        long accumulated = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            accumulated += counts[i];
+
+            if (accumulated >= target) {
+                return Math.min(upperBoundOf(i), maxValue);
+            }
+
+        }
+
+        return maxValue;
+    }
+
+    /**
+     * Gets the number of recorded values.
+     * 
+     * @return the number of recorded values
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Gets the highest recorded value.
+     * 
+     * @return the highest recorded value
+     */
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * Gets the bucket of a value.
+     * 
+     * @param value
+     *            the value
+     * @return the index of the bucket
+     */
+    private static int indexOf(final long value) {
+
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        // the highest bits of the value select one of the upper half
+        // sub-buckets of its power of two
+        final int magnitude = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> magnitude) - HALF_SUB_BUCKETS;
+        return SUB_BUCKETS + (magnitude - 1) * HALF_SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Gets the highest value of a bucket.
+     * 
+     * @param index
+     *            the index of the bucket
+     * @return the highest value that falls in the bucket
+     */
+    private static long upperBoundOf(final int index) {
+
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        final int magnitude = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        final long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+
+        // the upper bound of the last buckets does not fit in a long
+        if (magnitude + SUB_BUCKET_BITS >= Long.SIZE) {
+            return Long.MAX_VALUE;
+        }
+
+        return ((subBucket + 1) << magnitude) - 1;
+    }
+
+}
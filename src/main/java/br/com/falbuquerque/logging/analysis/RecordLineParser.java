@@ -0,0 +1,615 @@
+package br.com.falbuquerque.logging.analysis;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import br.com.falbuquerque.logging.RecordSchema;
+import br.com.falbuquerque.logging.RecordSchema.Field;
+import br.com.falbuquerque.logging.analysis.JsonTokenizer.Token;
+
+/**
+ * Parses the lines of a request log into an {@link AnalysisReport}. Two kinds
+ * of lines are recognized, whether they were written by a record sink or
+ * through the <code>logPattern</code> of <code>log4j2.xml</code>, which prefixes
+ * the message with <code>... &lt;logger&gt; - </code>:
+ * <ul>
+ * <li>request records, i.e., the JSON produced by
+ * {@link br.com.falbuquerque.logging.BufferedLogger#log()}, either full or
+ * compact, whose keys are looked up by the version of their
+ * {@link RecordSchema};</li>
+ * <li>exception headers, i.e., <code>Exception in request [token]</code>,
+ * followed by the stack trace, whose first line starts with the exception
+ * class. Appenders write the stack trace in the next lines, while record
+ * sinks write it in the header line itself, after an escaped line separator,
+ * as in <code>Exception in request [token]\njava.sql.SQLException: ...</code>.
+ * </li>
+ * </ul>
+ * 
+ * @author Felipe Albuquerque
+ */
+class RecordLineParser {
+
+    static final byte[] VERSION = ascii(RecordSchema.VERSION_KEY);
+    static final byte[] EXCEPTION_HEADER = ascii("Exception in request [");
+    static final byte[] LOGGER_SEPARATOR = ascii(" - ");
+    private static final byte[] ESCAPED_LINE_FEED = ascii("\\n");
+    private static final byte[] ESCAPED_CARRIAGE_RETURN = ascii("\\r");
+    private static final Keys FULL_KEYS = Keys.of(null);
+
+    private final String defaultLogger;
+    private final String latencyParameter;
+    private final AnalysisReport report;
+    private final Map<Integer, Keys> compactKeys = new HashMap<>();
+
+    /**
+     * Creates a parser.
+     * 
+     * @param defaultLogger
+     *            the logger assumed for the lines without a layout prefix
+     * @param latencyParameter
+     *            the name of the numeric parameter that holds the request
+     *            latency, or <code>null</code> if there is none
+     * @param report
+     *            the report that receives the aggregates
+     */
+    RecordLineParser(final String defaultLogger, final String latencyParameter, final AnalysisReport report) {
+        this.defaultLogger = defaultLogger;
+        this.latencyParameter = latencyParameter;
+        this.report = report;
+    }
+
+    /**
+     * Checks whether a line is an exception header written by an appender,
+     * whose analysis needs the next line.
+     * 
+     * @param data
+     *            the buffer that holds the line
+     * @param start
+     *            the position of the first byte of the line
+     * @param end
+     *            the position of the line separator
+     * @return <code>true</code> if the line is an exception header without
+     *         its stack trace
+     */
+    static boolean isExceptionHeader(final ByteBuffer data, final int start, final int end) {
+        final int messageStart = messageStart(data, start, end);
+        return startsWith(data, messageStart, end, EXCEPTION_HEADER) && stackTraceStart(data, messageStart, end) < 0;
+    }
+
+    /**
+     * Parses a line.
+     * 
+     * @param data
+     *            the buffer that holds the line
+     * @param start
+     *            the position of the first byte of the line
+     * @param end
+     *            the position of the line separator
+     * @param nextStart
+     *            the position of the first byte of the next line, or -1 if
+     *            there is none
+     * @param nextEnd
+     *            the position of the separator of the next line
+     */
+    void parse(final ByteBuffer data, final int start, final int end, final int nextStart, final int nextEnd) {
+        final int messageStart = messageStart(data, start, end);
+
+        if (messageStart >= end) {
+            return;
+        }
+
+        if (data.get(messageStart) == '{') {
+            parseRecord(data, messageStart, end);
+        } else if (startsWith(data, messageStart, end, EXCEPTION_HEADER)) {
+            report.countException(loggerOf(data, start, messageStart), exceptionClassOf(data, messageStart, end,
+                    nextStart, nextEnd));
+        }
+
+    }
+
+    /**
+     * Parses a request record.
+     * 
+     * @param data
+     *            the buffer that holds the record
+     * @param start
+     *            the position of the opening brace
+     * @param end
+     *            the position after the record
+     */
+    private void parseRecord(final ByteBuffer data, final int start, final int end) {
+        final JsonTokenizer tokenizer = new JsonTokenizer(data, start, end);
+        Keys keys = FULL_KEYS;
+        int messages = 0;
+
+        try {
+
+            if (tokenizer.next() != Token.BEGIN_OBJECT) {
+                report.countMalformedLine();
+                return;
+            }
+
+            Token token = tokenizer.next();
+
+            if (token == Token.NAME && tokenizer.tokenEquals(VERSION)) {
+                tokenizer.next();
+                keys = keysOf((int) tokenizer.tokenNumber());
+
+                if (keys == null) {
+                    report.countMalformedLine();
+                    return;
+                }
+
+                token = tokenizer.next();
+            }
+
+            for (; token == Token.NAME; token = tokenizer.next()) {
+
+                if (tokenizer.tokenEquals(keys.request)) {
+                    parseRequest(tokenizer, keys);
+                } else if (tokenizer.tokenEquals(keys.messages)) {
+                    messages = countArrayItems(tokenizer);
+                } else {
+                    tokenizer.skipValue(tokenizer.next());
+                }
+
+            }
+
+            report.countRequest(messages);
+        } catch (final RuntimeException e) {
+            report.countMalformedLine();
+        }
+
+    }
+
+    /**
+     * Parses the request of a record.
+     * 
+     * @param tokenizer
+     *            the tokenizer positioned before the request
+     * @param keys
+     *            the keys of the record
+     */
+    private void parseRequest(final JsonTokenizer tokenizer, final Keys keys) {
+        final Token start = tokenizer.next();
+
+        if (start != Token.BEGIN_OBJECT) {
+            tokenizer.skipValue(start);
+            return;
+        }
+
+        for (Token token = tokenizer.next(); token == Token.NAME; token = tokenizer.next()) {
+
+            if (tokenizer.tokenEquals(keys.parameters)) {
+                parseParameters(tokenizer, keys);
+            } else {
+                tokenizer.skipValue(tokenizer.next());
+            }
+
+        }
+
+    }
+
+    /**
+     * Parses the parameters of a request.
+     * 
+     * @param tokenizer
+     *            the tokenizer positioned before the parameters array
+     * @param keys
+     *            the keys of the record
+     */
+    private void parseParameters(final JsonTokenizer tokenizer, final Keys keys) {
+        final Token start = tokenizer.next();
+
+        if (start != Token.BEGIN_ARRAY) {
+            tokenizer.skipValue(start);
+            return;
+        }
+
+        for (Token item = tokenizer.next(); item != Token.END_ARRAY; item = tokenizer.next()) {
+
+            if (item != Token.BEGIN_OBJECT) {
+                tokenizer.skipValue(item);
+                continue;
+            }
+
+            String name = null;
+            String value = "null";
+            double number = Double.NaN;
+
+            for (Token token = tokenizer.next(); token == Token.NAME; token = tokenizer.next()) {
+
+                if (tokenizer.tokenEquals(keys.name)) {
+                    tokenizer.next();
+                    name = tokenizer.tokenText();
+                } else if (tokenizer.tokenEquals(keys.value)) {
+                    final Token valueToken = tokenizer.next();
+
+                    if (valueToken == Token.BEGIN_OBJECT || valueToken == Token.BEGIN_ARRAY) {
+                        tokenizer.skipValue(valueToken);
+                        value = "(complex)";
+                    } else {
+                        value = tokenizer.tokenText();
+
+                        if (valueToken == Token.NUMBER) {
+                            number = tokenizer.tokenNumber();
+                        }
+
+                    }
+
+                } else {
+                    tokenizer.skipValue(tokenizer.next());
+                }
+
+            }
+
+            if (name != null) {
+                report.countParameterValue(name, value);
+
+                if (name.equals(latencyParameter) && !Double.isNaN(number)) {
+                    report.getLatencies().record((long) number);
+                }
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Gets the keys of the compact records of a schema version.
+     * 
+     * @param version
+     *            the schema version
+     * @return the keys or <code>null</code> if the version is unknown
+     */
+    private Keys keysOf(final int version) {
+        Keys keys = compactKeys.get(version);
+
+        if (keys == null) {
+            final RecordSchema schema = RecordSchema.forVersion(version);
+
+            if (schema == null) {
+                return null;
+            }
+
+            keys = Keys.of(schema);
+            compactKeys.put(version, keys);
+        }
+
+        return keys;
+    }
+
+    /**
+     * Counts the items of an array, skipping them.
+     * 
+     * @param tokenizer
+     *            the tokenizer positioned before the array
+     * @return the number of items
+     */
+    static int countArrayItems(final JsonTokenizer tokenizer) {
+        final Token start = tokenizer.next();
+
+        if (start != Token.BEGIN_ARRAY) {
+            tokenizer.skipValue(start);
+            return 0;
+        }
+
+        int items = 0;
+
+        for (Token item = tokenizer.next(); item != Token.END_ARRAY; item = tokenizer.next()) {
+            tokenizer.skipValue(item);
+            items++;
+        }
+
+        return items;
+    }
+
+    /**
+     * Finds where the message of a line starts, skipping the layout prefix if
+     * there is one.
+     * 
+     * @param data
+     *            the buffer that holds the line
+     * @param start
+     *            the position of the first byte of the line
+     * @param end
+     *            the position of the line separator
+     * @return the position of the message
+     */
+    static int messageStart(final ByteBuffer data, final int start, final int end) {
+
+        if (start < end && (data.get(start) == '{' || startsWith(data, start, end, EXCEPTION_HEADER))) {
+            return start;
+        }
+
+        final int separator = indexOf(data, start, end, LOGGER_SEPARATOR);
+
+        if (separator < 0) {
+            return end;
+        }
+
+        return separator + LOGGER_SEPARATOR.length;
+    }
+
+    /**
+     * Gets the logger of a line, i.e., the word before the layout separator.
+     * 
+     * @param data
+     *            the buffer that holds the line
+     * @param start
+     *            the position of the first byte of the line
+     * @param messageStart
+     *            the position of the message
+     * @return the logger name
+     */
+    private String loggerOf(final ByteBuffer data, final int start, final int messageStart) {
+
+        if (messageStart == start) {
+            return defaultLogger;
+        }
+
+        final int loggerEnd = messageStart - LOGGER_SEPARATOR.length;
+        int loggerStart = loggerEnd;
+
+        while (loggerStart > start && data.get(loggerStart - 1) != ' ') {
+            loggerStart--;
+        }
+
+        return decode(data, loggerStart, loggerEnd);
+    }
+
+    /**
+     * Gets the exception class of an exception header, from the stack trace
+     * in the header line, if it was written by a record sink, or else from
+     * the next line.
+     * 
+     * @param data
+     *            the buffer that holds the lines
+     * @param messageStart
+     *            the position of the message of the header line
+     * @param end
+     *            the position of the separator of the header line
+     * @param nextStart
+     *            the position of the first byte of the next line, or -1 if
+     *            there is none
+     * @param nextEnd
+     *            the position of the separator of the next line
+     * @return the exception class name
+     */
+    static String exceptionClassOf(final ByteBuffer data, final int messageStart, final int end,
+            final int nextStart, final int nextEnd) {
+        final int stackTraceStart = stackTraceStart(data, messageStart, end);
+
+        if (stackTraceStart >= 0) {
+            return exceptionClassOf(data, stackTraceStart, end);
+        }
+
+        return exceptionClassOf(data, nextStart, nextEnd);
+    }
+
+    /**
+     * Finds the stack trace written in an exception header by a record sink,
+     * i.e., after the escaped line separator that follows the token.
+     * 
+     * @param data
+     *            the buffer that holds the header
+     * @param messageStart
+     *            the position of the message of the header line
+     * @param end
+     *            the position of the line separator
+     * @return the position of the stack trace or -1 if it is not in the line
+     */
+    private static int stackTraceStart(final ByteBuffer data, final int messageStart, final int end) {
+        int position = messageStart + EXCEPTION_HEADER.length;
+
+        while (position < end && data.get(position) != ']') {
+            position++;
+        }
+
+        position++;
+
+        if (startsWith(data, position, end, ESCAPED_CARRIAGE_RETURN)) {
+            position += ESCAPED_CARRIAGE_RETURN.length;
+        }
+
+        if (!startsWith(data, position, end, ESCAPED_LINE_FEED)) {
+            return -1;
+        }
+
+        return position + ESCAPED_LINE_FEED.length;
+    }
+
+    /**
+     * Gets the exception class from the first line of a stack trace.
+     * 
+     * @param data
+     *            the buffer that holds the line
+     * @param start
+     *            the position of the first byte of the line, or -1 if there is
+     *            no line
+     * @param end
+     *            the position of the line separator
+     * @return the exception class name
+     */
+    static String exceptionClassOf(final ByteBuffer data, final int start, final int end) {
+
+        if (start < 0) {
+            return "unknown";
+        }
+
+        int classStart = start;
+
+        while (classStart < end && Character.isWhitespace(data.get(classStart))) {
+            classStart++;
+        }
+
+        int classEnd = classStart;
+
+        while (classEnd < end && data.get(classEnd) != ':' && data.get(classEnd) != '\r') {
+
+            if (data.get(classEnd) == ' ') {
+                return "unknown";
+            }
+
+            if (data.get(classEnd) == '\\') {
+                // the escaped line separator of a stack trace in a single line
+                break;
+            }
+
+            classEnd++;
+        }
+
+        if (classEnd == classStart) {
+            return "unknown";
+        }
+
+        return decode(data, classStart, classEnd);
+    }
+
+    /**
+     * Checks whether a region starts with the given bytes.
+     * 
+     * @param data
+     *            the buffer
+     * @param start
+     *            the start of the region
+     * @param end
+     *            the end of the region
+     * @param prefix
+     *            the expected prefix
+     * @return <code>true</code> if the region starts with the prefix
+     */
+    static boolean startsWith(final ByteBuffer data, final int start, final int end, final byte[] prefix) {
+
+        if (end - start < prefix.length) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++) {
+
+            if (data.get(start + i) != prefix[i]) {
+                return false;
+            }
+
+        }
+
+        return true;
+    }
+
+    /**
+     * Finds the first occurrence of the given bytes in a region.
+     * 
+     * @param data
+     *            the buffer
+     * @param start
+     *            the start of the region
+     * @param end
+     *            the end of the region
+     * @param target
+     *            the bytes searched
+     * @return the position of the occurrence or -1 if there is none
+     */
+    private static int indexOf(final ByteBuffer data, final int start, final int end, final byte[] target) {
+
+        for (int i = start; i <= end - target.length; i++) {
+
+            if (startsWith(data, i, end, target)) {
+                return i;
+            }
+
+        }
+
+        return -1;
+    }
+
+    /**
+     * Decodes a region as UTF-8.
+     * 
+     * @param data
+     *            the buffer
+     * @param start
+     *            the start of the region
+     * @param end
+     *            the end of the region
+     * @return the decoded text
+     */
+    static String decode(final ByteBuffer data, final int start, final int end) {
+        final byte[] bytes = new byte[end - start];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = data.get(start + i);
+        }
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Converts an ASCII constant to bytes.
+     * 
+     * @param value
+     *            the constant
+     * @return the bytes of the constant
+     */
+    private static byte[] ascii(final String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Keys of the fields read from the records.
+     */
+    static final class Keys {
+
+        final byte[] request;
+        final byte[] token;
+        final byte[] parameters;
+        final byte[] messages;
+        final byte[] name;
+        final byte[] value;
+
+        /**
+         * Creates the keys.
+         * 
+         * @param request
+         *            the key of the request
+         * @param token
+         *            the key of the request token
+         * @param parameters
+         *            the key of the parameters
+         * @param messages
+         *            the key of the messages
+         * @param name
+         *            the key of the parameter names
+         * @param value
+         *            the key of the parameter values
+         */
+        private Keys(final String request, final String token, final String parameters, final String messages,
+                final String name, final String value) {
+            this.request = ascii(request);
+            this.token = ascii(token);
+            this.parameters = ascii(parameters);
+            this.messages = ascii(messages);
+            this.name = ascii(name);
+            this.value = ascii(value);
+        }
+
+        /**
+         * Gets the keys of the records of a schema.
+         * 
+         * @param schema
+         *            the schema of the compact records or <code>null</code>
+         *            for the full records
+         * @return the keys
+         */
+        static Keys of(final RecordSchema schema) {
+            final Function<Field, String> key = field -> schema == null ? field.getName() : schema.getKey(field);
+            return new Keys(key.apply(Field.REQUEST), key.apply(Field.TOKEN), key.apply(Field.PARAMETERS),
+                    key.apply(Field.MESSAGES), key.apply(Field.NAME), key.apply(Field.VALUE));
+        }
+
+    }
+
+}
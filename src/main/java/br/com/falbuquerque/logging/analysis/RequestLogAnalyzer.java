@@ -0,0 +1,426 @@
+package br.com.falbuquerque.logging.analysis;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import br.com.falbuquerque.logging.segment.CompressedSegmentReader;
+import br.com.falbuquerque.logging.segment.SegmentCompactor;
+
+/**
+ * Scans directories of request logs in parallel and aggregates their contents.
+ * Files are split into chunks that are memory-mapped and parsed by fork/join
+ * tasks; segments compressed by the {@link SegmentCompactor} are split by
+ * block. Records are tokenized in place, so the memory used does not depend
+ * on the size of the logs.
+ * 
+ * <p>
+ * Usage: <code>RequestLogAnalyzer &lt;directory&gt; [latency parameter]</code>
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class RequestLogAnalyzer {
+
+    private static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+    private static final int DEFAULT_MAX_VALUES_PER_PARAMETER = 10000;
+    private static final int INITIAL_OVERLAP = 1024 * 1024;
+    private static final int TOP_LIMIT = 10;
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    private final int maxValuesPerParameter;
+    private final String latencyParameter;
+
+    /**
+     * Creates an analyzer that runs in the common fork/join pool.
+     * 
+     * @param latencyParameter
+     *            the name of the numeric parameter that holds the request
+     *            latency, or <code>null</code> if there is none
+     */
+    public RequestLogAnalyzer(final String latencyParameter) {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE, DEFAULT_MAX_VALUES_PER_PARAMETER, latencyParameter);
+    }
+
+    /**
+     * Creates an analyzer.
+     * 
+     * @param pool
+     *            the pool that runs the scans
+     * @param chunkSize
+     *            the size of the file chunks scanned by each task
+     * @param maxValuesPerParameter
+     *            the maximum number of distinct values counted per parameter
+     * @param latencyParameter
+     *            the name of the numeric parameter that holds the request
+     *            latency, or <code>null</code> if there is none
+     */
+    public RequestLogAnalyzer(final ForkJoinPool pool, final int chunkSize, final int maxValuesPerParameter,
+            final String latencyParameter) {
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.maxValuesPerParameter = maxValuesPerParameter;
+        this.latencyParameter = latencyParameter;
+    }
+
+    /**
+     * Analyzes all the log files of a directory and its subdirectories.
+     * 
+     * @param directory
+     *            the directory
+     * @return the aggregated report
+     * @throws IOException
+     *             if the directory cannot be listed
+     */
+    public AnalysisReport analyze(final Path directory) throws IOException {
+        final List<Path> files;
+
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(Files::isRegularFile)
+                    .filter(file -> !file.getFileName().toString().endsWith(SegmentCompactor.INDEX_EXTENSION))
+                    .collect(Collectors.toList());
+        }
+
+        final List<ForkJoinTask<AnalysisReport>> tasks = new ArrayList<>();
+
+        for (final Path file : files) {
+
+            if (isCompressedSegment(file)) {
+                tasks.add(new CompressedSegmentTask(file));
+            } else {
+                tasks.add(new ChunkTask(file, 0, Files.size(file)));
+            }
+
+        }
+
+        try {
+            return pool.invoke(new MergeTask(tasks));
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+    }
+
+    /**
+     * Runs the analyzer from the command line.
+     * 
+     * @param args
+     *            the directory of the logs and, optionally, the name of the
+     *            latency parameter
+     * @throws IOException
+     *             if the logs cannot be read
+     */
+    public static void main(final String[] args) throws IOException {
+
+        if (args.length < 1) {
+            System.err.println("Usage: RequestLogAnalyzer <directory> [latency parameter]");
+            System.exit(1);
+        }
+
+        final AnalysisReport report = new RequestLogAnalyzer(args.length > 1 ? args[1] : null).analyze(Paths.get(args[0]));
+
+        System.out.println("Requests: " + report.getRequestCount());
+        System.out.println("Messages: " + report.getMessageCount());
+        System.out.println("Malformed lines: " + report.getMalformedLineCount());
+
+        for (final String logger : report.getExceptionLoggers()) {
+            System.out.println("Exceptions logged by [" + logger + "]:");
+            print(report.getTopExceptions(logger, TOP_LIMIT));
+        }
+
+        for (final String parameter : report.getParameters()) {
+            System.out.println("Requests by [" + parameter + "]:");
+            print(report.getTopParameterValues(parameter, TOP_LIMIT));
+        }
+
+        final LatencyHistogram latencies = report.getLatencies();
+
+        if (latencies.getTotalCount() > 0) {
+            System.out.println("Latency p50=" + latencies.getValueAtPercentile(50) + " p90="
+                    + latencies.getValueAtPercentile(90) + " p99=" + latencies.getValueAtPercentile(99) + " p99.9="
+                    + latencies.getValueAtPercentile(99.9) + " max=" + latencies.getMaxValue());
+        }
+
+    }
+
+    /**
+     * Prints counters.
+     * 
+     * @param counters
+     *            the counters
+     */
+    private static void print(final List<Entry<String, Long>> counters) {
+
+        for (final Entry<String, Long> counter : counters) {
+            System.out.println("  " + counter.getValue() + "\t" + counter.getKey());
+        }
+
+    }
+
+    /**
+     * Checks whether a file is a segment compressed by the compactor.
+     * 
+     * @param file
+     *            the file
+     * @return <code>true</code> if the file has a block index
+     */
+    private static boolean isCompressedSegment(final Path file) {
+        final String name = file.getFileName().toString();
+
+        return name.endsWith(SegmentCompactor.COMPRESSED_EXTENSION)
+                && Files.exists(file.resolveSibling(name.substring(0,
+                        name.length() - SegmentCompactor.COMPRESSED_EXTENSION.length())
+                        + SegmentCompactor.INDEX_EXTENSION));
+    }
+
+    /**
+     * Gets the logger assumed for the lines of a file without a layout
+     * prefix, i.e., the file name without its extensions.
+     * 
+     * @param file
+     *            the file
+     * @return the logger name
+     */
+    private static String defaultLoggerOf(final Path file) {
+        final String name = file.getFileName().toString();
+        final int extension = name.indexOf('.');
+
+        if (extension > 0) {
+            return name.substring(0, extension);
+        }
+
+        return name;
+    }
+
+    /**
+     * Parses the lines of a buffer whose first byte starts in
+     * <code>[start, end)</code>.
+     * 
+     * @param data
+     *            the buffer
+     * @param start
+     *            the position from which lines are owned
+     * @param end
+     *            the position before which lines are owned
+     * @param complete
+     *            whether the buffer holds the rest of the input, i.e., a line
+     *            without separator at the end of the buffer is finished
+     * @param parser
+     *            the parser of the lines
+     * @return <code>false</code> if an owned line runs past the buffer and
+     *         the scan must be repeated with more data
+     */
+    static boolean parseLines(final ByteBuffer data, final int start, final int end, final boolean complete,
+            final RecordLineParser parser) {
+        final int limit = data.limit();
+        int position = start;
+
+        if (position > 0 && data.get(position - 1) != '\n') {
+            position = lineEnd(data, position, limit);
+
+            if (position < 0) {
+                return complete;
+            }
+
+            position++;
+        }
+
+        while (position < end && position < limit) {
+            final int lineEnd = lineEnd(data, position, limit);
+            final int actualEnd = lineEnd < 0 ? limit : lineEnd;
+
+            if (lineEnd < 0 && !complete) {
+                return false;
+            }
+
+            int nextStart = -1;
+            int nextEnd = -1;
+
+            if (actualEnd < limit && RecordLineParser.isExceptionHeader(data, position, actualEnd)) {
+                nextEnd = lineEnd(data, actualEnd + 1, limit);
+
+                if (nextEnd < 0 && !complete) {
+                    return false;
+                }
+
+                nextStart = actualEnd + 1;
+                nextEnd = nextEnd < 0 ? limit : nextEnd;
+            }
+
+            parser.parse(data, position, actualEnd, nextStart, nextEnd);
+            position = actualEnd + 1;
+        }
+
+        return true;
+    }
+
+    /**
+     * Finds the end of a line.
+     * 
+     * @param data
+     *            the buffer
+     * @param from
+     *            the position from which the separator is searched
+     * @param limit
+     *            the limit of the search
+     * @return the position of the line separator or -1 if there is none
+     */
+    private static int lineEnd(final ByteBuffer data, final int from, final int limit) {
+
+        for (int i = from; i < limit; i++) {
+
+            if (data.get(i) == '\n') {
+                return i;
+            }
+
+        }
+
+        return -1;
+    }
+
+    /**
+     * Runs several tasks and merges their reports.
+     */
+    private class MergeTask extends RecursiveTask<AnalysisReport> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<ForkJoinTask<AnalysisReport>> tasks;
+
+        MergeTask(final List<ForkJoinTask<AnalysisReport>> tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected AnalysisReport compute() {
+            final AnalysisReport report = new AnalysisReport(maxValuesPerParameter);
+
+            for (final ForkJoinTask<AnalysisReport> task : invokeAll(tasks)) {
+                report.merge(task.join());
+            }
+
+            return report;
+        }
+
+    }
+
+    /**
+     * Scans a range of a plain file, splitting it while it is larger than the
+     * chunk size.
+     */
+    private class ChunkTask extends RecursiveTask<AnalysisReport> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path file;
+        private final long start;
+        private final long end;
+
+        ChunkTask(final Path file, final long start, final long end) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected AnalysisReport compute() {
+
+            if (end - start > chunkSize) {
+                final long middle = start + (end - start) / 2;
+                final ChunkTask second = new ChunkTask(file, middle, end);
+                second.fork();
+
+                return new ChunkTask(file, start, middle).compute().merge(second.join());
+            }
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                final long size = channel.size();
+                final long mapStart = Math.max(0, start - 1);
+                long overlap = INITIAL_OVERLAP;
+
+                while (true) {
+                    final long mapEnd = Math.min(size, end + overlap);
+                    final MappedByteBuffer data = channel.map(MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+                    final AnalysisReport report = new AnalysisReport(maxValuesPerParameter);
+                    final RecordLineParser parser = new RecordLineParser(defaultLoggerOf(file), latencyParameter,
+                            report);
+
+                    if (parseLines(data, (int) (start - mapStart), (int) (end - mapStart), mapEnd == size, parser)) {
+                        return report;
+                    }
+
+                    overlap *= 4;
+                }
+
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+        }
+
+    }
+
+    /**
+     * Scans the blocks of a compressed segment in parallel.
+     */
+    private class CompressedSegmentTask extends RecursiveTask<AnalysisReport> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path file;
+
+        CompressedSegmentTask(final Path file) {
+            this.file = file;
+        }
+
+        @Override
+        protected AnalysisReport compute() {
+
+            try (CompressedSegmentReader reader = new CompressedSegmentReader(file)) {
+                final List<ForkJoinTask<AnalysisReport>> blocks = new ArrayList<>();
+
+                for (int i = 0; i < reader.getBlockCount(); i++) {
+                    final int block = i;
+
+                    blocks.add(ForkJoinTask.adapt(() -> {
+
+                        try {
+                            final ByteBuffer data = reader.readBlockBytes(block);
+                            final AnalysisReport report = new AnalysisReport(maxValuesPerParameter);
+                            parseLines(data, 0, data.limit(), true, new RecordLineParser(defaultLoggerOf(file),
+                                    latencyParameter, report));
+                            return report;
+                        } catch (final IOException e) {
+                            // adapt() would wrap it in a plain RuntimeException, which analyze() does not unwrap
+                            throw new UncheckedIOException(e);
+                        }
+
+                    }));
+                }
+
+                return new MergeTask(blocks).compute();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,473 @@
+package br.com.falbuquerque.logging.redaction;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import br.com.falbuquerque.logging.util.Utf8Encoder;
+
+/**
+ * Masks personal data while the records are encoded, so no redacted copy of a
+ * record is built. Two kinds of rules are supported:
+ * <ul>
+ * <li>parameter rules, resolved by a hash lookup of the parameter name, which
+ * mask the whole value or all but its last characters;</li>
+ * <li>text rules, applied to the string values and to the messages: terms
+ * that are masked wherever they appear and triggers, such as
+ * <code>password=</code>, whose following characters are masked up to the
+ * next delimiter.</li>
+ * </ul>
+ * The text rules are compiled into a single Aho-Corasick automaton, so a text
+ * is scanned once whatever the number of rules. Terms and triggers must be
+ * ASCII and are matched case sensitively.
+ * 
+ * <pre>
+ * Redactor redactor = Redactor.builder().maskParameter("password").maskParameter("cardNumber", 4)
+ *         .maskAfter("cpf=").maskTerm("Bearer").build();
+ * </pre>
+ * 
+ * <p>
+ * Instances are immutable and thread-safe.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class Redactor {
+
+    private static final String MASK = "****";
+    private static final byte[] ENCODED_MASK = ("\"" + MASK + "\"").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RAW_MASK = MASK.getBytes(StandardCharsets.US_ASCII);
+    private static final String DELIMITERS = " \t\r\n&,;\"'";
+    private static final int ALPHABET = 128;
+
+    private final Map<String, Integer> parameterRules;
+    private final int[][] transitions;
+    private final int[] matchLength;
+    private final boolean[] matchMasksFollowing;
+
+    /**
+     * Creates a redactor from its builder.
+     * 
+     * @param builder
+     *            the builder
+     */
+    private Redactor(final Builder builder) {
+        parameterRules = new HashMap<>(builder.parameterRules);
+
+        final Automaton automaton = new Automaton(builder.terms, builder.triggers);
+        transitions = automaton.transitions;
+        matchLength = automaton.matchLength;
+        matchMasksFollowing = automaton.matchMasksFollowing;
+    }
+
+    /**
+     * Starts building a redactor.
+     * 
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Writes a parameter value as a JSON string if it must be redacted,
+     * either by a rule of its name or by the text rules.
+     * 
+     * @param name
+     *            the name of the parameter
+     * @param value
+     *            the value of the parameter
+     * @param encoder
+     *            the encoder that receives the value
+     * @return <code>true</code> if the value was written redacted,
+     *         <code>false</code> if nothing was written
+     */
+    public boolean writeParameter(final String name, final Object value, final Utf8Encoder encoder) {
+        final Integer visibleSuffix = name == null ? null : parameterRules.get(name);
+
+        if (visibleSuffix == null) {
+            return value instanceof CharSequence && writeText((CharSequence) value, encoder);
+        }
+
+        if (visibleSuffix == 0) {
+            encoder.writeBytes(ENCODED_MASK);
+        } else {
+            final String text = String.valueOf(value);
+            final int start = Math.max(0, text.length() - visibleSuffix);
+            encoder.writeByte('"').writeBytes(RAW_MASK).writeJsonChars(text, start, text.length()).writeByte('"');
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes a text as a JSON string if any text rule matches it.
+     * 
+     * @param text
+     *            the text
+     * @param encoder
+     *            the encoder that receives the text
+     * @return <code>true</code> if the text was written redacted,
+     *         <code>false</code> if nothing was written
+     */
+    public boolean writeText(final CharSequence text, final Utf8Encoder encoder) {
+        final int[] masked = findMaskedRanges(text);
+
+        if (masked == null) {
+            return false;
+        }
+
+        encoder.writeByte('"');
+        int position = 0;
+
+        for (int i = 1; i <= masked[0]; i += 2) {
+            encoder.writeJsonChars(text, position, masked[i]).writeBytes(RAW_MASK);
+            position = masked[i + 1];
+        }
+
+        encoder.writeJsonChars(text, position, text.length()).writeByte('"');
+        return true;
+    }
+
+    /**
+     * Redacts a text according to the text rules.
+     * 
+     * @param text
+     *            the text
+     * @return the redacted text, or the same text if no rule matches it
+     */
+    public String redact(final String text) {
+        final int[] masked = findMaskedRanges(text);
+
+        if (masked == null) {
+            return text;
+        }
+
+        final StringBuilder redacted = new StringBuilder(text.length());
+        int position = 0;
+
+        for (int i = 1; i <= masked[0]; i += 2) {
+            redacted.append(text, position, masked[i]).append(MASK);
+            position = masked[i + 1];
+        }
+
+        return redacted.append(text, position, text.length()).toString();
+    }
+
+    /**
+     * Scans a text with the automaton.
+     * 
+     * @param text
+     *            the text
+     * @return <code>null</code> if no rule matches, otherwise the number of
+     *         used positions followed by the start and end of each masked
+     *         range, in order and without overlaps
+     */
+    private int[] findMaskedRanges(final CharSequence text) {
+
+        if (transitions.length == 1) {
+            return null;
+        }
+
+        int[] masked = null;
+        int state = 0;
+        int i = 0;
+        final int length = text.length();
+
+        while (i < length) {
+            final char c = text.charAt(i);
+            state = c < ALPHABET ? transitions[state][c] : 0;
+
+            if (matchLength[state] == 0) {
+                i++;
+                continue;
+            }
+
+            int start;
+            int end;
+
+            if (matchMasksFollowing[state]) {
+                start = i + 1;
+                end = start;
+
+                while (end < length && DELIMITERS.indexOf(text.charAt(end)) < 0) {
+                    end++;
+                }
+
+                state = 0;
+            } else {
+                start = i + 1 - matchLength[state];
+                end = i + 1;
+            }
+
+            if (end > start) {
+                masked = addRange(masked, start, end);
+            }
+
+            i = Math.max(i + 1, end);
+        }
+
+        return masked;
+    }
+
+    /**
+     * Adds a masked range, merging it with the previous one if they overlap.
+     * 
+     * @param masked
+     *            the ranges found so far or <code>null</code>
+     * @param start
+     *            the start of the range
+     * @param end
+     *            the end of the range
+     * @return the ranges
+     */
+    private static int[] addRange(final int[] masked, final int start, final int end) {
+
+        if (masked == null) {
+            return new int[] { 2, start, end, 0, 0 };
+        }
+
+        final int used = masked[0];
+
+        if (start <= masked[used]) {
+            masked[used] = Math.max(masked[used], end);
+            masked[used - 1] = Math.min(masked[used - 1], start);
+            return masked;
+        }
+
+        final int[] ranges = used + 3 > masked.length ? Arrays.copyOf(masked, masked.length * 2) : masked;
+        ranges[used + 1] = start;
+        ranges[used + 2] = end;
+        ranges[0] = used + 2;
+        return ranges;
+    }
+
+    /**
+     * Aho-Corasick automaton of the text rules, with the failure transitions
+     * resolved in advance, so each character costs a single table lookup.
+     */
+    private static final class Automaton {
+
+        private final int[][] transitions;
+        private final int[] matchLength;
+        private final boolean[] matchMasksFollowing;
+
+        /**
+         * Compiles the text rules.
+         * 
+         * @param terms
+         *            the terms masked wherever they appear
+         * @param triggers
+         *            the triggers whose following characters are masked
+         */
+        Automaton(final List<String> terms, final List<String> triggers) {
+            final List<int[]> gotos = new ArrayList<>();
+            final List<Integer> lengths = new ArrayList<>();
+            final List<Boolean> following = new ArrayList<>();
+            gotos.add(newState());
+            lengths.add(0);
+            following.add(false);
+
+            final List<String> patterns = new ArrayList<>(terms);
+            patterns.addAll(triggers);
+
+            for (int p = 0; p < patterns.size(); p++) {
+                final String pattern = patterns.get(p);
+                int state = 0;
+
+                for (int i = 0; i < pattern.length(); i++) {
+                    final char c = pattern.charAt(i);
+
+                    if (gotos.get(state)[c] < 0) {
+                        gotos.get(state)[c] = gotos.size();
+                        gotos.add(newState());
+                        lengths.add(0);
+                        following.add(false);
+                    }
+
+                    state = gotos.get(state)[c];
+                }
+
+                // a trigger wins over a term that ends at the same place
+                if (lengths.get(state) == 0 || p >= terms.size()) {
+                    lengths.set(state, pattern.length());
+                    following.set(state, p >= terms.size());
+                }
+
+            }
+
+            transitions = gotos.toArray(new int[gotos.size()][]);
+            matchLength = new int[transitions.length];
+            matchMasksFollowing = new boolean[transitions.length];
+
+            for (int s = 0; s < transitions.length; s++) {
+                matchLength[s] = lengths.get(s);
+                matchMasksFollowing[s] = following.get(s);
+            }
+
+            resolveFailures();
+        }
+
+        /**
+         * Replaces the missing transitions by the ones of the failure states,
+         * in breadth-first order, and inherits the matches of the failure
+         * states.
+         */
+        private void resolveFailures() {
+            final int[] failure = new int[transitions.length];
+            final Queue<Integer> queue = new LinkedList<>();
+
+            for (int c = 0; c < ALPHABET; c++) {
+
+                if (transitions[0][c] < 0) {
+                    transitions[0][c] = 0;
+                } else {
+                    failure[transitions[0][c]] = 0;
+                    queue.add(transitions[0][c]);
+                }
+
+            }
+
+            while (!queue.isEmpty()) {
+                final int state = queue.poll();
+
+                if (matchLength[state] == 0 && matchLength[failure[state]] > 0) {
+                    matchLength[state] = matchLength[failure[state]];
+                    matchMasksFollowing[state] = matchMasksFollowing[failure[state]];
+                }
+
+                for (int c = 0; c < ALPHABET; c++) {
+                    final int next = transitions[state][c];
+
+                    if (next < 0) {
+                        transitions[state][c] = transitions[failure[state]][c];
+                    } else {
+                        failure[next] = transitions[failure[state]][c];
+                        queue.add(next);
+                    }
+
+                }
+
+            }
+
+        }
+
+        /**
+         * Creates a state without transitions.
+         * 
+         * @return the transitions of the state
+         */
+        private static int[] newState() {
+            final int[] state = new int[ALPHABET];
+            Arrays.fill(state, -1);
+            return state;
+        }
+
+    }
+
+    /**
+     * Builder of {@link Redactor}.
+     */
+    public static class Builder {
+
+        private final Map<String, Integer> parameterRules = new HashMap<>();
+        private final List<String> terms = new ArrayList<>();
+        private final List<String> triggers = new ArrayList<>();
+
+        /**
+         * Creates a builder.
+         */
+        private Builder() {
+        }
+
+        /**
+         * Masks the whole value of a parameter.
+         * 
+         * @param name
+         *            the name of the parameter
+         * @return the current instance
+         */
+        public Builder maskParameter(final String name) {
+            return maskParameter(name, 0);
+        }
+
+        /**
+         * Masks the value of a parameter but its last characters.
+         * 
+         * @param name
+         *            the name of the parameter
+         * @param visibleSuffix
+         *            the number of last characters kept visible
+         * @return the current instance
+         */
+        public Builder maskParameter(final String name, final int visibleSuffix) {
+            parameterRules.put(name, visibleSuffix);
+            return this;
+        }
+
+        /**
+         * Masks a term wherever it appears in the string values and messages.
+         * 
+         * @param term
+         *            the ASCII term
+         * @return the current instance
+         */
+        public Builder maskTerm(final String term) {
+            terms.add(checkAscii(term));
+            return this;
+        }
+
+        /**
+         * Masks the characters that follow a trigger in the string values and
+         * messages, up to the next whitespace, quote or <code>&amp;,;</code>.
+         * 
+         * @param trigger
+         *            the ASCII trigger, which stays visible
+         * @return the current instance
+         */
+        public Builder maskAfter(final String trigger) {
+            triggers.add(checkAscii(trigger));
+            return this;
+        }
+
+        /**
+         * Builds the redactor.
+         * 
+         * @return the redactor
+         */
+        public Redactor build() {
+            return new Redactor(this);
+        }
+
+        /**
+         * Checks that a pattern is made of ASCII characters.
+         * 
+         * @param pattern
+         *            the pattern
+         * @return the pattern
+         */
+        private static String checkAscii(final String pattern) {
+
+            if (pattern.isEmpty()) {
+                throw new IllegalArgumentException("The pattern must not be empty");
+            }
+
+            for (int i = 0; i < pattern.length(); i++) {
+
+                if (pattern.charAt(i) >= ALPHABET) {
+                    throw new IllegalArgumentException("Only ASCII patterns are supported: " + pattern);
+                }
+
+            }
+
+            return pattern;
+        }
+
+    }
+
+}
@@ -3,22 +3,45 @@ package br.com.falbuquerque.logging.request;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
 
 import com.google.gson.annotations.Expose;
 
 /**
  * Request to be logged.
  * 
+ * <p>
+ * A request may take part in a distributed trace, identified as in the W3C
+ * <code>traceparent</code> header: a 128-bit trace id, the span id of the
+ * request and the span id of its parent, if any, along with the trace flags.
+ * The ids are kept as primitive <code>long</code>s and written as lowercase
+ * hexadecimal strings.
+ * </p>
+ * 
  * @author Felipe Albuquerque
  */
 public class Request {
 
+    private static final int TRACE_PARENT_LENGTH = 55;
+    private static final int TRACE_ID_START = 3;
+    private static final int SPAN_ID_START = 36;
+    private static final int FLAGS_START = 53;
+    private static final int HEX_LONG_LENGTH = 16;
+    private static final int SAMPLED = 0x01;
+
     @Expose
     private final String token;
 
     @Expose
     private final Collection<Parameter> parameters;
 
+    private long traceIdHigh;
+    private long traceIdLow;
+    private long spanId;
+    private long parentSpanId;
+    private int traceFlags = SAMPLED;
+    private String parentToken;
+
     /**
      * Builds a request.
      * 
@@ -32,6 +55,93 @@ public class Request {
         this.parameters = Arrays.asList(parameters);
     }
 
+    /**
+     * Joins the trace of an incoming <code>traceparent</code> header: the
+     * request keeps its trace id and flags, takes its span id as the parent
+     * span and gets a new span id. The header is parsed in place, without
+     * allocations.
+     * If the header is missing or malformed, a new trace is started.
+     * 
+     * @param traceParent
+     *            the value of the <code>traceparent</code> header or
+     *            <code>null</code>
+     * @return the current instance
+     */
+    public Request continueTrace(final CharSequence traceParent) {
+
+        if (!isValidTraceParent(traceParent)) {
+            return startTrace();
+        }
+
+        traceFlags = hexDigit(traceParent.charAt(FLAGS_START)) << 4 | hexDigit(traceParent.charAt(FLAGS_START + 1));
+        return trace(parseHex(traceParent, TRACE_ID_START), parseHex(traceParent, TRACE_ID_START + HEX_LONG_LENGTH),
+                newSpanId(), parseHex(traceParent, SPAN_ID_START));
+    }
+
+    /**
+     * Starts a new sampled trace with this request as its root span.
+     * 
+     * @return the current instance
+     */
+    public Request startTrace() {
+        traceFlags = SAMPLED;
+        long high;
+        long low;
+
+        do {
+            high = ThreadLocalRandom.current().nextLong();
+            low = ThreadLocalRandom.current().nextLong();
+        } while (high == 0 && low == 0);
+
+        return trace(high, low, newSpanId(), 0);
+    }
+
+    /**
+     * Sets the trace ids of the request.
+     * 
+     * @param traceIdHigh
+     *            the high 64 bits of the trace id
+     * @param traceIdLow
+     *            the low 64 bits of the trace id
+     * @param spanId
+     *            the span id of the request
+     * @param parentSpanId
+     *            the span id of the parent or zero if the request is a root
+     *            span
+     * @return the current instance
+     */
+    public Request trace(final long traceIdHigh, final long traceIdLow, final long spanId, final long parentSpanId) {
+        this.traceIdHigh = traceIdHigh;
+        this.traceIdLow = traceIdLow;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        return this;
+    }
+
+    /**
+     * Creates the request of a sub-operation: it belongs to the same trace,
+     * with a new span whose parent is the span of this request, and it is
+     * linked to the token of this request. If this request is not traced, a
+     * trace is started for it first.
+     * 
+     * @param token
+     *            the token of the sub-operation
+     * @param parameters
+     *            the parameters of the sub-operation
+     * @return the request of the sub-operation
+     */
+    public Request createChild(final String token, final Parameter... parameters) {
+
+        if (!isTraced()) {
+            startTrace();
+        }
+
+        final Request child = new Request(token, parameters).trace(traceIdHigh, traceIdLow, newSpanId(), spanId);
+        child.traceFlags = traceFlags;
+        child.parentToken = this.token;
+        return child;
+    }
+
     /**
      * Gets the token of the request.
      * 
@@ -50,4 +160,207 @@ public class Request {
         return Collections.unmodifiableCollection(parameters);
     }
 
+    /**
+     * Checks whether the request belongs to a trace.
+     * 
+     * @return <code>true</code> if the request has a trace id
+     */
+    public boolean isTraced() {
+        return traceIdHigh != 0 || traceIdLow != 0;
+    }
+
+    /**
+     * Gets the high 64 bits of the trace id.
+     * 
+     * @return the high bits of the trace id, zero if the request is not traced
+     */
+    public long getTraceIdHigh() {
+        return traceIdHigh;
+    }
+
+    /**
+     * Gets the low 64 bits of the trace id.
+     * 
+     * @return the low bits of the trace id, zero if the request is not traced
+     */
+    public long getTraceIdLow() {
+        return traceIdLow;
+    }
+
+    /**
+     * Gets the span id of the request.
+     * 
+     * @return the span id, zero if the request is not traced
+     */
+    public long getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * Gets the span id of the parent.
+     * 
+     * @return the span id of the parent, zero if the request is a root span
+     */
+    public long getParentSpanId() {
+        return parentSpanId;
+    }
+
+    /**
+     * Gets the trace flags, as received in the <code>traceparent</code>
+     * header or sampled for the traces started by the request.
+     * 
+     * @return the flags, from 0 to 255
+     */
+    public int getTraceFlags() {
+        return traceFlags;
+    }
+
+    /**
+     * Gets the token of the request that created this one.
+     * 
+     * @return the token of the parent request or <code>null</code>
+     */
+    public String getParentToken() {
+        return parentToken;
+    }
+
+    /**
+     * Formats the <code>traceparent</code> header to be sent to the services
+     * called by the request.
+     * 
+     * @return the header value or <code>null</code> if the request is not
+     *         traced
+     */
+    public String toTraceParent() {
+
+        if (!isTraced()) {
+            return null;
+        }
+
+        return "00-" + toHex(traceIdHigh) + toHex(traceIdLow) + '-' + toHex(spanId) + '-'
+                + Character.forDigit(traceFlags >>> 4, 16) + Character.forDigit(traceFlags & 0xf, 16);
+    }
+
+    /**
+     * Formats a <code>long</code> as 16 lowercase hexadecimal digits.
+     * 
+     * @param value
+     *            the value
+     * @return the digits
+     */
+    public static String toHex(final long value) {
+        final char[] digits = new char[HEX_LONG_LENGTH];
+
+        for (int i = HEX_LONG_LENGTH - 1, shift = 0; i >= 0; i--, shift += 4) {
+            digits[i] = Character.forDigit((int) (value >>> shift) & 0xf, 16);
+        }
+
+        return new String(digits);
+    }
+
+    /**
+     * Checks the layout of a <code>traceparent</code> header:
+     * <code>version-traceid-spanid-flags</code>, with a known version and
+     * non-zero ids.
+     * 
+     * @param traceParent
+     *            the header value
+     * @return <code>true</code> if the header can be parsed
+     */
+    private static boolean isValidTraceParent(final CharSequence traceParent) {
+
+        if (traceParent == null || traceParent.length() < TRACE_PARENT_LENGTH
+                || traceParent.charAt(TRACE_ID_START - 1) != '-' || traceParent.charAt(SPAN_ID_START - 1) != '-'
+                || traceParent.charAt(FLAGS_START - 1) != '-') {
+            return false;
+        }
+
+        // version ff is forbidden and version 00 has no trailing fields
+        final boolean forbiddenVersion = traceParent.charAt(0) == 'f' && traceParent.charAt(1) == 'f';
+        final boolean firstVersion = traceParent.charAt(0) == '0' && traceParent.charAt(1) == '0';
+
+        if (forbiddenVersion || (firstVersion && traceParent.length() != TRACE_PARENT_LENGTH)) {
+            return false;
+        }
+
+        boolean zeroTraceId = true;
+        boolean zeroSpanId = true;
+
+        for (int i = 0; i < TRACE_PARENT_LENGTH; i++) {
+
+            if (i == TRACE_ID_START - 1 || i == SPAN_ID_START - 1 || i == FLAGS_START - 1) {
+                continue;
+            }
+
+            final int digit = hexDigit(traceParent.charAt(i));
+
+            if (digit < 0) {
+                return false;
+            }
+
+            if (digit != 0 && i >= TRACE_ID_START && i < SPAN_ID_START) {
+                zeroTraceId = false;
+            } else if (digit != 0 && i >= SPAN_ID_START && i < FLAGS_START) {
+                zeroSpanId = false;
+            }
+
+        }
+
+        return !zeroTraceId && !zeroSpanId;
+    }
+
+    /**
+     * Parses 16 hexadecimal digits.
+     * 
+     * @param chars
+     *            the characters
+     * @param start
+     *            the position of the first digit
+     * @return the value
+     */
+    private static long parseHex(final CharSequence chars, final int start) {
+        long value = 0;
+
+        for (int i = start; i < start + HEX_LONG_LENGTH; i++) {
+            value = value << 4 | hexDigit(chars.charAt(i));
+        }
+
+        return value;
+    }
+
+    /**
+     * Gets the value of a lowercase hexadecimal digit.
+     * 
+     * @param c
+     *            the digit
+     * @return the value or -1 if the character is not a lowercase hexadecimal
+     *         digit
+     */
+    private static int hexDigit(final char c) {
+
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else {
+            return -1;
+        }
+
+    }
+
+    /**
+     * Creates a random non-zero span id.
+     * 
+     * @return the span id
+     */
+    private static long newSpanId() {
+        long spanId;
+
+        do {
+            spanId = ThreadLocalRandom.current().nextLong();
+        } while (spanId == 0);
+
+        return spanId;
+    }
+
 }
@@ -0,0 +1,51 @@
+package br.com.falbuquerque.logging.request;
+
+import java.lang.reflect.Type;
+import java.util.Collection;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Serializes a {@link Request} with Gson, writing its trace ids as
+ * hexadecimal strings between the token and the parameters. The trace fields
+ * are omitted when the request is not traced.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class RequestSerializer implements JsonSerializer<Request> {
+
+    private static final Type PARAMETERS_TYPE = new TypeToken<Collection<Parameter>>() {
+    }.getType();
+
+    @Override
+    public JsonElement serialize(final Request request, final Type type, final JsonSerializationContext context) {
+        final JsonObject json = new JsonObject();
+
+        if (request.getToken() != null) {
+            json.addProperty("token", request.getToken());
+        }
+
+        if (request.isTraced()) {
+            json.addProperty("traceId",
+                    Request.toHex(request.getTraceIdHigh()) + Request.toHex(request.getTraceIdLow()));
+            json.addProperty("spanId", Request.toHex(request.getSpanId()));
+
+            if (request.getParentSpanId() != 0) {
+                json.addProperty("parentSpanId", Request.toHex(request.getParentSpanId()));
+            }
+
+        }
+
+        if (request.getParentToken() != null) {
+            json.addProperty("parentToken", request.getParentToken());
+        }
+
+        json.add("parameters", context.serialize(request.getParameters(), PARAMETERS_TYPE));
+        return json;
+    }
+
+}
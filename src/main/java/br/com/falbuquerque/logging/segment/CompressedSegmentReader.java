@@ -0,0 +1,178 @@
+package br.com.falbuquerque.logging.segment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads records of a segment compressed by a {@link SegmentCompactor}. Only
+ * the block holding the requested records is decompressed.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class CompressedSegmentReader implements Closeable {
+
+    private final FileChannel channel;
+    private final SegmentBlock[] blocks;
+
+    /**
+     * Opens a compressed segment.
+     * 
+     * @param compressedSegment
+     *            the compressed segment, whose index must be in the same
+     *            directory
+     * @throws IOException
+     *             if the segment or its index cannot be read
+     */
+    public CompressedSegmentReader(final Path compressedSegment) throws IOException {
+        final String name = compressedSegment.getFileName().toString();
+        final Path index = compressedSegment.resolveSibling(name.substring(0,
+                name.length() - SegmentCompactor.COMPRESSED_EXTENSION.length())
+                + SegmentCompactor.INDEX_EXTENSION);
+        final ByteBuffer indexContents = ByteBuffer.wrap(Files.readAllBytes(index));
+
+        blocks = new SegmentBlock[indexContents.remaining() / SegmentBlock.ENCODED_SIZE];
+
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = SegmentBlock.read(indexContents);
+        }
+
+        channel = FileChannel.open(compressedSegment, StandardOpenOption.READ);
+    }
+
+    /**
+     * Gets the number of blocks of the segment.
+     * 
+     * @return the number of blocks
+     */
+    public int getBlockCount() {
+        return blocks.length;
+    }
+
+    /**
+     * Gets the number of records of the segment.
+     * 
+     * @return the number of records
+     */
+    public long getRecordCount() {
+
+        if (blocks.length == 0) {
+            return 0;
+        }
+
+        final SegmentBlock last = blocks[blocks.length - 1];
+        return last.getFirstRecord() + last.getRecordCount();
+    }
+
+    /**
+     * Reads the records of a block.
+     * 
+     * @param block
+     *            the number of the block
+     * @return the records of the block
+     * @throws IOException
+     *             if the block cannot be read
+     */
+    public List<String> readBlock(final int block) throws IOException {
+        final ByteBuffer bytes = readBlockBytes(block);
+        final List<String> records = new ArrayList<>(blocks[block].getRecordCount());
+        int recordStart = 0;
+
+        for (int i = 0; i < bytes.limit(); i++) {
+
+            if (bytes.get(i) == '\n') {
+                records.add(new String(bytes.array(), recordStart, i - recordStart, StandardCharsets.UTF_8));
+                recordStart = i + 1;
+            }
+
+        }
+
+        return records;
+    }
+
+    /**
+     * Reads the decompressed bytes of a block, i.e., its records separated by
+     * line feeds.
+     * 
+     * @param block
+     *            the number of the block
+     * @return the bytes of the block, backed by an array
+     * @throws IOException
+     *             if the block cannot be read
+     */
+    public ByteBuffer readBlockBytes(final int block) throws IOException {
+        final SegmentBlock entry = blocks[block];
+        final ByteBuffer compressed = ByteBuffer.allocate(entry.getLength());
+
+        while (compressed.hasRemaining()) {
+
+            if (channel.read(compressed, entry.getOffset() + compressed.position()) < 0) {
+                throw new IOException("The segment is shorter than its index");
+            }
+
+        }
+
+        final ByteArrayOutputStream decompressed = new ByteArrayOutputStream(entry.getLength() * 4);
+
+        try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(compressed.array()))) {
+            final byte[] chunk = new byte[8192];
+            int read;
+
+            while ((read = input.read(chunk)) != -1) {
+                decompressed.write(chunk, 0, read);
+            }
+
+        }
+
+        return ByteBuffer.wrap(decompressed.toByteArray());
+    }
+
+    /**
+     * Reads a single record, decompressing only the block that holds it.
+     * 
+     * @param recordNumber
+     *            the number of the record in the segment, starting at zero
+     * @return the record
+     * @throws IOException
+     *             if the block cannot be read
+     */
+    public String readRecord(final long recordNumber) throws IOException {
+
+        if (recordNumber < 0 || recordNumber >= getRecordCount()) {
+            throw new IndexOutOfBoundsException("Record " + recordNumber + " is not in the segment");
+        }
+
+        int low = 0;
+        int high = blocks.length - 1;
+
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+
+            if (blocks[middle].getFirstRecord() <= recordNumber) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+
+        }
+
+        return readBlock(low).get((int) (recordNumber - blocks[low].getFirstRecord()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
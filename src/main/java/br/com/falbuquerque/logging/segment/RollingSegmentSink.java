@@ -0,0 +1,183 @@
+package br.com.falbuquerque.logging.segment;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.Level;
+
+import br.com.falbuquerque.logging.sink.AbstractRecordSink;
+
+/**
+ * Sink that writes the records to segment files, one record per line, rolling
+ * to a new segment when the current one reaches a size or an age. Closed
+ * segments are handed to a {@link SegmentCompactor}, which compresses them in
+ * its own thread, so the request threads only pay for the plain write.
+ * 
+ * <p>
+ * Segments are named <code>&lt;prefix&gt;-&lt;creation time&gt;-&lt;sequence&gt;.log</code>.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class RollingSegmentSink extends AbstractRecordSink {
+
+    private static final ByteBuffer LINE_SEPARATOR = ByteBuffer.wrap(new byte[] { '\n' });
+
+    private final Path directory;
+    private final String prefix;
+    private final long maxSegmentBytes;
+    private final long maxSegmentMillis;
+    private final SegmentCompactor compactor;
+
+    private FileChannel channel;
+    private Path segment;
+    private long segmentBytes;
+    private long segmentCreation;
+    private long sequence;
+
+    /**
+     * Creates a rolling sink whose segments are not compressed.
+     * 
+     * @param directory
+     *            the directory of the segments
+     * @param prefix
+     *            the prefix of the segment names
+     * @param maxSegmentBytes
+     *            the size from which a segment is rolled
+     * @param maxSegmentMillis
+     *            the age from which a segment is rolled, or zero to roll only
+     *            by size
+     */
+    public RollingSegmentSink(final Path directory, final String prefix, final long maxSegmentBytes,
+            final long maxSegmentMillis) {
+        this(directory, prefix, maxSegmentBytes, maxSegmentMillis, null, null);
+    }
+
+    /**
+     * Creates a rolling sink.
+     * 
+     * @param directory
+     *            the directory of the segments
+     * @param prefix
+     *            the prefix of the segment names
+     * @param maxSegmentBytes
+     *            the size from which a segment is rolled
+     * @param maxSegmentMillis
+     *            the age from which a segment is rolled, or zero to roll only
+     *            by size
+     * @param compactor
+     *            the compactor of the closed segments, or <code>null</code> to
+     *            keep them uncompressed
+     * @param threshold
+     *            the least specific level accepted by the sink
+     */
+    public RollingSegmentSink(final Path directory, final String prefix, final long maxSegmentBytes,
+            final long maxSegmentMillis, final SegmentCompactor compactor, final Level threshold) {
+        super(threshold);
+
+        if (maxSegmentBytes <= 0) {
+            throw new IllegalArgumentException("The maximum segment size must be positive");
+        }
+
+        this.directory = directory;
+        this.prefix = prefix;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentMillis = maxSegmentMillis;
+        this.compactor = compactor;
+    }
+
+    @Override
+    public void write(final Level level, final ByteBuffer record) {
+        write(level, new ByteBuffer[] { record });
+    }
+
+    @Override
+    public synchronized void write(final Level level, final ByteBuffer[] parts) {
+
+        try {
+
+            if (channel == null || shouldRoll()) {
+                roll();
+            }
+
+            final ByteBuffer[] line = Arrays.copyOf(parts, parts.length + 1);
+            line[parts.length] = LINE_SEPARATOR.duplicate();
+
+            while (line[parts.length].hasRemaining()) {
+                segmentBytes += channel.write(line);
+            }
+
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+    }
+
+    /**
+     * Closes the current segment, if any, and starts a new one.
+     * 
+     * @throws IOException
+     *             if a segment cannot be closed or created
+     */
+    public synchronized void roll() throws IOException {
+        closeSegment();
+
+        segmentCreation = System.currentTimeMillis();
+        segment = directory.resolve(prefix + "-" + segmentCreation + "-" + sequence++ + ".log");
+        channel = FileChannel.open(segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        segmentBytes = 0;
+    }
+
+    /**
+     * Gets the segment currently being written.
+     * 
+     * @return the current segment or <code>null</code> if nothing was written
+     *         yet
+     */
+    public synchronized Path getCurrentSegment() {
+        return segment;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeSegment();
+    }
+
+    /**
+     * Checks whether the current segment reached its size or age limit.
+     * 
+     * @return <code>true</code> if the segment must be rolled
+     */
+    private boolean shouldRoll() {
+        return segmentBytes >= maxSegmentBytes
+                || (maxSegmentMillis > 0 && System.currentTimeMillis() - segmentCreation >= maxSegmentMillis);
+    }
+
+    /**
+     * Closes the current segment and hands it to the compactor.
+     * 
+     * @throws IOException
+     *             if the segment cannot be closed
+     */
+    private void closeSegment() throws IOException {
+
+        if (channel == null) {
+            return;
+        }
+
+        channel.close();
+        channel = null;
+
+        if (compactor != null && segmentBytes > 0) {
+            compactor.submit(segment);
+        }
+
+        segment = null;
+    }
+
+}
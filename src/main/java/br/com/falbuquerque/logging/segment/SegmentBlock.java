@@ -0,0 +1,98 @@
+package br.com.falbuquerque.logging.segment;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Index entry of a compressed block of a segment.
+ * 
+ * @author Felipe Albuquerque
+ */
+class SegmentBlock {
+
+    /**
+     * Size of an encoded entry in the index file.
+     */
+    static final int ENCODED_SIZE = 24;
+
+    private final long offset;
+    private final int length;
+    private final long firstRecord;
+    private final int recordCount;
+
+    /**
+     * Creates an index entry.
+     * 
+     * @param offset
+     *            the position of the compressed block in the segment
+     * @param length
+     *            the compressed length of the block
+     * @param firstRecord
+     *            the number of the first record of the block in the segment
+     * @param recordCount
+     *            the number of records in the block
+     */
+    SegmentBlock(final long offset, final int length, final long firstRecord, final int recordCount) {
+        this.offset = offset;
+        this.length = length;
+        this.firstRecord = firstRecord;
+        this.recordCount = recordCount;
+    }
+
+    /**
+     * Reads an entry from the index.
+     * 
+     * @param index
+     *            the index contents
+     * @return the entry read
+     */
+    static SegmentBlock read(final ByteBuffer index) {
+        return new SegmentBlock(index.getLong(), index.getInt(), index.getLong(), index.getInt());
+    }
+
+    /**
+     * Writes the entry to the index.
+     * 
+     * @param index
+     *            the index contents
+     */
+    void write(final ByteBuffer index) {
+        index.putLong(offset).putInt(length).putLong(firstRecord).putInt(recordCount);
+    }
+
+    /**
+     * Gets the position of the compressed block in the segment.
+     * 
+     * @return the position of the block
+     */
+    long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Gets the compressed length of the block.
+     * 
+     * @return the compressed length
+     */
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the number of the first record of the block.
+     * 
+     * @return the number of the first record
+     */
+    long getFirstRecord() {
+        return firstRecord;
+    }
+
+    /**
+     * Gets the number of records in the block.
+     * 
+     * @return the number of records
+     */
+    int getRecordCount() {
+        return recordCount;
+    }
+
+}
@@ -0,0 +1,262 @@
+package br.com.falbuquerque.logging.segment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.logging.log4j.status.StatusLogger;
+
+/**
+ * Compresses closed segments in a background thread. Each segment is split
+ * into blocks of whole records and every block is written as an independent
+ * gzip member, so the compressed file is still a regular gzip file while any
+ * block can be decompressed on its own. The position of the blocks is kept in
+ * an index file next to the compressed segment.
+ * 
+ * <p>
+ * A segment <code>name.log</code> becomes <code>name.log.gz</code> and
+ * <code>name.log.idx</code>; the original file is deleted once both are
+ * written.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class SegmentCompactor implements Closeable {
+
+    /**
+     * Extension added to the compressed segments.
+     */
+    public static final String COMPRESSED_EXTENSION = ".gz";
+
+    /**
+     * Extension added to the block indexes of the compressed segments.
+     */
+    public static final String INDEX_EXTENSION = ".idx";
+
+    private static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    private final int blockSize;
+    private final ExecutorService executor;
+
+    /**
+     * Creates a compactor with blocks of 64 KB.
+     */
+    public SegmentCompactor() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a compactor.
+     * 
+     * @param blockSize
+     *            the uncompressed size from which a block is closed
+     */
+    public SegmentCompactor(final int blockSize) {
+
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("The block size must be positive");
+        }
+
+        this.blockSize = blockSize;
+        executor = Executors.newSingleThreadExecutor(task -> {
+            final Thread thread = new Thread(task, "segment-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Schedules the compression of a closed segment.
+     * 
+     * @param segment
+     *            the segment to be compressed
+     * @return the pending compression, which results in the compressed
+     *         segment
+     */
+    public Future<Path> submit(final Path segment) {
+        return executor.submit(() -> {
+
+            try {
+                return compress(segment);
+            } catch (final IOException e) {
+                StatusLogger.getLogger().error("Could not compress the segment " + segment, e);
+                throw e;
+            }
+
+        });
+    }
+
+    /**
+     * Waits for the pending compressions and stops the background thread.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+    }
+
+    /**
+     * Compresses a segment block by block.
+     * 
+     * @param segment
+     *            the segment to be compressed
+     * @return the compressed segment
+     * @throws IOException
+     *             if the segment cannot be read or the compressed files
+     *             cannot be written
+     */
+    Path compress(final Path segment) throws IOException {
+        final Path compressed = segment.resolveSibling(segment.getFileName() + COMPRESSED_EXTENSION);
+        final Path index = segment.resolveSibling(segment.getFileName() + INDEX_EXTENSION);
+        final Path partialCompressed = segment.resolveSibling(compressed.getFileName() + ".tmp");
+        final List<SegmentBlock> blocks = new ArrayList<>();
+
+        try (FileChannel input = FileChannel.open(segment, StandardOpenOption.READ);
+                FileChannel output = FileChannel.open(partialCompressed, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final ByteArrayOutputStream block = new ByteArrayOutputStream(blockSize + blockSize / 4);
+            final ByteArrayOutputStream compressedBlock = new ByteArrayOutputStream(blockSize / 2);
+            final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            final byte[] bytes = buffer.array();
+            long recordNumber = 0;
+            int blockRecords = 0;
+
+            while (input.read(buffer) != -1) {
+                final int end = buffer.position();
+                int start = 0;
+
+                for (int i = 0; i < end; i++) {
+
+                    if (bytes[i] == '\n') {
+                        blockRecords++;
+
+                        if (block.size() + i + 1 - start >= blockSize) {
+                            block.write(bytes, start, i + 1 - start);
+                            start = i + 1;
+                            blocks.add(writeBlock(block, compressedBlock, output, recordNumber, blockRecords));
+                            recordNumber += blockRecords;
+                            blockRecords = 0;
+                        }
+
+                    }
+
+                }
+
+                block.write(bytes, start, end - start);
+                buffer.clear();
+            }
+
+            if (block.size() > 0) {
+                // a record without its line separator still counts as one
+                if (lastByte(input) != '\n') {
+                    block.write('\n');
+                    blockRecords++;
+                }
+
+                blocks.add(writeBlock(block, compressedBlock, output, recordNumber, blockRecords));
+            }
+
+            output.force(false);
+        }
+
+        writeIndex(index, blocks);
+        Files.move(partialCompressed, compressed, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(segment);
+
+        return compressed;
+    }
+
+    /**
+     * Reads the last byte of a file.
+     * 
+     * @param channel
+     *            the channel of the file, which must not be empty
+     * @return the last byte
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    private static byte lastByte(final FileChannel channel) throws IOException {
+        final ByteBuffer tail = ByteBuffer.allocate(1);
+        channel.read(tail, channel.size() - 1);
+        return tail.get(0);
+    }
+
+    /**
+     * Compresses a block as a gzip member and appends it to the output.
+     * 
+     * @param block
+     *            the uncompressed block, cleared after the compression
+     * @param compressedBlock
+     *            the buffer reused to hold the compressed block
+     * @param output
+     *            the compressed segment
+     * @param firstRecord
+     *            the number of the first record of the block
+     * @param recordCount
+     *            the number of records in the block
+     * @return the index entry of the block
+     * @throws IOException
+     *             if the block cannot be written
+     */
+    private static SegmentBlock writeBlock(final ByteArrayOutputStream block, final ByteArrayOutputStream compressedBlock,
+            final FileChannel output, final long firstRecord, final int recordCount) throws IOException {
+        compressedBlock.reset();
+
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressedBlock)) {
+            block.writeTo(gzip);
+        }
+
+        block.reset();
+
+        final long offset = output.position();
+        final ByteBuffer bytes = ByteBuffer.wrap(compressedBlock.toByteArray());
+
+        while (bytes.hasRemaining()) {
+            output.write(bytes);
+        }
+
+        return new SegmentBlock(offset, compressedBlock.size(), firstRecord, recordCount);
+    }
+
+    /**
+     * Writes the block index of a compressed segment.
+     * 
+     * @param index
+     *            the index file
+     * @param blocks
+     *            the blocks of the segment
+     * @throws IOException
+     *             if the index cannot be written
+     */
+    private static void writeIndex(final Path index, final List<SegmentBlock> blocks) throws IOException {
+        final ByteBuffer contents = ByteBuffer.allocate(blocks.size() * SegmentBlock.ENCODED_SIZE);
+
+        for (final SegmentBlock block : blocks) {
+            block.write(contents);
+        }
+
+        contents.flip();
+        Files.write(index, contents.array());
+    }
+
+}
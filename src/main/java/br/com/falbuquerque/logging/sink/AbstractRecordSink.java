@@ -0,0 +1,160 @@
+package br.com.falbuquerque.logging.sink;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.logging.log4j.Level;
+
+/**
+ * Base class of the sinks that write raw bytes. Records below the threshold
+ * level are not accepted and throwables are written as their stack traces
+ * right after the message. As records must fit in a single line, the line
+ * separators of the message and of the stack trace are escaped as
+ * <code>\n</code> and <code>\r</code>, and the backslashes as
+ * <code>\\</code>; {@link #unescape(CharSequence)} restores them.
+ * 
+ * @author Felipe Albuquerque
+ */
+public abstract class AbstractRecordSink implements RecordSink {
+
+    private final Level threshold;
+
+    /**
+     * Creates a sink.
+     * 
+     * @param threshold
+     *            the least specific level accepted by the sink
+     */
+    protected AbstractRecordSink(final Level threshold) {
+
+        if (threshold == null) {
+            this.threshold = Level.ALL;
+        } else {
+            this.threshold = threshold;
+        }
+
+    }
+
+    @Override
+    public boolean isEnabled(final Level level) {
+        return level.isMoreSpecificThan(threshold);
+    }
+
+    @Override
+    public void write(final Level level, final String message, final Throwable throwable) {
+        write(level, ByteBuffer.wrap(format(message, throwable)));
+    }
+
+    /**
+     * Formats a message followed by the stack trace of a throwable in a
+     * single line.
+     * 
+     * @param message
+     *            the message
+     * @param throwable
+     *            the throwable or <code>null</code>
+     * @return the UTF-8 encoded record
+     */
+    protected static byte[] format(final String message, final Throwable throwable) {
+        final StringWriter record = new StringWriter();
+        record.write(message);
+
+        if (throwable != null) {
+            record.write(System.lineSeparator());
+            throwable.printStackTrace(new PrintWriter(record));
+            trimLineSeparator(record.getBuffer());
+        }
+
+        return escape(record.getBuffer()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Restores the line separators and backslashes escaped in a record
+     * written by {@link #format(String, Throwable)}.
+     * 
+     * @param record
+     *            the record
+     * @return the message followed by the stack trace in several lines
+     */
+    public static String unescape(final CharSequence record) {
+        final StringBuilder unescaped = new StringBuilder(record.length());
+
+        for (int i = 0; i < record.length(); i++) {
+            final char c = record.charAt(i);
+
+            if (c == '\\' && i + 1 < record.length()) {
+                final char escaped = record.charAt(++i);
+
+                if (escaped == 'n') {
+                    unescaped.append('\n');
+                } else if (escaped == 'r') {
+                    unescaped.append('\r');
+                } else {
+                    unescaped.append(escaped);
+                }
+
+            } else {
+                unescaped.append(c);
+            }
+
+        }
+
+        return unescaped.toString();
+    }
+
+    /**
+     * Gets the least specific level accepted by the sink.
+     * 
+     * @return the threshold level
+     */
+    public Level getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Escapes the line separators and backslashes of a record.
+     * 
+     * @param record
+     *            the record
+     * @return the record in a single line
+     */
+    private static String escape(final CharSequence record) {
+        final StringBuilder escaped = new StringBuilder(record.length() + 64);
+
+        for (int i = 0; i < record.length(); i++) {
+            final char c = record.charAt(i);
+
+            if (c == '\n') {
+                escaped.append("\\n");
+            } else if (c == '\r') {
+                escaped.append("\\r");
+            } else if (c == '\\') {
+                escaped.append("\\\\");
+            } else {
+                escaped.append(c);
+            }
+
+        }
+
+        return escaped.toString();
+    }
+
+    /**
+     * Removes the trailing line separators left by the stack trace printing.
+     * 
+     * @param record
+     *            the record being built
+     */
+    private static void trimLineSeparator(final StringBuffer record) {
+        int length = record.length();
+
+        while (length > 0 && (record.charAt(length - 1) == '\n' || record.charAt(length - 1) == '\r')) {
+            length--;
+        }
+
+        record.setLength(length);
+    }
+
+}
@@ -0,0 +1,126 @@
+package br.com.falbuquerque.logging.sink;
+
+import java.nio.ByteBuffer;
+
+import org.apache.logging.log4j.Level;
+
+/**
+ * Record published by a {@link BroadcastRecordSink}. Its bytes are shared by
+ * all the subscribers, which read them through read-only views.
+ * 
+ * @author Felipe Albuquerque
+ */
+public final class BroadcastRecord {
+
+    private final long sequence;
+    private final Level level;
+    private final byte[] bytes;
+    private final Class<?> throwableClass;
+
+    /**
+     * Creates a published record.
+     * 
+     * @param sequence
+     *            the sequence of the record in the ring
+     * @param level
+     *            the level of the record
+     * @param bytes
+     *            the UTF-8 encoded record, which must not be changed anymore
+     * @param throwableClass
+     *            the class of the throwable written with the record or
+     *            <code>null</code>
+     */
+    BroadcastRecord(final long sequence, final Level level, final byte[] bytes, final Class<?> throwableClass) {
+        this.sequence = sequence;
+        this.level = level;
+        this.bytes = bytes;
+        this.throwableClass = throwableClass;
+    }
+
+    /**
+     * Gets the sequence of the record, which tells the order in which the
+     * records were written.
+     * 
+     * @return the sequence
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Gets the level of the record.
+     * 
+     * @return the level
+     */
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Gets the bytes of the record, without copying them.
+     * 
+     * @return a read-only view of the UTF-8 encoded record
+     */
+    public ByteBuffer getBytes() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * Gets the class of the throwable written with the record.
+     * 
+     * @return the class or <code>null</code> if the record is not an exception
+     */
+    public Class<?> getThrowableClass() {
+        return throwableClass;
+    }
+
+    /**
+     * Checks whether the bytes of the record start with a prefix.
+     * 
+     * @param prefix
+     *            the prefix
+     * @return <code>true</code> if the record starts with the prefix
+     */
+    boolean startsWith(final byte[] prefix) {
+
+        if (prefix.length > bytes.length) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++) {
+
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks whether the bytes of the record contain a sequence of bytes.
+     * 
+     * @param pattern
+     *            the sequence of bytes
+     * @return <code>true</code> if the record contains the pattern
+     */
+    boolean contains(final byte[] pattern) {
+
+        outer: for (int start = 0; start <= bytes.length - pattern.length; start++) {
+
+            for (int i = 0; i < pattern.length; i++) {
+
+                if (bytes[start + i] != pattern[i]) {
+                    continue outer;
+                }
+
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+}
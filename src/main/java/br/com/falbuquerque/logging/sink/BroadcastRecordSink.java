@@ -0,0 +1,250 @@
+package br.com.falbuquerque.logging.sink;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.Level;
+
+/**
+ * Sink that publishes the records in a ring read by any number of local
+ * subscribers, such as diagnostics tools, each at its own cursor. Writers
+ * never wait for the subscribers: a subscriber that falls more than the
+ * capacity of the ring behind loses the overwritten records and skips to the
+ * oldest record still available.
+ * 
+ * <p>
+ * Each record is copied once, when written, and its bytes are shared by all
+ * the subscribers. Exception records also keep the class of their throwable,
+ * so they can be selected by {@link RecordFilter#exception(Class)}.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class BroadcastRecordSink extends AbstractRecordSink {
+
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final AtomicReferenceArray<BroadcastRecord> slots;
+    private final int mask;
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    /**
+     * Creates a broadcast sink that accepts all levels.
+     * 
+     * @param capacity
+     *            the number of records kept for the subscribers, rounded up
+     *            to a power of two
+     */
+    public BroadcastRecordSink(final int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * Creates a broadcast sink.
+     * 
+     * @param capacity
+     *            the number of records kept for the subscribers, rounded up
+     *            to a power of two
+     * @param threshold
+     *            the least specific level accepted by the sink
+     */
+    public BroadcastRecordSink(final int capacity, final Level threshold) {
+        super(threshold);
+
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("The capacity must be between 1 and 2^30");
+        }
+
+        final int size = Integer.highestOneBit(capacity * 2 - 1);
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    @Override
+    public void write(final Level level, final ByteBuffer record) {
+        final byte[] bytes = new byte[record.remaining()];
+        record.get(bytes);
+        publish(level, bytes, null);
+    }
+
+    @Override
+    public void write(final Level level, final ByteBuffer[] parts) {
+        int size = 0;
+
+        for (final ByteBuffer part : parts) {
+            size += part.remaining();
+        }
+
+        final byte[] bytes = new byte[size];
+        int position = 0;
+
+        for (final ByteBuffer part : parts) {
+            final int length = part.remaining();
+            part.get(bytes, position, length);
+            position += length;
+        }
+
+        publish(level, bytes, null);
+    }
+
+    @Override
+    public void write(final Level level, final String message, final Throwable throwable) {
+        publish(level, format(message, throwable), throwable == null ? null : throwable.getClass());
+    }
+
+    /**
+     * Subscribes to the records written from now on.
+     * 
+     * @param filter
+     *            the filter of the records read by the subscriber
+     * @return the subscriber
+     */
+    public Subscriber subscribe(final RecordFilter filter) {
+        return new Subscriber(filter, nextSequence.get());
+    }
+
+    /**
+     * Gets the number of records written since the creation of the sink.
+     * 
+     * @return the number of records written
+     */
+    public long getWrittenCount() {
+        return nextSequence.get();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Publishes a record in its slot. A slower writer never replaces a more
+     * recent record of the same slot.
+     * 
+     * @param level
+     *            the level of the record
+     * @param bytes
+     *            the bytes of the record
+     * @param throwableClass
+     *            the class of the throwable of the record or
+     *            <code>null</code>
+     */
+    private void publish(final Level level, final byte[] bytes, final Class<?> throwableClass) {
+        final long sequence = nextSequence.getAndIncrement();
+        final BroadcastRecord record = new BroadcastRecord(sequence, level, bytes, throwableClass);
+        final int slot = (int) sequence & mask;
+
+        while (true) {
+            final BroadcastRecord current = slots.get(slot);
+
+            if ((current != null && current.getSequence() > sequence) || slots.compareAndSet(slot, current, record)) {
+                return;
+            }
+
+        }
+
+    }
+
+    /**
+     * Reader of the records of the ring. A subscriber keeps its own cursor
+     * and must be used by a single thread.
+     */
+    public final class Subscriber {
+
+        private final RecordFilter filter;
+        private long cursor;
+        private long lost;
+
+        /**
+         * Creates a subscriber.
+         * 
+         * @param filter
+         *            the filter of the records read
+         * @param cursor
+         *            the sequence of the first record to be read
+         */
+        Subscriber(final RecordFilter filter, final long cursor) {
+            this.filter = filter == null ? RecordFilter.ALL : filter;
+            this.cursor = cursor;
+        }
+
+        /**
+         * Reads the next selected record, if already written.
+         * 
+         * @return the record or <code>null</code> if no selected record is
+         *         available
+         */
+        public BroadcastRecord poll() {
+
+            while (true) {
+                final BroadcastRecord record = slots.get((int) cursor & mask);
+
+                if (record == null || record.getSequence() < cursor) {
+                    return null;
+                }
+
+                if (record.getSequence() > cursor) {
+                    // overwritten: skip to the oldest record the ring may still hold
+                    final long oldest = record.getSequence() - mask;
+                    lost += oldest - cursor;
+                    cursor = oldest;
+                    continue;
+                }
+
+                cursor++;
+
+                if (filter.matches(record)) {
+                    return record;
+                }
+
+            }
+
+        }
+
+        /**
+         * Reads the next selected record, waiting for it to be written.
+         * 
+         * @param timeout
+         *            the maximum time to wait
+         * @param unit
+         *            the unit of the timeout
+         * @return the record or <code>null</code> if no selected record was
+         *         written in time
+         * @throws InterruptedException
+         *             if the thread is interrupted while waiting
+         */
+        public BroadcastRecord poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+            while (true) {
+                final BroadcastRecord record = poll();
+
+                if (record != null || System.nanoTime() >= deadline) {
+                    return record;
+                }
+
+                LockSupport.parkNanos(PARK_NANOS);
+
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+
+            }
+
+        }
+
+        /**
+         * Gets the number of records overwritten before this subscriber read
+         * them, selected or not.
+         * 
+         * @return the number of lost records
+         */
+        public long getLostCount() {
+            return lost;
+        }
+
+    }
+
+}
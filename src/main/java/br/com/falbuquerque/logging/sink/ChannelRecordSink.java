@@ -0,0 +1,130 @@
+package br.com.falbuquerque.logging.sink;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.Level;
+
+/**
+ * Sink that writes each record as a line to a {@link WritableByteChannel}.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class ChannelRecordSink extends AbstractRecordSink {
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final WritableByteChannel channel;
+
+    /**
+     * Creates a channel sink.
+     * 
+     * @param channel
+     *            the channel to which the records are written
+     * @param threshold
+     *            the least specific level accepted by the sink
+     */
+    public ChannelRecordSink(final WritableByteChannel channel, final Level threshold) {
+        super(threshold);
+        this.channel = channel;
+    }
+
+    @Override
+    public void write(final Level level, final ByteBuffer record) {
+        final ByteBuffer separator = ByteBuffer.wrap(LINE_SEPARATOR);
+
+        try {
+
+            if (channel instanceof GatheringByteChannel) {
+                // a single gathering write keeps the record and its separator
+                // together when many threads share the channel
+                final ByteBuffer[] line = { record, separator };
+                final GatheringByteChannel gatheringChannel = (GatheringByteChannel) channel;
+
+                while (separator.hasRemaining()) {
+                    gatheringChannel.write(line);
+                }
+
+            } else {
+
+                synchronized (channel) {
+                    writeFully(record);
+                    writeFully(separator);
+                }
+
+            }
+
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+    }
+
+    @Override
+    public void write(final Level level, final ByteBuffer[] parts) {
+        final ByteBuffer[] line = Arrays.copyOf(parts, parts.length + 1);
+        line[parts.length] = ByteBuffer.wrap(LINE_SEPARATOR);
+
+        try {
+
+            if (channel instanceof GatheringByteChannel) {
+                final GatheringByteChannel gatheringChannel = (GatheringByteChannel) channel;
+
+                while (line[parts.length].hasRemaining()) {
+                    gatheringChannel.write(line);
+                }
+
+            } else {
+
+                synchronized (channel) {
+
+                    for (final ByteBuffer part : line) {
+                        writeFully(part);
+                    }
+
+                }
+
+            }
+
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Gets the channel.
+     * 
+     * @return the channel
+     */
+    protected WritableByteChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Writes all the remaining bytes of a buffer.
+     * 
+     * @param buffer
+     *            the buffer to be written
+     * @throws IOException
+     *             if the channel fails
+     */
+    private void writeFully(final ByteBuffer buffer) throws IOException {
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+    }
+
+}
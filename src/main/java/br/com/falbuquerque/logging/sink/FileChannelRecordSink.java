@@ -0,0 +1,55 @@
+package br.com.falbuquerque.logging.sink;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.logging.log4j.Level;
+
+/**
+ * Sink that appends the records straight to a file through a
+ * {@link FileChannel}.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class FileChannelRecordSink extends ChannelRecordSink {
+
+    /**
+     * Creates a file sink that accepts all levels.
+     * 
+     * @param file
+     *            the file to which the records are appended
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    public FileChannelRecordSink(final Path file) throws IOException {
+        this(file, null);
+    }
+
+    /**
+     * Creates a file sink.
+     * 
+     * @param file
+     *            the file to which the records are appended
+     * @param threshold
+     *            the least specific level accepted by the sink
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    public FileChannelRecordSink(final Path file, final Level threshold) throws IOException {
+        super(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND),
+                threshold);
+    }
+
+    /**
+     * Forces the written records to the storage device.
+     * 
+     * @throws IOException
+     *             if the channel fails
+     */
+    public void force() throws IOException {
+        ((FileChannel) getChannel()).force(false);
+    }
+
+}
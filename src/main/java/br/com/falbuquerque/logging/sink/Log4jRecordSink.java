@@ -0,0 +1,58 @@
+package br.com.falbuquerque.logging.sink;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Sink that hands the records to a log4j2 {@link Logger}, i.e., the records go
+ * through the appenders and layouts of the log4j2 configuration.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class Log4jRecordSink implements RecordSink {
+
+    private final Logger logger;
+
+    /**
+     * Creates a log4j2 sink.
+     * 
+     * @param logger
+     *            the logger that will receive the records
+     */
+    public Log4jRecordSink(final Logger logger) {
+        this.logger = logger;
+    }
+
+    @Override
+    public boolean isEnabled(final Level level) {
+        return logger.isEnabled(level);
+    }
+
+    @Override
+    public void write(final Level level, final ByteBuffer record) {
+        logger.log(level, StandardCharsets.UTF_8.decode(record).toString());
+    }
+
+    @Override
+    public void write(final Level level, final String message, final Throwable throwable) {
+        logger.log(level, message, throwable);
+    }
+
+    /**
+     * Gets the logger.
+     * 
+     * @return the logger
+     */
+    public Logger getLogger() {
+        return logger;
+    }
+
+    @Override
+    public void close() {
+        // the logger lifecycle belongs to log4j2
+    }
+
+}
@@ -0,0 +1,341 @@
+package br.com.falbuquerque.logging.sink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.status.StatusLogger;
+
+/**
+ * Sink that hands the records to another sink in a background thread,
+ * through one lane per severity: errors (<code>ERROR</code> and
+ * <code>FATAL</code>), warnings and the rest, such as the <code>INFO</code>
+ * request records. Each lane has its own capacity. When the error lane is
+ * full the writing thread waits, so errors are never dropped; when the other
+ * lanes are full their records are dropped and counted.
+ * 
+ * <p>
+ * The lanes are drained by weighted rounds: in each round the error lane may
+ * write up to {@value #ERROR_WEIGHT} records, the warning lane up to
+ * {@value #WARN_WEIGHT} and the other lane {@value #OTHER_WEIGHT}, so the
+ * most severe records go first without starving the others.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class PriorityRecordSink implements RecordSink {
+
+    /**
+     * Lane of the <code>ERROR</code> and <code>FATAL</code> records.
+     */
+    public static final int ERROR_LANE = 0;
+
+    /**
+     * Lane of the <code>WARN</code> records.
+     */
+    public static final int WARN_LANE = 1;
+
+    /**
+     * Lane of the less specific records.
+     */
+    public static final int OTHER_LANE = 2;
+
+    private static final int ERROR_WEIGHT = 8;
+    private static final int WARN_WEIGHT = 4;
+    private static final int OTHER_WEIGHT = 1;
+    private static final int[] WEIGHTS = { ERROR_WEIGHT, WARN_WEIGHT, OTHER_WEIGHT };
+    private static final long POLL_MILLIS = 100;
+
+    private final RecordSink delegate;
+    private final BlockingQueue<Record>[] lanes;
+    private final AtomicLong[] dropped = { new AtomicLong(), new AtomicLong(), new AtomicLong() };
+    private final int[] credits = new int[WEIGHTS.length];
+    private final Semaphore queued = new Semaphore(0);
+    private final AtomicInteger writers = new AtomicInteger();
+    private final Thread drainer;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a priority sink.
+     * 
+     * @param delegate
+     *            the sink that writes the records
+     * @param errorCapacity
+     *            the capacity of the error lane
+     * @param warnCapacity
+     *            the capacity of the warning lane
+     * @param otherCapacity
+     *            the capacity of the lane of the less specific records
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public PriorityRecordSink(final RecordSink delegate, final int errorCapacity, final int warnCapacity,
+            final int otherCapacity) {
+        this.delegate = delegate;
+        lanes = new BlockingQueue[] { new ArrayBlockingQueue<>(errorCapacity), new ArrayBlockingQueue<>(warnCapacity),
+                new ArrayBlockingQueue<>(otherCapacity) };
+
+        drainer = new Thread(this::drain, "priority-record-sink");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    @Override
+    public boolean isEnabled(final Level level) {
+        return delegate.isEnabled(level);
+    }
+
+    @Override
+    public void write(final Level level, final ByteBuffer record) {
+        final byte[] copy = new byte[record.remaining()];
+        record.get(copy);
+        enqueue(new Record(level, copy, null, null));
+    }
+
+    @Override
+    public void write(final Level level, final ByteBuffer[] parts) {
+        int size = 0;
+
+        for (final ByteBuffer part : parts) {
+            size += part.remaining();
+        }
+
+        final ByteBuffer copy = ByteBuffer.allocate(size);
+
+        for (final ByteBuffer part : parts) {
+            copy.put(part);
+        }
+
+        enqueue(new Record(level, copy.array(), null, null));
+    }
+
+    @Override
+    public void write(final Level level, final String message, final Throwable throwable) {
+        enqueue(new Record(level, null, message, throwable));
+    }
+
+    /**
+     * Gets the lane of a level.
+     * 
+     * @param level
+     *            the level
+     * @return {@link #ERROR_LANE}, {@link #WARN_LANE} or {@link #OTHER_LANE}
+     */
+    public static int laneOf(final Level level) {
+
+        if (level.isMoreSpecificThan(Level.ERROR)) {
+            return ERROR_LANE;
+        } else if (level.isMoreSpecificThan(Level.WARN)) {
+            return WARN_LANE;
+        } else {
+            return OTHER_LANE;
+        }
+
+    }
+
+    /**
+     * Gets the number of records dropped by a lane because it was full.
+     * 
+     * @param lane
+     *            the lane
+     * @return the number of dropped records
+     */
+    public long getDroppedCount(final int lane) {
+        return dropped[lane].get();
+    }
+
+    /**
+     * Writes the queued records and closes the delegate sink. Records written
+     * after the sink is closed go straight to the delegate. The records being
+     * queued while the sink is closed are written before the delegate is
+     * closed.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+
+        try {
+            drainer.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // records queued while the drainer was stopping, or by writers that did not see the sink closed
+        while (writers.get() > 0 || queued.availablePermits() > 0) {
+
+            if (queued.tryAcquire()) {
+                write(next());
+            } else {
+                Thread.yield();
+            }
+
+        }
+
+        delegate.close();
+    }
+
+    /**
+     * Puts a record in its lane.
+     * 
+     * @param record
+     *            the record
+     */
+    private void enqueue(final Record record) {
+        // counted before checking the sink, so close() waits for the record
+        writers.incrementAndGet();
+
+        try {
+
+            if (closed) {
+                record.writeTo(delegate);
+                return;
+            }
+
+            final int lane = laneOf(record.level);
+
+            if (lane == ERROR_LANE) {
+
+                try {
+                    lanes[lane].put(record);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    record.writeTo(delegate);
+                    return;
+                }
+
+            } else if (!lanes[lane].offer(record)) {
+                dropped[lane].incrementAndGet();
+                return;
+            }
+
+            queued.release();
+        } finally {
+            writers.decrementAndGet();
+        }
+
+    }
+
+    /**
+     * Writes the queued records until the sink is closed and its lanes are
+     * empty.
+     */
+    private void drain() {
+
+        try {
+
+            while (!closed || queued.availablePermits() > 0) {
+
+                if (queued.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    write(next());
+                }
+
+            }
+
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+    }
+
+    /**
+     * Takes the next record by weighted rounds. A record is known to be
+     * queued.
+     * 
+     * @return the record
+     */
+    private Record next() {
+
+        while (true) {
+
+            for (int lane = 0; lane < lanes.length; lane++) {
+
+                if (credits[lane] > 0) {
+                    final Record record = lanes[lane].poll();
+
+                    if (record != null) {
+                        credits[lane]--;
+                        return record;
+                    }
+
+                }
+
+            }
+
+            // the lanes with credits are empty: a new round starts
+            System.arraycopy(WEIGHTS, 0, credits, 0, WEIGHTS.length);
+        }
+
+    }
+
+    /**
+     * Writes a record to the delegate sink, reporting the failures to the
+     * status logger.
+     * 
+     * @param record
+     *            the record
+     */
+    private void write(final Record record) {
+
+        try {
+            record.writeTo(delegate);
+        } catch (final RuntimeException e) {
+            StatusLogger.getLogger().error("Could not write a record", e);
+        }
+
+    }
+
+    /**
+     * Queued record: either the bytes of a record or a message with a
+     * throwable.
+     */
+    private static final class Record {
+
+        private final Level level;
+        private final byte[] bytes;
+        private final String message;
+        private final Throwable throwable;
+
+        /**
+         * Creates a queued record.
+         * 
+         * @param level
+         *            the level
+         * @param bytes
+         *            the bytes of the record, if any
+         * @param message
+         *            the message, if there are no bytes
+         * @param throwable
+         *            the throwable of the message
+         */
+        Record(final Level level, final byte[] bytes, final String message, final Throwable throwable) {
+            this.level = level;
+            this.bytes = bytes;
+            this.message = message;
+            this.throwable = throwable;
+        }
+
+        /**
+         * Writes the record to a sink.
+         * 
+         * @param sink
+         *            the sink
+         */
+        void writeTo(final RecordSink sink) {
+
+            if (bytes != null) {
+                sink.write(level, ByteBuffer.wrap(bytes));
+            } else {
+                sink.write(level, message, throwable);
+            }
+
+        }
+
+    }
+
+}
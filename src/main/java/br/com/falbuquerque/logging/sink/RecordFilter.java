@@ -0,0 +1,179 @@
+package br.com.falbuquerque.logging.sink;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Function;
+
+import br.com.falbuquerque.logging.RecordSchema;
+import br.com.falbuquerque.logging.RecordSchema.Field;
+import br.com.falbuquerque.logging.util.Utf8Encoder;
+
+/**
+ * Selects the records read by a subscriber of a {@link BroadcastRecordSink}.
+ * The request filters compare the encoded bytes of the records with
+ * pre-encoded patterns, so the records are never parsed.
+ * 
+ * @author Felipe Albuquerque
+ */
+@FunctionalInterface
+public interface RecordFilter {
+
+    /**
+     * Filter that accepts every record.
+     */
+    RecordFilter ALL = record -> true;
+
+    /**
+     * Checks whether a record is selected.
+     * 
+     * @param record
+     *            the record
+     * @return <code>true</code> if the record is selected
+     */
+    boolean matches(BroadcastRecord record);
+
+    /**
+     * Combines this filter with another one.
+     * 
+     * @param other
+     *            the other filter
+     * @return a filter that selects the records selected by both filters
+     */
+    default RecordFilter and(final RecordFilter other) {
+        return record -> matches(record) && other.matches(record);
+    }
+
+    /**
+     * Selects the request records whose token starts with a prefix.
+     * 
+     * @param prefix
+     *            the prefix of the token
+     * @return the filter
+     */
+    static RecordFilter tokenPrefix(final String prefix) {
+        return tokenPrefix(prefix, null);
+    }
+
+    /**
+     * Selects the request records whose token starts with a prefix.
+     * 
+     * @param prefix
+     *            the prefix of the token
+     * @param schema
+     *            the schema of the compact records or <code>null</code> if
+     *            the records are full
+     * @return the filter
+     */
+    static RecordFilter tokenPrefix(final String prefix, final RecordSchema schema) {
+        final Function<Field, String> key = field -> schema == null ? field.getName() : schema.getKey(field);
+        final String header = schema == null ? "{" : "{\"" + RecordSchema.VERSION_KEY + "\":" + schema.getVersion()
+                + ",";
+        final byte[] start = (header + "\"" + key.apply(Field.REQUEST) + "\":{\"" + key.apply(Field.TOKEN) + "\":")
+                .getBytes(StandardCharsets.US_ASCII);
+        final byte[] encoded = Utf8Encoder.encodeJsonString(prefix);
+        final byte[] pattern = Arrays.copyOf(start, start.length + encoded.length - 1);
+        System.arraycopy(encoded, 0, pattern, start.length, encoded.length - 1);
+        return record -> record.startsWith(pattern);
+    }
+
+    /**
+     * Selects the request records that have a parameter with a value.
+     * 
+     * @param name
+     *            the name of the parameter
+     * @param value
+     *            the value of the parameter: a string, an integral number or
+     *            a boolean
+     * @return the filter
+     */
+    static RecordFilter parameter(final String name, final Object value) {
+        return parameter(name, value, null);
+    }
+
+    /**
+     * Selects the request records that have a parameter with a value.
+     * 
+     * @param name
+     *            the name of the parameter
+     * @param value
+     *            the value of the parameter: a string, an integral number or
+     *            a boolean
+     * @param schema
+     *            the schema of the compact records or <code>null</code> if
+     *            the records are full
+     * @return the filter
+     */
+    static RecordFilter parameter(final String name, final Object value, final RecordSchema schema) {
+        final Function<Field, String> key = field -> schema == null ? field.getName() : schema.getKey(field);
+        final String encodedValue = value instanceof String ? new String(
+                Utf8Encoder.encodeJsonString((String) value), StandardCharsets.UTF_8) : String.valueOf(value);
+        final String encodedName = new String(Utf8Encoder.encodeJsonString(name), StandardCharsets.UTF_8);
+        final byte[] pattern = ("{\"" + key.apply(Field.NAME) + "\":" + encodedName + ",\"" + key.apply(Field.VALUE)
+                + "\":" + encodedValue + "}").getBytes(StandardCharsets.UTF_8);
+        return record -> record.contains(pattern);
+    }
+
+    /**
+     * Selects the exception records whose throwable is an instance of a class
+     * or of its subclasses. Request records are not selected, since their
+     * exceptions are written as separate records.
+     * 
+     * @param throwableClass
+     *            the class of the throwable
+     * @return the filter
+     */
+    static RecordFilter exception(final Class<? extends Throwable> throwableClass) {
+        return record -> record.getThrowableClass() != null
+                && throwableClass.isAssignableFrom(record.getThrowableClass());
+    }
+
+    /**
+     * Selects the exception records whose throwable class, or any of its
+     * superclasses, has a name.
+     * 
+     * @param className
+     *            the fully qualified name of the class
+     * @return the filter
+     */
+    static RecordFilter exception(final String className) {
+        return record -> {
+
+            for (Class<?> type = record.getThrowableClass(); type != null; type = type.getSuperclass()) {
+
+                if (type.getName().equals(className)) {
+                    return true;
+                }
+
+            }
+
+            return false;
+        };
+    }
+
+    /**
+     * Parses the textual form of a filter: <code>token:prefix</code>,
+     * <code>param:name=value</code>, <code>exception:class</code> or an empty
+     * text to select every record.
+     * 
+     * @param specification
+     *            the textual form
+     * @return the filter
+     */
+    static RecordFilter parse(final String specification) {
+        final String text = specification == null ? "" : specification.trim();
+
+        if (text.isEmpty()) {
+            return ALL;
+        } else if (text.startsWith("token:")) {
+            return tokenPrefix(text.substring("token:".length()));
+        } else if (text.startsWith("param:") && text.indexOf('=') > 0) {
+            final int separator = text.indexOf('=');
+            return parameter(text.substring("param:".length(), separator), text.substring(separator + 1));
+        } else if (text.startsWith("exception:")) {
+            return exception(text.substring("exception:".length()));
+        }
+
+        throw new IllegalArgumentException("Unknown filter: " + specification);
+    }
+
+}
@@ -0,0 +1,78 @@
+package br.com.falbuquerque.logging.sink;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+import org.apache.logging.log4j.Level;
+
+/**
+ * Destination of fully formatted log records. A sink receives the record
+ * bytes as they were produced by the caller, so no layout or further encoding
+ * is applied on the way out.
+ * 
+ * @author Felipe Albuquerque
+ */
+public interface RecordSink extends Closeable {
+
+    /**
+     * Checks whether the sink accepts records of the given level.
+     * 
+     * @param level
+     *            the level of the record
+     * @return <code>true</code> if records of the level are written by the
+     *         sink
+     */
+    boolean isEnabled(Level level);
+
+    /**
+     * Writes a record. The remaining bytes of the buffer are consumed by the
+     * sink; the record must not contain the line separator.
+     * 
+     * @param level
+     *            the level of the record
+     * @param record
+     *            the UTF-8 encoded record
+     */
+    void write(Level level, ByteBuffer record);
+
+    /**
+     * Writes a record made of several parts, in order. Sinks that can gather
+     * the parts straight from the buffers override this method; by default
+     * they are copied into a single buffer.
+     * 
+     * @param level
+     *            the level of the record
+     * @param parts
+     *            the parts of the UTF-8 encoded record
+     */
+    default void write(final Level level, final ByteBuffer[] parts) {
+        int size = 0;
+
+        for (final ByteBuffer part : parts) {
+            size += part.remaining();
+        }
+
+        final ByteBuffer record = ByteBuffer.allocate(size);
+
+        for (final ByteBuffer part : parts) {
+            record.put(part);
+        }
+
+        record.flip();
+        write(level, record);
+    }
+
+    /**
+     * Writes a record that carries a throwable. Sinks that write bytes keep
+     * the message and the stack trace in a single line, as any other record.
+     * 
+     * @param level
+     *            the level of the record
+     * @param message
+     *            the message of the record
+     * @param throwable
+     *            the throwable to be written along with the message
+     */
+    void write(Level level, String message, Throwable throwable);
+
+}
@@ -0,0 +1,262 @@
+package br.com.falbuquerque.logging.sink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.status.StatusLogger;
+
+/**
+ * Local endpoint that streams the records of a {@link BroadcastRecordSink} to
+ * the connected diagnostics tools, one record per line. The bytes are written
+ * as they were stored in the ring, without being encoded again.
+ * 
+ * <p>
+ * A client first sends one line with the textual form of its
+ * {@link RecordFilter}, which may be empty, and then reads the records. Each
+ * client has its own subscriber and thread, so a slow client only loses its
+ * own records.
+ * </p>
+ * 
+ * <p>
+ * The endpoint is either a TCP port bound to the loopback address or, when
+ * running on Java 16 or later, a Unix domain socket.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class RecordStreamServer implements Closeable {
+
+    private static final int MAX_FILTER_LENGTH = 1024;
+    private static final long POLL_MILLIS = 100;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    private final BroadcastRecordSink sink;
+    private final ServerSocketChannel server;
+    private final Path socketPath;
+    private final Thread acceptor;
+    private final Set<SocketChannel> clients = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a server and starts accepting clients.
+     * 
+     * @param sink
+     *            the sink whose records are streamed
+     * @param server
+     *            the bound server channel
+     * @param socketPath
+     *            the path of the Unix domain socket, deleted when the server
+     *            is closed, or <code>null</code>
+     */
+    private RecordStreamServer(final BroadcastRecordSink sink, final ServerSocketChannel server,
+            final Path socketPath) {
+        this.sink = sink;
+        this.server = server;
+        this.socketPath = socketPath;
+
+        acceptor = new Thread(this::accept, "record-stream-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Streams the records of a sink through a TCP port of the loopback
+     * address.
+     * 
+     * @param sink
+     *            the sink whose records are streamed
+     * @param port
+     *            the port or zero to use any free port
+     * @return the server
+     * @throws IOException
+     *             if the port cannot be bound
+     */
+    public static RecordStreamServer loopback(final BroadcastRecordSink sink, final int port) throws IOException {
+        final ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        return new RecordStreamServer(sink, server, null);
+    }
+
+    /**
+     * Streams the records of a sink through a Unix domain socket.
+     * 
+     * @param sink
+     *            the sink whose records are streamed
+     * @param path
+     *            the path of the socket, which must not exist
+     * @return the server
+     * @throws IOException
+     *             if the socket cannot be bound
+     * @throws UnsupportedOperationException
+     *             if the JVM does not support Unix domain sockets
+     */
+    public static RecordStreamServer unixDomain(final BroadcastRecordSink sink, final Path path) throws IOException {
+        final ServerSocketChannel server;
+        final SocketAddress address;
+
+        // looked up by reflection, since they exist only from Java 16 on
+        try {
+            final ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+            server = (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(
+                    null, unix);
+            address = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class)
+                    .invoke(null, path);
+        } catch (final IllegalArgumentException | ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Unix domain sockets require Java 16 or later", e);
+        }
+
+        server.bind(address);
+        return new RecordStreamServer(sink, server, path);
+    }
+
+    /**
+     * Gets the address the server is bound to.
+     * 
+     * @return the address
+     * @throws IOException
+     *             if the server is closed
+     */
+    public SocketAddress getAddress() throws IOException {
+        return server.getLocalAddress();
+    }
+
+    /**
+     * Stops accepting clients and disconnects the connected ones.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+
+        for (final SocketChannel client : clients) {
+            client.close();
+        }
+
+        if (socketPath != null) {
+            Files.deleteIfExists(socketPath);
+        }
+
+    }
+
+    /**
+     * Accepts clients until the server is closed.
+     */
+    private void accept() {
+
+        while (!closed) {
+
+            try {
+                final SocketChannel client = server.accept();
+                clients.add(client);
+
+                final Thread streamer = new Thread(() -> stream(client), "record-stream-client");
+                streamer.setDaemon(true);
+                streamer.start();
+            } catch (final ClosedChannelException e) {
+                return;
+            } catch (final IOException e) {
+                StatusLogger.getLogger().error("Could not accept a record stream client", e);
+            }
+
+        }
+
+    }
+
+    /**
+     * Streams the records selected by a client until it disconnects.
+     * 
+     * @param client
+     *            the client
+     */
+    private void stream(final SocketChannel client) {
+
+        try {
+            final BroadcastRecordSink.Subscriber subscriber = sink.subscribe(RecordFilter.parse(readFilter(client)));
+            final ByteBuffer separator = ByteBuffer.wrap(LINE_SEPARATOR);
+            final ByteBuffer[] line = { null, separator };
+
+            while (!closed) {
+                final BroadcastRecord record = subscriber.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+                if (record == null) {
+                    continue;
+                }
+
+                line[0] = record.getBytes();
+                separator.rewind();
+
+                while (separator.hasRemaining()) {
+                    client.write(line);
+                }
+
+            }
+
+        } catch (final ClosedChannelException e) {
+            // disconnected
+        } catch (final IOException | RuntimeException e) {
+            StatusLogger.getLogger().debug("Record stream client disconnected", e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            clients.remove(client);
+
+            try {
+                client.close();
+            } catch (final IOException e) {
+                StatusLogger.getLogger().warn("Could not close a record stream client", e);
+            }
+
+        }
+
+    }
+
+    /**
+     * Reads the first line sent by a client.
+     * 
+     * @param client
+     *            the client
+     * @return the textual form of the filter
+     * @throws IOException
+     *             if the line cannot be read
+     */
+    private static String readFilter(final SocketChannel client) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(MAX_FILTER_LENGTH);
+        final ByteBuffer single = ByteBuffer.allocate(1);
+
+        while (buffer.hasRemaining()) {
+            single.clear();
+
+            if (client.read(single) < 0) {
+                break;
+            }
+
+            final byte b = single.get(0);
+
+            if (b == '\n') {
+                break;
+            }
+
+            buffer.put(b);
+        }
+
+        buffer.flip();
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+}
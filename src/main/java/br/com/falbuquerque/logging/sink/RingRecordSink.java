@@ -0,0 +1,99 @@
+package br.com.falbuquerque.logging.sink;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.Level;
+
+/**
+ * In-memory sink that keeps the most recent records in a fixed size ring.
+ * Intended for tests and diagnostics.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class RingRecordSink extends AbstractRecordSink {
+
+    private final byte[][] records;
+    private long written;
+
+    /**
+     * Creates a ring sink that accepts all levels.
+     * 
+     * @param capacity
+     *            the maximum number of records kept
+     */
+    public RingRecordSink(final int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * Creates a ring sink.
+     * 
+     * @param capacity
+     *            the maximum number of records kept
+     * @param threshold
+     *            the least specific level accepted by the sink
+     */
+    public RingRecordSink(final int capacity, final Level threshold) {
+        super(threshold);
+
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+
+        records = new byte[capacity][];
+    }
+
+    @Override
+    public synchronized void write(final Level level, final ByteBuffer record) {
+        final byte[] copy = new byte[record.remaining()];
+        record.get(copy);
+        records[(int) (written++ % records.length)] = copy;
+    }
+
+    /**
+     * Gets the records kept by the ring, from the oldest to the newest.
+     * 
+     * @return the records decoded as UTF-8
+     */
+    public synchronized List<String> getRecords() {
+        final int size = (int) Math.min(written, records.length);
+        final List<String> result = new ArrayList<>(size);
+
+        for (long i = written - size; i < written; i++) {
+            result.add(new String(records[(int) (i % records.length)], StandardCharsets.UTF_8));
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the number of records written since the creation of the sink,
+     * including the ones already overwritten.
+     * 
+     * @return the number of records written
+     */
+    public synchronized long getWrittenCount() {
+        return written;
+    }
+
+    /**
+     * Discards the kept records.
+     */
+    public synchronized void clear() {
+        written = 0;
+
+        for (int i = 0; i < records.length; i++) {
+            records[i] = null;
+        }
+
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+
+}
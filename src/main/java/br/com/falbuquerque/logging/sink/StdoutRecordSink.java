@@ -0,0 +1,47 @@
+package br.com.falbuquerque.logging.sink;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.logging.log4j.Level;
+
+/**
+ * Sink that writes the records to the standard output, bypassing
+ * {@link System#out} and its character encoding. Closing the sink leaves the
+ * standard output open.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class StdoutRecordSink extends ChannelRecordSink {
+
+    /**
+     * Creates a standard output sink that accepts all levels.
+     */
+    public StdoutRecordSink() {
+        this(null);
+    }
+
+    /**
+     * Creates a standard output sink.
+     * 
+     * @param threshold
+     *            the least specific level accepted by the sink
+     */
+    public StdoutRecordSink(final Level threshold) {
+        super(new FileOutputStream(FileDescriptor.out).getChannel(), threshold);
+    }
+
+    /**
+     * Does nothing, as the records are not buffered and the standard output
+     * belongs to the process.
+     * 
+     * @throws IOException
+     *             never
+     */
+    @Override
+    public void close() throws IOException {
+        // the standard output is not closed
+    }
+
+}
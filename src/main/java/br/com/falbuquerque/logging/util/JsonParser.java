@@ -1,5 +1,8 @@
 package br.com.falbuquerque.logging.util;
 
+import br.com.falbuquerque.logging.request.Request;
+import br.com.falbuquerque.logging.request.RequestSerializer;
+
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
@@ -10,7 +13,8 @@ import com.google.gson.GsonBuilder;
  */
 public class JsonParser {
 
-    private final Gson serializer = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().create();
+    private final Gson serializer = new GsonBuilder().excludeFieldsWithoutExposeAnnotation()
+            .registerTypeAdapter(Request.class, new RequestSerializer()).create();
 
     /**
      * Converts an object to its JSON representation.
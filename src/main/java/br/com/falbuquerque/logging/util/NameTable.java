@@ -0,0 +1,128 @@
+package br.com.falbuquerque.logging.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process wide table of the names that repeat across requests, such as the
+ * parameter names. Each name is kept once, along with its JSON encoding, so
+ * equal names share the same instance and are not escaped again on every
+ * record.
+ * 
+ * <p>
+ * The table is bounded: once it is full, new names are neither interned nor
+ * pre-encoded, so names built from request data cannot make it grow without
+ * limit.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class NameTable {
+
+    private static final NameTable DEFAULT = new NameTable(4096);
+
+    private final int maxNames;
+    private final ConcurrentMap<String, Entry> names = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a name table.
+     * 
+     * @param maxNames
+     *            the maximum number of names kept by the table
+     */
+    public NameTable(final int maxNames) {
+        this.maxNames = maxNames;
+    }
+
+    /**
+     * Gets the table shared by the process.
+     * 
+     * @return the default table
+     */
+    public static NameTable getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Gets the canonical instance of a name.
+     * 
+     * @param name
+     *            the name
+     * @return the instance kept by the table, or the given name if the table
+     *         is full
+     */
+    public String intern(final String name) {
+        final Entry entry = lookup(name);
+        return entry == null ? name : entry.name;
+    }
+
+    /**
+     * Gets the JSON encoding of a name, i.e., the name quoted and escaped as
+     * UTF-8.
+     * 
+     * @param name
+     *            the name
+     * @return the encoded name, which must not be changed, or
+     *         <code>null</code> if the table is full
+     */
+    public byte[] encoded(final String name) {
+        final Entry entry = lookup(name);
+        return entry == null ? null : entry.encoded;
+    }
+
+    /**
+     * Gets the number of names in the table.
+     * 
+     * @return the number of names
+     */
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * Finds the entry of a name, adding it if there is room.
+     * 
+     * @param name
+     *            the name
+     * @return the entry or <code>null</code> if the name is not in the table
+     *         and the table is full
+     */
+    private Entry lookup(final String name) {
+
+        if (name == null) {
+            return null;
+        }
+
+        final Entry entry = names.get(name);
+
+        if (entry != null || names.size() >= maxNames) {
+            return entry;
+        }
+
+        final Entry created = new Entry(name);
+        final Entry existing = names.putIfAbsent(name, created);
+        return existing == null ? created : existing;
+    }
+
+    /**
+     * Canonical instance of a name and its encoding.
+     */
+    private static final class Entry {
+
+        private final String name;
+        private final byte[] encoded;
+
+        /**
+         * Creates the entry of a name.
+         * 
+         * @param name
+         *            the name
+         */
+        Entry(final String name) {
+            this.name = name;
+            this.encoded = Utf8Encoder.encodeJsonString(name);
+        }
+
+    }
+
+}
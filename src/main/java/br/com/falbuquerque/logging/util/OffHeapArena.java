@@ -0,0 +1,97 @@
+package br.com.falbuquerque.logging.util;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of fixed size blocks allocated outside of the heap. Released blocks are
+ * kept for the next requests up to a limit, so staging large payloads does
+ * not depend on the garbage collector to free the native memory.
+ * 
+ * <p>
+ * Instances are thread-safe.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class OffHeapArena {
+
+    private final int blockSize;
+    private final int maxPooledBlocks;
+    private final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledBlocks = new AtomicInteger();
+
+    /**
+     * Creates an arena.
+     * 
+     * @param blockSize
+     *            the size of each block, in bytes
+     * @param maxPooledBlocks
+     *            the maximum number of released blocks kept for reuse
+     */
+    public OffHeapArena(final int blockSize, final int maxPooledBlocks) {
+
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("The block size must be positive");
+        }
+
+        this.blockSize = blockSize;
+        this.maxPooledBlocks = maxPooledBlocks;
+    }
+
+    /**
+     * Takes a cleared block from the pool, allocating a new one if the pool
+     * is empty.
+     * 
+     * @return the block
+     */
+    public ByteBuffer acquire() {
+        final ByteBuffer block = pool.poll();
+
+        if (block == null) {
+            return ByteBuffer.allocateDirect(blockSize);
+        }
+
+        pooledBlocks.decrementAndGet();
+        return block;
+    }
+
+    /**
+     * Gives a block back to the pool. Blocks beyond the pool limit are left to
+     * the garbage collector.
+     * 
+     * @param block
+     *            the block, which must not be used afterwards
+     */
+    public void release(final ByteBuffer block) {
+
+        if (pooledBlocks.incrementAndGet() <= maxPooledBlocks) {
+            block.clear();
+            pool.offer(block);
+        } else {
+            pooledBlocks.decrementAndGet();
+        }
+
+    }
+
+    /**
+     * Gets the size of the blocks.
+     * 
+     * @return the size of each block, in bytes
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Gets the number of released blocks waiting for reuse.
+     * 
+     * @return the number of pooled blocks
+     */
+    public int getPooledBlocks() {
+        return pooledBlocks.get();
+    }
+
+}
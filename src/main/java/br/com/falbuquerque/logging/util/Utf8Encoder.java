@@ -0,0 +1,398 @@
+package br.com.falbuquerque.logging.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes characters as UTF-8 straight into a reusable {@link ByteBuffer}. The
+ * buffer grows on demand and is kept between records, so encoding a record
+ * does not create intermediate <code>String</code> or <code>char[]</code>
+ * copies.
+ * 
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class Utf8Encoder {
+
+    private static final byte[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e',
+            'f' };
+
+    /**
+     * JSON escapes of the ASCII characters, compatible with the HTML safe
+     * output of Gson. A <code>null</code> entry means the character is
+     * written as is.
+     */
+    private static final byte[][] JSON_ESCAPES = new byte[128][];
+
+    static {
+
+        for (int c = 0; c < 0x20; c++) {
+            JSON_ESCAPES[c] = unicodeEscape((char) c);
+        }
+
+        JSON_ESCAPES['"'] = new byte[] { '\\', '"' };
+        JSON_ESCAPES['\\'] = new byte[] { '\\', '\\' };
+        JSON_ESCAPES['\t'] = new byte[] { '\\', 't' };
+        JSON_ESCAPES['\b'] = new byte[] { '\\', 'b' };
+        JSON_ESCAPES['\n'] = new byte[] { '\\', 'n' };
+        JSON_ESCAPES['\r'] = new byte[] { '\\', 'r' };
+        JSON_ESCAPES['\f'] = new byte[] { '\\', 'f' };
+        JSON_ESCAPES['<'] = unicodeEscape('<');
+        JSON_ESCAPES['>'] = unicodeEscape('>');
+        JSON_ESCAPES['&'] = unicodeEscape('&');
+        JSON_ESCAPES['='] = unicodeEscape('=');
+        JSON_ESCAPES['\''] = unicodeEscape('\'');
+    }
+
+    private final boolean direct;
+    private ByteBuffer buffer;
+
+    /**
+     * Creates an encoder backed by a heap buffer.
+     * 
+     * @param initialCapacity
+     *            the initial capacity of the buffer
+     */
+    public Utf8Encoder(final int initialCapacity) {
+        this(initialCapacity, false);
+    }
+
+    /**
+     * Creates an encoder.
+     * 
+     * @param initialCapacity
+     *            the initial capacity of the buffer
+     * @param direct
+     *            whether the buffer is allocated outside of the heap
+     */
+    public Utf8Encoder(final int initialCapacity, final boolean direct) {
+        this.direct = direct;
+        buffer = allocate(Math.max(initialCapacity, 16));
+    }
+
+    /**
+     * Discards the encoded bytes, keeping the buffer for the next record.
+     * 
+     * @return the current instance
+     */
+    public Utf8Encoder reset() {
+        buffer.clear();
+        return this;
+    }
+
+    /**
+     * Gets a view of the bytes encoded since the last reset. The view is
+     * valid until the next change of the encoder.
+     * 
+     * @return the encoded bytes, ready to be read
+     */
+    public ByteBuffer toByteBuffer() {
+        final ByteBuffer encoded = buffer.duplicate();
+        encoded.flip();
+        return encoded;
+    }
+
+    /**
+     * Gets the number of bytes encoded since the last reset.
+     * 
+     * @return the number of bytes encoded
+     */
+    public int size() {
+        return buffer.position();
+    }
+
+    /**
+     * Writes a single byte.
+     * 
+     * @param b
+     *            the byte
+     * @return the current instance
+     */
+    public Utf8Encoder writeByte(final int b) {
+        ensureCapacity(1);
+        buffer.put((byte) b);
+        return this;
+    }
+
+    /**
+     * Writes raw bytes.
+     * 
+     * @param bytes
+     *            the bytes
+     * @return the current instance
+     */
+    public Utf8Encoder writeBytes(final byte[] bytes) {
+        ensureCapacity(bytes.length);
+        buffer.put(bytes);
+        return this;
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer, without consuming them.
+     * 
+     * @param bytes
+     *            the bytes
+     * @return the current instance
+     */
+    public Utf8Encoder writeBytes(final ByteBuffer bytes) {
+        ensureCapacity(bytes.remaining());
+        buffer.put(bytes.duplicate());
+        return this;
+    }
+
+    /**
+     * Writes the decimal representation of a number.
+     * 
+     * @param value
+     *            the number
+     * @return the current instance
+     */
+    public Utf8Encoder writeLong(final long value) {
+
+        if (value == Long.MIN_VALUE) {
+            return writeUtf8(Long.toString(value));
+        }
+
+        long remaining = value;
+
+        if (remaining < 0) {
+            writeByte('-');
+            remaining = -remaining;
+        }
+
+        int digits = 1;
+
+        for (long limit = 10; digits < 19 && remaining >= limit; limit *= 10) {
+            digits++;
+        }
+
+        ensureCapacity(digits);
+        final int end = buffer.position() + digits;
+
+        for (int i = end - 1; i >= buffer.position(); i--) {
+            buffer.put(i, (byte) ('0' + remaining % 10));
+            remaining /= 10;
+        }
+
+        buffer.position(end);
+        return this;
+    }
+
+    /**
+     * Writes a number as 16 lowercase hexadecimal digits.
+     * 
+     * @param value
+     *            the number
+     * @return the current instance
+     */
+    public Utf8Encoder writeHex(final long value) {
+        ensureCapacity(16);
+
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            buffer.put(HEX_DIGITS[(int) (value >>> shift) & 0xf]);
+        }
+
+        return this;
+    }
+
+    /**
+     * Writes characters encoded as UTF-8.
+     * 
+     * @param chars
+     *            the characters
+     * @return the current instance
+     */
+    public Utf8Encoder writeUtf8(final CharSequence chars) {
+        final int length = chars.length();
+        int i = 0;
+
+        while (i < length) {
+            // ASCII fast path: a run of single byte characters
+            ensureCapacity(length - i);
+
+            while (i < length) {
+                final char c = chars.charAt(i);
+
+                if (c >= 0x80) {
+                    break;
+                }
+
+                buffer.put((byte) c);
+                i++;
+            }
+
+            if (i < length) {
+                i = writeNonAscii(chars, i);
+            }
+
+        }
+
+        return this;
+    }
+
+    /**
+     * Writes characters as a quoted and escaped JSON string.
+     * 
+     * @param chars
+     *            the characters
+     * @return the current instance
+     */
+    public Utf8Encoder writeJsonString(final CharSequence chars) {
+        writeByte('"');
+        writeJsonChars(chars, 0, chars.length());
+        writeByte('"');
+        return this;
+    }
+
+    /**
+     * Writes a range of characters escaped as the content of a JSON string,
+     * without the quotes.
+     * 
+     * @param chars
+     *            the characters
+     * @param start
+     *            the position of the first character to be written
+     * @param end
+     *            the position after the last character to be written
+     * @return the current instance
+     */
+    public Utf8Encoder writeJsonChars(final CharSequence chars, final int start, final int end) {
+        int i = start;
+
+        while (i < end) {
+            ensureCapacity(end - i);
+
+            while (i < end) {
+                final char c = chars.charAt(i);
+
+                if (c >= 0x80 || JSON_ESCAPES[c] != null) {
+                    break;
+                }
+
+                buffer.put((byte) c);
+                i++;
+            }
+
+            if (i < end) {
+                final char c = chars.charAt(i);
+
+                if (c < 0x80) {
+                    writeBytes(JSON_ESCAPES[c]);
+                    i++;
+                } else if (c == 0x2028 || c == 0x2029) {
+                    writeBytes(unicodeEscape(c));
+                    i++;
+                } else {
+                    i = writeNonAscii(chars, i);
+                }
+
+            }
+
+        }
+
+        return this;
+    }
+
+    /**
+     * Encodes characters as a quoted and escaped JSON string into a new
+     * array, meant for fragments that are encoded once and reused.
+     * 
+     * @param chars
+     *            the characters
+     * @return the encoded string
+     */
+    public static byte[] encodeJsonString(final CharSequence chars) {
+        final Utf8Encoder encoder = new Utf8Encoder(chars.length() + 2);
+        encoder.writeJsonString(chars);
+
+        final byte[] encoded = new byte[encoder.size()];
+        encoder.toByteBuffer().get(encoded);
+        return encoded;
+    }
+
+    /**
+     * Encodes the non ASCII character at the given position.
+     * 
+     * @param chars
+     *            the characters
+     * @param index
+     *            the position of the character
+     * @return the position of the next character to be encoded
+     */
+    private int writeNonAscii(final CharSequence chars, final int index) {
+        final char c = chars.charAt(index);
+        ensureCapacity(4);
+
+        if (c < 0x800) {
+            buffer.put((byte) (0xc0 | c >> 6));
+            buffer.put((byte) (0x80 | c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && index + 1 < chars.length()
+                && Character.isLowSurrogate(chars.charAt(index + 1))) {
+            final int codePoint = Character.toCodePoint(c, chars.charAt(index + 1));
+            buffer.put((byte) (0xf0 | codePoint >> 18));
+            buffer.put((byte) (0x80 | codePoint >> 12 & 0x3f));
+            buffer.put((byte) (0x80 | codePoint >> 6 & 0x3f));
+            buffer.put((byte) (0x80 | codePoint & 0x3f));
+            return index + 2;
+        } else if (Character.isSurrogate(c)) {
+            // unpaired surrogate, replaced as String.getBytes does
+            buffer.put((byte) '?');
+        } else {
+            buffer.put((byte) (0xe0 | c >> 12));
+            buffer.put((byte) (0x80 | c >> 6 & 0x3f));
+            buffer.put((byte) (0x80 | c & 0x3f));
+        }
+
+        return index + 1;
+    }
+
+    /**
+     * Makes sure the buffer can receive the given number of bytes, growing it
+     * if needed.
+     * 
+     * @param bytes
+     *            the number of bytes to be written
+     */
+    private void ensureCapacity(final int bytes) {
+
+        if (buffer.remaining() < bytes) {
+            final ByteBuffer grown = allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+
+    }
+
+    /**
+     * Allocates a buffer.
+     * 
+     * @param capacity
+     *            the capacity of the buffer
+     * @return the allocated buffer
+     */
+    private ByteBuffer allocate(final int capacity) {
+
+        if (direct) {
+            return ByteBuffer.allocateDirect(capacity);
+        } else {
+            return ByteBuffer.allocate(capacity);
+        }
+
+    }
+
+    /**
+     * Builds the unicode escape sequence of a character.
+     * 
+     * @param c
+     *            the character
+     * @return the escape sequence
+     */
+    private static byte[] unicodeEscape(final char c) {
+        return new byte[] { '\\', 'u', HEX_DIGITS[c >> 12 & 0xf], HEX_DIGITS[c >> 8 & 0xf], HEX_DIGITS[c >> 4 & 0xf],
+                HEX_DIGITS[c & 0xf] };
+    }
+
+}
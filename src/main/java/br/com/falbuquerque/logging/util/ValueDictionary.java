@@ -0,0 +1,130 @@
+package br.com.falbuquerque.logging.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded dictionary of the JSON encodings of values that repeat across
+ * requests, such as tenant ids and enum-like strings. The least recently used
+ * values are evicted once the dictionary is full.
+ * 
+ * <p>
+ * The dictionary is split in segments, each with its own lock and its own
+ * least recently used order, so threads encoding different values rarely
+ * contend. Values longer than a limit are not kept, since they are unlikely
+ * to repeat.
+ * </p>
+ * 
+ * <p>
+ * Instances are thread-safe.
+ * </p>
+ * 
+ * @author Felipe Albuquerque
+ */
+public class ValueDictionary {
+
+    private static final int SEGMENTS = 16;
+
+    private final int maxValueLength;
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /**
+     * Creates a dictionary.
+     * 
+     * @param maxValues
+     *            the maximum number of values kept by the dictionary
+     * @param maxValueLength
+     *            the length from which values are not kept
+     */
+    public ValueDictionary(final int maxValues, final int maxValueLength) {
+
+        if (maxValues < SEGMENTS) {
+            throw new IllegalArgumentException("The dictionary must keep at least " + SEGMENTS + " values");
+        }
+
+        this.maxValueLength = maxValueLength;
+
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxValues / SEGMENTS);
+        }
+
+    }
+
+    /**
+     * Gets the JSON encoding of a value, i.e., the value quoted and escaped as
+     * UTF-8, encoding and keeping it if it is not in the dictionary.
+     * 
+     * @param value
+     *            the value
+     * @return the encoded value, which must not be changed, or
+     *         <code>null</code> if the value is too long to be kept
+     */
+    public byte[] encoded(final String value) {
+
+        if (value.length() > maxValueLength) {
+            return null;
+        }
+
+        final int hash = value.hashCode();
+        final Segment segment = segments[(hash ^ hash >>> 16) & (SEGMENTS - 1)];
+
+        synchronized (segment) {
+            byte[] encoded = segment.get(value);
+
+            if (encoded == null) {
+                encoded = Utf8Encoder.encodeJsonString(value);
+                segment.put(value, encoded);
+            }
+
+            return encoded;
+        }
+
+    }
+
+    /**
+     * Gets the number of values in the dictionary.
+     * 
+     * @return the number of values
+     */
+    public int size() {
+        int size = 0;
+
+        for (final Segment segment : segments) {
+
+            synchronized (segment) {
+                size += segment.size();
+            }
+
+        }
+
+        return size;
+    }
+
+    /**
+     * Segment of the dictionary, in least recently used order.
+     */
+    private static final class Segment extends LinkedHashMap<String, byte[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        /**
+         * Creates a segment.
+         * 
+         * @param capacity
+         *            the maximum number of values of the segment
+         */
+        Segment(final int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, byte[]> eldest) {
+            return size() > capacity;
+        }
+
+    }
+
+}
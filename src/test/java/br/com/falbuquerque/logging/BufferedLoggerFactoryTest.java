@@ -0,0 +1,147 @@
+package br.com.falbuquerque.logging;
+
+import static br.com.falbuquerque.logging.CommonConstants.TOKEN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import br.com.falbuquerque.logging.request.Request;
+import br.com.falbuquerque.logging.sink.RingRecordSink;
+
+/**
+ * Tests the behavior of the {@link BufferedLoggerFactory} class.
+ * 
+ * @author Felipe Albuquerque
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class BufferedLoggerFactoryTest {
+
+    @Mock
+    private Logger mainLogger;
+
+    @Mock
+    private Logger internalExceptionLogger;
+
+    @Mock
+    private Logger runtimeExceptionLogger;
+
+    @Before
+    public void initialize() {
+        when(internalExceptionLogger.isEnabled(any(Level.class))).thenReturn(true);
+        when(runtimeExceptionLogger.isEnabled(any(Level.class))).thenReturn(true);
+        when(mainLogger.isEnabled(any(Level.class))).thenReturn(true);
+    }
+
+    @Test
+    public void loggersShouldShareTheConfigurationOfTheFactory() {
+        BufferedLoggerFactory factory = BufferedLoggerFactory.builder(mainLogger)
+                .internalExceptions(internalExceptionLogger, new ExceptionMapper().map(RuntimeException.class,
+                        runtimeExceptionLogger)).build();
+
+        BufferedLogger first = factory.create(new Request(TOKEN));
+        BufferedLogger second = factory.create(new Request(TOKEN));
+
+        assertSame(first.getInternalExceptionsMapper(), second.getInternalExceptionsMapper());
+    }
+
+    @Test
+    public void factoryShouldNotSeeChangesOfTheMapperAfterBeingBuilt() {
+        ExceptionMapper mapper = new ExceptionMapper();
+        BufferedLoggerFactory factory = BufferedLoggerFactory.builder(mainLogger)
+                .internalExceptions(internalExceptionLogger, mapper).build();
+        RuntimeException thrownException = new RuntimeException();
+
+        mapper.map(RuntimeException.class, runtimeExceptionLogger);
+        factory.create(new Request(TOKEN)).appendInternalException(thrownException).log();
+
+        verify(internalExceptionLogger).log(Level.ERROR, "Exception in request [" + TOKEN + "]", thrownException);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void sharedMapperShouldNotBeChangeable() {
+        BufferedLoggerFactory factory = BufferedLoggerFactory.builder(mainLogger)
+                .internalExceptions(internalExceptionLogger, new ExceptionMapper()).build();
+
+        factory.create(new Request(TOKEN)).getInternalExceptionsMapper().map(Exception.class, mainLogger);
+    }
+
+    @Test
+    public void factoryLoggersShouldWriteToTheSinkOfTheFactory() {
+        RingRecordSink sink = new RingRecordSink(4);
+        BufferedLoggerFactory factory = BufferedLoggerFactory.builder(mainLogger).writeTo(sink).build();
+        RuntimeException thrownException = new RuntimeException();
+
+        factory.create(new Request(TOKEN)).append("Log message").appendInternalException(thrownException).log();
+
+        assertEquals(1, sink.getRecords().size());
+        assertTrue(sink.getRecords().get(0).contains("\"messages\":[\"Log message\"]"));
+        verify(mainLogger).log(Level.ERROR, "Exception in request [" + TOKEN + "]", thrownException);
+    }
+
+    @Test
+    public void exceptionFreeLoggersShouldNotCreateExceptionHandlers() {
+        RingRecordSink sink = new RingRecordSink(4);
+        BufferedLoggerFactory factory = BufferedLoggerFactory.builder(mainLogger).writeTo(sink)
+                .internalExceptions(internalExceptionLogger).build();
+        BufferedLogger bufferedLogger = factory.create(new Request(TOKEN)).append("Log message");
+
+        bufferedLogger.log();
+
+        assertSame(ExceptionHandlerUse.NONE, bufferedLogger.getInternalExceptions());
+        assertSame(ExceptionHandlerUse.NONE, bufferedLogger.getBusinessExceptions());
+        assertTrue(sink.getRecords().get(0).endsWith("\"internalExceptions\":{},"
+                + "\"businessExceptions\":{}}"));
+        verifyZeroInteractions(internalExceptionLogger);
+    }
+
+    @Test
+    public void childLoggersShouldWriteLinkedRecordsToTheSinkOfTheFactory() {
+        RingRecordSink sink = new RingRecordSink(4);
+        BufferedLoggerFactory factory = BufferedLoggerFactory.builder(mainLogger).writeTo(sink).build();
+        BufferedLogger parent = factory.create(new Request(TOKEN));
+
+        parent.createChild("child").append("Child message").log();
+        parent.log();
+
+        assertEquals(2, sink.getRecords().size());
+        assertTrue(sink.getRecords().get(0).contains("\"parentToken\":\"" + TOKEN + "\""));
+        assertTrue(sink.getRecords().get(0).contains("\"messages\":[\"Child message\"]"));
+        assertTrue(sink.getRecords().get(1).contains("\"traceId\""));
+    }
+
+    @Test
+    public void warmUpShouldNotWriteAnything() {
+        RingRecordSink sink = new RingRecordSink(4);
+        LiveLoggerRegistry registry = new LiveLoggerRegistry(1);
+        BufferedLoggerFactory factory = BufferedLoggerFactory.builder(mainLogger).writeTo(sink)
+                .internalExceptions(internalExceptionLogger, new ExceptionMapper().map(RuntimeException.class,
+                        runtimeExceptionLogger)).flushIncrementally(new IncrementalFlush(1, 1, 0))
+                .registerLive(registry).build();
+
+        assertSame(factory, factory.warmUp());
+        assertEquals(0, sink.getWrittenCount());
+        assertEquals(0, registry.size());
+        verifyZeroInteractions(mainLogger);
+
+        for (Logger logger : new Logger[] { internalExceptionLogger, runtimeExceptionLogger }) {
+            verify(logger, never()).log(any(Level.class), anyString(), any(Throwable.class));
+            verify(logger, never()).error(anyString(), any(Throwable.class));
+        }
+
+    }
+
+}
@@ -1,6 +1,7 @@
 package br.com.falbuquerque.logging;
 
 import static br.com.falbuquerque.logging.CommonConstants.TOKEN;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doNothing;
@@ -24,6 +25,7 @@ import org.powermock.modules.junit4.PowerMockRunner;
 
 import br.com.falbuquerque.logging.request.Parameter;
 import br.com.falbuquerque.logging.request.Request;
+import br.com.falbuquerque.logging.sink.RingRecordSink;
 
 /**
  * Tests the behavior of the {@link BufferedLogger} class.
@@ -37,8 +39,8 @@ public class BufferedLoggerTest {
     private static final String LOG_TEMPLATE = "'{'\"request\":'{'\"token\":\"{0}\","
             + "\"parameters\":['{'\"name\":\"{1}\",\"value\":\"{2}\"'}','{'\"name\":\"{3}\",\"value\":{4}'}',"
             + "'{'\"name\":\"{5}\",\"value\":{6}'}']},\"messages\":[{7}],"
-            + "\"internalExceptions\":'{'\"exceptionsLogged\":{8}'}',"
-            + "\"businessExceptions\":'{'\"exceptionsLogged\":{9}'}'}'";
+            + "\"internalExceptions\":'{'{8}'}',\"businessExceptions\":'{'{9}'}'}'";
+    private static final String EXCEPTIONS_LOGGED = "\"exceptionsLogged\":true";
     private static final String LOG_MESSAGE1 = "Log message 1";
     private static final String LOG_MESSAGE2 = "Log message 2";
 
@@ -105,6 +107,17 @@ public class BufferedLoggerTest {
         verifyNoMoreInteractions(mainLogger);
     }
 
+    @Test
+    public void loggerShouldWriteToTheSinkInsteadOfTheMainLogger() {
+        RingRecordSink sink = new RingRecordSink(4);
+
+        bufferedLogger.writeTo(sink).append(LOG_MESSAGE1).append(LOG_MESSAGE2).log();
+
+        assertEquals(1, sink.getRecords().size());
+        assertEquals(createCustomLogWithDefaultRequest(LOG_MESSAGE1, LOG_MESSAGE2), sink.getRecords().get(0));
+        verifyZeroInteractions(mainLogger);
+    }
+
     @Test
     public void loggerShouldLogMoreThanOneMessage() {
         bufferedLogger.append(LOG_MESSAGE1).append(LOG_MESSAGE2).log();
@@ -394,7 +407,7 @@ public class BufferedLoggerTest {
 
         return MessageFormat.format(LOG_TEMPLATE, request.getToken(), parameter1.getName(), parameter1.getValue(),
                 parameter2.getName(), parameter2.getValue(), parameter3.getName(), parameter3.getValue(), logMessage,
-                internalExceptionsLogged, businessExceptionsLogged);
+                internalExceptionsLogged ? EXCEPTIONS_LOGGED : "", businessExceptionsLogged ? EXCEPTIONS_LOGGED : "");
     }
 
     /**
@@ -0,0 +1,81 @@
+package br.com.falbuquerque.logging;
+
+import static br.com.falbuquerque.logging.CommonConstants.TOKEN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.logging.log4j.Logger;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import br.com.falbuquerque.logging.request.Parameter;
+import br.com.falbuquerque.logging.request.Request;
+import br.com.falbuquerque.logging.sink.RingRecordSink;
+import br.com.falbuquerque.logging.util.JsonParser;
+
+/**
+ * Tests the behavior of the {@link EscalationRegistry} class.
+ * 
+ * @author Felipe Albuquerque
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class EscalationRegistryTest {
+
+    @Mock
+    private Logger mainLogger;
+
+    @After
+    public void cleanup() {
+        EscalationRegistry.getDefault().clear();
+    }
+
+    @Test
+    public void registryShouldMatchRequestsByTokenOrParameterValue() {
+        EscalationRegistry registry = new EscalationRegistry().escalateToken(TOKEN).escalateParameter("tenant", 42);
+
+        assertTrue(registry.matches(new Request(TOKEN)));
+        assertTrue(registry.matches(new Request("OTHER", new Parameter("tenant", "42"))));
+        assertFalse(registry.matches(new Request("OTHER", new Parameter("tenant", 7))));
+
+        registry.removeToken(TOKEN).removeParameter("tenant", 42);
+
+        assertFalse(registry.matches(new Request(TOKEN, new Parameter("tenant", 42))));
+    }
+
+    @Test
+    public void escalatedLoggerShouldKeepDebugMessagesAndStackTraces() {
+        EscalationRegistry.getDefault().escalateToken(TOKEN);
+        RingRecordSink sink = new RingRecordSink(1);
+
+        BufferedLogger bufferedLogger = new BufferedLogger(new Request(TOKEN), mainLogger).writeTo(sink)
+                .debug("Debug message").appendInternalException(new IllegalStateException("failure"));
+        String expected = new JsonParser().toJson(bufferedLogger);
+
+        bufferedLogger.log();
+
+        assertTrue(expected.contains("\"messages\":[\"Debug message\"],\"escalated\":true"));
+        assertTrue(expected.contains("\"stackTraces\":[\"java.lang.IllegalStateException: failure"));
+        assertEquals(expected, sink.getRecords().get(0));
+    }
+
+    @Test
+    public void regularLoggerShouldDropDebugMessagesWithoutBuildingThem() {
+        when(mainLogger.isDebugEnabled()).thenReturn(false);
+
+        BufferedLogger bufferedLogger = new BufferedLogger(new Request(TOKEN), mainLogger).debug(() -> {
+            throw new AssertionError("The message should not be built");
+        });
+
+        assertFalse(bufferedLogger.isEscalated());
+        assertEquals("{\"request\":{\"token\":\"" + TOKEN + "\",\"parameters\":[]},\"messages\":[]}",
+                StandardCharsets.UTF_8.decode(new RequestRecordEncoder().encode(bufferedLogger)).toString());
+    }
+
+}
@@ -0,0 +1,131 @@
+package br.com.falbuquerque.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.SQLException;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import br.com.falbuquerque.logging.request.Request;
+
+/**
+ * Tests the behavior of the {@link ExceptionAggregator} class.
+ * 
+ * @author Felipe Albuquerque
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ExceptionAggregatorTest {
+
+    @Mock
+    private Logger mainLogger;
+
+    @Mock
+    private Logger errorLogger;
+
+    @Mock
+    private Logger auditLogger;
+
+    private ExceptionAggregator aggregator;
+    private BufferedLoggerFactory factory;
+
+    @Before
+    public void initialize() {
+        when(errorLogger.isEnabled(any(Level.class))).thenReturn(true);
+        when(errorLogger.getName()).thenReturn("error");
+        aggregator = new ExceptionAggregator(60000, 2, 2, 0);
+        factory = BufferedLoggerFactory.builder(mainLogger)
+                .internalExceptions(mainLogger, new ExceptionMapper().map(SQLException.class, errorLogger))
+                .aggregateExceptions(aggregator).build();
+    }
+
+    @After
+    public void cleanup() {
+        aggregator.close();
+    }
+
+    @Test
+    public void onlyTheFirstIdenticalExceptionShouldBeLoggedInFull() {
+
+        for (int i = 0; i < 5; i++) {
+            factory.create(new Request("TOKEN" + i)).appendInternalException(createException("message " + i)).log();
+        }
+
+        verify(errorLogger, times(1)).log(eq(Level.ERROR), eq("Exception in request [TOKEN0]"), any(
+                SQLException.class));
+        assertEquals(1, aggregator.size());
+    }
+
+    @Test
+    public void summaryShouldCountTheSuppressedExceptions() {
+
+        for (int i = 0; i < 4; i++) {
+            factory.create(new Request("TOKEN" + i)).appendInternalException(createException("message")).log();
+        }
+
+        aggregator.close();
+
+        verify(errorLogger).log(Level.ERROR, "Exception summary [java.sql.SQLException: message] suppressed 3 times"
+                + " in 60000 ms, logged to [error], sample tokens [TOKEN1, TOKEN2]");
+        assertEquals(0, aggregator.size());
+    }
+
+    @Test
+    public void exceptionsThrownFromDifferentPlacesShouldBeLoggedSeparately() {
+        factory.create(new Request("TOKEN0")).appendInternalException(createException("message")).log();
+        factory.create(new Request("TOKEN1")).appendInternalException(new SQLException("message")).log();
+
+        verify(errorLogger, times(2)).log(eq(Level.ERROR), anyString(), any(SQLException.class));
+    }
+
+    @Test
+    public void exceptionsWrittenToDifferentDestinationsOrLevelsShouldBeLoggedSeparately() {
+        when(auditLogger.isEnabled(any(Level.class))).thenReturn(true);
+        BufferedLoggerFactory warnFactory = BufferedLoggerFactory.builder(mainLogger)
+                .internalExceptions(mainLogger, new ExceptionMapper().map(SQLException.class, errorLogger, Level.WARN))
+                .aggregateExceptions(aggregator).build();
+        BufferedLoggerFactory defaultFactory = BufferedLoggerFactory.builder(mainLogger)
+                .internalExceptions(auditLogger).aggregateExceptions(aggregator).build();
+
+        factory.create(new Request("TOKEN0")).appendInternalException(createException("message")).log();
+        warnFactory.create(new Request("TOKEN1")).appendInternalException(createException("message")).log();
+        defaultFactory.create(new Request("TOKEN2")).appendInternalException(createException("message")).log();
+
+        verify(errorLogger).log(eq(Level.ERROR), eq("Exception in request [TOKEN0]"), any(SQLException.class));
+        verify(errorLogger).log(eq(Level.WARN), eq("Exception in request [TOKEN1]"), any(SQLException.class));
+        verify(auditLogger).log(eq(Level.ERROR), eq("Exception in request [TOKEN2]"), any(SQLException.class));
+    }
+
+    @Test
+    public void numberOfTrackedExceptionsShouldBeBounded() {
+        factory.create(new Request("TOKEN0")).appendInternalException(createException("message")).log();
+        factory.create(new Request("TOKEN1")).appendInternalException(new SQLException("message")).log();
+        factory.create(new Request("TOKEN2")).appendInternalException(new IllegalStateException()).log();
+
+        assertEquals(2, aggregator.size());
+    }
+
+    /**
+     * Creates an exception, always thrown from the same place.
+     * 
+     * @param message
+     *            the message of the exception
+     * @return the exception
+     */
+    private SQLException createException(String message) {
+        return new SQLException(message);
+    }
+
+}
@@ -0,0 +1,201 @@
+package br.com.falbuquerque.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import br.com.falbuquerque.logging.request.Request;
+import br.com.falbuquerque.logging.sink.RecordSink;
+
+/**
+ * Tests the behavior of the {@link ExceptionDispatcher} class.
+ * 
+ * @author Felipe Albuquerque
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ExceptionDispatcherTest {
+
+    @Mock
+    private Logger mainLogger;
+
+    @Mock
+    private Logger errorLogger;
+
+    private BlockingSink slowSink;
+    private ExceptionDispatcher dispatcher;
+    private BufferedLoggerFactory factory;
+
+    @Before
+    public void initialize() {
+        when(mainLogger.isEnabled(any(Level.class))).thenReturn(true);
+        when(errorLogger.isEnabled(any(Level.class))).thenReturn(true);
+        when(errorLogger.getName()).thenReturn("error");
+        slowSink = new BlockingSink();
+        dispatcher = new ExceptionDispatcher(1);
+        factory = BufferedLoggerFactory.builder(mainLogger)
+                .internalExceptions(errorLogger, new ExceptionMapper().map(SQLException.class, slowSink, Level.WARN))
+                .dispatchExceptions(dispatcher).build();
+    }
+
+    @After
+    public void cleanup() {
+        slowSink.release.countDown();
+        dispatcher.close();
+    }
+
+    @Test
+    public void aSlowSinkShouldNotDelayTheOtherDestinations() throws Exception {
+        factory.create(new Request("TOKEN1")).appendInternalException(new SQLException()).log();
+        slowSink.started.await();
+
+        IllegalStateException exception = new IllegalStateException();
+        factory.create(new Request("TOKEN2")).appendInternalException(exception).log();
+
+        verify(errorLogger, timeout(1000)).log(Level.ERROR, "Exception in request [TOKEN2]", exception);
+        assertEquals(2, dispatcher.size());
+    }
+
+    @Test
+    public void exceptionsShouldBeWrittenByTheRequestThreadWhenTheQueueIsFull() throws Exception {
+        factory.create(new Request("TOKEN1")).appendInternalException(new SQLException()).log();
+        slowSink.started.await();
+
+        // the first is being written, the second is queued and the third is
+        // written by this thread
+        factory.create(new Request("TOKEN2")).appendInternalException(new SQLException()).log();
+        slowSink.blockFirstOnly = true;
+        factory.create(new Request("TOKEN3")).appendInternalException(new SQLException()).log();
+
+        assertEquals(1, dispatcher.getFallbackCount());
+        assertEquals(Arrays.asList("Exception in request [TOKEN3]"), slowSink.messages);
+
+        slowSink.release.countDown();
+        dispatcher.close();
+
+        assertEquals(Arrays.asList("Exception in request [TOKEN3]", "Exception in request [TOKEN1]",
+                "Exception in request [TOKEN2]"), slowSink.messages);
+    }
+
+    @Test
+    public void closeShouldWriteTheQueuedExceptions() {
+        slowSink.release.countDown();
+
+        for (int i = 0; i < 3; i++) {
+            factory.create(new Request("TOKEN" + i)).appendInternalException(new SQLException()).log();
+        }
+
+        dispatcher.close();
+
+        assertEquals(3, slowSink.messages.size());
+    }
+
+    @Test
+    public void exceptionsDispatchedWhileClosingShouldBeWrittenOnce() throws Exception {
+        final List<BlockingSink> sinks = new ArrayList<>();
+
+        for (int i = 0; i < 40; i++) {
+            final BlockingSink sink = new BlockingSink();
+            sink.release.countDown();
+            sinks.add(sink);
+        }
+
+        final List<Thread> producers = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            final List<BlockingSink> destinations = sinks.subList(i * 10, i * 10 + 10);
+            producers.add(new Thread(() -> {
+
+                for (final BlockingSink sink : destinations) {
+
+                    for (int j = 0; j < 10; j++) {
+                        dispatcher.dispatch(sink, Level.WARN, "Exception in request [TOKEN]", new SQLException());
+                    }
+
+                }
+
+            }));
+        }
+
+        producers.forEach(Thread::start);
+        Thread.sleep(1);
+        dispatcher.close();
+
+        for (final Thread producer : producers) {
+            producer.join();
+        }
+
+        for (final BlockingSink sink : sinks) {
+            assertEquals(10, sink.messages.size());
+        }
+
+        for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+            assertFalse(thread.getName(), thread.getName().equals("exception-dispatcher-BlockingSink"));
+        }
+
+    }
+
+    /**
+     * Sink whose writes wait to be released.
+     */
+    private static final class BlockingSink implements RecordSink {
+
+        private final List<String> messages = new CopyOnWriteArrayList<>();
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile boolean blockFirstOnly;
+
+        @Override
+        public boolean isEnabled(final Level level) {
+            return true;
+        }
+
+        @Override
+        public void write(final Level level, final ByteBuffer record) {
+        }
+
+        @Override
+        public void write(final Level level, final String message, final Throwable throwable) {
+            boolean first = started.getCount() > 0;
+            started.countDown();
+
+            if (first || !blockFirstOnly) {
+
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+            }
+
+            messages.add(message);
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+
+    }
+
+}
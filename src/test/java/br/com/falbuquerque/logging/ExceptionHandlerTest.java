@@ -1,6 +1,8 @@
 package br.com.falbuquerque.logging;
 
 import static br.com.falbuquerque.logging.CommonConstants.TOKEN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -15,6 +17,7 @@ import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import br.com.falbuquerque.logging.request.Request;
+import br.com.falbuquerque.logging.sink.RingRecordSink;
 
 /**
  * Tests the behavior of the {@link ExceptionHandler} class.
@@ -99,6 +102,25 @@ public class ExceptionHandlerTest {
         verifyNoMoreInteractions(defaultExceptionLogger);
     }
 
+    @Test
+    public void exceptionHandlerShouldKeepExceptionsBeyondItsInitialCapacity() {
+        ExceptionHandler exceptionHandler = new ExceptionHandler(defaultExceptionLogger);
+        Exception[] thrownExceptions = new Exception[5];
+
+        for (int i = 0; i < thrownExceptions.length; i++) {
+            thrownExceptions[i] = new Exception();
+            exceptionHandler.appendException(thrownExceptions[i]);
+        }
+
+        exceptionHandler.log();
+        exceptionHandler.cleanupExceptions().log();
+
+        for (Exception thrownException : thrownExceptions) {
+            verify(defaultExceptionLogger).log(defaultExceptionLogLevel, buildExceptionLogMessage(), thrownException);
+        }
+
+    }
+
     @Test
     public void exceptionHandlerShouldAllowDefinitionOfDefaultLoggerLevel() {
         Exception thrownException1 = new Exception();
@@ -127,6 +149,21 @@ public class ExceptionHandlerTest {
         verify(runtimeExceptionLogger).log(runtimeLogLevel, log, thrownException2);
     }
 
+    @Test
+    public void exceptionHandlerShouldWriteMappedExceptionsToTheSink() {
+        Exception thrownException1 = new Exception();
+        RuntimeException thrownException2 = new RuntimeException();
+        RingRecordSink runtimeSink = new RingRecordSink(4);
+
+        new ExceptionHandler(defaultExceptionLogger, new ExceptionMapper().map(RuntimeException.class, runtimeSink,
+                Level.WARN)).appendException(thrownException1).appendException(thrownException2).log();
+
+        verify(defaultExceptionLogger).log(defaultExceptionLogLevel, buildExceptionLogMessage(), thrownException1);
+        assertEquals(1, runtimeSink.getRecords().size());
+        assertTrue(runtimeSink.getRecords().get(0).startsWith(buildExceptionLogMessage()));
+        assertTrue(runtimeSink.getRecords().get(0).contains(RuntimeException.class.getName()));
+    }
+
     /**
      * Builds the exception log message.
      * 
@@ -0,0 +1,158 @@
+package br.com.falbuquerque.logging;
+
+import static br.com.falbuquerque.logging.CommonConstants.TOKEN;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import br.com.falbuquerque.logging.analysis.ChunkReassembler;
+import br.com.falbuquerque.logging.request.Parameter;
+import br.com.falbuquerque.logging.request.Request;
+import br.com.falbuquerque.logging.sink.RingRecordSink;
+import br.com.falbuquerque.logging.util.OffHeapArena;
+
+/**
+ * Tests the incremental flush of the {@link BufferedLogger} class and the
+ * reassembly of its chunks.
+ * 
+ * @author Felipe Albuquerque
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class IncrementalFlushTest {
+
+    @Mock
+    private Logger mainLogger;
+
+    @Test
+    public void messagesShouldBeFlushedInChunksWhenTheCountIsReached() {
+        RingRecordSink sink = new RingRecordSink(10);
+
+        createLogger(new IncrementalFlush(2, 0, 0), sink).log();
+
+        assertEquals("{\"token\":\"" + TOKEN + "\",\"chunk\":0,\"messages\":[\"first\",\"second\"]}", sink.getRecords()
+                .get(0));
+        assertEquals("{\"token\":\"" + TOKEN + "\",\"chunk\":1,\"messages\":[\"third \\u003cb\\u003e\",null]}", sink
+                .getRecords().get(1));
+        assertEquals(3, sink.getRecords().size());
+    }
+
+    @Test
+    public void messagesShouldBeFlushedInChunksWhenTheSizeIsReached() {
+        RingRecordSink sink = new RingRecordSink(10);
+
+        createLogger(new IncrementalFlush(0, 10, 0), sink).log();
+
+        assertEquals("{\"token\":\"" + TOKEN + "\",\"chunk\":0,\"messages\":[\"first\",\"second\"]}", sink.getRecords()
+                .get(0));
+        assertEquals(2, sink.getRecords().size());
+    }
+
+    @Test
+    public void chunksShouldBeReassembledIntoTheFullRecord() {
+        RingRecordSink sink = new RingRecordSink(10);
+        String expected = createExpectedRecord();
+
+        createLogger(new IncrementalFlush(1, 0, 0), sink).log();
+
+        assertEquals(expected, reassemble(sink.getRecords()).get(0));
+    }
+
+    @Test
+    public void stagedChunksShouldBeReassembledIntoTheFullRecord() {
+        RingRecordSink sink = new RingRecordSink(10);
+        String expected = createExpectedRecord();
+
+        BufferedLoggerFactory.builder(mainLogger).writeTo(sink).stageMessagesOffHeap(new OffHeapArena(8, 4), 5)
+                .flushIncrementally(new IncrementalFlush(3, 0, 0)).build().create(createRequest()).append("first")
+                .append("second").append("third <b>").append(null).log();
+
+        assertEquals(expected, reassemble(sink.getRecords()).get(0));
+    }
+
+    @Test
+    public void unclosedRequestsShouldBeReassembledAsIncomplete() {
+        RingRecordSink sink = new RingRecordSink(10);
+
+        createLogger(new IncrementalFlush(2, 0, 0), sink);
+
+        assertEquals("{\"request\":{\"token\":\"" + TOKEN
+                + "\"},\"messages\":[\"first\",\"second\",\"third \\u003cb\\u003e\",null],\"incomplete\":true}",
+                reassemble(sink.getRecords()).get(0));
+    }
+
+    @Test
+    public void chunksShouldBeWrittenByTheMainLoggerWithoutSink() {
+        when(mainLogger.isInfoEnabled()).thenReturn(true);
+
+        new BufferedLogger(createRequest(), mainLogger).flushIncrementally(new IncrementalFlush(1, 0, 0)).append(
+                "first");
+
+        verify(mainLogger).info("{\"token\":\"" + TOKEN + "\",\"chunk\":0,\"messages\":[\"first\"]}");
+    }
+
+    /**
+     * Creates a logger with four messages.
+     * 
+     * @param flush
+     *            the thresholds of the incremental flush or <code>null</code>
+     * @param sink
+     *            the sink of the records or <code>null</code>
+     * @return the logger
+     */
+    private BufferedLogger createLogger(IncrementalFlush flush, RingRecordSink sink) {
+        BufferedLogger bufferedLogger = new BufferedLogger(createRequest(), mainLogger).flushIncrementally(flush);
+
+        if (sink != null) {
+            bufferedLogger.writeTo(sink);
+        }
+
+        return bufferedLogger.append("first").append("second").append("third <b>").append(null);
+    }
+
+    /**
+     * Creates the record of a logger with the same messages, logged at once.
+     * 
+     * @return the record
+     */
+    private String createExpectedRecord() {
+        RingRecordSink sink = new RingRecordSink(1);
+        createLogger(null, sink).log();
+        return sink.getRecords().get(0);
+    }
+
+    /**
+     * Creates the request of the tests.
+     * 
+     * @return the request
+     */
+    private Request createRequest() {
+        return new Request(TOKEN, new Parameter("name", "value"));
+    }
+
+    /**
+     * Reassembles the records written to a sink.
+     * 
+     * @param records
+     *            the records
+     * @return the reassembled records
+     */
+    private List<String> reassemble(List<String> records) {
+        List<String> reassembled = new ArrayList<>();
+        ChunkReassembler reassembler = new ChunkReassembler(reassembled::add);
+
+        records.forEach(reassembler::accept);
+        reassembler.finish();
+        return reassembled;
+    }
+
+}
@@ -0,0 +1,223 @@
+package br.com.falbuquerque.logging;
+
+import static br.com.falbuquerque.logging.CommonConstants.TOKEN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.Logger;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import br.com.falbuquerque.logging.request.Request;
+import br.com.falbuquerque.logging.sink.RingRecordSink;
+import br.com.falbuquerque.logging.util.JsonParser;
+import br.com.falbuquerque.logging.util.OffHeapArena;
+
+/**
+ * Tests the behavior of the {@link LiveLoggerRegistry} class.
+ * 
+ * @author Felipe Albuquerque
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class LiveLoggerRegistryTest {
+
+    @Mock
+    private Logger mainLogger;
+
+    private RingRecordSink sink;
+    private LiveLoggerRegistry registry;
+    private BufferedLoggerFactory factory;
+
+    @Before
+    public void initialize() {
+        sink = new RingRecordSink(10);
+        registry = new LiveLoggerRegistry(4);
+        factory = BufferedLoggerFactory.builder(mainLogger).writeTo(sink).registerLive(registry).build();
+    }
+
+    @Test
+    public void loggersShouldBeRegisteredUntilLogged() {
+        BufferedLogger logged = factory.create(new Request(TOKEN));
+        BufferedLogger inFlight = factory.create(new Request(TOKEN));
+
+        assertEquals(2, registry.size());
+
+        logged.log();
+
+        assertEquals(1, registry.size());
+        assertFalse(logged.logPartial());
+        assertTrue(inFlight.logPartial());
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void flushShouldWriteTheLiveLoggersAsPartialRecords() {
+        BufferedLogger inFlight = factory.create(new Request(TOKEN)).append("Log message");
+        factory.create(new Request(TOKEN)).log();
+        sink.clear();
+
+        assertEquals(1, registry.flushAll(1000));
+
+        assertEquals(1, sink.getRecords().size());
+        assertTrue(sink.getRecords().get(0).contains(",\"partial\":true,"));
+        assertEquals(new JsonParser().toJson(inFlight), sink.getRecords().get(0));
+        assertEquals(0, registry.flushAll(1000));
+    }
+
+    @Test
+    public void loggersShouldBeWrittenOnceWhenFlushedWhileTheirRequestsRun() throws Exception {
+
+        for (int i = 0; i < 200; i++) {
+            final BufferedLogger inFlight = factory.create(new Request(TOKEN));
+            sink.clear();
+
+            final CyclicBarrier start = new CyclicBarrier(2);
+            Thread flusher = new Thread(() -> {
+                await(start);
+                inFlight.logPartial();
+            });
+            flusher.start();
+            await(start);
+
+            for (int j = 0; j < 100; j++) {
+                inFlight.append("Step " + j);
+            }
+
+            inFlight.log();
+            flusher.join();
+
+            assertEquals(1, sink.getRecords().size());
+            assertEquals(0, registry.size());
+        }
+
+    }
+
+    @Test
+    public void slotsShouldBeReusedAfterTheLoggersAreLogged() {
+        List<BufferedLogger> loggers = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+            loggers.add(factory.create(new Request(TOKEN)));
+        }
+
+        loggers.forEach(BufferedLogger::log);
+        factory.create(new Request(TOKEN));
+
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void snapshotsShouldCopyTheContentOfTheLoggersInFlight() {
+        BufferedLogger inFlight = factory.create(new Request(TOKEN)).append("Step 1").append("Step 2");
+        inFlight.appendInternalException(new IllegalStateException("Broken"));
+        factory.create(new Request("OTHER"));
+
+        List<LoggerSnapshot> snapshots = registry.snapshotAll();
+        LoggerSnapshot snapshot = snapshots.stream().filter(s -> s.getRequest().getToken().equals(TOKEN))
+                .findFirst().get();
+
+        assertEquals(2, snapshots.size());
+        assertEquals(Arrays.asList("Step 1", "Step 2"), snapshot.getMessages());
+        assertEquals(Collections.singletonList("java.lang.IllegalStateException: Broken"),
+                snapshot.getInternalExceptions());
+        assertTrue(snapshot.getBusinessExceptions().isEmpty());
+        assertEquals(2, registry.getInFlightCount());
+        assertTrue(Arrays.asList(registry.getInFlightTokens()).containsAll(Arrays.asList(TOKEN, "OTHER")));
+        assertEquals("[{\"request\":{\"token\":\"" + TOKEN + "\",\"parameters\":[]},"
+                + "\"messages\":[\"Step 1\",\"Step 2\"],"
+                + "\"internalExceptions\":[\"java.lang.IllegalStateException: Broken\"],\"businessExceptions\":[],"
+                + "\"takenAtMillis\":", registry.snapshot(TOKEN).replaceAll("[0-9]+}]$", ""));
+        assertEquals("[]", registry.snapshot("UNKNOWN"));
+
+        inFlight.append("Step 3");
+
+        assertEquals(2, snapshot.getMessages().size());
+        assertEquals(3, inFlight.snapshot().getMessages().size());
+    }
+
+    @Test
+    public void snapshotsShouldNotIncludeTheFlushedMessages() {
+        BufferedLogger inFlight = factory.create(new Request(TOKEN)).append("Step 1").flush().append("Step 2");
+
+        assertEquals(Collections.singletonList("Step 2"), inFlight.snapshot().getMessages());
+    }
+
+    @Test
+    public void snapshotsShouldSeeAConsistentPrefixOfTheMessagesWhileTheyAreAppended() throws Exception {
+        final BufferedLogger inFlight = factory.create(new Request(TOKEN));
+        final AtomicBoolean done = new AtomicBoolean();
+        final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+        Thread reader = new Thread(() -> {
+
+            while (!done.get()) {
+                List<String> messages = inFlight.snapshot().getMessages();
+
+                for (int i = 0; i < messages.size(); i++) {
+
+                    if (!String.valueOf(i).equals(messages.get(i))) {
+                        errors.add(i + " -> " + messages.get(i));
+                    }
+
+                }
+
+            }
+
+        });
+        reader.start();
+
+        for (int i = 0; i < 100000; i++) {
+            inFlight.append(String.valueOf(i));
+        }
+
+        done.set(true);
+        reader.join();
+
+        if (!errors.isEmpty()) {
+            fail(errors.toString());
+        }
+
+        assertEquals(100000, inFlight.snapshot().getMessages().size());
+    }
+
+    @Test
+    public void snapshotsShouldCopyTheHeapMessagesAndCountTheSpilledOnes() {
+        BufferedLoggerFactory stagingFactory = BufferedLoggerFactory.builder(mainLogger).writeTo(sink)
+                .registerLive(registry).stageMessagesOffHeap(new OffHeapArena(16, 8), 12).build();
+        BufferedLogger inFlight = stagingFactory.create(new Request(TOKEN)).append("Step 1").append("Step 2");
+
+        assertEquals(Arrays.asList("Step 1", "Step 2"), inFlight.snapshot().getMessages());
+        assertEquals(0, inFlight.snapshot().getSpilledMessages());
+        assertFalse(registry.snapshot(TOKEN).contains("spilledMessages"));
+
+        inFlight.append("Step 3").append("Step 4");
+
+        assertEquals(Arrays.asList("Step 1", "Step 2"), inFlight.snapshot().getMessages());
+        assertEquals(2, inFlight.snapshot().getSpilledMessages());
+        assertTrue(registry.snapshot(TOKEN).contains("\"messages\":[\"Step 1\",\"Step 2\"],\"spilledMessages\":2,"));
+    }
+
+    private static void await(final CyclicBarrier barrier) {
+
+        try {
+            barrier.await();
+        } catch (final InterruptedException | BrokenBarrierException e) {
+            throw new IllegalStateException(e);
+        }
+
+    }
+
+}
@@ -0,0 +1,140 @@
+package br.com.falbuquerque.logging;
+
+import static br.com.falbuquerque.logging.CommonConstants.TOKEN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import br.com.falbuquerque.logging.request.Request;
+import br.com.falbuquerque.logging.sink.RingRecordSink;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Tests the behavior of the {@link MessageTemplates} class and of the
+ * templated messages of {@link BufferedLogger}.
+ * 
+ * @author Felipe Albuquerque
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class MessageTemplatesTest {
+
+    @Mock
+    private Logger mainLogger;
+
+    private MessageTemplates templates;
+    private int orderPaid;
+
+    @Before
+    public void initialize() {
+        when(mainLogger.isEnabled(any(Level.class))).thenReturn(true);
+        when(mainLogger.isInfoEnabled()).thenReturn(true);
+        templates = new MessageTemplates();
+        orderPaid = templates.register("Order {} paid with {}");
+    }
+
+    @Test
+    public void templatesShouldBeRegisteredOnce() {
+        int other = templates.register("Order {} shipped");
+
+        assertEquals(orderPaid, templates.register("Order {} paid with {}"));
+        assertEquals(orderPaid + 1, other);
+        assertEquals(2, templates.size());
+        assertEquals("Order {} shipped", templates.getPattern(other));
+    }
+
+    @Test
+    public void templatesShouldReplaceThePlaceholdersInOrder() {
+        assertEquals("Order A12 paid with card", templates.format(orderPaid, "A12", "card"));
+        assertEquals("Order A12 paid with {}", templates.format(orderPaid, "A12"));
+        assertEquals("Order null paid with 10", templates.format(orderPaid, null, 10, "ignored"));
+        assertEquals("{}{}", templates.format(templates.register("{}{}")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownTemplatesShouldBeRejected() {
+        BufferedLoggerFactory.builder(mainLogger).messageTemplates(templates).build().create(new Request(TOKEN))
+                .append(orderPaid + 1, "A12");
+    }
+
+    @Test
+    public void templatedMessagesShouldBeFormattedWhenWritten() {
+        RingRecordSink sink = new RingRecordSink(4);
+        BufferedLoggerFactory factory = BufferedLoggerFactory.builder(mainLogger).writeTo(sink)
+                .messageTemplates(templates).build();
+        StringBuilder paymentMethod = new StringBuilder("card");
+
+        BufferedLogger bufferedLogger = factory.create(new Request(TOKEN)).append("Step 1")
+                .append(orderPaid, "A12", paymentMethod);
+        paymentMethod.append(" ending in 1234");
+        bufferedLogger.log();
+
+        assertTrue(sink.getRecords().get(0).contains(
+                "\"messages\":[\"Step 1\",\"Order A12 paid with card ending in 1234\"]"));
+    }
+
+    @Test
+    public void templatedMessagesShouldBeFormattedByTheMainLogger() {
+        BufferedLoggerFactory.builder(mainLogger).messageTemplates(templates).build().create(new Request(TOKEN))
+                .append(orderPaid, "A12", 10).log();
+
+        verify(mainLogger).info("{\"request\":{\"token\":\"" + TOKEN + "\",\"parameters\":[]},"
+                + "\"messages\":[\"Order A12 paid with 10\"],\"internalExceptions\":{},"
+                + "\"businessExceptions\":{}}");
+    }
+
+    @Test
+    public void encoderShouldWriteTheTemplateKeysAndArgumentsIfRequested() {
+        RequestRecordEncoder encoder = new RequestRecordEncoder(256, false, null, null, RecordSchema.COMPACT, true);
+        BufferedLogger bufferedLogger = BufferedLoggerFactory.builder(mainLogger).messageTemplates(templates)
+                .build().create(new Request(TOKEN)).append("Step 1").append(orderPaid, "A12", 10);
+
+        String record = decode(encoder.encode(bufferedLogger));
+
+        assertEquals("{\"$v\":1,\"r\":{\"t\":\"" + TOKEN + "\"},\"m\":[\"Step 1\",["
+                + templates.getKey(orderPaid) + ",\"A12\",10]]}", record);
+
+        // another process registers the same patterns in another order
+        MessageTemplates reader = new MessageTemplates();
+        reader.register("Order {} shipped");
+        reader.register("Order {} paid with {}");
+        JsonObject expanded = RecordSchema.expand(new JsonParser().parse(record).getAsJsonObject());
+
+        assertEquals("Order A12 paid with 10", reader.formatMessages(expanded).getAsJsonArray("messages")
+                .get(1).getAsString());
+    }
+
+    @Test
+    public void templateKeysShouldDependOnlyOnThePattern() {
+        assertEquals(7994871655098789937L, templates.getKey(orderPaid));
+        assertEquals(MessageTemplate.keyOf("Order {} paid with {}"), templates.getKey(orderPaid));
+    }
+
+    /**
+     * Decodes an encoded record.
+     * 
+     * @param record
+     *            the encoded record
+     * @return the record
+     */
+    private String decode(ByteBuffer record) {
+        byte[] bytes = new byte[record.remaining()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
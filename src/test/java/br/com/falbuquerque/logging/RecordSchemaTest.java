@@ -0,0 +1,57 @@
+package br.com.falbuquerque.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import br.com.falbuquerque.logging.RecordSchema.Field;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Tests the behavior of the {@link RecordSchema} class.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class RecordSchemaTest {
+
+    @Test
+    public void schemasShouldBeFoundByTheirVersion() {
+        RecordSchema schema = RecordSchema.builder(101).key(Field.MESSAGES, "msg").build();
+
+        assertSame(schema, RecordSchema.forVersion(101));
+        assertSame(schema, RecordSchema.builder(101).key(Field.MESSAGES, "msg").build());
+        assertSame(RecordSchema.COMPACT, RecordSchema.forVersion(1));
+        assertEquals("msg", schema.getKey(Field.MESSAGES));
+        assertEquals(Field.REQUEST, schema.getField("r"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void versionsShouldNotBeReusedWithOtherKeys() {
+        RecordSchema.builder(102).build();
+        RecordSchema.builder(102).key(Field.TOKEN, "tk").build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keysShouldBeUnique() {
+        RecordSchema.builder(103).key(Field.TOKEN, "r").build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keysShouldNotNeedEscaping() {
+        RecordSchema.builder(104).key(Field.TOKEN, "t\"");
+    }
+
+    @Test
+    public void expansionShouldKeepTheParameterValuesAndUnknownFields() {
+        JsonParser parser = new JsonParser();
+        JsonObject compact = parser.parse("{\"$v\":1,\"r\":{\"t\":\"T\",\"p\":[{\"n\":\"a\",\"v\":{\"m\":1}}]},"
+                + "\"be\":{\"l\":true},\"x\":2}").getAsJsonObject();
+
+        assertEquals(parser.parse("{\"request\":{\"token\":\"T\",\"parameters\":[{\"name\":\"a\",\"value\":{\"m\":1}}]},"
+                + "\"businessExceptions\":{\"exceptionsLogged\":true},\"x\":2}"), RecordSchema.expand(compact));
+    }
+
+}
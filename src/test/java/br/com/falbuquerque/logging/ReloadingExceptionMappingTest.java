@@ -0,0 +1,176 @@
+package br.com.falbuquerque.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * Tests the behavior of the {@link ExceptionMappingLoader} and
+ * {@link ReloadingExceptionMapping} classes.
+ * 
+ * @author Felipe Albuquerque
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ReloadingExceptionMappingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private Logger errorLogger;
+
+    @Mock
+    private Logger runtimeLogger;
+
+    private ExceptionMappingLoader loader;
+
+    @Before
+    public void initialize() {
+        Map<String, Logger> loggers = new HashMap<>();
+        loggers.put("error", errorLogger);
+        loggers.put("runtime", runtimeLogger);
+
+        loader = new ExceptionMappingLoader(loggers::get, getClass().getClassLoader());
+        when(errorLogger.isEnabled(any(Level.class))).thenReturn(true);
+        when(runtimeLogger.isEnabled(any(Level.class))).thenReturn(true);
+    }
+
+    @Test
+    public void loaderShouldReadPropertiesMappings() throws IOException {
+        ExceptionMapper mapper = loader.loadProperties(new StringReader(
+                "java.lang.IllegalArgumentException = runtime, warn, 0.5\njava.sql.SQLException = error"));
+
+        LoggerConfiguration runtime = mapper.getLogger(IllegalArgumentException.class);
+
+        assertSame(runtimeLogger, runtime.getLogger());
+        assertEquals(Level.WARN, runtime.getLevel());
+        assertEquals(0.5, runtime.getSampling(), 0);
+        assertSame(errorLogger, mapper.getLogger(SQLException.class).getLogger());
+        assertNull(mapper.getLogger(SQLException.class).getLevel());
+    }
+
+    @Test
+    public void loaderShouldReadJsonMappings() {
+        ExceptionMapper mapper = loader.loadJson(new StringReader("{\"mappings\":[{\"exception\":"
+                + "\"java.sql.SQLException\",\"logger\":\"error\",\"level\":\"FATAL\",\"sampling\":0.25}]}"));
+
+        assertSame(errorLogger, mapper.getLogger(SQLException.class).getLogger());
+        assertEquals(Level.FATAL, mapper.getLogger(SQLException.class).getLevel());
+        assertEquals(0.25, mapper.getLogger(SQLException.class).getSampling(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void loaderShouldRejectClassesThatAreNotExceptions() throws IOException {
+        loader.loadProperties(new StringReader("java.lang.String = error"));
+    }
+
+    @Test
+    public void mappingShouldBeReplacedOnlyByValidFiles() throws IOException {
+        Path file = folder.newFile("exceptions.properties").toPath();
+        write(file, "java.sql.SQLException = error");
+
+        try (ReloadingExceptionMapping mapping = new ReloadingExceptionMapping(file, 0, loader)) {
+            ExceptionMapper inFlight = mapping.get();
+
+            write(file, "java.sql.SQLException = runtime");
+            assertTrue(mapping.reload());
+
+            assertSame(errorLogger, inFlight.getLogger(SQLException.class).getLogger());
+            assertSame(runtimeLogger, mapping.get().getLogger(SQLException.class).getLogger());
+
+            write(file, "java.sql.SQLException = runtime, NOLEVEL");
+            assertFalse(mapping.reload());
+
+            assertSame(runtimeLogger, mapping.get().getLogger(SQLException.class).getLogger());
+        }
+
+    }
+
+    @Test
+    public void exceptionsShouldNotBeLoggedWithZeroSampling() {
+        SQLException thrownException = new SQLException();
+
+        new ExceptionHandler(errorLogger, new ExceptionMapper().map(SQLException.class, runtimeLogger, Level.ERROR, 0))
+                .appendException(thrownException).log();
+
+        verifyZeroInteractions(errorLogger, runtimeLogger);
+    }
+
+    @Test
+    public void factoryShouldRouteWithTheReloadedMappings() throws IOException {
+        Path file = folder.newFile("exceptions.json").toPath();
+        write(file, "{\"mappings\":[{\"exception\":\"java.sql.SQLException\",\"logger\":\"runtime\"}]}");
+        SQLException thrownException = new SQLException();
+
+        try (ReloadingExceptionMapping mapping = new ReloadingExceptionMapping(file, 0, loader)) {
+            BufferedLoggerFactory.builder(errorLogger).internalExceptions(errorLogger, mapping).build()
+                    .create(new br.com.falbuquerque.logging.request.Request(CommonConstants.TOKEN))
+                    .appendInternalException(thrownException).log();
+        }
+
+        verify(runtimeLogger).log(Level.ERROR, "Exception in request [" + CommonConstants.TOKEN + "]", thrownException);
+    }
+
+    @Test
+    public void loggersShouldKeepTheMappingsTakenWhenCreated() throws IOException {
+        Path file = folder.newFile("exceptions.properties").toPath();
+        write(file, "java.sql.SQLException = runtime");
+        SQLException thrownException = new SQLException();
+        String log = "Exception in request [" + CommonConstants.TOKEN + "]";
+
+        try (ReloadingExceptionMapping mapping = new ReloadingExceptionMapping(file, 0, loader)) {
+            BufferedLogger bufferedLogger = BufferedLoggerFactory.builder(errorLogger).internalExceptions(
+                    errorLogger, mapping).build().create(new br.com.falbuquerque.logging.request.Request(
+                    CommonConstants.TOKEN));
+
+            write(file, "java.sql.SQLException = error");
+            assertTrue(mapping.reload());
+
+            bufferedLogger.appendInternalException(thrownException).log();
+        }
+
+        verify(runtimeLogger).log(Level.ERROR, log, thrownException);
+        verify(errorLogger, never()).log(Level.ERROR, log, thrownException);
+    }
+
+    /**
+     * Rewrites a file.
+     * 
+     * @param file
+     *            the file
+     * @param contents
+     *            the new contents
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    private void write(Path file, String contents) throws IOException {
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,139 @@
+package br.com.falbuquerque.logging;
+
+import static br.com.falbuquerque.logging.CommonConstants.TOKEN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import br.com.falbuquerque.logging.redaction.Redactor;
+import br.com.falbuquerque.logging.request.Parameter;
+import br.com.falbuquerque.logging.request.Request;
+import br.com.falbuquerque.logging.util.JsonParser;
+import br.com.falbuquerque.logging.util.ValueDictionary;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Tests the behavior of the {@link RequestRecordEncoder} class.
+ * 
+ * @author Felipe Albuquerque
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class RequestRecordEncoderTest {
+
+    @Mock
+    private Logger mainLogger;
+
+    @Test
+    public void encoderShouldProduceTheSameRecordAsTheJsonParser() {
+        BufferedLogger bufferedLogger = new BufferedLogger(new Request(TOKEN, new Parameter("text", "<a> \"b\""),
+                new Parameter("number", 10L), new Parameter("decimal", new BigDecimal("1.50")), new Parameter("flag",
+                        true), new Parameter("empty", null)), mainLogger).append("Log message \u00e7").append(null);
+
+        assertRecordEquals(bufferedLogger);
+    }
+
+    @Test
+    public void encoderShouldProduceTheSameRecordAsTheJsonParserWithExceptionHandlers() {
+        BufferedLogger bufferedLogger = new BufferedLogger(new Request(TOKEN), mainLogger, mainLogger)
+                .appendInternalException(new IllegalStateException());
+
+        assertRecordEquals(bufferedLogger);
+    }
+
+    @Test
+    public void encoderShouldProduceTheSameRecordAsTheJsonParserWithTraceIds() {
+        Request parent = new Request(TOKEN, new Parameter("param", "val"))
+                .continueTrace("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01");
+
+        assertRecordEquals(new BufferedLogger(parent, mainLogger));
+        assertRecordEquals(new BufferedLogger(parent.createChild("child"), mainLogger));
+        assertRecordEquals(new BufferedLogger(new Request(null).startTrace(), mainLogger));
+    }
+
+    @Test
+    public void encoderShouldProduceTheSameRecordAsTheJsonParserWithoutARequest() {
+        assertRecordEquals(new BufferedLogger(null, mainLogger).append("Log message"));
+        assertRecordEquals(new BufferedLogger(null, mainLogger, mainLogger).appendInternalException(
+                new IllegalStateException()));
+    }
+
+    @Test
+    public void encoderWithValueDictionaryShouldProduceTheSameRecordAsTheJsonParser() {
+        RequestRecordEncoder encoder = new RequestRecordEncoder(8, false, new ValueDictionary(16, 8));
+
+        for (int i = 0; i < 3; i++) {
+            BufferedLogger bufferedLogger = new BufferedLogger(new Request(TOKEN, new Parameter("tenant", "<t1>"),
+                    new Parameter("description", "too long for the dictionary")), mainLogger);
+
+            assertEquals(new JsonParser().toJson(bufferedLogger), StandardCharsets.UTF_8.decode(
+                    encoder.encode(bufferedLogger)).toString());
+        }
+
+    }
+
+    @Test
+    public void encoderWithRedactorShouldMaskTheParametersAndMessages() {
+        RequestRecordEncoder encoder = new RequestRecordEncoder(8, false, null, Redactor.builder()
+                .maskParameter("password").maskAfter("cpf=").build());
+        BufferedLogger bufferedLogger = new BufferedLogger(new Request(TOKEN, new Parameter("password", "abc"),
+                new Parameter("query", "cpf=123&x=1")), mainLogger).append("Found cpf=123 in \"base\"");
+
+        String expected = new JsonParser().toJson(bufferedLogger).replace("\"abc\"", "\"****\"").replace(
+                "cpf\\u003d123", "cpf\\u003d****");
+
+        assertEquals(expected, StandardCharsets.UTF_8.decode(encoder.encode(bufferedLogger)).toString());
+    }
+
+    @Test
+    public void compactEncoderShouldOmitTheEmptySections() {
+        RequestRecordEncoder encoder = new RequestRecordEncoder(8, false, null, null, RecordSchema.COMPACT);
+        BufferedLogger bufferedLogger = new BufferedLogger(new Request(TOKEN), mainLogger, mainLogger, mainLogger);
+
+        assertEquals("{\"$v\":1,\"r\":{\"t\":\"" + TOKEN + "\"}}", StandardCharsets.UTF_8.decode(
+                encoder.encode(bufferedLogger)).toString());
+        assertEquals("{\"$v\":1}", StandardCharsets.UTF_8.decode(encoder.encode(new BufferedLogger(null,
+                mainLogger))).toString());
+    }
+
+    @Test
+    public void compactRecordsShouldExpandToTheFullRecords() {
+        RequestRecordEncoder encoder = new RequestRecordEncoder(8, false, null, null, RecordSchema.COMPACT);
+        BufferedLogger bufferedLogger = new BufferedLogger(new Request(TOKEN, new Parameter("tenant", "<t1>"),
+                new Parameter("options", new Parameter("name", "value"))).startTrace(), mainLogger, mainLogger)
+                .append("Log message").appendInternalException(new IllegalStateException());
+
+        String full = new JsonParser().toJson(bufferedLogger);
+        String compact = StandardCharsets.UTF_8.decode(encoder.encode(bufferedLogger)).toString();
+        com.google.gson.JsonParser parser = new com.google.gson.JsonParser();
+
+        JsonObject expected = parser.parse(full).getAsJsonObject();
+        expected.remove("businessExceptions");
+
+        assertTrue(compact.length() < full.length() * 3 / 4);
+        assertEquals(expected, RecordSchema.expand(parser.parse(compact).getAsJsonObject()));
+    }
+
+    /**
+     * Asserts the encoded record is the same as the one produced by the JSON
+     * parser.
+     * 
+     * @param bufferedLogger
+     *            the logger whose record is compared
+     */
+    private void assertRecordEquals(BufferedLogger bufferedLogger) {
+        String expected = new JsonParser().toJson(bufferedLogger);
+        String encoded = StandardCharsets.UTF_8.decode(new RequestRecordEncoder(8, true).encode(bufferedLogger)).toString();
+
+        assertEquals(expected, encoded);
+    }
+
+}
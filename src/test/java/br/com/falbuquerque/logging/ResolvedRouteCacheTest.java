@@ -0,0 +1,159 @@
+package br.com.falbuquerque.logging;
+
+import static br.com.falbuquerque.logging.CommonConstants.TOKEN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import br.com.falbuquerque.logging.ResolvedRouteCache.ResolvedRoute;
+import br.com.falbuquerque.logging.request.Request;
+
+/**
+ * Tests the behavior of the {@link ResolvedRouteCache} class and the routing
+ * of the exceptions through it.
+ * 
+ * @author Felipe Albuquerque
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ResolvedRouteCacheTest {
+
+    @Mock
+    private Logger mainLogger;
+
+    @Mock
+    private Logger errorLogger;
+
+    @Mock
+    private Logger runtimeLogger;
+
+    @Before
+    public void initialize() {
+        when(errorLogger.isEnabled(any(Level.class))).thenReturn(true);
+        when(runtimeLogger.isEnabled(Level.ERROR)).thenReturn(true);
+        when(runtimeLogger.isEnabled(Level.WARN)).thenReturn(false);
+    }
+
+    @Test
+    public void routesShouldBeResolvedOnceForAllTheRequestsOfAFactory() {
+        BufferedLoggerFactory factory = BufferedLoggerFactory.builder(mainLogger).internalExceptions(errorLogger)
+                .build();
+        IllegalStateException thrownException = new IllegalStateException();
+
+        for (int i = 0; i < 2; i++) {
+            factory.create(new Request(TOKEN)).appendInternalException(thrownException).appendInternalException(
+                    thrownException).log();
+        }
+
+        verify(errorLogger, times(4)).log(Level.ERROR, "Exception in request [" + TOKEN + "]", thrownException);
+        verify(errorLogger, times(1)).isEnabled(Level.ERROR);
+        verify(errorLogger, never()).error(anyString(), any(Throwable.class));
+    }
+
+    @Test
+    public void handlersWithoutAFactoryShouldNotCreateACacheOfTheirOwn() {
+        ExceptionHandler handler = new ExceptionHandler(errorLogger);
+        IllegalStateException thrownException = new IllegalStateException();
+
+        handler.appendException(thrownException).log();
+
+        assertNull(handler.getRouteCache());
+        verify(errorLogger).log(Level.ERROR, "Exception in request [undefined]", thrownException);
+    }
+
+    @Test
+    public void exceptionsShouldBeCheckedAgainstTheLevelOfTheirRoute() {
+        BufferedLoggerFactory factory = BufferedLoggerFactory.builder(mainLogger).internalExceptions(errorLogger,
+                new ExceptionMapper().map(IllegalArgumentException.class, runtimeLogger, Level.WARN)).build();
+
+        factory.create(new Request(TOKEN)).appendInternalException(new IllegalArgumentException()).log();
+
+        verify(runtimeLogger).isEnabled(Level.WARN);
+        verify(runtimeLogger, never()).log(any(Level.class), anyString(), any(Throwable.class));
+        verify(runtimeLogger, never()).error(anyString(), any(Throwable.class));
+    }
+
+    @Test
+    public void mappingShouldInvalidateTheRoutes() {
+        ExceptionMapper mapper = new ExceptionMapper();
+        ResolvedRouteCache cache = new ResolvedRouteCache(errorLogger, Level.ERROR);
+
+        assertSame(errorLogger, cache.resolve(mapper, IllegalArgumentException.class).getLogger());
+
+        mapper.map(IllegalArgumentException.class, runtimeLogger);
+        ResolvedRoute route = cache.resolve(mapper, IllegalArgumentException.class);
+
+        assertSame(runtimeLogger, route.getLogger());
+        assertSame(route, cache.resolve(mapper, IllegalArgumentException.class));
+        assertSame(errorLogger, cache.resolve(null, IllegalArgumentException.class).getLogger());
+    }
+
+    @Test
+    public void routesShouldBeKeptForEachMapper() {
+        ExceptionMapper previous = new ExceptionMapper().map(IllegalArgumentException.class, runtimeLogger);
+        ExceptionMapper reloaded = new ExceptionMapper();
+        ResolvedRouteCache cache = new ResolvedRouteCache(errorLogger, Level.ERROR);
+
+        ResolvedRoute previousRoute = cache.resolve(previous, IllegalArgumentException.class);
+        ResolvedRoute reloadedRoute = cache.resolve(reloaded, IllegalArgumentException.class);
+
+        assertSame(previousRoute, cache.resolve(previous, IllegalArgumentException.class));
+        assertSame(reloadedRoute, cache.resolve(reloaded, IllegalArgumentException.class));
+        assertSame(runtimeLogger, previousRoute.getLogger());
+        assertSame(errorLogger, reloadedRoute.getLogger());
+    }
+
+    @Test
+    public void invalidationShouldRecheckTheEnabledLevels() {
+        ResolvedRouteCache cache = new ResolvedRouteCache(runtimeLogger, Level.WARN);
+
+        assertFalse(cache.resolve(null, IllegalArgumentException.class).isEnabled());
+
+        when(runtimeLogger.isEnabled(Level.WARN)).thenReturn(true);
+
+        assertFalse(cache.resolve(null, IllegalArgumentException.class).isEnabled());
+
+        ExceptionMapper.invalidateResolvedRoutes();
+
+        assertTrue(cache.resolve(null, IllegalArgumentException.class).isEnabled());
+    }
+
+    @Test
+    public void configurationChangesShouldInvalidateTheRoutes() {
+        LoggerContext context = new LoggerContext("routes");
+        context.start();
+
+        try {
+            ResolvedRouteCache cache = new ResolvedRouteCache(context.getLogger("error"), Level.ERROR);
+            ResolvedRoute route = cache.resolve(null, IllegalStateException.class);
+
+            assertSame(route, cache.resolve(null, IllegalStateException.class));
+
+            context.reconfigure();
+
+            assertNotSame(route, cache.resolve(null, IllegalStateException.class));
+            assertEquals(Level.ERROR, cache.resolve(null, IllegalStateException.class).getLevel());
+        } finally {
+            context.stop();
+        }
+
+    }
+
+}
@@ -0,0 +1,117 @@
+package br.com.falbuquerque.logging;
+
+import static br.com.falbuquerque.logging.CommonConstants.TOKEN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import br.com.falbuquerque.logging.request.Request;
+import br.com.falbuquerque.logging.sink.ChannelRecordSink;
+import br.com.falbuquerque.logging.util.JsonParser;
+import br.com.falbuquerque.logging.util.OffHeapArena;
+
+/**
+ * Tests the behavior of the {@link StagedMessages} class.
+ * 
+ * @author Felipe Albuquerque
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class StagedMessagesTest {
+
+    @Mock
+    private Logger mainLogger;
+
+    private final OffHeapArena arena = new OffHeapArena(16, 8);
+
+    @Test
+    public void messagesShouldBeSpilledOnceTheThresholdIsReached() {
+        StagedMessages messages = new StagedMessages(arena, 9);
+        List<String> expected = Arrays.asList("short", "still", "spilled \"message\" \u00e7 \ud83d\ude00", null, "");
+
+        messages.addAll(expected);
+
+        assertTrue(messages.isSpilled());
+        assertEquals(Arrays.asList("short"), new ArrayList<>(messages.getHeapMessages()));
+        assertEquals(expected, new ArrayList<>(messages));
+    }
+
+    @Test
+    public void clearShouldGiveTheBlocksBackToTheArena() {
+        StagedMessages messages = new StagedMessages(arena, 0);
+        messages.add("a message that takes more than one block");
+
+        messages.clear();
+
+        assertFalse(messages.isSpilled());
+        assertTrue(messages.isEmpty());
+        assertEquals(3, arena.getPooledBlocks());
+    }
+
+    @Test
+    public void stagedRecordShouldBeStreamedWithTheSameContentAsTheJsonParser() {
+        BufferedLogger bufferedLogger = createLogger(null);
+        String expected = new JsonParser().toJson(bufferedLogger);
+
+        ByteBuffer[] parts = new RequestRecordEncoder().encodeParts(bufferedLogger);
+        StringBuilder streamed = new StringBuilder();
+
+        for (ByteBuffer part : parts) {
+            streamed.append(StandardCharsets.UTF_8.decode(part));
+        }
+
+        assertTrue(parts.length > 2);
+        assertEquals(expected, streamed.toString());
+        assertEquals(expected, StandardCharsets.UTF_8.decode(new RequestRecordEncoder().encode(bufferedLogger))
+                .toString());
+    }
+
+    @Test
+    public void loggerShouldStreamTheStagedMessagesToTheSink() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BufferedLogger bufferedLogger = createLogger(new ChannelRecordSink(Channels.newChannel(output), Level.ALL));
+        String expected = new JsonParser().toJson(bufferedLogger) + System.lineSeparator();
+
+        bufferedLogger.log();
+
+        assertEquals(expected, new String(output.toByteArray(), StandardCharsets.UTF_8));
+        assertTrue(bufferedLogger.getMessages().isEmpty());
+        assertTrue(arena.getPooledBlocks() > 0);
+    }
+
+    /**
+     * Creates a logger whose messages are staged off the heap.
+     * 
+     * @param sink
+     *            the sink of the records or <code>null</code>
+     * @return the logger
+     */
+    private BufferedLogger createLogger(ChannelRecordSink sink) {
+        when(mainLogger.isEnabled(Level.ERROR)).thenReturn(true);
+        BufferedLoggerFactory.Builder builder = BufferedLoggerFactory.builder(mainLogger).stageMessagesOffHeap(arena,
+                8);
+
+        if (sink != null) {
+            builder.writeTo(sink);
+        }
+
+        return builder.build().create(new Request(TOKEN)).append("heap").append("spilled <message>").append(
+                "another spilled message, long enough to take a few blocks");
+    }
+
+}
@@ -0,0 +1,199 @@
+package br.com.falbuquerque.logging.analysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.Level;
+import org.junit.Test;
+
+import br.com.falbuquerque.logging.sink.RingRecordSink;
+
+/**
+ * Tests the behavior of the {@link ColumnarExporter} and
+ * {@link ColumnarReader} classes.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class ColumnarExporterTest {
+
+    private static final String LAYOUT_PREFIX = "10:15:00.123 [main] INFO  main - ";
+    private static final String ERROR_PREFIX = "10:15:00.124 [main] ERROR error - ";
+
+    @Test
+    public void exportedRecordsShouldBeReadBackByColumn() throws IOException {
+        StringBuilder log = new StringBuilder();
+        log.append(LAYOUT_PREFIX).append(record("TOKEN1", "acme", 10)).append('\n');
+        log.append(ERROR_PREFIX).append("Exception in request [TOKEN1]\n");
+        log.append("java.sql.SQLException: failure\n");
+        log.append("\tat br.com.falbuquerque.logging.Use.main(Use.java:10)\n");
+        log.append(record("TOKEN2", "other", 20)).append("\r\n");
+        log.append("{\"token\":\"TOKEN3\",\"chunk\":0,\"messages\":[\"a\"]}\n");
+        log.append("{\"request\":{\"token\":\"BROKEN\"\n");
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+
+        try (ColumnarExporter exporter = new ColumnarExporter(file)) {
+            exporter.export(new ByteArrayInputStream(log.toString().getBytes(StandardCharsets.UTF_8)));
+
+            assertEquals(3, exporter.getRowCount());
+            assertEquals(1, exporter.getMalformedLineCount());
+        }
+
+        List<ColumnarRow> rows = read(file, ColumnarFilter.ALL);
+
+        assertEquals(3, rows.size());
+        assertEquals("TOKEN1", rows.get(0).getToken());
+        assertEquals("INFO", rows.get(0).getLevel());
+        assertEquals(2, (int) rows.get(0).getMessageCount());
+        assertEquals("acme", rows.get(0).getParameters().get("tenant"));
+        assertEquals("10", rows.get(0).getParameters().get("elapsed"));
+        assertFalse(rows.get(0).isException());
+
+        assertEquals("TOKEN1", rows.get(1).getToken());
+        assertEquals("ERROR", rows.get(1).getLevel());
+        assertEquals("java.sql.SQLException", rows.get(1).getExceptionClass());
+        assertNull(rows.get(1).getMessageCount());
+        assertTrue(rows.get(1).getParameters().isEmpty());
+
+        assertEquals("TOKEN2", rows.get(2).getToken());
+        assertEquals("INFO", rows.get(2).getLevel());
+        assertEquals("other", rows.get(2).getParameters().get("tenant"));
+    }
+
+    @Test
+    public void filtersShouldSkipTheRowGroupsWithoutTheSelectedValues() throws IOException {
+        StringBuilder log = new StringBuilder();
+
+        for (int i = 0; i < 100; i++) {
+            log.append(record("TOKEN" + i, i % 2 == 0 ? "acme" : "other", i)).append('\n');
+
+            if (i % 30 == 0) {
+                log.append("Exception in request [TOKEN").append(i).append("]\n");
+                log.append("java.lang.IllegalStateException\n");
+            }
+
+        }
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+
+        try (ColumnarExporter exporter = new ColumnarExporter(file, 10)) {
+            exporter.export(new ByteArrayInputStream(log.toString().getBytes(StandardCharsets.UTF_8)));
+        }
+
+        try (ColumnarReader reader = new ColumnarReader(new ByteArrayInputStream(file.toByteArray()))) {
+            List<ColumnarRow> rows = new ArrayList<>();
+
+            assertEquals(1, reader.read(ColumnarFilter.token("TOKEN42"), rows::add));
+            assertEquals("42", rows.get(0).getParameters().get("elapsed"));
+            assertEquals(11, reader.getRowGroupCount());
+            assertEquals(10, reader.getSkippedRowGroupCount());
+        }
+
+        List<ColumnarRow> exceptions = read(file, ColumnarFilter.exceptionClass("java.lang.IllegalStateException"));
+
+        assertEquals(4, exceptions.size());
+        assertEquals("TOKEN90", exceptions.get(3).getToken());
+        assertNull(exceptions.get(3).getLevel());
+        assertEquals(1, read(file, ColumnarFilter.token("TOKEN30").and(ColumnarFilter.exceptionClass(
+                "java.lang.IllegalStateException"))).size());
+        assertTrue(read(file, ColumnarFilter.token("TOKEN31").and(ColumnarFilter.exceptionClass(
+                "java.lang.IllegalStateException"))).isEmpty());
+        assertTrue(read(file, ColumnarFilter.token("UNKNOWN")).isEmpty());
+    }
+
+    @Test
+    public void exceptionsWrittenByRecordSinksShouldBeExportedOnce() throws IOException {
+        RingRecordSink sink = new RingRecordSink(4);
+        sink.write(Level.ERROR, "Exception in request [TOKEN1]", new SQLException("failure"));
+        sink.write(Level.INFO, ByteBuffer.wrap(record("TOKEN2", "acme", 10).getBytes(StandardCharsets.UTF_8)));
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+
+        try (ColumnarExporter exporter = new ColumnarExporter(file)) {
+            exporter.export(new ByteArrayInputStream(String.join("\n", sink.getRecords()).getBytes(
+                    StandardCharsets.UTF_8)));
+        }
+
+        List<ColumnarRow> rows = read(file, ColumnarFilter.ALL);
+
+        assertEquals(2, rows.size());
+        assertEquals("TOKEN1", rows.get(0).getToken());
+        assertEquals("java.sql.SQLException", rows.get(0).getExceptionClass());
+        assertEquals("TOKEN2", rows.get(1).getToken());
+        assertFalse(rows.get(1).isException());
+    }
+
+    @Test
+    public void exporterShouldReadCompactRecordsAndFoldRepeatedValues() throws IOException {
+        StringBuilder log = new StringBuilder();
+
+        for (int i = 0; i < 1000; i++) {
+            log.append("{\"$v\":1,\"r\":{\"t\":\"TOKEN").append(i)
+                    .append("\",\"p\":[{\"n\":\"tenant\",\"v\":\"acme\"}]},\"m\":[\"a\"]}\n");
+        }
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+
+        try (ColumnarExporter exporter = new ColumnarExporter(file)) {
+            exporter.export(new ByteArrayInputStream(log.toString().getBytes(StandardCharsets.UTF_8)));
+        }
+
+        List<ColumnarRow> rows = read(file, ColumnarFilter.ALL);
+
+        assertEquals(1000, rows.size());
+        assertEquals("TOKEN999", rows.get(999).getToken());
+        assertEquals("acme", rows.get(999).getParameters().get("tenant"));
+        assertEquals(1, (int) rows.get(999).getMessageCount());
+        assertTrue(file.size() < log.length() / 3);
+    }
+
+    /**
+     * Reads the selected rows of a columnar file.
+     * 
+     * @param file
+     *            the contents of the file
+     * @param filter
+     *            the filter of the rows
+     * @return the selected rows
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    private List<ColumnarRow> read(ByteArrayOutputStream file, ColumnarFilter filter) throws IOException {
+        List<ColumnarRow> rows = new ArrayList<>();
+
+        try (ColumnarReader reader = new ColumnarReader(new ByteArrayInputStream(file.toByteArray()))) {
+            reader.read(filter, rows::add);
+        }
+
+        return rows;
+    }
+
+    /**
+     * Builds a request record.
+     * 
+     * @param token
+     *            the request token
+     * @param tenant
+     *            the tenant parameter
+     * @param elapsed
+     *            the elapsed parameter
+     * @return the request record
+     */
+    private String record(String token, String tenant, int elapsed) {
+        return "{\"request\":{\"token\":\"" + token + "\",\"parameters\":[{\"name\":\"tenant\",\"value\":\"" + tenant
+                + "\"},{\"name\":\"elapsed\",\"value\":" + elapsed + "}]},\"messages\":[\"a - b\",\"c\"],"
+                + "\"internalExceptions\":{\"exceptionsLogged\":false},"
+                + "\"businessExceptions\":{\"exceptionsLogged\":false}}";
+    }
+
+}
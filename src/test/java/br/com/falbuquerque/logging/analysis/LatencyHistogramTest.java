@@ -0,0 +1,41 @@
+package br.com.falbuquerque.logging.analysis;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests the behavior of the {@link LatencyHistogram} class.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void correctedLatenciesShouldIncludeTheOmittedOperations() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        histogram.recordCorrected(10, 3);
+        histogram.recordCorrected(2, 3);
+        histogram.recordCorrected(50, 0);
+
+        assertEquals(5, histogram.getTotalCount());
+        assertEquals(4, histogram.getValueAtPercentile(40));
+        assertEquals(50, histogram.getMaxValue());
+    }
+
+    @Test
+    public void mergedHistogramsShouldKeepTheCountsOfBoth() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(1);
+        second.recordValues(Long.MAX_VALUE, 2);
+
+        first.merge(second);
+
+        assertEquals(3, first.getTotalCount());
+        assertEquals(1, first.getValueAtPercentile(30));
+        assertEquals(Long.MAX_VALUE, first.getValueAtPercentile(99));
+    }
+
+}
@@ -0,0 +1,223 @@
+package br.com.falbuquerque.logging.analysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.logging.log4j.Level;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.com.falbuquerque.logging.segment.SegmentCompactor;
+import br.com.falbuquerque.logging.sink.FileChannelRecordSink;
+
+/**
+ * Tests the behavior of the {@link RequestLogAnalyzer} class.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class RequestLogAnalyzerTest {
+
+    private static final String LAYOUT_PREFIX = "10:15:00.123 [main] INFO  main - ";
+    private static final String ERROR_PREFIX = "10:15:00.124 [main] ERROR error - ";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+
+    @Before
+    public void initialize() {
+        directory = folder.getRoot().toPath();
+    }
+
+    @Test
+    public void analyzerShouldAggregateRecordsSplitAcrossChunks() throws IOException {
+        List<String> lines = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+            lines.add(LAYOUT_PREFIX + record("TOKEN" + i, i % 3 == 0 ? "acme" : "other", i));
+        }
+
+        Files.write(directory.resolve("main.log"), lines, StandardCharsets.UTF_8);
+
+        AnalysisReport report = new RequestLogAnalyzer(new ForkJoinPool(4), 256, 100, "elapsed").analyze(directory);
+
+        assertEquals(100, report.getRequestCount());
+        assertEquals(200, report.getMessageCount());
+        assertEquals(0, report.getMalformedLineCount());
+        assertEquals(34L, (long) valueOf(report.getTopParameterValues("tenant", 10), "acme"));
+        assertEquals(66L, (long) valueOf(report.getTopParameterValues("tenant", 10), "other"));
+        assertEquals(50, report.getLatencies().getValueAtPercentile(50), 2);
+        assertEquals(99, report.getLatencies().getMaxValue());
+    }
+
+    @Test
+    public void analyzerShouldCountExceptionsPerLogger() throws IOException {
+        List<String> lines = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            lines.add(ERROR_PREFIX + "Exception in request [TOKEN" + i + "]");
+            lines.add((i < 7 ? "java.sql.SQLException" : "java.text.ParseException") + ": failure " + i);
+            lines.add("\tat br.com.falbuquerque.logging.Use.main(Use.java:10)");
+        }
+
+        Files.write(directory.resolve("error.log"), lines, StandardCharsets.UTF_8);
+        Files.write(directory.resolve("runtime.log"), "Exception in request [TOKEN]\njava.lang.IllegalStateException\n"
+                .getBytes(StandardCharsets.UTF_8));
+
+        AnalysisReport report = new RequestLogAnalyzer(new ForkJoinPool(4), 64, 100, null).analyze(directory);
+        List<Entry<String, Long>> errors = report.getTopExceptions("error", 10);
+
+        assertEquals("java.sql.SQLException", errors.get(0).getKey());
+        assertEquals(7L, (long) errors.get(0).getValue());
+        assertEquals(3L, (long) valueOf(errors, "java.text.ParseException"));
+        assertEquals(1L, (long) valueOf(report.getTopExceptions("runtime", 10), "java.lang.IllegalStateException"));
+    }
+
+    @Test
+    public void analyzerShouldReadTheExceptionsWrittenByRecordSinks() throws IOException {
+
+        try (FileChannelRecordSink sink = new FileChannelRecordSink(directory.resolve("error.log"))) {
+            sink.write(Level.ERROR, "Exception in request [TOKEN1]", new SQLException("failure"));
+            sink.write(Level.INFO, ByteBuffer.wrap(record("TOKEN1", "acme", 1).getBytes(StandardCharsets.UTF_8)));
+            sink.write(Level.ERROR, "Exception in request [TOKEN2]", new ParseException("failure", 0));
+        }
+
+        AnalysisReport report = new RequestLogAnalyzer(new ForkJoinPool(2), 64, 100, null).analyze(directory);
+        List<Entry<String, Long>> errors = report.getTopExceptions("error", 10);
+
+        assertEquals(2, errors.size());
+        assertEquals(1L, (long) valueOf(errors, "java.sql.SQLException"));
+        assertEquals(1L, (long) valueOf(errors, "java.text.ParseException"));
+        assertEquals(1, report.getRequestCount());
+    }
+
+    @Test
+    public void analyzerShouldReadCompressedSegmentsByBlock() throws Exception {
+        StringBuilder contents = new StringBuilder();
+
+        for (int i = 0; i < 50; i++) {
+            contents.append(record("TOKEN" + i, "acme", i)).append('\n');
+        }
+
+        Path segment = directory.resolve("main-1-0.log");
+        Files.write(segment, contents.toString().getBytes(StandardCharsets.UTF_8));
+
+        try (SegmentCompactor compactor = new SegmentCompactor(512)) {
+            compactor.submit(segment).get();
+        }
+
+        AnalysisReport report = new RequestLogAnalyzer(null).analyze(directory);
+
+        assertEquals(50, report.getRequestCount());
+        assertEquals(50L, (long) valueOf(report.getTopParameterValues("tenant", 10), "acme"));
+    }
+
+    @Test
+    public void analyzerShouldReportTheCompressedSegmentsThatCannotBeRead() throws Exception {
+        StringBuilder contents = new StringBuilder();
+
+        for (int i = 0; i < 50; i++) {
+            contents.append(record("TOKEN" + i, "acme", i)).append('\n');
+        }
+
+        Path segment = directory.resolve("main-1-0.log");
+        Files.write(segment, contents.toString().getBytes(StandardCharsets.UTF_8));
+        Path compressed;
+
+        try (SegmentCompactor compactor = new SegmentCompactor(512)) {
+            compressed = compactor.submit(segment).get();
+        }
+
+        try (FileChannel channel = FileChannel.open(compressed, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() / 2);
+        }
+
+        try {
+            new RequestLogAnalyzer(null).analyze(directory);
+            fail();
+        } catch (IOException e) {
+            assertEquals("The segment is shorter than its index", e.getMessage());
+        }
+
+    }
+
+    @Test
+    public void analyzerShouldReadCompactRecords() throws IOException {
+        List<String> lines = new ArrayList<>();
+
+        for (int i = 0; i < 20; i++) {
+            lines.add(LAYOUT_PREFIX + "{\"$v\":1,\"r\":{\"t\":\"TOKEN" + i + "\",\"p\":[{\"n\":\"tenant\",\"v\":\"acme\"},"
+                    + "{\"n\":\"elapsed\",\"v\":" + i + "}]},\"m\":[\"a\"]}");
+        }
+
+        lines.add(LAYOUT_PREFIX + "{\"$v\":1,\"r\":{\"t\":\"EMPTY\"}}");
+        lines.add(LAYOUT_PREFIX + "{\"$v\":999,\"r\":{\"t\":\"UNKNOWN\"}}");
+        Files.write(directory.resolve("main.log"), lines, StandardCharsets.UTF_8);
+
+        AnalysisReport report = new RequestLogAnalyzer(new ForkJoinPool(2), 256, 100, "elapsed").analyze(directory);
+
+        assertEquals(21, report.getRequestCount());
+        assertEquals(20, report.getMessageCount());
+        assertEquals(1, report.getMalformedLineCount());
+        assertEquals(20L, (long) valueOf(report.getTopParameterValues("tenant", 10), "acme"));
+        assertEquals(19, report.getLatencies().getMaxValue());
+    }
+
+    /**
+     * Builds a request record.
+     * 
+     * @param token
+     *            the request token
+     * @param tenant
+     *            the tenant parameter
+     * @param elapsed
+     *            the elapsed parameter
+     * @return the request record
+     */
+    private String record(String token, String tenant, int elapsed) {
+        return "{\"request\":{\"token\":\"" + token + "\",\"parameters\":[{\"name\":\"tenant\",\"value\":\"" + tenant
+                + "\"},{\"name\":\"elapsed\",\"value\":" + elapsed + "}]},\"messages\":[\"a - b\",\"c\"],"
+                + "\"internalExceptions\":{\"exceptionsLogged\":false},"
+                + "\"businessExceptions\":{\"exceptionsLogged\":false}}";
+    }
+
+    /**
+     * Finds the count of a key.
+     * 
+     * @param counters
+     *            the counters
+     * @param key
+     *            the key
+     * @return the count of the key or <code>null</code> if it is not counted
+     */
+    private Long valueOf(List<Entry<String, Long>> counters, String key) {
+
+        for (Entry<String, Long> counter : counters) {
+
+            if (counter.getKey().equals(key)) {
+                return counter.getValue();
+            }
+
+        }
+
+        return null;
+    }
+
+}
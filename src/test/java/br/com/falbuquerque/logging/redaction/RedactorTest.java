@@ -0,0 +1,95 @@
+package br.com.falbuquerque.logging.redaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import br.com.falbuquerque.logging.util.Utf8Encoder;
+
+/**
+ * Tests the behavior of the {@link Redactor} class.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class RedactorTest {
+
+    private final Redactor redactor = Redactor.builder().maskParameter("password").maskParameter("card", 4)
+            .maskTerm("secret").maskTerm("topsecret").maskAfter("cpf=").maskAfter("token: ").build();
+
+    @Test
+    public void redactorShouldMaskTheWholeValueOfAParameter() {
+        assertParameterEquals("\"****\"", "password", 123456);
+    }
+
+    @Test
+    public void redactorShouldKeepTheSuffixOfAParameter() {
+        assertParameterEquals("\"****4321\"", "card", "5555666677774321");
+    }
+
+    @Test
+    public void redactorShouldApplyTheTextRulesToOtherStringParameters() {
+        assertParameterEquals("\"my **** value\"", "description", "my secret value");
+    }
+
+    @Test
+    public void redactorShouldNotWriteParametersWithoutMatches() {
+        Utf8Encoder encoder = new Utf8Encoder(16);
+
+        assertFalse(redactor.writeParameter("description", "public", encoder));
+        assertFalse(redactor.writeParameter("count", 10, encoder));
+        assertEquals(0, encoder.toByteBuffer().remaining());
+    }
+
+    @Test
+    public void redactorShouldMaskTermsWhereverTheyAppear() {
+        assertEquals("a ****, **** and ****", redactor.redact("a secret, topsecret and secret"));
+    }
+
+    @Test
+    public void redactorShouldMaskUpToTheDelimiterAfterATrigger() {
+        assertEquals("cpf=****&name=joe, token: **** end", redactor.redact("cpf=12345678900&name=joe, token: abc.def end"));
+    }
+
+    @Test
+    public void redactorShouldReturnTheSameTextWithoutMatches() {
+        String text = "nothing to hide \u00e7";
+
+        assertSame(text, redactor.redact(text));
+    }
+
+    @Test
+    public void redactorShouldEscapeTheRedactedText() {
+        Utf8Encoder encoder = new Utf8Encoder(16);
+
+        assertTrue(redactor.writeText("\"secret\" \u00e7", encoder));
+        assertEquals("\"\\\"****\\\" \u00e7\"", StandardCharsets.UTF_8.decode(encoder.toByteBuffer()).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void redactorShouldRejectNonAsciiTerms() {
+        Redactor.builder().maskTerm("a\u00e7\u00e3o");
+    }
+
+    /**
+     * Asserts the redacted encoding of a parameter value.
+     * 
+     * @param expected
+     *            the expected JSON value
+     * @param name
+     *            the name of the parameter
+     * @param value
+     *            the value of the parameter
+     */
+    private void assertParameterEquals(String expected, String name, Object value) {
+        Utf8Encoder encoder = new Utf8Encoder(16);
+
+        assertTrue(redactor.writeParameter(name, value, encoder));
+        assertEquals(expected, StandardCharsets.UTF_8.decode(encoder.toByteBuffer()).toString());
+    }
+
+}
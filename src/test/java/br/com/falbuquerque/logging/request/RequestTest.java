@@ -0,0 +1,108 @@
+package br.com.falbuquerque.logging.request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the trace correlation of the {@link Request} class.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class RequestTest {
+
+    private static final String TRACE_PARENT = "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+
+    @Test
+    public void requestShouldNotBeTracedByDefault() {
+        Request request = new Request("token");
+
+        assertFalse(request.isTraced());
+        assertNull(request.toTraceParent());
+    }
+
+    @Test
+    public void requestShouldContinueTheTraceOfTheHeader() {
+        Request request = new Request("token").continueTrace(TRACE_PARENT);
+
+        assertEquals(0x4bf92f3577b34da6L, request.getTraceIdHigh());
+        assertEquals(0xa3ce929d0e0e4736L, request.getTraceIdLow());
+        assertEquals(0x00f067aa0ba902b7L, request.getParentSpanId());
+        assertNotEquals(0, request.getSpanId());
+        assertNotEquals(request.getParentSpanId(), request.getSpanId());
+    }
+
+    @Test
+    public void requestShouldFormatItsOwnSpanInTheOutgoingHeader() {
+        Request request = new Request("token").continueTrace(TRACE_PARENT);
+
+        assertEquals("00-4bf92f3577b34da6a3ce929d0e0e4736-" + Request.toHex(request.getSpanId()) + "-01",
+                request.toTraceParent());
+    }
+
+    @Test
+    public void requestShouldKeepTheFlagsOfTheHeader() {
+        Request request = new Request("token").continueTrace(
+                "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-00");
+
+        assertEquals(0, request.getTraceFlags());
+        assertEquals("00-4bf92f3577b34da6a3ce929d0e0e4736-" + Request.toHex(request.getSpanId()) + "-00",
+                request.toTraceParent());
+        assertTrue(request.createChild("child").toTraceParent().endsWith("-00"));
+        assertTrue(new Request("token").startTrace().toTraceParent().endsWith("-01"));
+    }
+
+    @Test
+    public void requestShouldStartANewTraceForMalformedHeaders() {
+        String[] headers = { null, "", "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7",
+                "00-00000000000000000000000000000000-00f067aa0ba902b7-01",
+                "00-4bf92f3577b34da6a3ce929d0e0e4736-0000000000000000-01",
+                "00-4BF92F3577B34DA6A3CE929D0E0E4736-00f067aa0ba902b7-01",
+                "ff-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01",
+                "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01-extra" };
+
+        for (String header : headers) {
+            Request request = new Request("token").continueTrace(header);
+
+            assertTrue(request.isTraced());
+            assertNotEquals(0x4bf92f3577b34da6L, request.getTraceIdHigh());
+            assertEquals(0, request.getParentSpanId());
+        }
+
+    }
+
+    @Test
+    public void requestShouldAcceptTrailingFieldsOfLaterVersions() {
+        Request request = new Request("token").continueTrace(
+                "01-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01-extra");
+
+        assertEquals(0x00f067aa0ba902b7L, request.getParentSpanId());
+    }
+
+    @Test
+    public void childShouldBelongToTheTraceOfTheParent() {
+        Request parent = new Request("parent").continueTrace(TRACE_PARENT);
+        Request child = parent.createChild("child", new Parameter("step", 1));
+
+        assertEquals(parent.getTraceIdHigh(), child.getTraceIdHigh());
+        assertEquals(parent.getTraceIdLow(), child.getTraceIdLow());
+        assertEquals(parent.getSpanId(), child.getParentSpanId());
+        assertEquals("parent", child.getParentToken());
+        assertEquals(1, child.getParameters().size());
+    }
+
+    @Test
+    public void childShouldStartTheTraceOfAnUntracedParent() {
+        Request parent = new Request("parent");
+        Request child = parent.createChild("child");
+
+        assertTrue(parent.isTraced());
+        assertEquals(parent.getTraceIdLow(), child.getTraceIdLow());
+        assertEquals(parent.getSpanId(), child.getParentSpanId());
+    }
+
+}
@@ -0,0 +1,169 @@
+package br.com.falbuquerque.logging.segment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.logging.log4j.Level;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the behavior of the {@link RollingSegmentSink}, {@link SegmentCompactor}
+ * and {@link CompressedSegmentReader} classes.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class RollingSegmentSinkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sinkShouldRollSegmentsBySize() throws IOException {
+        Path directory = folder.getRoot().toPath();
+
+        try (RollingSegmentSink sink = new RollingSegmentSink(directory, "main", 10, 0)) {
+
+            for (int i = 0; i < 5; i++) {
+                sink.write(Level.INFO, toBuffer("record number " + i));
+            }
+
+        }
+
+        assertEquals(5, listFiles(directory, ".log").size());
+    }
+
+    @Test
+    public void compactorShouldKeepEachBlockReadableOnItsOwn() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        Path segment;
+        List<String> records = new ArrayList<>();
+
+        try (RollingSegmentSink sink = new RollingSegmentSink(directory, "main", Long.MAX_VALUE, 0)) {
+
+            for (int i = 0; i < 100; i++) {
+                records.add("{\"request\":{\"token\":\"TOKEN" + i + "\"}}");
+                sink.write(Level.INFO, toBuffer(records.get(i)));
+            }
+
+            segment = sink.getCurrentSegment();
+        }
+
+        try (SegmentCompactor compactor = new SegmentCompactor(256)) {
+            Future<Path> compressed = compactor.submit(segment);
+
+            try (CompressedSegmentReader reader = new CompressedSegmentReader(compressed.get())) {
+                assertTrue(reader.getBlockCount() > 1);
+                assertEquals(records.size(), reader.getRecordCount());
+                assertEquals(records.get(0), reader.readRecord(0));
+                assertEquals(records.get(57), reader.readRecord(57));
+                assertEquals(records.get(99), reader.readRecord(99));
+            }
+
+            assertFalse(Files.exists(segment));
+            assertEquals(records, readWholeGzip(compressed.get()));
+        }
+
+    }
+
+    @Test
+    public void compactorShouldSplitRecordsReadAcrossBuffersAndCloseTheLastRecord() throws Exception {
+        Path segment = folder.getRoot().toPath().resolve("main.log");
+        List<String> records = new ArrayList<>();
+        StringBuilder contents = new StringBuilder();
+
+        for (int i = 0; i < 1000; i++) {
+            records.add("{\"request\":{\"token\":\"TOKEN" + i + "\"}}");
+            contents.append(records.get(i)).append('\n');
+        }
+
+        // the last record was not terminated
+        contents.setLength(contents.length() - 1);
+        Files.write(segment, contents.toString().getBytes(StandardCharsets.UTF_8));
+
+        try (SegmentCompactor compactor = new SegmentCompactor(1000)) {
+            Path compressed = compactor.compress(segment);
+
+            try (CompressedSegmentReader reader = new CompressedSegmentReader(compressed)) {
+                assertTrue(reader.getBlockCount() > 1);
+                assertEquals(records.size(), reader.getRecordCount());
+                assertEquals(records.get(333), reader.readRecord(333));
+                assertEquals(records.get(999), reader.readRecord(999));
+            }
+
+            assertEquals(records, readWholeGzip(compressed));
+        }
+
+    }
+
+    /**
+     * Reads a compressed segment as a plain gzip file.
+     * 
+     * @param compressed
+     *            the compressed segment
+     * @return the records of the segment
+     * @throws IOException
+     *             if the segment cannot be read
+     */
+    private List<String> readWholeGzip(Path compressed) throws IOException {
+        List<String> records = new ArrayList<>();
+
+        try (InputStream input = new GZIPInputStream(Files.newInputStream(compressed));
+                Scanner scanner = new Scanner(input, StandardCharsets.UTF_8.name())) {
+
+            while (scanner.hasNextLine()) {
+                records.add(scanner.nextLine());
+            }
+
+        }
+
+        return records;
+    }
+
+    /**
+     * Lists the files of a directory with the given extension.
+     * 
+     * @param directory
+     *            the directory
+     * @param extension
+     *            the extension
+     * @return the files found
+     * @throws IOException
+     *             if the directory cannot be listed
+     */
+    private List<Path> listFiles(Path directory, String extension) throws IOException {
+
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(extension)).collect(Collectors.toList());
+        }
+
+    }
+
+    /**
+     * Encodes a record.
+     * 
+     * @param record
+     *            the record
+     * @return the buffer with the encoded record
+     */
+    private ByteBuffer toBuffer(String record) {
+        return ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,156 @@
+package br.com.falbuquerque.logging.sink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.Level;
+import org.junit.Test;
+
+/**
+ * Tests the behavior of the {@link BroadcastRecordSink} class.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class BroadcastRecordSinkTest {
+
+    @Test
+    public void everySubscriberShouldReadTheRecordsWrittenAfterSubscribing() {
+        BroadcastRecordSink sink = new BroadcastRecordSink(8);
+        sink.write(Level.INFO, toBuffer("before"));
+
+        BroadcastRecordSink.Subscriber first = sink.subscribe(RecordFilter.ALL);
+        BroadcastRecordSink.Subscriber second = sink.subscribe(null);
+        sink.write(Level.INFO, toBuffer("one"));
+        sink.write(Level.INFO, new ByteBuffer[] { toBuffer("tw"), toBuffer("o") });
+
+        assertEquals("one", toString(first.poll()));
+        assertEquals("one", toString(second.poll()));
+        assertEquals("two", toString(first.poll()));
+        assertEquals("two", toString(second.poll()));
+        assertNull(first.poll());
+    }
+
+    @Test
+    public void slowSubscribersShouldLoseTheOverwrittenRecords() {
+        BroadcastRecordSink sink = new BroadcastRecordSink(4);
+        BroadcastRecordSink.Subscriber subscriber = sink.subscribe(RecordFilter.ALL);
+
+        for (int i = 0; i < 10; i++) {
+            sink.write(Level.INFO, toBuffer("record" + i));
+        }
+
+        List<String> records = readAll(subscriber);
+
+        assertEquals(6, subscriber.getLostCount());
+        assertEquals(4, records.size());
+        assertEquals("record6", records.get(0));
+        assertEquals("record9", records.get(3));
+    }
+
+    @Test
+    public void subscribersShouldReadOnlyTheSelectedRecords() {
+        BroadcastRecordSink sink = new BroadcastRecordSink(16);
+        BroadcastRecordSink.Subscriber byToken = sink.subscribe(RecordFilter.tokenPrefix("WW"));
+        BroadcastRecordSink.Subscriber byParameter = sink.subscribe(RecordFilter.parse("param:tenant=<t1>"));
+        BroadcastRecordSink.Subscriber byException = sink.subscribe(RecordFilter.exception(SQLException.class));
+
+        sink.write(Level.INFO, toBuffer("{\"request\":{\"token\":\"WWED033A\",\"parameters\":[{\"name\":\"tenant\","
+                + "\"value\":\"\\u003ct1\\u003e\"}]},\"messages\":[]}"));
+        sink.write(Level.INFO, toBuffer("{\"request\":{\"token\":\"XX\",\"parameters\":[]},\"messages\":[]}"));
+        sink.write(Level.ERROR, "Exception in request [XX]", new SQLException());
+        sink.write(Level.ERROR, "Exception in request [WW]", new IllegalStateException());
+
+        assertEquals(1, readAll(byToken).size());
+        assertEquals(1, readAll(byParameter).size());
+        assertEquals(1, readAll(byException).size());
+    }
+
+    @Test
+    public void serverShouldStreamTheSelectedRecordsToLocalClients() throws Exception {
+        BroadcastRecordSink sink = new BroadcastRecordSink(16);
+
+        try (RecordStreamServer server = RecordStreamServer.loopback(sink, 0);
+                Socket client = new Socket()) {
+            client.connect(server.getAddress());
+            OutputStream output = client.getOutputStream();
+            output.write("exception:java.lang.RuntimeException\n".getBytes(StandardCharsets.UTF_8));
+            output.flush();
+            BufferedReader input = new BufferedReader(new InputStreamReader(client.getInputStream(),
+                    StandardCharsets.UTF_8));
+
+            // the subscription starts once the filter is read
+            long deadline = System.currentTimeMillis() + 5000;
+            String line = null;
+
+            while (line == null && System.currentTimeMillis() < deadline) {
+                sink.write(Level.ERROR, "Ignored", null);
+                sink.write(Level.ERROR, "Failure", new IllegalStateException("broken"));
+                client.setSoTimeout(100);
+
+                try {
+                    line = input.readLine();
+                } catch (SocketTimeoutException e) {
+                    // written before the subscription
+                }
+
+            }
+
+            assertTrue(line.startsWith("Failure\\"));
+            assertTrue(AbstractRecordSink.unescape(line).startsWith("Failure" + System.lineSeparator()
+                    + IllegalStateException.class.getName() + ": broken" + System.lineSeparator()));
+        }
+
+    }
+
+    /**
+     * Reads all the available records of a subscriber.
+     * 
+     * @param subscriber
+     *            the subscriber
+     * @return the records decoded as UTF-8
+     */
+    private static List<String> readAll(BroadcastRecordSink.Subscriber subscriber) {
+        List<String> records = new ArrayList<>();
+
+        for (BroadcastRecord record = subscriber.poll(); record != null; record = subscriber.poll()) {
+            records.add(toString(record));
+        }
+
+        return records;
+    }
+
+    /**
+     * Decodes a record.
+     * 
+     * @param record
+     *            the record
+     * @return the record decoded as UTF-8
+     */
+    private static String toString(BroadcastRecord record) {
+        return StandardCharsets.UTF_8.decode(record.getBytes()).toString();
+    }
+
+    /**
+     * Converts a string to a buffer.
+     * 
+     * @param record
+     *            the string
+     * @return the UTF-8 encoded buffer
+     */
+    private static ByteBuffer toBuffer(String record) {
+        return ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,170 @@
+package br.com.falbuquerque.logging.sink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.logging.log4j.Level;
+import org.junit.Test;
+
+/**
+ * Tests the behavior of the {@link PriorityRecordSink} class.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class PriorityRecordSinkTest {
+
+    @Test
+    public void lanesShouldBeDrainedByWeightedRounds() throws Exception {
+        BlockingSink delegate = new BlockingSink();
+        PriorityRecordSink sink = new PriorityRecordSink(delegate, 20, 20, 20);
+
+        sink.write(Level.INFO, toBuffer("blocker"));
+        delegate.started.await();
+
+        for (int i = 0; i < 10; i++) {
+            sink.write(Level.INFO, toBuffer("info" + i));
+            sink.write(Level.ERROR, "error" + i, null);
+        }
+
+        sink.write(Level.WARN, toBuffer("warn"));
+
+        // the blocker took the only credit of the info lane in the first round
+        delegate.release.countDown();
+        sink.close();
+
+        assertEquals(Arrays.asList("blocker", "error0", "error1", "error2", "error3", "error4", "error5", "error6",
+                "error7", "warn", "error8", "error9", "info0", "info1", "info2", "info3", "info4", "info5", "info6",
+                "info7", "info8", "info9"), delegate.records);
+    }
+
+    @Test
+    public void onlyTheLessSevereLanesShouldDropRecordsWhenFull() throws Exception {
+        BlockingSink delegate = new BlockingSink();
+        PriorityRecordSink sink = new PriorityRecordSink(delegate, 1, 1, 1);
+
+        sink.write(Level.INFO, toBuffer("blocker"));
+        delegate.started.await();
+
+        sink.write(Level.INFO, toBuffer("info0"));
+        sink.write(Level.INFO, toBuffer("info1"));
+        sink.write(Level.WARN, toBuffer("warn0"));
+        sink.write(Level.WARN, toBuffer("warn1"));
+        sink.write(Level.ERROR, toBuffer("error0"));
+
+        Thread release = new Thread(() -> {
+            sleep();
+            delegate.release.countDown();
+        });
+        release.start();
+
+        // waits for room in the error lane instead of dropping the record
+        sink.write(Level.FATAL, toBuffer("error1"));
+        sink.close();
+
+        assertEquals(1, sink.getDroppedCount(PriorityRecordSink.OTHER_LANE));
+        assertEquals(1, sink.getDroppedCount(PriorityRecordSink.WARN_LANE));
+        assertEquals(0, sink.getDroppedCount(PriorityRecordSink.ERROR_LANE));
+        assertEquals(5, delegate.records.size());
+        assertTrue(delegate.records.containsAll(Arrays.asList("blocker", "error0", "error1", "warn0", "info0")));
+    }
+
+    @Test(timeout = 10000)
+    public void recordsWrittenWhileClosingShouldNotBeLost() throws Exception {
+        BlockingSink delegate = new BlockingSink();
+        delegate.release.countDown();
+        PriorityRecordSink sink = new PriorityRecordSink(delegate, 8, 8, 8);
+        List<Thread> writers = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            writers.add(new Thread(() -> {
+
+                for (int j = 0; j < 1000; j++) {
+                    sink.write(Level.ERROR, toBuffer("error" + j));
+                }
+
+            }));
+        }
+
+        writers.forEach(Thread::start);
+        Thread.sleep(1);
+        sink.close();
+
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertEquals(4000, delegate.records.size());
+    }
+
+    /**
+     * Converts a string to a buffer.
+     * 
+     * @param value
+     *            the string
+     * @return the buffer
+     */
+    private static ByteBuffer toBuffer(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Waits a little.
+     */
+    private static void sleep() {
+
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+    }
+
+    /**
+     * Sink that holds the first record until it is released.
+     */
+    private static class BlockingSink implements RecordSink {
+
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final List<String> records = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public boolean isEnabled(Level level) {
+            return true;
+        }
+
+        @Override
+        public void write(Level level, ByteBuffer record) {
+            records.add(StandardCharsets.UTF_8.decode(record).toString());
+            started.countDown();
+
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+        }
+
+        @Override
+        public void write(Level level, String message, Throwable throwable) {
+            write(level, toBuffer(message));
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+
+    }
+
+}
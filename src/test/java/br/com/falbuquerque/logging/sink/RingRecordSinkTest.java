@@ -0,0 +1,79 @@
+package br.com.falbuquerque.logging.sink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.Level;
+import org.junit.Test;
+
+/**
+ * Tests the behavior of the {@link RingRecordSink} class.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class RingRecordSinkTest {
+
+    @Test
+    public void sinkShouldKeepOnlyTheMostRecentRecords() {
+        RingRecordSink sink = new RingRecordSink(2);
+
+        sink.write(Level.INFO, toBuffer("1"));
+        sink.write(Level.INFO, toBuffer("2"));
+        sink.write(Level.INFO, toBuffer("3"));
+
+        assertEquals(Arrays.asList("2", "3"), sink.getRecords());
+        assertEquals(3, sink.getWrittenCount());
+    }
+
+    @Test
+    public void sinkShouldRejectLevelsLessSpecificThanTheThreshold() {
+        RingRecordSink sink = new RingRecordSink(2, Level.WARN);
+
+        assertTrue(sink.isEnabled(Level.ERROR));
+        assertTrue(sink.isEnabled(Level.WARN));
+        assertFalse(sink.isEnabled(Level.INFO));
+    }
+
+    @Test
+    public void sinkShouldWriteTheStackTraceAfterTheMessage() {
+        RingRecordSink sink = new RingRecordSink(2);
+
+        sink.write(Level.ERROR, "message", new IllegalStateException("cause"));
+
+        String record = AbstractRecordSink.unescape(sink.getRecords().get(0));
+
+        assertTrue(record.startsWith("message" + System.lineSeparator() + IllegalStateException.class.getName()));
+        assertFalse(record.endsWith("\n"));
+    }
+
+    @Test
+    public void sinkShouldWriteTheStackTraceInASingleLine() {
+        RingRecordSink sink = new RingRecordSink(2);
+
+        sink.write(Level.ERROR, "message\\with\nlines", new IllegalStateException("cause"));
+
+        String record = sink.getRecords().get(0);
+
+        assertFalse(record.contains("\n"));
+        assertFalse(record.contains("\r"));
+        assertTrue(record.startsWith("message\\\\with\\nlines\\"));
+        assertTrue(AbstractRecordSink.unescape(record).startsWith("message\\with\nlines" + System.lineSeparator()));
+    }
+
+    /**
+     * Encodes a record.
+     * 
+     * @param record
+     *            the record
+     * @return the buffer with the encoded record
+     */
+    private ByteBuffer toBuffer(String record) {
+        return ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
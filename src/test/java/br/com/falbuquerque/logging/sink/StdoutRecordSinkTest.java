@@ -0,0 +1,24 @@
+package br.com.falbuquerque.logging.sink;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests the behavior of the {@link StdoutRecordSink} class.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class StdoutRecordSinkTest {
+
+    @Test
+    public void closingTheSinkShouldKeepTheStandardOutputOpen() throws IOException {
+        new StdoutRecordSink().close();
+
+        assertTrue(FileDescriptor.out.valid());
+    }
+
+}
@@ -0,0 +1,48 @@
+package br.com.falbuquerque.logging.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import br.com.falbuquerque.logging.request.Parameter;
+
+/**
+ * Tests the behavior of the {@link NameTable} class.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class NameTableTest {
+
+    @Test
+    public void equalNamesShouldShareTheSameInstance() {
+        NameTable table = new NameTable(10);
+        String name = table.intern(new String("userId"));
+
+        assertSame(name, table.intern(new String("userId")));
+        assertArrayEquals("\"userId\"".getBytes(StandardCharsets.UTF_8), table.encoded("userId"));
+    }
+
+    @Test
+    public void tableShouldStopGrowingWhenFull() {
+        NameTable table = new NameTable(1);
+        table.intern("first");
+        String second = new String("second");
+
+        assertSame(second, table.intern(second));
+        assertNull(table.encoded("second"));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void parameterNamesShouldBeKeptAsGiven() {
+        String name = new String("tenant");
+
+        assertSame(name, new Parameter(name, 1).getName());
+    }
+
+}
@@ -0,0 +1,71 @@
+package br.com.falbuquerque.logging.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+
+/**
+ * Tests the behavior of the {@link Utf8Encoder} class.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class Utf8EncoderTest {
+
+    private static final String MIXED_TEXT = "ascii, acentua\u00e7\u00e3o, \u20ac, \uD83D\uDE00 and \uD800 alone";
+
+    @Test
+    public void encoderShouldProduceTheSameBytesAsTheJdk() {
+        Utf8Encoder encoder = new Utf8Encoder(4);
+
+        encoder.writeUtf8(MIXED_TEXT);
+
+        assertEquals(decode(ByteBuffer.wrap(MIXED_TEXT.getBytes(StandardCharsets.UTF_8))), decode(encoder.toByteBuffer()));
+    }
+
+    @Test
+    public void encoderShouldEscapeJsonStringsAsGsonDoes() {
+        String text = MIXED_TEXT.replace("\uD800", "") + " \"quoted\" \\ <tag a='b'> & \t\n\r\b\f \u0001 \u2028";
+        Utf8Encoder encoder = new Utf8Encoder(4, true);
+
+        encoder.writeJsonString(text);
+
+        assertEquals(new Gson().toJson(text), decode(encoder.toByteBuffer()));
+    }
+
+    @Test
+    public void encoderShouldWriteNumbers() {
+        Utf8Encoder encoder = new Utf8Encoder(4);
+
+        encoder.writeLong(0).writeByte(',').writeLong(-42).writeByte(',').writeLong(Long.MAX_VALUE).writeByte(',')
+                .writeLong(Long.MIN_VALUE);
+
+        assertEquals("0,-42," + Long.MAX_VALUE + "," + Long.MIN_VALUE, decode(encoder.toByteBuffer()));
+    }
+
+    @Test
+    public void encoderShouldBeReusableAfterReset() {
+        Utf8Encoder encoder = new Utf8Encoder(4);
+
+        encoder.writeUtf8("first record");
+        encoder.reset().writeUtf8("second");
+
+        assertEquals("second", decode(encoder.toByteBuffer()));
+    }
+
+    /**
+     * Decodes the encoded bytes.
+     * 
+     * @param buffer
+     *            the encoded bytes
+     * @return the decoded string
+     */
+    private String decode(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+}
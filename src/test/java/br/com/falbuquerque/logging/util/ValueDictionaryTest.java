@@ -0,0 +1,49 @@
+package br.com.falbuquerque.logging.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Tests the behavior of the {@link ValueDictionary} class.
+ * 
+ * @author Felipe Albuquerque
+ */
+public class ValueDictionaryTest {
+
+    @Test
+    public void repeatedValuesShouldReuseTheirEncoding() {
+        ValueDictionary dictionary = new ValueDictionary(16, 32);
+        byte[] encoded = dictionary.encoded("tenant <1>");
+
+        assertArrayEquals("\"tenant \\u003c1\\u003e\"".getBytes(StandardCharsets.UTF_8), encoded);
+        assertSame(encoded, dictionary.encoded(new String("tenant <1>")));
+    }
+
+    @Test
+    public void longValuesShouldNotBeKept() {
+        assertNull(new ValueDictionary(16, 4).encoded("too long"));
+    }
+
+    @Test
+    public void leastRecentlyUsedValuesShouldBeEvicted() {
+        ValueDictionary dictionary = new ValueDictionary(256, 32);
+        byte[] kept = dictionary.encoded("kept");
+
+        for (int i = 0; i < 5000; i++) {
+            dictionary.encoded("value" + i);
+            dictionary.encoded("kept");
+        }
+
+        assertTrue(dictionary.size() <= 256);
+        assertSame(kept, dictionary.encoded("kept"));
+        assertNotSame(dictionary.encoded("value0"), dictionary.encoded("value1"));
+    }
+
+}